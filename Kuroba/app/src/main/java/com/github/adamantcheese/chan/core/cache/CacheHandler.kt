@@ -50,10 +50,10 @@ import java.util.concurrent.atomic.AtomicLong
  * 1. Time of creation of the cache file (in millis).
  * 2. A flag that indicates whether the download has been completed or not.
  *
- * We need creation time to not delete cache file for active downloads or for downloads that has
- * just been completed (otherwise the user may see a black screen instead of an image/webm). The
- * minimum cache file life time is 5 minutes. That means we won't delete any cache file (and their
- * meta files) for at least 5 minutes.
+ * The size and the last access time of every cache file are kept in a [CacheJournal], and the cache
+ * is trimmed from the least recently used file on. We don't delete cache files that were used in the
+ * last 5 minutes, because they may belong to active downloads or to downloads that have just been
+ * completed (otherwise the user may see a black screen instead of an image/webm).
  *
  * The cache size has been increased from 100MB up to 512MB. The reasoning for that is that there
  * are some boards on 4chan where a single file may take up to 5MB. Also, there are other chans
@@ -61,7 +61,9 @@ import java.util.concurrent.atomic.AtomicLong
  * The files are being located at the cache directory and can be removed at any time by the OS or
  * the user so it's not a big deal.
  *
- * CacheHandler now also caches file chunks that are used by [ConcurrentChunkedFileDownloader]
+ * CacheHandler now also keeps the state of the chunks that [ConcurrentChunkedFileDownloader] writes
+ * into cache files, and the files that videos are streamed into by [WebmStreamingDataSource] until
+ * they are complete.
  */
 class CacheHandler(
         private val fileManager: FileManager,
@@ -71,13 +73,14 @@ class CacheHandler(
         private val executor: ExecutorService
 ) {
     /**
-     * An estimation of the current size of the directory. Used to check if trim must be run
-     * because the folder exceeds the maximum size.
+     * The cache files in least recently used order, with their sizes. Used to check if trim must be
+     * run because the folder exceeds the maximum size, and to pick the files to delete.
      */
-    private val size = AtomicLong()
+    private val journal = File(cacheDirFile.getFullPath()).let { dir ->
+        CacheJournal(File(dir.parentFile, "${dir.name}.$JOURNAL_EXTENSION"), executor)
+    }
     private val lastTrimTime = AtomicLong(0)
     private val trimRunning = AtomicBoolean(false)
-    private val recalculationRunning = AtomicBoolean(false)
     private val trimChunksRunning = AtomicBoolean(false)
     private val fileCacheDiskSize = if (autoLoadThreadImages) {
         PREFETCH_CACHE_SIZE
@@ -87,7 +90,7 @@ class CacheHandler(
 
     init {
         createDirectories()
-        backgroundRecalculateSize()
+        executor.execute { loadJournal() }
         clearChunksCacheDir()
     }
 
@@ -95,7 +98,13 @@ class CacheHandler(
         if (trimChunksRunning.compareAndSet(false, true)) {
             executor.execute {
                 try {
-                    fileManager.deleteContent(chunksCacheDirFile)
+                    // The chunks states are kept, so downloads that were interrupted before the app
+                    // was closed continue where they stopped. They are deleted with their cache files.
+                    for (file in fileManager.listFiles(chunksCacheDirFile)) {
+                        if (!fileManager.getName(file).endsWith(".$CHUNKS_STATE_EXTENSION")) {
+                            fileManager.delete(file)
+                        }
+                    }
                 } finally {
                     trimChunksRunning.set(false)
                 }
@@ -142,6 +151,13 @@ class CacheHandler(
                 }
             }
 
+            val key = stringMD5hash(url.toString())
+            if (journal.contains(key)) {
+                journal.touch(key, System.currentTimeMillis())
+            } else {
+                journal.put(key, fileManager.getLength(cacheFile), System.currentTimeMillis())
+            }
+
             cacheFile
         } catch (error: IOException) {
             Logger.e(TAG, "Error while trying to get or create cache file", error)
@@ -150,26 +166,44 @@ class CacheHandler(
         }
     }
 
-    fun getChunkCacheFileOrNull(chunkStart: Long, chunkEnd: Long, url: HttpUrl): RawFile? {
-        val chunkCacheFile = getChunkCacheFileInternal(chunkStart, chunkEnd, url)
-
-        if (fileManager.exists(chunkCacheFile)) {
-            return chunkCacheFile
-        }
+    /**
+     * The file that keeps track of how much of every chunk of [url] was already written into its
+     * cache file, so that an interrupted download can continue where it stopped.
+     * */
+    fun getChunksStateFile(url: HttpUrl): File {
+        createDirectories()
 
-        return null
+        val fileName = formatChunksStateFileName(stringMD5hash(url.toString()))
+        return File(chunksCacheDirFile.getFullPath(), fileName)
     }
 
-    fun getOrCreateChunkCacheFile(chunkStart: Long, chunkEnd: Long, url: HttpUrl): RawFile? {
-        val chunkCacheFile = getChunkCacheFileInternal(chunkStart, chunkEnd, url)
+    /**
+     * Creates a new empty file in the chunks cache directory, to hold a video while it's being streamed
+     * into [cacheFile] by [WebmStreamingDataSource].
+     * */
+    @Throws(IOException::class)
+    fun createStreamCacheFile(cacheFile: RawFile): File {
+        val originalFileName = StringUtils.removeExtensionFromFileName(fileManager.getName(cacheFile))
 
-        if (fileManager.exists(chunkCacheFile)) {
-            if (!fileManager.delete(chunkCacheFile)) {
-                throw IOException("Couldn't delete old chunk cache file")
-            }
+        return File.createTempFile(
+                originalFileName + "_",
+                ".$STREAM_CACHE_EXTENSION",
+                File(chunksCacheDirFile.getFullPath())
+        )
+    }
+
+    /**
+     * Moves a completely streamed file over its cache file, without copying it, and marks the cache
+     * file as downloaded.
+     * */
+    fun promoteStreamCacheFile(streamFile: File, cacheFile: RawFile): Boolean {
+        if (!streamFile.renameTo(File(cacheFile.getFullPath()))) {
+            Logger.e(TAG, "Couldn't move stream file ${streamFile.absolutePath} " +
+                    "to cache file ${cacheFile.getFullPath()}")
+            return false
         }
 
-        return fileManager.create(chunkCacheFile) as RawFile?
+        return markFileDownloaded(cacheFile)
     }
 
     /**
@@ -259,6 +293,9 @@ class CacheHandler(
 
             if (!updateResult) {
                 deleteCacheFile(output)
+            } else {
+                val key = StringUtils.removeExtensionFromFileName(fileManager.getName(output))
+                journal.put(key, fileManager.getLength(output), System.currentTimeMillis())
             }
 
             updateResult
@@ -270,16 +307,16 @@ class CacheHandler(
     }
 
     fun getSize(): Long {
-        return size.get()
+        return journal.getSize()
     }
 
     /**
-     * When a file is downloaded we add it's size to the total cache directory size variable and
-     * check whether it exceeds the maximum cache size or not. If it does then the trim() operation
+     * When a file is downloaded (and marked as such, which adds it's size to the journal) we check
+     * whether the cache exceeds the maximum cache size or not. If it does then the trim() operation
      * is executed in a background thread.
      * */
-    fun fileWasAdded(fileLen: Long) {
-        val totalSize = size.addAndGet(fileLen)
+    fun fileWasAdded() {
+        val totalSize = journal.getSize()
         val trimTime = lastTrimTime.get()
         val now = System.currentTimeMillis()
 
@@ -288,8 +325,8 @@ class CacheHandler(
                 // If the user scrolls through high-res images very fast we may end up in a situation
                 // where the cache limit is hit but all the files in it were created earlier than
                 // MIN_CACHE_FILE_LIFE_TIME ago. So in such case trim() will be called on EVERY
-                // new opened image and since trim() is a pretty slow operation it may overload the
-                // disk IO. So to avoid it we run trim() only once per MIN_TRIM_INTERVAL.
+                // new opened image and since trim() deletes files it may overload the disk IO. So to
+                // avoid it we run trim() only once per MIN_TRIM_INTERVAL.
                 && now - trimTime > MIN_TRIM_INTERVAL
                 && trimRunning.compareAndSet(false, true)
         ) {
@@ -330,14 +367,14 @@ class CacheHandler(
                 if (!fileManager.delete(file)) {
                     Logger.d(
                             TAG,
-                            "Could not delete cache chunk file while clearing" +
+                            "Could not delete chunks cache file while clearing" +
                                     " cache ${fileManager.getName(file)}"
                     )
                 }
             }
         }
 
-        recalculateSize()
+        journal.clear()
     }
 
     /**
@@ -368,7 +405,6 @@ class CacheHandler(
 
         val cacheFile = cacheDirFile.clone(FileSegment(cacheFileName)) as RawFile
         val cacheMetaFile = cacheDirFile.clone(FileSegment(cacheMetaFileName)) as RawFile
-        val cacheFileSize = fileManager.getLength(cacheFile)
 
         val deleteCacheFileResult = fileManager.delete(cacheFile)
         if (!deleteCacheFileResult) {
@@ -380,18 +416,11 @@ class CacheHandler(
             Logger.e(TAG, "Failed to delete cache file meta = ${cacheMetaFile.getFullPath()}")
         }
 
-        if (deleteCacheFileResult && deleteCacheFileMetaResult) {
-            val fileSize = if (cacheFileSize < 0) {
-                0
-            } else {
-                cacheFileSize
-            }
-
-            size.getAndAdd(-fileSize)
-            if (size.get() < 0L) {
-                size.set(0L)
-            }
+        // The state of its chunks is useless without the cache file
+        File(chunksCacheDirFile.getFullPath(), formatChunksStateFileName(originalFileName)).delete()
+        journal.remove(originalFileName)
 
+        if (deleteCacheFileResult && deleteCacheFileMetaResult) {
             Logger.d(TAG, "Deleted $cacheFileName and it's meta $cacheMetaFileName")
             return true
         }
@@ -577,13 +606,6 @@ class CacheHandler(
         return createdFile as RawFile
     }
 
-    private fun getChunkCacheFileInternal(chunkStart: Long, chunkEnd: Long, url: HttpUrl): RawFile {
-        createDirectories()
-
-        val fileName = formatChunkCacheFileName(chunkStart, chunkEnd, stringMD5hash(url.toString()))
-        return chunksCacheDirFile.clone(FileSegment(fileName)) as RawFile
-    }
-
     internal fun getCacheFileMetaInternal(url: HttpUrl): RawFile {
         createDirectories()
 
@@ -592,22 +614,6 @@ class CacheHandler(
         return cacheDirFile.clone(FileSegment(fileName)) as RawFile
     }
 
-    private fun formatChunkCacheFileName(
-            chunkStart: Long,
-            chunkEnd: Long,
-            originalFileName: String
-    ): String {
-        return String.format(
-                Locale.ENGLISH,
-                CHUNK_CACHE_FILE_NAME_FORMAT,
-                originalFileName,
-                chunkStart,
-                chunkEnd,
-                // AbstractFile expects all file names to have extensions
-                CHUNK_CACHE_EXTENSION
-        )
-    }
-
     private fun formatCacheFileName(originalFileName: String): String {
         return "$originalFileName.$CACHE_EXTENSION"
     }
@@ -616,6 +622,10 @@ class CacheHandler(
         return "$originalFileName.$CACHE_META_EXTENSION"
     }
 
+    private fun formatChunksStateFileName(originalFileName: String): String {
+        return "$originalFileName.$CHUNKS_STATE_EXTENSION"
+    }
+
     private fun createDirectories() {
         if (!fileManager.exists(cacheDirFile) && fileManager.create(cacheDirFile) == null) {
             val rawFile = File(cacheDirFile.getFullPath())
@@ -655,223 +665,68 @@ class CacheHandler(
                 "internalCacheDir = ${internalCacheDir})"
     }
 
-    private fun backgroundRecalculateSize() {
-        if (recalculationRunning.get()) {
-            // Already running. Do not use compareAndSet() here!
-            return
-        }
-
-        executor.submit { recalculateSize() }
+    private fun loadJournal() {
+        journal.load { readCacheDirEntries() }
     }
 
-    private fun recalculateSize() {
-        var calculatedSize: Long = 0
-
-        if (!recalculationRunning.compareAndSet(false, true)) {
-            return
-        }
-
-        try {
-            val files = fileManager.listFiles(cacheDirFile)
+    /**
+     * Lists the cache files for a new journal, in the order they were last modified. Only done when
+     * there is no journal yet (or it couldn't be read), so it's fine that lastModified isn't exact
+     * on some phones.
+     * */
+    private fun readCacheDirEntries(): List<CacheJournal.Entry> {
+        BackgroundUtils.ensureBackgroundThread()
+        Logger.d(TAG, "Rebuilding the cache journal")
 
-            for (file in files) {
-                if (fileManager.getName(file).endsWith(CACHE_META_EXTENSION)) {
-                    continue
-                }
+        val entries = mutableListOf<CacheJournal.Entry>()
 
-                calculatedSize += fileManager.getLength(file)
+        for (file in fileManager.listFiles(cacheDirFile)) {
+            val fileName = fileManager.getName(file)
+            if (!fileName.endsWith(".$CACHE_EXTENSION")) {
+                continue
             }
 
-            size.set(calculatedSize)
-        } finally {
-            recalculationRunning.set(false)
+            entries += CacheJournal.Entry(
+                    StringUtils.removeExtensionFromFileName(fileName),
+                    fileManager.getLength(file),
+                    File(file.getFullPath()).lastModified()
+            )
         }
+
+        return entries.sortedBy { entry -> entry.lastAccess }
     }
 
     private fun trim() {
         BackgroundUtils.ensureBackgroundThread()
-
-        val directoryFiles = fileManager.listFiles(cacheDirFile)
-        // Don't try to trim empty directories or just two files in it.
-        // Two (not one) because for every cache file we now have a cache file meta with some
-        // additional info.
-        if (directoryFiles.size <= 2) {
-            return
-        }
+        loadJournal()
 
         Logger.d(TAG, "trim() started")
 
-        // LastModified doesn't work on some platforms/phones
-        // (https://issuetracker.google.com/issues/36930892)
-        // so we have to use a workaround. When creating a cache file for a download we also create a
-        // meta file where we will put some info about this download: the main file creation time and
-        // a flag that will tell us whether the download is complete or not. So now we need to parse
-        // the creation time from the meta file to sort cache files in ascending order (from the
-        // oldest cache file to the newest).
-
-        val sortedFiles = groupFilterAndSortFiles(directoryFiles)
-        var totalDeleted = 0L
-        var filesDeleted = 0
-        val now = System.currentTimeMillis()
-
-        val sizeToFree = size.get().let { currentCacheSize ->
-            if (currentCacheSize > DEFAULT_CACHE_SIZE) {
-                currentCacheSize / 2
-            } else {
-                DEFAULT_CACHE_SIZE / 2
-            }
+        val sizeBefore = journal.getSize()
+        val sizeToFree = if (sizeBefore > DEFAULT_CACHE_SIZE) {
+            sizeBefore / 2
+        } else {
+            DEFAULT_CACHE_SIZE / 2
         }
 
-        // We either delete all files we can in the cache directory or at most half of the cache
-        for (cacheFile in sortedFiles) {
-            val file = cacheFile.file
-            val createdOn = cacheFile.createdOn
-
-            if (now - createdOn < MIN_CACHE_FILE_LIFE_TIME) {
-                // Do not delete fresh files because it may happen right at the time user switched
-                // to it. Since the list is sorted there is no point to iterate it anymore since all
-                // the following files will be "too young" to be deleted so we just break out of
-                // the loop.
-                break
-            }
-
-            if (totalDeleted >= sizeToFree) {
-                break
-            }
-
-            val fileSize = fileManager.getLength(file)
+        // We either delete all files we can in the cache directory or at most half of the cache.
+        // Do not delete recently used files because the user may be looking at them right now.
+        val keys = journal.getLeastRecentlyUsed(
+                sizeToFree,
+                System.currentTimeMillis() - MIN_CACHE_FILE_LIFE_TIME
+        )
 
-            if (deleteCacheFile(file)) {
-                totalDeleted += fileSize
+        var filesDeleted = 0
+        for (key in keys) {
+            if (deleteCacheFile(key)) {
                 ++filesDeleted
             }
         }
 
-        recalculateSize()
+        val totalDeleted = sizeBefore - journal.getSize()
         Logger.d(TAG, "trim() ended, filesDeleted = $filesDeleted, space freed = $totalDeleted")
     }
 
-    private fun groupFilterAndSortFiles(directoryFiles: List<AbstractFile>): List<CacheFile> {
-        BackgroundUtils.ensureBackgroundThread()
-
-        val groupedCacheFiles = filterAndGroupCacheFilesWithMeta(directoryFiles)
-        val cacheFiles = ArrayList<CacheFile>(groupedCacheFiles.size)
-
-        for ((abstractFile, abstractFileMeta) in groupedCacheFiles) {
-            val cacheFileMeta = try {
-                readCacheFileMeta(abstractFileMeta)
-            } catch (error: IOException) {
-                null
-            }
-
-            if (cacheFileMeta == null) {
-                Logger.e(TAG, "Couldn't read cache meta for file = ${abstractFile.getFullPath()}")
-
-                if (!deleteCacheFile(abstractFile)) {
-                    Logger.e(
-                            TAG,
-                            "Couldn't delete cache file with meta for file = ${abstractFile.getFullPath()}"
-                    )
-                }
-                continue
-            }
-
-            cacheFiles.add(CacheFile(abstractFile, cacheFileMeta))
-        }
-
-        // Sort in ascending order, the oldest files are in the beginning of the list
-        Collections.sort(cacheFiles, CACHE_FILE_COMPARATOR)
-        return cacheFiles
-    }
-
-    private fun filterAndGroupCacheFilesWithMeta(
-            directoryFiles: List<AbstractFile>
-    ): List<GroupedCacheFile> {
-        BackgroundUtils.ensureBackgroundThread()
-
-        val grouped = directoryFiles
-                // TODO(FileCacheV2): this can be optimized.
-                //  Instead of calling getName in a loop for every file it is a better idea to
-                //  implement getNameBatched in FSAF and use it instead.
-                .map { file -> Pair(file, fileManager.getName(file)) }
-                .filter { (_, fileName) ->
-                    // Either cache file or cache meta
-                    fileName.endsWith(CACHE_EXTENSION) || fileName.endsWith(CACHE_META_EXTENSION)
-                }
-                .groupBy { (_, fileName) ->
-                    StringUtils.removeExtensionFromFileName(fileName)
-                }
-
-        val groupedCacheFileList = mutableListOf<GroupedCacheFile>()
-
-        for ((fileName, groupOfFiles) in grouped) {
-            // We have already filtered all non-cache related files so it's safe to delete them here.
-            // We delete files without where either the cache file or cache file meta (or both) are
-            // missing.
-            if (groupOfFiles.isEmpty()) {
-                deleteCacheFile(fileName)
-                continue
-            }
-
-            // We also handle a hypothetical case where there are more than one cache file/meta with
-            // the same name
-            if (groupOfFiles.size != 2) {
-                groupOfFiles.forEach { (file, _) -> deleteCacheFile(file) }
-                continue
-            }
-
-            val (file1, fileName1) = groupOfFiles[0]
-            val (file2, fileName2) = groupOfFiles[1]
-
-            val cacheFile = when {
-                fileName1.endsWith(CACHE_EXTENSION) -> file1
-                fileName2.endsWith(CACHE_EXTENSION) -> file2
-                else -> throw IllegalStateException(
-                        "Neither of grouped files is a cache file! " +
-                                "fileName1 = $fileName1, fileName2 = $fileName2"
-                )
-            }
-
-            val cacheFileMeta = when {
-                fileName1.endsWith(CACHE_META_EXTENSION) -> file1
-                fileName2.endsWith(CACHE_META_EXTENSION) -> file2
-                else -> throw IllegalStateException(
-                        "Neither of grouped files is a cache file meta! " +
-                                "fileName1 = $fileName1, fileName2 = $fileName2"
-                )
-            }
-
-            groupedCacheFileList += GroupedCacheFile(
-                    cacheFile as RawFile,
-                    cacheFileMeta as RawFile
-            )
-        }
-
-        return groupedCacheFileList
-    }
-
-    private data class GroupedCacheFile(
-            val cacheFile: RawFile,
-            val cacheFileMeta: RawFile
-    )
-
-    private class CacheFile(
-            val file: AbstractFile,
-            private val cacheFileMeta: CacheFileMeta
-    ) {
-
-        val createdOn: Long
-            get() = cacheFileMeta.createdOn
-
-        override fun toString(): String {
-            return "CacheFile{" +
-                    "file=${file.getFullPath()}" +
-                    ", cacheFileMeta=${cacheFileMeta}" +
-                    "}"
-        }
-
-    }
-
     internal class CacheFileMeta(
             val createdOn: Long,
             val isDownloaded: Boolean
@@ -911,17 +766,14 @@ class CacheHandler(
         // ever gets
         private const val MAX_CACHE_META_SIZE = 1024L
 
-        private const val CHUNK_CACHE_FILE_NAME_FORMAT = "%s_%d_%d.%s"
         private const val CACHE_FILE_META_CONTENT_FORMAT = "%d,%b"
         internal const val CACHE_EXTENSION = "cache"
         internal const val CACHE_META_EXTENSION = "cache_meta"
-        internal const val CHUNK_CACHE_EXTENSION = "chunk"
+        internal const val CHUNKS_STATE_EXTENSION = "chunks"
+        internal const val STREAM_CACHE_EXTENSION = "stream"
+        private const val JOURNAL_EXTENSION = "journal"
 
         private val MIN_CACHE_FILE_LIFE_TIME = MINUTES.toMillis(5)
         private val MIN_TRIM_INTERVAL = MINUTES.toMillis(1)
-
-        private val CACHE_FILE_COMPARATOR = Comparator<CacheFile> { cacheFile1, cacheFile2 ->
-            cacheFile1.createdOn.compareTo(cacheFile2.createdOn)
-        }
     }
 }
\ No newline at end of file
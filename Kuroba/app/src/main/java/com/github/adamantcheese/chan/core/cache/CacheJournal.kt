@@ -0,0 +1,285 @@
+package com.github.adamantcheese.chan.core.cache
+
+import com.github.adamantcheese.chan.utils.Logger
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileWriter
+import java.io.IOException
+import java.util.concurrent.ExecutorService
+
+/**
+ * An index of the files in the file cache, kept in memory in least recently used order, so the cache
+ * can be trimmed without listing its directory and reading the meta file of every cache file.
+ *
+ * Every change is appended as a line to a journal file, which is read back on startup:
+ * PUT <key> <size> <time> - a cache file was created or its size changed
+ * TOUCH <key> <time> - a cache file was used
+ * REMOVE <key> - a cache file was deleted
+ *
+ * Once most of the journal only repeats or cancels older lines, it is rewritten with just the current
+ * entries. When there is no journal, or it can't be read, it is rebuilt from the cache directory.
+ * */
+internal class CacheJournal(
+        private val journalFile: File,
+        private val executor: ExecutorService
+) {
+    // Guarded by this
+    private val entries = LinkedHashMap<String, Entry>(16, 0.75f, true)
+    private var writer: BufferedWriter? = null
+    private var totalSize = 0L
+    private var redundantLines = 0
+    private var loaded = false
+    private var compactionScheduled = false
+
+    /**
+     * Reads the journal, unless it's already read. Changes made before that are not lost, because
+     * they were appended to the journal that is being read.
+     *
+     * [rebuild] returns the entries of the cache directory, eldest first, for when there is no
+     * journal that could be read.
+     * */
+    @Synchronized
+    fun load(rebuild: () -> List<Entry>) {
+        if (loaded) {
+            return
+        }
+
+        loaded = true
+
+        if (!readJournal()) {
+            entries.clear()
+            for (entry in rebuild()) {
+                entries[entry.key] = entry
+            }
+
+            rewriteJournal()
+        }
+
+        totalSize = entries.values.map { entry -> entry.size }.sum()
+    }
+
+    @Synchronized
+    fun getSize(): Long {
+        return totalSize
+    }
+
+    @Synchronized
+    fun contains(key: String): Boolean {
+        return entries.containsKey(key)
+    }
+
+    /**
+     * Adds a new cache file or updates the size of an existing one, which also counts as using it
+     * */
+    @Synchronized
+    fun put(key: String, size: Long, time: Long) {
+        val previous = entries.put(key, Entry(key, size, time))
+        if (previous != null) {
+            totalSize -= previous.size
+            redundantLines++
+        }
+
+        totalSize += size
+        appendLine("$PUT $key $size $time")
+    }
+
+    /**
+     * Marks the cache file as the most recently used one
+     * */
+    @Synchronized
+    fun touch(key: String, time: Long) {
+        val entry = entries[key]
+                ?: return
+
+        entry.lastAccess = time
+        redundantLines++
+        appendLine("$TOUCH $key $time")
+    }
+
+    @Synchronized
+    fun remove(key: String) {
+        val entry = entries.remove(key)
+                ?: return
+
+        totalSize -= entry.size
+        // Both the entry's lines and this one aren't needed anymore
+        redundantLines += 2
+        appendLine("$REMOVE $key")
+    }
+
+    /**
+     * @return the keys of the least recently used cache files that together take at least
+     * [sizeToFree] bytes, eldest first. Files that were used after [accessedBefore] are never
+     * returned.
+     * */
+    @Synchronized
+    fun getLeastRecentlyUsed(sizeToFree: Long, accessedBefore: Long): List<String> {
+        val keys = mutableListOf<String>()
+        var size = 0L
+
+        for (entry in entries.values) {
+            // All the following entries were used even later
+            if (size >= sizeToFree || entry.lastAccess > accessedBefore) {
+                break
+            }
+
+            keys += entry.key
+            size += entry.size
+        }
+
+        return keys
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        totalSize = 0L
+        rewriteJournal()
+    }
+
+    // Must hold the lock
+    private fun readJournal(): Boolean {
+        if (!journalFile.exists()) {
+            return false
+        }
+
+        try {
+            journalFile.bufferedReader().useLines { lines ->
+                val iterator = lines.iterator()
+                if (!iterator.hasNext() || iterator.next() != HEADER) {
+                    Logger.e(TAG, "Unknown journal header, rebuilding the journal")
+                    return false
+                }
+
+                var lineCount = 0
+                for (line in iterator) {
+                    readLine(line)
+                    lineCount++
+                }
+
+                redundantLines = lineCount - entries.size
+            }
+
+            return true
+        } catch (error: IOException) {
+            Logger.e(TAG, "Couldn't read the journal, rebuilding it", error)
+            return false
+        } catch (error: RuntimeException) {
+            // Probably the last line was only partially written before the app was killed
+            Logger.e(TAG, "Bad journal line, rebuilding the journal", error)
+            return false
+        }
+    }
+
+    // Must hold the lock
+    private fun readLine(line: String) {
+        val parts = line.split(' ')
+
+        when (parts[0]) {
+            PUT -> {
+                require(parts.size == 4) { "Bad line: $line" }
+                entries[parts[1]] = Entry(parts[1], parts[2].toLong(), parts[3].toLong())
+            }
+            TOUCH -> {
+                require(parts.size == 3) { "Bad line: $line" }
+                entries[parts[1]]?.lastAccess = parts[2].toLong()
+            }
+            REMOVE -> {
+                require(parts.size == 2) { "Bad line: $line" }
+                entries.remove(parts[1])
+            }
+            else -> throw IllegalArgumentException("Bad line: $line")
+        }
+    }
+
+    // Must hold the lock
+    private fun appendLine(line: String) {
+        try {
+            val writer = writer
+                    ?: BufferedWriter(FileWriter(journalFile, true)).also { writer = it }
+
+            writer.write(line)
+            writer.newLine()
+            writer.flush()
+        } catch (error: IOException) {
+            Logger.e(TAG, "Couldn't append to the journal", error)
+            closeWriter()
+        }
+
+        scheduleCompactionIfNeeded()
+    }
+
+    // Must hold the lock
+    private fun scheduleCompactionIfNeeded() {
+        if (compactionScheduled
+                || redundantLines < MIN_REDUNDANT_LINES_TO_COMPACT
+                || redundantLines < entries.size) {
+            return
+        }
+
+        compactionScheduled = true
+        executor.execute {
+            synchronized(this) {
+                compactionScheduled = false
+                rewriteJournal()
+            }
+        }
+    }
+
+    /**
+     * Writes only the current entries, eldest first, into a new journal that replaces the old one
+     * at once. Must hold the lock.
+     * */
+    private fun rewriteJournal() {
+        closeWriter()
+
+        val tempFile = File(journalFile.path + TEMP_FILE_SUFFIX)
+        try {
+            BufferedWriter(FileWriter(tempFile)).use { writer ->
+                writer.write(HEADER)
+                writer.newLine()
+
+                for (entry in entries.values) {
+                    writer.write("$PUT ${entry.key} ${entry.size} ${entry.lastAccess}")
+                    writer.newLine()
+                }
+            }
+
+            if (!tempFile.renameTo(journalFile)) {
+                throw IOException("Couldn't rename ${tempFile.name} to ${journalFile.name}")
+            }
+
+            redundantLines = 0
+        } catch (error: IOException) {
+            Logger.e(TAG, "Couldn't rewrite the journal", error)
+            tempFile.delete()
+        }
+    }
+
+    private fun closeWriter() {
+        try {
+            writer?.close()
+        } catch (error: IOException) {
+            Logger.e(TAG, "Couldn't close the journal", error)
+        }
+
+        writer = null
+    }
+
+    class Entry(
+            val key: String,
+            val size: Long,
+            var lastAccess: Long
+    )
+
+    companion object {
+        private const val TAG = "CacheJournal"
+        private const val HEADER = "CacheJournal 1"
+        private const val TEMP_FILE_SUFFIX = ".tmp"
+        private const val MIN_REDUNDANT_LINES_TO_COMPACT = 2000
+
+        private const val PUT = "PUT"
+        private const val TOUCH = "TOUCH"
+        private const val REMOVE = "REMOVE"
+    }
+}
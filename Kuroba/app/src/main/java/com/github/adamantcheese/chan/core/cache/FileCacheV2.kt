@@ -28,6 +28,7 @@ import io.reactivex.processors.PublishProcessor
 import io.reactivex.schedulers.Schedulers
 import okhttp3.HttpUrl
 import okhttp3.OkHttpClient
+import java.io.File
 import java.io.IOException
 import java.util.*
 import java.util.concurrent.Executors
@@ -107,8 +108,6 @@ class FileCacheV2(
     )
 
     private val chunkReader = ChunkPersister(
-            fileManager,
-            cacheHandler,
             activeDownloads,
             verboseLogs
     )
@@ -586,7 +585,23 @@ class FileCacheV2(
                     activeDownloads.get(url)?.cancelableDownload?.cancel()
                 }
 
-                purgeOutput(request.url, request.output)
+                // Whatever was written before a network error is kept, so that the next download
+                // of the file only requests the rest of it
+                val canBeResumed = result is FileDownloadResult.UnknownException
+                        && result.error is IOException
+
+                if (!canBeResumed) {
+                    purgeOutput(request.url, request.output)
+                }
+
+                if (result is FileDownloadResult.Stopped) {
+                    // The streaming cache takes the file as the beginning of the video, so it must
+                    // not have any holes left by a previous download
+                    ChunkedOutputFile.truncateToPrefix(
+                            File(request.output.getFullPath()),
+                            cacheHandler.getChunksStateFile(url)
+                    )
+                }
             }
 
             val networkClass = getNetworkClassOrDefaultText(result)
@@ -634,7 +649,7 @@ class FileCacheV2(
                     )
 
                     // Trigger cache trimmer after a file has been successfully downloaded
-                    cacheHandler.fileWasAdded(total)
+                    cacheHandler.fileWasAdded()
 
                     resultHandler(url, request, true) {
                         onSuccess(result.file)
@@ -733,7 +748,6 @@ class FileCacheV2(
                             is FileCacheException.CouldNotGetInputStreamException,
                             is FileCacheException.CouldNotGetOutputStreamException,
                             is FileCacheException.OutputFileDoesNotExist,
-                            is FileCacheException.ChunkFileDoesNotExist,
                             is FileCacheException.HttpCodeException,
                             is FileCacheException.BadOutputFileException -> {
                                 if (result.fileCacheException is FileCacheException.HttpCodeException
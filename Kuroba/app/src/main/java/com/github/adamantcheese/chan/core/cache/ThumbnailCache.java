@@ -0,0 +1,300 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.core.cache;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.github.adamantcheese.chan.core.image.BitmapPool;
+import com.github.adamantcheese.chan.utils.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.HttpUrl;
+import okio.Okio;
+
+import static com.github.adamantcheese.chan.utils.JavaUtils.stringMD5hash;
+
+/**
+ * A two tier cache for small images like thumbnails and icons, keyed by their url.
+ * <p>
+ * The memory tier holds decoded bitmaps, bounded by their size in bytes and keyed by the size they were decoded for.
+ * The disk tier holds the downloaded (encoded) files, bounded by their total size and evicted least recently used
+ * first, so images that were already seen don't have to be downloaded again after the memory tier evicts them or the
+ * app restarts.
+ * <p>
+ * Bitmaps that are neither in the memory tier nor used anymore go to the {@link BitmapPool} to be decoded into again.
+ * Handing out a bitmap is counted with {@link #retain(Bitmap)}; only users that call {@link #release(Bitmap)} when they
+ * stop drawing it (like {@link com.github.adamantcheese.chan.ui.view.ThumbnailView}) ever let a bitmap be reused.
+ * <p>
+ * Disk tier calls must be made on a worker thread, like the ones of {@link #getDiskExecutor()}.
+ */
+public class ThumbnailCache {
+    private static final String TAG = "ThumbnailCache";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final BitmapPool bitmapPool;
+    // bitmaps that were handed out, to the number of users that didn't release them; guarded by itself
+    private final WeakHashMap<Bitmap, Integer> bitmapUsers = new WeakHashMap<>();
+    // the bitmaps in the memory tier; guarded by bitmapUsers
+    private final Set<Bitmap> memoryCacheBitmaps = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final File diskCacheDir;
+    private final long maxDiskCacheSize;
+    private final ExecutorService diskExecutor = Executors.newFixedThreadPool(2);
+    // file name to file size, in access order; guarded by itself
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskCacheSize = 0;
+    private boolean diskEntriesLoaded = false;
+
+    public ThumbnailCache(File diskCacheDir, long maxDiskCacheSize, int maxMemoryCacheSize) {
+        this.diskCacheDir = diskCacheDir;
+        this.maxDiskCacheSize = maxDiskCacheSize;
+        // the pool gets a quarter of the memory tier's size on top of it
+        this.bitmapPool = new BitmapPool(maxMemoryCacheSize / 4);
+        this.memoryCache = new LruCache<String, Bitmap>(maxMemoryCacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue == newValue) return;
+                synchronized (bitmapUsers) {
+                    memoryCacheBitmaps.remove(oldValue);
+                    recycleIfUnused(oldValue);
+                }
+            }
+        };
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    public ExecutorService getDiskExecutor() {
+        return diskExecutor;
+    }
+
+    /**
+     * @return the bitmap decoded for this url and size, already {@link #retain(Bitmap) retained} for the caller, or
+     * null if it's not in memory
+     */
+    @Nullable
+    @AnyThread
+    public Bitmap getFromMemory(HttpUrl url, int width, int height) {
+        return getFromMemory(url.toString(), width, height);
+    }
+
+    /**
+     * Like {@link #getFromMemory(HttpUrl, int, int)}, for images that don't come from a url, like the ones of saved
+     * threads; the key must not look like a url.
+     */
+    @Nullable
+    @AnyThread
+    public Bitmap getFromMemory(String key, int width, int height) {
+        // retained under the lock, so it can't be evicted and reused in between
+        synchronized (bitmapUsers) {
+            Bitmap bitmap = memoryCache.get(getMemoryKey(key, width, height));
+            if (bitmap != null) {
+                retain(bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    @AnyThread
+    public void putInMemory(HttpUrl url, int width, int height, Bitmap bitmap) {
+        putInMemory(url.toString(), width, height, bitmap);
+    }
+
+    @AnyThread
+    public void putInMemory(String key, int width, int height, Bitmap bitmap) {
+        synchronized (bitmapUsers) {
+            memoryCacheBitmaps.add(bitmap);
+        }
+        memoryCache.put(getMemoryKey(key, width, height), bitmap);
+    }
+
+    private static String getMemoryKey(String key, int width, int height) {
+        return width + "x" + height + " " + key;
+    }
+
+    /**
+     * Count a new user of the given bitmap, so it won't be reused while that user may still draw it.
+     */
+    @AnyThread
+    public void retain(Bitmap bitmap) {
+        synchronized (bitmapUsers) {
+            Integer users = bitmapUsers.get(bitmap);
+            bitmapUsers.put(bitmap, users == null ? 1 : users + 1);
+        }
+    }
+
+    /**
+     * A user of the given bitmap, that it got after a {@link #retain(Bitmap)}, stopped using it. Once it has no more
+     * users and isn't in the memory tier either, it is reused for decoding other images.
+     */
+    @AnyThread
+    public void release(Bitmap bitmap) {
+        synchronized (bitmapUsers) {
+            Integer users = bitmapUsers.get(bitmap);
+            if (users == null || users == 0) return;
+            bitmapUsers.put(bitmap, users - 1);
+
+            if (!memoryCacheBitmaps.contains(bitmap)) {
+                recycleIfUnused(bitmap);
+            }
+        }
+    }
+
+    // Must hold the bitmapUsers lock
+    private void recycleIfUnused(Bitmap bitmap) {
+        // only bitmaps whose users all released them; anything else may still be drawn somewhere
+        Integer users = bitmapUsers.get(bitmap);
+        if (users == null || users != 0) return;
+
+        bitmapUsers.remove(bitmap);
+        bitmapPool.put(bitmap);
+    }
+
+    /**
+     * @return the downloaded file for this url, or null if it's not on disk
+     */
+    @Nullable
+    @WorkerThread
+    public byte[] getFromDisk(HttpUrl url) {
+        String fileName = getFileName(url);
+        synchronized (diskEntries) {
+            loadDiskEntries();
+            if (diskEntries.get(fileName) == null) {
+                return null;
+            }
+        }
+
+        File file = new File(diskCacheDir, fileName);
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return Okio.buffer(Okio.source(inputStream)).readByteArray();
+        } catch (IOException e) {
+            Logger.e(TAG, "Error reading cached file " + file.getName(), e);
+            removeFromDisk(fileName);
+            return null;
+        }
+    }
+
+    @WorkerThread
+    public void putOnDisk(HttpUrl url, byte[] data) {
+        String fileName = getFileName(url);
+        File file = new File(diskCacheDir, fileName);
+        // written to a temporary file first, so a partially written file is never read
+        File tempFile = new File(diskCacheDir, fileName + TEMP_FILE_SUFFIX + Thread.currentThread().getId());
+        try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+            outputStream.write(data);
+        } catch (IOException e) {
+            Logger.e(TAG, "Error writing cached file " + file.getName(), e);
+            tempFile.delete();
+            return;
+        }
+
+        synchronized (diskEntries) {
+            loadDiskEntries();
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+
+            Long oldSize = diskEntries.put(fileName, (long) data.length);
+            diskCacheSize += data.length - (oldSize == null ? 0 : oldSize);
+            trimDisk();
+        }
+    }
+
+    private void removeFromDisk(String fileName) {
+        synchronized (diskEntries) {
+            Long size = diskEntries.remove(fileName);
+            if (size != null) {
+                diskCacheSize -= size;
+            }
+            new File(diskCacheDir, fileName).delete();
+        }
+    }
+
+    // Must hold the diskEntries lock
+    private void trimDisk() {
+        Iterator<Map.Entry<String, Long>> iterator = diskEntries.entrySet().iterator();
+        while (diskCacheSize > maxDiskCacheSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (new File(diskCacheDir, eldest.getKey()).delete()) {
+                diskCacheSize -= eldest.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    // Must hold the diskEntries lock. The files' last modified times stand in for their last access on startup.
+    private void loadDiskEntries() {
+        if (diskEntriesLoaded) return;
+        diskEntriesLoaded = true;
+
+        if (!diskCacheDir.exists() && !diskCacheDir.mkdirs()) {
+            Logger.e(TAG, "Could not create the thumbnail cache directory");
+            return;
+        }
+
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) return;
+
+        Arrays.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        for (File file : files) {
+            if (file.getName().contains(TEMP_FILE_SUFFIX)) {
+                // left over from a write that didn't finish
+                file.delete();
+                continue;
+            }
+
+            diskEntries.put(file.getName(), file.length());
+            diskCacheSize += file.length();
+        }
+
+        trimDisk();
+    }
+
+    private static String getFileName(HttpUrl url) {
+        return stringMD5hash(url.toString());
+    }
+}
@@ -97,20 +97,6 @@ internal open class ActiveDownloads {
         }
     }
 
-    fun getChunks(url: HttpUrl): Set<Chunk> {
-        return synchronized(activeDownloads) { activeDownloads[url]?.chunks?.toSet() ?: emptySet() }
-    }
-
-    fun clearChunks(url: HttpUrl) {
-        synchronized(activeDownloads) { activeDownloads[url]?.chunks?.clear() }
-    }
-
-    fun addChunks(url: HttpUrl, chunks: List<Chunk>) {
-        synchronized(activeDownloads) {
-            activeDownloads[url]?.chunks?.addAll(chunks)
-        }
-    }
-
     /**
      * Marks current CancelableDownload as canceled and throws CancellationException to terminate
      * the reactive stream
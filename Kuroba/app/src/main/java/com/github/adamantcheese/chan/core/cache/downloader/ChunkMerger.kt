@@ -2,10 +2,8 @@ package com.github.adamantcheese.chan.core.cache.downloader
 
 import com.github.adamantcheese.chan.core.cache.CacheHandler
 import com.github.adamantcheese.chan.core.site.SiteResolver
-import com.github.adamantcheese.chan.utils.JavaUtils.inputStreamMD5hash
 import com.github.adamantcheese.chan.utils.StringUtils.maskImageUrl
 import com.github.k1rakishou.fsaf.FileManager
-import com.github.k1rakishou.fsaf.file.AbstractFile
 import com.github.k1rakishou.fsaf.file.RawFile
 import io.reactivex.Flowable
 import okhttp3.HttpUrl
@@ -19,16 +17,19 @@ internal class ChunkMerger(
         private val verboseLogs: Boolean
 ) {
 
-    fun mergeChunksIntoCacheFile(
+    /**
+     * The chunks are already written into [output] by the time they all succeed, so all that is left
+     * is to check the hash of the file and to mark it as downloaded.
+     * */
+    fun finishCacheFile(
             url: HttpUrl,
-            chunkSuccessEvents: List<ChunkDownloadEvent.ChunkSuccess>,
+            outputFile: ChunkedOutputFile,
             output: RawFile,
             requestStartTime: Long
     ): Flowable<ChunkDownloadEvent> {
         return Flowable.fromCallable {
             if (verboseLogs) {
-                log(TAG, "mergeChunksIntoCacheFile called (${maskImageUrl(url)}), " +
-                        "chunks count = ${chunkSuccessEvents.size}")
+                log(TAG, "finishCacheFile called (${maskImageUrl(url)})")
             }
 
             val isRunning = activeDownloads.get(url)?.cancelableDownload?.isRunning() ?: false
@@ -36,53 +37,21 @@ internal class ChunkMerger(
                 activeDownloads.throwCancellationException(url)
             }
 
-            try {
-                // Must be sorted in ascending order!!!
-                val sortedChunkEvents = chunkSuccessEvents.sortedBy { event -> event.chunk.start }
-
-                if (!fileManager.exists(output)) {
-                    throw FileCacheException.OutputFileDoesNotExist(output.getFullPath())
-                }
-
-                fileManager.getOutputStream(output)?.use { outputStream ->
-                    // Iterate each chunk and write it to the output file
-                    for (chunkEvent in sortedChunkEvents) {
-                        val chunkFile = chunkEvent.chunkCacheFile
-
-                        if (!fileManager.exists(chunkFile)) {
-                            throw FileCacheException.ChunkFileDoesNotExist(chunkFile.getFullPath())
-                        }
-
-                        fileManager.getInputStream(chunkFile)?.use { inputStream ->
-                            inputStream.copyTo(outputStream)
-                        } ?: throw FileCacheException.CouldNotGetInputStreamException(
-                                chunkFile.getFullPath(),
-                                true,
-                                fileManager.isFile(chunkFile),
-                                fileManager.canRead(chunkFile)
-                        )
-                    }
-
-                    outputStream.flush()
-                } ?: throw FileCacheException.CouldNotGetOutputStreamException(
-                        output.getFullPath(),
-                        true,
-                        fileManager.isFile(output),
-                        fileManager.canRead(output)
-                )
-            } finally {
-                // In case of success or an error we want delete all chunk files
-                chunkSuccessEvents.forEach { event ->
-                    if (!fileManager.delete(event.chunkCacheFile)) {
-                        logError(TAG, "Couldn't delete chunk file: ${event.chunkCacheFile.getFullPath()}")
-                    }
-                }
+            if (!fileManager.exists(output)) {
+                throw FileCacheException.OutputFileDoesNotExist(output.getFullPath())
             }
 
-            if (canSiteFileHashBeTrusted(url)) {
-                val expectedFileHash = activeDownloads.get(url)?.extraInfo?.fileHash
-                if (expectedFileHash != null) {
-                    compareFileHashes(url, output, expectedFileHash)
+            val actualFileHash = outputFile.finish()
+            val expectedFileHash = getExpectedFileHash(url)
+
+            if (expectedFileHash != null && actualFileHash != null) {
+                if (!expectedFileHash.equals(actualFileHash, ignoreCase = true)) {
+                    throw FileCacheException.FileHashesAreDifferent(
+                            url,
+                            fileManager.getName(output),
+                            expectedFileHash,
+                            actualFileHash
+                    )
                 }
             }
 
@@ -94,6 +63,22 @@ internal class ChunkMerger(
         }
     }
 
+    /**
+     * Whether the md5 of the file has to be computed while it's being downloaded, to be checked
+     * once it's done
+     * */
+    fun shouldComputeFileHash(url: HttpUrl): Boolean {
+        return getExpectedFileHash(url) != null
+    }
+
+    private fun getExpectedFileHash(url: HttpUrl): String? {
+        if (!canSiteFileHashBeTrusted(url)) {
+            return null
+        }
+
+        return activeDownloads.get(url)?.extraInfo?.fileHash
+    }
+
     /**
      * Some sites may sometimes send us incorrect file md5 hashes, just skip the hash check for them
      * */
@@ -104,26 +89,6 @@ internal class ChunkMerger(
                 ?: false
     }
 
-    private fun compareFileHashes(url: HttpUrl, output: AbstractFile, expectedFileHash: String) {
-        fileManager.getInputStream(output)?.use { inputStream ->
-            val actualFileHash = inputStreamMD5hash(inputStream)
-
-            if (!expectedFileHash.equals(actualFileHash, ignoreCase = true)) {
-                throw FileCacheException.FileHashesAreDifferent(
-                        url,
-                        fileManager.getName(output),
-                        expectedFileHash,
-                        actualFileHash
-                )
-            }
-        } ?: throw FileCacheException.CouldNotGetInputStreamException(
-                output.getFullPath(),
-                true,
-                fileManager.isFile(output),
-                fileManager.canRead(output)
-        )
-    }
-
     private fun markFileAsDownloaded(url: HttpUrl) {
         val request = checkNotNull(activeDownloads.get(url)) {
             "Active downloads does not have url: $url even though it was just downloaded"
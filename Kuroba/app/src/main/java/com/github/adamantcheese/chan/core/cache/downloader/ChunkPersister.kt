@@ -1,31 +1,26 @@
 package com.github.adamantcheese.chan.core.cache.downloader
 
-import com.github.adamantcheese.chan.core.cache.CacheHandler
 import com.github.adamantcheese.chan.utils.BackgroundUtils
 import com.github.adamantcheese.chan.utils.StringUtils.maskImageUrl
 import com.github.adamantcheese.chan.utils.exhaustive
-import com.github.k1rakishou.fsaf.FileManager
-import com.github.k1rakishou.fsaf.file.RawFile
 import io.reactivex.BackpressureStrategy
 import io.reactivex.Flowable
 import io.reactivex.FlowableEmitter
 import okhttp3.HttpUrl
 import okhttp3.Response
 import okhttp3.ResponseBody
-import okhttp3.internal.closeQuietly
-import okio.*
+import okio.BufferedSource
 import java.io.IOException
 import java.util.concurrent.atomic.AtomicLong
 
 internal class ChunkPersister(
-        private val fileManager: FileManager,
-        private val cacheHandler: CacheHandler,
         private val activeDownloads: ActiveDownloads,
         private val verboseLogs: Boolean
 ) {
     fun storeChunkInFile(
             url: HttpUrl,
             chunkResponse: ChunkResponse,
+            outputFile: ChunkedOutputFile,
             totalDownloaded: AtomicLong,
             chunkIndex: Int,
             totalChunksCount: Int
@@ -57,50 +52,35 @@ internal class ChunkPersister(
                     throw FileCacheException.HttpCodeException(chunkResponse.response.code)
                 }
 
-                val chunkCacheFile = cacheHandler.getOrCreateChunkCacheFile(
-                        chunk.start,
-                        chunk.end,
-                        url
-                )
-                        ?: throw IOException("Couldn't create chunk cache file")
-
-                try {
-                    chunkResponse.response.useAsResponseBody { responseBody ->
-                        val chunkSize = responseBody.contentLength()
-                        if (totalChunksCount == 1) {
-                            // When downloading the whole file in a single chunk we can only know
-                            // for sure the whole size of the file at this point since we probably
-                            // didn't send the HEAD request
-                            activeDownloads.updateTotalLength(url, chunkSize)
-                        }
+                chunkResponse.response.useAsResponseBody { responseBody ->
+                    val chunkSize = responseBody.contentLength()
+                    if (totalChunksCount == 1) {
+                        // When downloading the whole file in a single chunk we can only know
+                        // for sure the whole size of the file at this point since we probably
+                        // didn't send the HEAD request
+                        activeDownloads.updateTotalLength(url, chunkSize)
+                    }
 
-                        responseBody.source().use { bufferedSource ->
-                            if (!bufferedSource.isOpen) {
-                                activeDownloads.throwCancellationException(url)
-                            }
-
-                            chunkCacheFile.useAsBufferedSink { bufferedSink ->
-                                readBodyLoop(
-                                        chunkSize,
-                                        url,
-                                        bufferedSource,
-                                        bufferedSink,
-                                        totalDownloaded,
-                                        serializedEmitter,
-                                        chunkIndex,
-                                        chunkCacheFile,
-                                        chunk
-                                )
-                            }
+                    responseBody.source().use { bufferedSource ->
+                        if (!bufferedSource.isOpen) {
+                            activeDownloads.throwCancellationException(url)
                         }
-                    }
 
-                    log(TAG, "storeChunkInFile(${chunkIndex}) success, url = ${maskImageUrl(url)}, " +
-                            "chunk ${chunk.start}..${chunk.end}")
-                } catch (error: Throwable) {
-                    deleteChunkFile(chunkCacheFile)
-                    throw error
+                        readBodyLoop(
+                                chunkSize,
+                                url,
+                                bufferedSource,
+                                outputFile,
+                                totalDownloaded,
+                                serializedEmitter,
+                                chunkIndex,
+                                chunk
+                        )
+                    }
                 }
+
+                log(TAG, "storeChunkInFile(${chunkIndex}) success, url = ${maskImageUrl(url)}, " +
+                        "chunk ${chunk.start}..${chunk.end}")
             } catch (error: Throwable) {
                 handleErrors(
                         url,
@@ -164,42 +144,19 @@ internal class ChunkPersister(
         }
     }
 
-    private fun RawFile.useAsBufferedSink(func: (BufferedSink) -> Unit) {
-        val outputStream = fileManager.getOutputStream(this)
-        if (outputStream == null) {
-            val fileExists = fileManager.exists(this)
-            val isFile = fileManager.exists(this)
-            val canWrite = fileManager.exists(this)
-
-            throw FileCacheException.CouldNotGetOutputStreamException(
-                    this.getFullPath(),
-                    fileExists,
-                    isFile,
-                    canWrite
-            )
-        }
-
-        outputStream.sink().use { sink ->
-            sink.buffer().use { bufferedSink ->
-                func(bufferedSink)
-            }
-        }
-    }
-
     private fun readBodyLoop(
             chunkSize: Long,
             url: HttpUrl,
             bufferedSource: BufferedSource,
-            bufferedSink: BufferedSink,
+            outputFile: ChunkedOutputFile,
             totalDownloaded: AtomicLong,
             serializedEmitter: FlowableEmitter<ChunkDownloadEvent>,
             chunkIndex: Int,
-            chunkCacheFile: RawFile,
             chunk: Chunk
     ) {
         var downloaded = 0L
         var notifyTotal = 0L
-        val buffer = Buffer()
+        val buffer = ByteArray(FileDownloader.BUFFER_SIZE.toInt())
 
         val notifySize = if (chunkSize <= 0) {
             FileDownloader.BUFFER_SIZE
@@ -207,72 +164,66 @@ internal class ChunkPersister(
             chunkSize / 100 // 1% increments
         }
 
-        try {
-            while (true) {
-                if (isRequestStoppedOrCanceled(url)) {
-                    activeDownloads.throwCancellationException(url)
-                }
+        while (true) {
+            if (isRequestStoppedOrCanceled(url)) {
+                activeDownloads.throwCancellationException(url)
+            }
 
-                val read = bufferedSource.read(buffer, FileDownloader.BUFFER_SIZE)
-                if (read == -1L) {
-                    break
-                }
+            val read = bufferedSource.read(buffer)
+            if (read == -1) {
+                break
+            }
 
-                downloaded += read
-                bufferedSink.write(buffer, read)
+            downloaded += read
+            // Written right into its place in the output file, so no chunks need to be merged later
+            outputFile.write(chunkIndex, buffer, read)
 
-                val total = totalDownloaded.addAndGet(read)
-                activeDownloads.updateDownloaded(url, chunkIndex, total)
+            val total = totalDownloaded.addAndGet(read.toLong())
+            activeDownloads.updateDownloaded(url, chunkIndex, total)
 
-                if (downloaded >= notifyTotal + notifySize) {
-                    notifyTotal = downloaded
+            if (downloaded >= notifyTotal + notifySize) {
+                notifyTotal = downloaded
 
-                    serializedEmitter.onNext(
-                            ChunkDownloadEvent.Progress(
-                                    chunkIndex,
-                                    downloaded,
-                                    chunkSize
-                            )
-                    )
-                }
-            }
-
-            bufferedSink.flush()
-
-            // So that we have 100% progress for every chunk
-            if (chunkSize >= 0) {
                 serializedEmitter.onNext(
                         ChunkDownloadEvent.Progress(
                                 chunkIndex,
-                                chunkSize,
+                                downloaded,
                                 chunkSize
                         )
                 )
-
-                if (downloaded != chunkSize) {
-                    logError(TAG, "downloaded (${downloaded}) != chunkSize (${chunkSize})")
-                    activeDownloads.throwCancellationException(url)
-                }
-            }
-
-            if (verboseLogs) {
-                log(TAG,
-                        "pipeChunk($chunkIndex) (${maskImageUrl(url)}) SUCCESS for chunk " +
-                                "${chunk.start}..${chunk.end}"
-                )
             }
+        }
 
+        // So that we have 100% progress for every chunk
+        if (chunkSize >= 0) {
             serializedEmitter.onNext(
-                    ChunkDownloadEvent.ChunkSuccess(
+                    ChunkDownloadEvent.Progress(
                             chunkIndex,
-                            chunkCacheFile,
-                            chunk
+                            chunkSize,
+                            chunkSize
                     )
             )
-            serializedEmitter.onComplete()
-        } finally {
-            buffer.closeQuietly()
+
+            if (downloaded != chunkSize) {
+                logError(TAG, "downloaded (${downloaded}) != chunkSize (${chunkSize})")
+                activeDownloads.throwCancellationException(url)
+            }
         }
+
+        if (verboseLogs) {
+            log(TAG,
+                    "pipeChunk($chunkIndex) (${maskImageUrl(url)}) SUCCESS for chunk " +
+                            "${chunk.start}..${chunk.end}"
+            )
+        }
+
+        serializedEmitter.onNext(
+                ChunkDownloadEvent.ChunkSuccess(
+                        chunkIndex,
+                        chunk
+                )
+        )
+        serializedEmitter.onComplete()
     }
 
     private fun isRequestStoppedOrCanceled(url: HttpUrl): Boolean {
@@ -284,12 +235,6 @@ internal class ChunkPersister(
         return !request.cancelableDownload.isRunning()
     }
 
-    private fun deleteChunkFile(chunkFile: RawFile) {
-        if (!fileManager.delete(chunkFile)) {
-            logError(TAG, "Couldn't delete chunk file: ${chunkFile.getFullPath()}")
-        }
-    }
-
     companion object {
         private const val TAG = "ChunkReader"
     }
@@ -0,0 +1,398 @@
+package com.github.adamantcheese.chan.core.cache.downloader
+
+import okio.ByteString.Companion.toByteString
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+
+/**
+ * The output file of a download. Every chunk is written straight into it at its own offset as it
+ * arrives, so there are no chunk files to merge once all of them are downloaded.
+ *
+ * How much of every chunk was written is saved into a small state file, so when a download fails or
+ * is interrupted the next one only requests the parts that are still missing. The md5 of the file is
+ * computed while it is being written, over the part of it that is contiguous from its start, so it
+ * doesn't have to be read again to check its hash.
+ * */
+internal class ChunkedOutputFile private constructor(
+        private val stateFile: File,
+        private val chunks: List<Chunk>,
+        private val totalLength: Long,
+        private val downloaded: LongArray,
+        private val digest: MessageDigest?,
+        private val file: RandomAccessFile
+) {
+    private val channel = file.channel
+    // The amount of bytes from the start of the file that went into the digest. Everything is
+    // guarded by this.
+    private var hashedUpTo = 0L
+    private var unsavedBytes = 0L
+    private var closed = false
+
+    @Synchronized
+    fun downloadedBytes(): Long {
+        return downloaded.sum()
+    }
+
+    /**
+     * The part of the chunk that still has to be downloaded, or null if it was already written
+     * completely
+     * */
+    @Synchronized
+    fun remainingChunk(chunkIndex: Int): Chunk? {
+        val chunk = chunks[chunkIndex]
+        if (chunk.isWholeFile()) {
+            // Without knowing the length of the file we can't request the rest of it, so it's
+            // downloaded from the start again
+            downloaded[chunkIndex] = 0L
+            return chunk
+        }
+
+        val written = downloaded[chunkIndex]
+        if (written >= chunk.chunkSize()) {
+            return null
+        }
+
+        return Chunk(chunk.start + written, chunk.realEnd)
+    }
+
+    /**
+     * Writes the next [count] bytes of the chunk right after the part of it that was already written.
+     * Positional writes to the page cache are cheap next to the network, so the chunks simply take
+     * turns.
+     * */
+    @Synchronized
+    @Throws(IOException::class)
+    fun write(chunkIndex: Int, bytes: ByteArray, count: Int) {
+        if (closed) {
+            throw IOException("The output file is already closed")
+        }
+
+        val position = chunks[chunkIndex].start + downloaded[chunkIndex]
+        val byteBuffer = ByteBuffer.wrap(bytes, 0, count)
+
+        var offset = position
+        while (byteBuffer.hasRemaining()) {
+            offset += channel.write(byteBuffer, offset)
+        }
+
+        downloaded[chunkIndex] += count
+
+        if (digest != null) {
+            if (position == hashedUpTo) {
+                digest.update(bytes, 0, count)
+                hashedUpTo += count
+            }
+
+            // The chunks after this one may have already been written past where it ends now
+            updateDigest()
+        }
+
+        unsavedBytes += count
+        if (unsavedBytes >= STATE_SAVE_INTERVAL) {
+            saveState()
+        }
+    }
+
+    /**
+     * Feeds the digest with the bytes that were written contiguously after [hashedUpTo] by the
+     * other chunks
+     * */
+    private fun updateDigest() {
+        val digest = digest
+                ?: return
+
+        val buffer = ByteBuffer.allocate(FileDownloader.BUFFER_SIZE.toInt())
+
+        while (true) {
+            val chunkIndex = chunks.indexOfFirst { chunk ->
+                hashedUpTo >= chunk.start && hashedUpTo < chunk.realEnd
+            }
+
+            if (chunkIndex < 0) {
+                return
+            }
+
+            val writtenUpTo = chunks[chunkIndex].start + downloaded[chunkIndex]
+            if (writtenUpTo <= hashedUpTo) {
+                return
+            }
+
+            while (hashedUpTo < writtenUpTo) {
+                buffer.clear()
+                buffer.limit(minOf(buffer.capacity().toLong(), writtenUpTo - hashedUpTo).toInt())
+
+                val read = channel.read(buffer, hashedUpTo)
+                if (read <= 0) {
+                    throw IOException("Couldn't read back the written bytes at $hashedUpTo")
+                }
+
+                digest.update(buffer.array(), 0, read)
+                hashedUpTo += read
+            }
+        }
+    }
+
+    /**
+     * Closes the completely written file and forgets its state.
+     *
+     * @return the md5 of the file as a hex string, or null if it wasn't computed
+     * */
+    @Synchronized
+    @Throws(IOException::class)
+    fun finish(): String? {
+        val incomplete = chunks.indices.firstOrNull { index ->
+            !chunks[index].isWholeFile() && downloaded[index] != chunks[index].chunkSize()
+        }
+
+        if (incomplete != null) {
+            throw IOException("Chunk ${chunks[incomplete]} was not downloaded completely, " +
+                    "downloaded = ${downloaded[incomplete]}")
+        }
+
+        if (totalLength < 0L) {
+            // The file may have been longer when it was downloaded before
+            file.setLength(downloaded[0])
+        }
+
+        updateDigest()
+        closeFile()
+        stateFile.delete()
+
+        return digest?.digest()?.toByteString()?.hex()
+    }
+
+    /**
+     * Closes the file, keeping its state so a next download can continue where this one stopped
+     * */
+    @Synchronized
+    fun close() {
+        if (closed) {
+            return
+        }
+
+        if (totalLength >= 0L) {
+            saveState()
+        }
+
+        closeFile()
+    }
+
+    /**
+     * Closes the file and forgets its state, keeping only the bytes that were written contiguously
+     * from its start. That way a stopped download can be used as the beginning of the file.
+     * */
+    @Synchronized
+    fun closeAndKeepPrefix() {
+        if (closed) {
+            return
+        }
+
+        val prefixLength = getPrefixLength(chunks, downloaded)
+
+        try {
+            file.setLength(prefixLength)
+        } catch (error: IOException) {
+            logError(TAG, "Couldn't truncate the output file to $prefixLength", error)
+        }
+
+        closeFile()
+        stateFile.delete()
+    }
+
+    /**
+     * Closes the file and forgets its state, for downloads whose output is going to be deleted
+     * */
+    @Synchronized
+    fun discard() {
+        if (closed) {
+            return
+        }
+
+        closeFile()
+        stateFile.delete()
+    }
+
+    private fun closeFile() {
+        closed = true
+
+        try {
+            file.close()
+        } catch (error: IOException) {
+            logError(TAG, "Couldn't close the output file", error)
+        }
+    }
+
+    /**
+     * Written into a temporary file that replaces the old state at once, so the state is never
+     * partially written
+     * */
+    private fun saveState() {
+        unsavedBytes = 0L
+
+        val tempFile = File(stateFile.path + TEMP_FILE_SUFFIX)
+        try {
+            tempFile.bufferedWriter().use { writer ->
+                writer.write(totalLength.toString())
+                writer.newLine()
+
+                for ((index, chunk) in chunks.withIndex()) {
+                    writer.write("${chunk.start},${chunk.realEnd},${downloaded[index]}")
+                    writer.newLine()
+                }
+            }
+
+            if (!tempFile.renameTo(stateFile)) {
+                throw IOException("Couldn't rename ${tempFile.name} to ${stateFile.name}")
+            }
+        } catch (error: IOException) {
+            logError(TAG, "Couldn't save the download state", error)
+            tempFile.delete()
+        }
+    }
+
+    companion object {
+        private const val TAG = "ChunkedOutputFile"
+        private const val TEMP_FILE_SUFFIX = ".tmp"
+        private const val STATE_SAVE_INTERVAL = 256L * 1024L
+
+        /**
+         * Opens the output file for the given chunks. If [stateFile] describes the same chunks of a
+         * file of the same length, the download continues from what was already written into
+         * [output]; otherwise it starts over.
+         *
+         * @param totalLength the length of the file, or a negative number if it's unknown, in which
+         * case it must be downloaded as a [Chunk.wholeFile]
+         * */
+        @Throws(IOException::class)
+        fun open(
+                output: File,
+                stateFile: File,
+                chunks: List<Chunk>,
+                totalLength: Long,
+                computeHash: Boolean
+        ): ChunkedOutputFile {
+            val file = RandomAccessFile(output, "rw")
+
+            try {
+                val state = readState(stateFile)
+                var downloaded = if (state != null
+                        && state.totalLength == totalLength
+                        && state.chunks == chunks
+                        && file.length() == totalLength) {
+                    state.downloaded
+                } else {
+                    null
+                }
+
+                if (downloaded == null) {
+                    downloaded = LongArray(chunks.size)
+                    stateFile.delete()
+
+                    file.setLength(0L)
+                    if (totalLength >= 0L) {
+                        // Preallocated, so the chunks can be written at any offset right away
+                        file.setLength(totalLength)
+                    }
+                }
+
+                val digest = if (computeHash) {
+                    MessageDigest.getInstance("MD5")
+                } else {
+                    null
+                }
+
+                val outputFile = ChunkedOutputFile(stateFile, chunks, totalLength, downloaded, digest, file)
+                if (digest != null) {
+                    synchronized(outputFile) { outputFile.updateDigest() }
+                }
+
+                return outputFile
+            } catch (error: Throwable) {
+                file.close()
+                throw error
+            }
+        }
+
+        /**
+         * Cuts a file whose download is not running anymore down to the bytes that were written
+         * contiguously from its start, and forgets its state. Files without a state are left as is.
+         * */
+        fun truncateToPrefix(output: File, stateFile: File) {
+            val state = readState(stateFile)
+                    ?: return
+
+            val prefixLength = getPrefixLength(state.chunks, state.downloaded)
+
+            try {
+                RandomAccessFile(output, "rw").use { file ->
+                    if (file.length() > prefixLength) {
+                        file.setLength(prefixLength)
+                    }
+                }
+            } catch (error: IOException) {
+                logError(TAG, "Couldn't truncate ${output.name} to $prefixLength", error)
+            }
+
+            stateFile.delete()
+        }
+
+        private fun getPrefixLength(chunks: List<Chunk>, downloaded: LongArray): Long {
+            var prefixLength = 0L
+
+            for ((index, chunk) in chunks.withIndex()) {
+                prefixLength = chunk.start + downloaded[index]
+
+                if (chunk.isWholeFile() || downloaded[index] < chunk.chunkSize()) {
+                    break
+                }
+            }
+
+            return prefixLength
+        }
+
+        /**
+         * @return the saved state, or null if it's missing or broken
+         * */
+        private fun readState(stateFile: File): State? {
+            if (!stateFile.exists()) {
+                return null
+            }
+
+            try {
+                val lines = stateFile.readLines()
+                if (lines.size < 2) {
+                    return null
+                }
+
+                val chunks = ArrayList<Chunk>(lines.size - 1)
+                val downloaded = LongArray(lines.size - 1)
+
+                for (index in 1 until lines.size) {
+                    val (start, realEnd, written) = lines[index].split(',').map { it.toLong() }
+                    val chunk = Chunk(start, realEnd)
+
+                    if (written !in 0..chunk.chunkSize()) {
+                        return null
+                    }
+
+                    chunks += chunk
+                    downloaded[index - 1] = written
+                }
+
+                return State(lines[0].toLong(), chunks, downloaded)
+            } catch (error: IOException) {
+                logError(TAG, "Couldn't read the download state", error)
+                return null
+            } catch (error: RuntimeException) {
+                // Either a bad number or a line with less than three of them
+                logError(TAG, "Bad download state", error)
+                return null
+            }
+        }
+    }
+
+    private class State(val totalLength: Long, val chunks: List<Chunk>, val downloaded: LongArray)
+}
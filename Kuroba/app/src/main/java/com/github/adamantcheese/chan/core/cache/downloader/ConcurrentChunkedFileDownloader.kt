@@ -4,13 +4,14 @@ import com.github.adamantcheese.chan.core.cache.CacheHandler
 import com.github.adamantcheese.chan.core.cache.FileCacheV2
 import com.github.adamantcheese.chan.utils.BackgroundUtils
 import com.github.adamantcheese.chan.utils.StringUtils.maskImageUrl
+import com.github.adamantcheese.chan.utils.exhaustive
 import com.github.k1rakishou.fsaf.FileManager
 import com.github.k1rakishou.fsaf.file.RawFile
 import io.reactivex.Flowable
 import io.reactivex.Scheduler
 import okhttp3.HttpUrl
+import java.io.File
 import java.io.IOException
-import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicLong
 import javax.inject.Inject
 
@@ -68,57 +69,71 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
 
         return Flowable.concat(
                 Flowable.just(FileDownloadResult.Start(chunksCount)),
-                Flowable.defer {
-                            return@defer downloadInternal(
+                Flowable.using<FileDownloadResult, ChunkedOutputFile>(
+                        { openOutputFile(url, output, chunks, partialContentCheckResult) },
+                        { outputFile ->
+                            downloadInternal(
                                     url,
                                     chunks,
                                     partialContentCheckResult,
-                                    output
+                                    output,
+                                    outputFile
                             )
-                        }
+                        },
+                        { outputFile -> closeOutputFile(url, outputFile) }
+                )
                         .doOnSubscribe { log(TAG, "Starting downloading (${maskImageUrl(url)})") }
-                        .doOnComplete {
-                            log(TAG, "Completed downloading (${maskImageUrl(url)})")
-                            removeChunksFromDisk(url)
-                        }
+                        .doOnComplete { log(TAG, "Completed downloading (${maskImageUrl(url)})") }
                         .doOnError { error ->
                             logErrorsAndExtractErrorMessage(
                                     TAG,
                                     "Error while trying to download",
                                     error
                             )
-
-                            removeChunksFromDisk(url)
                         }
                         .subscribeOn(workerScheduler)
         )
     }
 
-    private fun removeChunksFromDisk(url: HttpUrl) {
-        val chunks = activeDownloads.getChunks(url)
-        if (chunks.isEmpty()) {
-            return
+    private fun openOutputFile(
+            url: HttpUrl,
+            output: RawFile,
+            chunks: List<Chunk>,
+            partialContentCheckResult: PartialContentCheckResult
+    ): ChunkedOutputFile {
+        val totalLength = if (chunks.size == 1 && chunks.first().isWholeFile()) {
+            // The length may be unknown, and the whole file can't be resumed anyway
+            -1L
+        } else {
+            partialContentCheckResult.length
         }
 
-        for (chunk in chunks) {
-            val chunkFile = cacheHandler.getChunkCacheFileOrNull(chunk.start, chunk.end, url)
-                    ?: continue
-
-            if (fileManager.delete(chunkFile)) {
-                log(TAG, "Deleted chunk file ${chunkFile.getFullPath()}")
-            } else {
-                logError(TAG, "Couldn't delete chunk file ${chunkFile.getFullPath()}")
-            }
-        }
+        return ChunkedOutputFile.open(
+                File(output.getFullPath()),
+                cacheHandler.getChunksStateFile(url),
+                chunks,
+                totalLength,
+                chunkMerger.shouldComputeFileHash(url)
+        )
+    }
 
-        activeDownloads.clearChunks(url)
+    private fun closeOutputFile(url: HttpUrl, outputFile: ChunkedOutputFile) {
+        when (activeDownloads.getState(url)) {
+            // Whatever is at the start of the file is handed over to the webm streaming cache
+            DownloadState.Stopped -> outputFile.closeAndKeepPrefix()
+            // The output file is going to be deleted
+            DownloadState.Canceled -> outputFile.discard()
+            // Either it's finished already or the next download continues from here
+            DownloadState.Running -> outputFile.close()
+        }.exhaustive
     }
 
     private fun downloadInternal(
             url: HttpUrl,
             chunks: List<Chunk>,
             partialContentCheckResult: PartialContentCheckResult,
-            output: RawFile
+            output: RawFile,
+            outputFile: ChunkedOutputFile
     ): Flowable<FileDownloadResult> {
         if (verboseLogs) {
             log(TAG, "File (${maskImageUrl(url)}) was split into chunks: $chunks")
@@ -138,20 +153,23 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
         }
 
         val startTime = System.currentTimeMillis()
-        val totalDownloaded = AtomicLong(0L)
-        val chunkIndex = AtomicInteger(0)
+        val totalDownloaded = AtomicLong(outputFile.downloadedBytes())
 
-        activeDownloads.addChunks(url, chunks)
+        if (totalDownloaded.get() > 0L) {
+            log(TAG, "Resuming download (${maskImageUrl(url)}), " +
+                    "already downloaded = ${totalDownloaded.get()}")
+        }
 
-        val downloadedChunks = Flowable.fromIterable(chunks)
+        val downloadedChunks = Flowable.range(0, chunks.size)
                 .subscribeOn(workerScheduler)
                 .observeOn(workerScheduler)
-                .flatMap { chunk ->
+                .flatMap { chunkIndex ->
                     return@flatMap processChunks(
                             url,
+                            outputFile,
                             totalDownloaded,
-                            chunkIndex.getAndIncrement(),
-                            chunk,
+                            chunkIndex,
+                            chunks[chunkIndex],
                             chunks.size
                     )
                 }
@@ -212,10 +230,9 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
                         }
                     }
 
-                    @Suppress("UNCHECKED_CAST")
-                    return@flatMap chunkMerger.mergeChunksIntoCacheFile(
+                    return@flatMap chunkMerger.finishCacheFile(
                             url,
-                            chunkEvents as List<ChunkDownloadEvent.ChunkSuccess>,
+                            outputFile,
                             output,
                             startTime
                     )
@@ -253,6 +270,7 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
 
     private fun processChunks(
             url: HttpUrl,
+            outputFile: ChunkedOutputFile,
             totalDownloaded: AtomicLong,
             chunkIndex: Int,
             chunk: Chunk,
@@ -266,25 +284,30 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
 
         val isGalleryBatchDownload = activeDownloads.isGalleryBatchDownload(url)
 
-        // Download each chunk separately in parallel
-        return chunkDownloader.downloadChunk(url, chunk, totalChunksCount)
-                .subscribeOn(workerScheduler)
-                .observeOn(workerScheduler)
-                .map { response -> ChunkResponse(chunk, response) }
-                .flatMap { chunkResponse ->
-                    // Here is where the most fun is happening. At this point we have sent multiple
-                    // requests to the server and got responses. Now we need to read the bodies of
-                    // those responses each into it's own chunk file. Then, after we have read
-                    // them all, we need to sort them and write all chunks into the resulting
-                    // file - cache file. After that we need to do clean up: delete chunk files
-                    // (we also need to delete them in case of an error)
-                    return@flatMap chunkPersister.storeChunkInFile(
-                            url,
-                            chunkResponse,
-                            totalDownloaded,
-                            chunkIndex,
-                            totalChunksCount
-                    )
+        // Download each chunk separately in parallel. Deferred so that a retry only requests the
+        // part of the chunk that wasn't written yet
+        return Flowable.defer {
+                    val remainingChunk = outputFile.remainingChunk(chunkIndex)
+                            ?: return@defer Flowable.just<ChunkDownloadEvent>(
+                                    ChunkDownloadEvent.ChunkSuccess(chunkIndex, chunk)
+                            )
+
+                    return@defer chunkDownloader.downloadChunk(url, remainingChunk, totalChunksCount)
+                            .subscribeOn(workerScheduler)
+                            .observeOn(workerScheduler)
+                            .map { response -> ChunkResponse(remainingChunk, response) }
+                            .flatMap { chunkResponse ->
+                                // Each response body is written right into its place in the
+                                // output file, so once all of them are done the file is complete
+                                return@flatMap chunkPersister.storeChunkInFile(
+                                        url,
+                                        chunkResponse,
+                                        outputFile,
+                                        totalDownloaded,
+                                        chunkIndex,
+                                        totalChunksCount
+                                )
+                            }
                 }
                 // Retry on IO error mechanism. Apply it to each chunk individually
                 // instead of applying it to all chunks. Do not use it if the exception
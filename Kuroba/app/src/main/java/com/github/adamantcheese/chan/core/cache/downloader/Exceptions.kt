@@ -40,9 +40,6 @@ internal sealed class FileCacheException(message: String) : Exception(message) {
     internal class OutputFileDoesNotExist(val path: String)
         : FileCacheException("OutputFileDoesNotExist path = $path")
 
-    internal class ChunkFileDoesNotExist(val path: String)
-        : FileCacheException("ChunkFileDoesNotExist path = $path")
-
     internal class HttpCodeException(val statusCode: Int)
         : FileCacheException("HttpCodeException statusCode = $statusCode")
 
@@ -0,0 +1,87 @@
+package com.github.adamantcheese.chan.core.cache.stream;
+
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of disjoint inclusive ranges of positions, kept in a tree by their lower bound, so the range that contains a
+ * position is found in logarithmic time. Overlapping and adjacent ranges are merged when added.
+ */
+class RangeSet {
+    // lower bound to upper bound
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    void add(long lower, long upper) {
+        if (lower > upper) return;
+
+        // ranges like [0, 1] and [2, 3] are contiguous too
+        Map.Entry<Long, Long> before = ranges.floorEntry(lower);
+        if (before != null && before.getValue() + 1 >= lower) {
+            lower = before.getKey();
+            upper = Math.max(upper, before.getValue());
+        }
+
+        Map.Entry<Long, Long> after = ranges.ceilingEntry(lower);
+        while (after != null && after.getKey() <= upper + 1) {
+            upper = Math.max(upper, after.getValue());
+            ranges.remove(after.getKey());
+            after = ranges.higherEntry(after.getKey());
+        }
+
+        ranges.put(lower, upper);
+    }
+
+    /**
+     * @return the range that contains the given position, as its lower and upper bound, or null if there is none
+     */
+    @Nullable
+    Map.Entry<Long, Long> find(long position) {
+        Map.Entry<Long, Long> range = ranges.floorEntry(position);
+        if (range == null || range.getValue() < position) {
+            return null;
+        }
+
+        return range;
+    }
+
+    boolean contains(long lower, long upper) {
+        Map.Entry<Long, Long> range = find(lower);
+        return range != null && range.getValue() >= upper;
+    }
+
+    /**
+     * @return the parts of these ranges that are inside the given range
+     */
+    RangeSet intersect(long lower, long upper) {
+        RangeSet intersection = new RangeSet();
+        Long start = ranges.floorKey(lower);
+        for (Map.Entry<Long, Long> range : ranges.tailMap(start == null ? lower : start, true).entrySet()) {
+            if (range.getKey() > upper) break;
+
+            intersection.add(Math.max(lower, range.getKey()), Math.min(upper, range.getValue()));
+        }
+
+        return intersection;
+    }
+
+    /**
+     * @return the parts of the given range that are not in these ranges
+     */
+    RangeSet complement(long lower, long upper) {
+        RangeSet complement = new RangeSet();
+        long next = lower;
+        for (Map.Entry<Long, Long> range : intersect(lower, upper).ranges.entrySet()) {
+            complement.add(next, range.getKey() - 1);
+            next = range.getValue() + 1;
+        }
+        complement.add(next, upper);
+
+        return complement;
+    }
+
+    boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+}
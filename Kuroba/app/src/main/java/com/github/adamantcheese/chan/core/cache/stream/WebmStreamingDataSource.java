@@ -5,6 +5,7 @@ import android.util.Range;
 
 import androidx.annotation.Nullable;
 
+import com.github.adamantcheese.chan.core.cache.CacheHandler;
 import com.github.adamantcheese.chan.core.di.NetModule;
 import com.github.adamantcheese.chan.utils.BackgroundUtils;
 import com.github.adamantcheese.chan.utils.Logger;
@@ -18,33 +19,45 @@ import com.google.android.exoplayer2.upstream.HttpDataSource;
 
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+
+import okio.BufferedSink;
+import okio.Okio;
 
 /**
  * Original implementation by https://github.com/ekisu
  */
 public class WebmStreamingDataSource
         extends BaseDataSource {
+    private static final int FILL_CACHE_BUFFER_SIZE = 8192;
+
+    /**
+     * The parts of the video that were loaded so far, in a sparse file on the disk that is mapped into memory, so a
+     * video never takes up its whole size on the heap. The loaded and missing ranges are kept in {@link RangeSet}s.
+     */
     static class PartialFileCache {
         static class RegionStats {
-            final List<Range<Long>> cachedRanges;
-            final List<Range<Long>> missingRanges;
+            final RangeSet cachedRanges;
+            final RangeSet missingRanges;
 
-            RegionStats(List<Range<Long>> cachedRanges, List<Range<Long>> missingRanges) {
+            RegionStats(RangeSet cachedRanges, RangeSet missingRanges) {
                 this.cachedRanges = cachedRanges;
                 this.missingRanges = missingRanges;
             }
 
-            private Range<Long> findRange(List<Range<Long>> ranges, long position) {
-                for (Range<Long> r : ranges) {
-                    if (r.contains(position)) return r;
-                }
+            @Nullable
+            private Range<Long> findRange(RangeSet ranges, long position) {
+                Map.Entry<Long, Long> range = ranges.find(position);
+                if (range == null) return null;
 
-                return null;
+                return Range.create(range.getKey(), range.getValue());
             }
 
             Range<Long> findCachedRange(long position) {
@@ -56,112 +69,49 @@ public class WebmStreamingDataSource
             }
         }
 
-        private List<Range<Long>> cachedRanges = new ArrayList<>();
-        private byte[] cachedRangesData;
+        private RangeSet cachedRanges = new RangeSet();
+        private MappedByteBuffer cachedRangesData;
         private long pos = 0;
         private long fileLength;
         private boolean firedCacheComplete = false;
         private List<Runnable> listeners = new ArrayList<>();
 
-        PartialFileCache(long fileLength) {
+        /**
+         * @param filledLength the length of the start of the video that is already in the backing file
+         */
+        PartialFileCache(File backingFile, long fileLength, long filledLength)
+                throws IOException {
             this.fileLength = fileLength;
-            cachedRangesData = new byte[(int) this.fileLength];
-        }
-
-        boolean isCached(long position, long length) {
-            for (Range<Long> r : cachedRanges) {
-                if (r.contains(Range.create(position, position + length - 1))) {
-                    return true;
-                }
-            }
-
-            return false;
-        }
-
-        boolean isCached(long length) {
-            return isCached(pos, length);
-        }
-
-        List<Range<Long>> determineMissingRanges() {
-            List<Range<Long>> missing = new ArrayList<>();
-
-            long rangeStart = 0;
-            for (Range<Long> r : cachedRanges) {
-                if (rangeStart < r.getLower()) {
-                    missing.add(Range.create(rangeStart, r.getLower() - 1));
-                }
-                rangeStart = r.getUpper() + 1;
-            }
 
-            if (rangeStart < fileLength) {
-                missing.add(Range.create(rangeStart, fileLength - 1));
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(backingFile, "rw")) {
+                // extending the file doesn't allocate anything on the disk until it's written to
+                randomAccessFile.setLength(fileLength);
+                cachedRangesData = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileLength);
             }
 
-            return missing;
+            cachedRanges.add(0, Math.min(filledLength, fileLength) - 1);
         }
 
-        RegionStats getRegionStats(Range<Long> region) {
-            List<Range<Long>> cached = new ArrayList<>();
-            List<Range<Long>> missing = new ArrayList<>();
-
-            for (Range<Long> r : cachedRanges) {
-                try {
-                    cached.add(region.intersect(r));
-                } catch (IllegalArgumentException ignored) {} // Disjoint ranges.
-            }
-
-            for (Range<Long> r : determineMissingRanges()) {
-                try {
-                    missing.add(region.intersect(r));
-                } catch (IllegalArgumentException ignored) {} // Disjoint ranges.
-            }
-
-            return new RegionStats(cached, missing);
+        synchronized boolean isCached(long position, long length) {
+            return cachedRanges.contains(position, position + length - 1);
         }
 
-        private boolean rangesAreContiguous(Range<Long> left, Range<Long> right) {
-            // Ranges like [0, 1] and [2, 3] are contiguous too.
-            return left.getUpper() + 1 >= right.getLower();
-        }
-
-        private void joinRange(int i, int j) {
-            Range<Long> left = cachedRanges.get(i);
-            Range<Long> right = cachedRanges.get(j);
-
-            Range<Long> newRange = left.extend(right);
-
-            cachedRanges.set(i, newRange);
-            cachedRanges.remove(j);
-        }
-
-        private void joinRanges() {
-            for (int i = 0; i < cachedRanges.size(); i++) {
-                while (i < cachedRanges.size() - 1 && rangesAreContiguous(cachedRanges.get(i),
-                        cachedRanges.get(i + 1)
-                )) {
-                    joinRange(i, i + 1);
-                }
-            }
+        boolean isCached(long length) {
+            return isCached(pos, length);
         }
 
-        private int findRangeInsertPosition(long filePosition) {
-            int rangePosition = 0;
-            while (rangePosition < cachedRanges.size() && filePosition > cachedRanges.get(rangePosition).getLower()) {
-                rangePosition++;
-            }
-
-            return rangePosition;
+        synchronized RegionStats getRegionStats(Range<Long> region) {
+            return new RegionStats(cachedRanges.intersect(region.getLower(), region.getUpper()),
+                    cachedRanges.complement(region.getLower(), region.getUpper())
+            );
         }
 
-        void write(byte[] data, long offset, long length) {
-            int newRangePosition = findRangeInsertPosition(pos);
-            Range<Long> newRange = new Range<>(pos, pos + length - 1);
-            long destOffset = newRange.getLower();
+        synchronized void write(byte[] data, long offset, long length) {
+            if (length <= 0) return;
 
-            System.arraycopy(data, (int) offset, cachedRangesData, (int) destOffset, (int) length);
-
-            cachedRanges.add(newRangePosition, newRange);
-            joinRanges();
+            cachedRangesData.position((int) pos);
+            cachedRangesData.put(data, (int) offset, (int) length);
+            cachedRanges.add(pos, pos + length - 1);
 
             pos += length;
 
@@ -170,29 +120,34 @@ public class WebmStreamingDataSource
             }
         }
 
-        void read(byte[] buffer, long offset, long length) {
+        synchronized void read(byte[] buffer, long offset, long length) {
             if (!isCached(length)) {
                 throw new IllegalArgumentException("tried to read uncached data!");
             }
 
-            System.arraycopy(cachedRangesData, (int) pos, buffer, (int) offset, (int) length);
+            cachedRangesData.position((int) pos);
+            cachedRangesData.get(buffer, (int) offset, (int) length);
 
             pos += length;
         }
 
-        void seek(long pos) {
+        synchronized void seek(long pos) {
             this.pos = pos;
         }
 
-        void addListener(Runnable listener) {
+        synchronized void addListener(Runnable listener) {
             if (firedCacheComplete) {
                 listener.run();
             } else {
                 listeners.add(listener);
+                // the backing file may have been filled completely already
+                if (isCacheComplete()) {
+                    fireCacheComplete();
+                }
             }
         }
 
-        void fireCacheComplete() {
+        synchronized void fireCacheComplete() {
             firedCacheComplete = true;
             for (Runnable listener : listeners) {
                 listener.run();
@@ -200,24 +155,26 @@ public class WebmStreamingDataSource
             listeners.clear();
         }
 
-        public void clearListeners() {
+        public synchronized void clearListeners() {
             listeners.clear();
         }
 
-        boolean isCacheComplete() {
+        synchronized boolean isCacheComplete() {
             return isCached(0, fileLength);
         }
-
-        byte[] getCacheBytes() {
-            return cachedRangesData;
-        }
     }
 
     private FileManager fileManager;
+    private CacheHandler cacheHandler;
     private HttpDataSource dataSource;
     private PartialFileCache partialFileCache;
-    private byte[] dataToFillCache = null;
-    private int dataToFillCacheLength = 0;
+    // holds the video while it's streamed, then becomes the cache file
+    @Nullable
+    private File backingFile;
+    // the length of the start of the video that was written to the backing file before the cache was prepared
+    private long filledLength = 0;
+    private boolean promoted = false;
+    private boolean released = false;
     private PartialFileCache.RegionStats activeRegionStats;
     private Range<Long> httpActiveRange;
     private List<Callback> listeners = new ArrayList<>();
@@ -234,12 +191,15 @@ public class WebmStreamingDataSource
     private boolean prepared = false;
     private boolean opened = false;
 
-    public WebmStreamingDataSource(@Nullable Uri uri, RawFile file, FileManager fileManager) {
+    public WebmStreamingDataSource(
+            @Nullable Uri uri, RawFile file, FileManager fileManager, CacheHandler cacheHandler
+    ) {
         super(true);
 
         this.dataSource = new DefaultHttpDataSourceFactory(NetModule.USER_AGENT).createDataSource();
 
         this.fileManager = fileManager;
+        this.cacheHandler = cacheHandler;
         this.file = file;
         this.uri = uri;
     }
@@ -252,32 +212,44 @@ public class WebmStreamingDataSource
     }
 
     private void prepare()
-            throws HttpDataSource.HttpDataSourceException {
+            throws IOException {
         detectLength();
-        this.partialFileCache = new PartialFileCache(this.fileLength);
+        if (fileLength == C.LENGTH_UNSET || fileLength > Integer.MAX_VALUE) {
+            throw new IOException("Can't stream a file of length " + fileLength);
+        }
+
+        this.partialFileCache = new PartialFileCache(getBackingFile(), fileLength, filledLength);
         partialFileCache.addListener(this::cacheComplete);
 
-        if (dataToFillCache != null) {
-            partialFileCache.write(dataToFillCache, 0, dataToFillCacheLength);
-            partialFileCache.seek(0);
+        prepared = true;
+    }
 
-            dataToFillCache = null;
+    private synchronized File getBackingFile()
+            throws IOException {
+        if (backingFile == null) {
+            backingFile = cacheHandler.createStreamCacheFile(file);
         }
 
-        prepared = true;
+        return backingFile;
     }
 
     public void fillCache(long length, InputStream inputStream)
             throws IOException {
-        dataToFillCache = new byte[(int) length];
-        dataToFillCacheLength = inputStream.read(dataToFillCache);
-        // If it's null, this means we're not prepared yet (i.e. we don't know the real size
-        // of the video, which is required by partialFileCache). Just leave it here and wait
-        // until we're prepared.
-        if (partialFileCache != null) {
-            partialFileCache.write(dataToFillCache, 0, dataToFillCacheLength);
+        if (partialFileCache == null) {
+            // We're not prepared yet (i.e. we don't know the real size of the video, which is
+            // required by partialFileCache), so it's written to the start of the backing file
+            // directly, and marked as cached once we're prepared.
+            try (BufferedSink sink = Okio.buffer(Okio.sink(getBackingFile()))) {
+                filledLength = sink.writeAll(Okio.source(inputStream));
+            }
+        } else {
+            byte[] buffer = new byte[FILL_CACHE_BUFFER_SIZE];
+            int read;
+            partialFileCache.seek(0);
+            while ((read = inputStream.read(buffer)) != -1) {
+                partialFileCache.write(buffer, 0, read);
+            }
             partialFileCache.seek(0);
-            dataToFillCache = null;
         }
     }
 
@@ -368,18 +340,22 @@ public class WebmStreamingDataSource
         return readBytes;
     }
 
-    public void cacheComplete() {
+    public synchronized void cacheComplete() {
+        if (released) return;
+
         if (!fileManager.exists(file)) {
             throw new IllegalStateException("File does not exist!");
         }
 
         File innerFile = new File(file.getFullPath());
 
-        try (FileOutputStream fos = new FileOutputStream(innerFile)) {
-            fos.write(partialFileCache.getCacheBytes());
-        } catch (Exception e) {
-            Logger.e(this, "cacheComplete: caught exception", e);
-            return;
+        // The backing file holds the whole video now, so it becomes the cache file as it is
+        if (!promoted) {
+            if (backingFile == null || !cacheHandler.promoteStreamCacheFile(backingFile, file)) {
+                Logger.e(this, "cacheComplete: could not move the streamed file into the cache");
+                return;
+            }
+            promoted = true;
         }
 
         BackgroundUtils.runOnMainThread(() -> {
@@ -402,7 +378,20 @@ public class WebmStreamingDataSource
 
     public void clearListeners() {
         listeners.clear();
-        partialFileCache.clearListeners();
+        if (partialFileCache != null) {
+            partialFileCache.clearListeners();
+        }
+    }
+
+    /**
+     * Called once the player is done with this source. The backing file of a video that wasn't completely loaded is
+     * deleted, its memory mapping stays valid for any reads that are still in flight.
+     */
+    public synchronized void release() {
+        released = true;
+        if (!promoted && backingFile != null && !backingFile.delete()) {
+            Logger.e(this, "release: could not delete the backing file");
+        }
     }
 
     @Nullable
@@ -30,11 +30,11 @@ class WebmStreamingSource(
         val uri = Uri.parse(postImage.imageUrl.toString())
         val alreadyExists = cacheHandler.exists(postImage.imageUrl)
         val rawFile = cacheHandler.getOrCreateCacheFile(postImage.imageUrl)
-        val fileCacheSource = WebmStreamingDataSource(uri, rawFile, fileManager)
+        val fileCacheSource = WebmStreamingDataSource(uri, rawFile, fileManager, cacheHandler)
 
         fileCacheSource.addListener { file ->
             BackgroundUtils.ensureMainThread()
-            cacheHandler.fileWasAdded(file.length())
+            cacheHandler.fileWasAdded()
         }
 
         if (alreadyExists && rawFile != null && cacheHandler.isAlreadyDownloaded(rawFile)) {
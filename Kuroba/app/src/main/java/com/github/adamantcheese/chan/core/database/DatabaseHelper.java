@@ -69,7 +69,7 @@ public class DatabaseHelper
     private static final String TAG = "DatabaseHelper";
 
     private static final String DATABASE_NAME = "ChanDB";
-    private static final int DATABASE_VERSION = 46;
+    private static final int DATABASE_VERSION = 47;
 
     public Dao<Pin, Integer> pinDao;
     public Dao<Loadable, Integer> loadableDao;
@@ -444,6 +444,15 @@ public class DatabaseHelper
                 Logger.e(this, "Error upgrading to version 46");
             }
         }
+
+        if (oldVersion < 47) {
+            try {
+                postHideDao.executeRawNoArgs(
+                        "CREATE INDEX IF NOT EXISTS posthide_site_board_no_idx ON posthide(site, board, no);");
+            } catch (Exception e) {
+                Logger.e(this, "Error upgrading to version 47");
+            }
+        }
     }
 
     @Override
@@ -1,8 +1,7 @@
 package com.github.adamantcheese.chan.core.database;
 
 import android.annotation.SuppressLint;
-
-import androidx.annotation.Nullable;
+import android.util.SparseArray;
 
 import com.github.adamantcheese.chan.Chan;
 import com.github.adamantcheese.chan.core.model.Post;
@@ -28,6 +27,11 @@ import javax.inject.Inject;
 
 import static com.github.adamantcheese.chan.Chan.inject;
 
+/**
+ * Post hides are kept in memory per board, by post number, so filtering posts doesn't query the database. A board's
+ * hides are loaded the first time they are needed, and every change is written to the database and, once committed,
+ * to the loaded boards. Mutate the loaded boards only while holding {@link #hidesByBoard}.
+ */
 public class DatabaseHideManager {
     private static final long POST_HIDE_TRIM_TRIGGER = 25000;
     private static final long POST_HIDE_TRIM_COUNT = 5000;
@@ -35,6 +39,9 @@ public class DatabaseHideManager {
     @Inject
     DatabaseHelper helper;
 
+    // Guarded by itself
+    private final Map<String, SparseArray<PostHide>> hidesByBoard = new HashMap<>();
+
     public DatabaseHideManager() {
         inject(this);
     }
@@ -43,37 +50,111 @@ public class DatabaseHideManager {
         return () -> {
             Chan.instance(DatabaseManager.class)
                     .trimTable(helper.postHideDao, "posthide", POST_HIDE_TRIM_TRIGGER, POST_HIDE_TRIM_COUNT);
+            clearCache();
 
             return null;
         };
     }
 
     /**
-     * Searches for hidden posts in the PostHide table then checks whether there are posts with a reply
-     * to already hidden posts and if there are hides them as well.
+     * Forgets the loaded boards, for when the table was changed without going through this class.
      */
-    public List<Post> filterHiddenPosts(List<Post> posts, int siteId, String board) {
-        return Chan.instance(DatabaseManager.class).runTask(() -> {
-            List<Integer> postNoList = new ArrayList<>(posts.size());
-            for (Post post : posts) {
-                postNoList.add(post.no);
+    public void clearCache() {
+        synchronized (hidesByBoard) {
+            hidesByBoard.clear();
+        }
+    }
+
+    private static String boardKey(int siteId, String board) {
+        return siteId + "/" + board;
+    }
+
+    /**
+     * @return the hides of the board, loading them if needed. Changes to them are only visible while holding
+     * {@link #hidesByBoard}.
+     */
+    private SparseArray<PostHide> getBoardHides(int siteId, String board) {
+        synchronized (hidesByBoard) {
+            SparseArray<PostHide> boardHides = hidesByBoard.get(boardKey(siteId, board));
+            if (boardHides != null) {
+                return boardHides;
             }
+        }
+
+        // Loaded on the database thread, so no write can slip in between the query and the board being cached
+        return Chan.instance(DatabaseManager.class).runTask(loadBoardHides(siteId, board));
+    }
 
-            @SuppressLint("UseSparseArrays")
-            Map<Integer, Post> postsFastLookupMap = new LinkedHashMap<>();
-            for (Post post : posts) {
-                postsFastLookupMap.put(post.no, post);
+    private Callable<SparseArray<PostHide>> loadBoardHides(int siteId, String board) {
+        return () -> {
+            String key = boardKey(siteId, board);
+            synchronized (hidesByBoard) {
+                SparseArray<PostHide> boardHides = hidesByBoard.get(key);
+                if (boardHides != null) {
+                    return boardHides;
+                }
             }
 
-            applyFiltersToReplies(posts, postsFastLookupMap);
+            List<PostHide> hides = helper.postHideDao.queryBuilder()
+                    .where()
+                    .eq("site", siteId)
+                    .and()
+                    .eq("board", board)
+                    .query();
 
-            Map<Integer, PostHide> hiddenPostsLookupMap = getHiddenPosts(siteId, board, postNoList);
+            SparseArray<PostHide> boardHides = new SparseArray<>(hides.size());
+            for (PostHide hide : hides) {
+                boardHides.put(hide.no, hide);
+            }
 
-            // find replies to hidden posts and add them to the PostHide table in the database
-            // and to the hiddenPostsLookupMap
-            hideRepliesToAlreadyHiddenPosts(postsFastLookupMap, hiddenPostsLookupMap);
+            synchronized (hidesByBoard) {
+                hidesByBoard.put(key, boardHides);
+            }
 
-            List<Post> resultList = new ArrayList<>();
+            return boardHides;
+        };
+    }
+
+    private void putInCache(PostHide hide) {
+        synchronized (hidesByBoard) {
+            SparseArray<PostHide> boardHides = hidesByBoard.get(boardKey(hide.site, hide.board));
+            if (boardHides != null) {
+                boardHides.put(hide.no, hide);
+            }
+        }
+    }
+
+    private void removeFromCache(PostHide hide) {
+        synchronized (hidesByBoard) {
+            SparseArray<PostHide> boardHides = hidesByBoard.get(boardKey(hide.site, hide.board));
+            if (boardHides != null) {
+                boardHides.remove(hide.no);
+            }
+        }
+    }
+
+    /**
+     * Searches for hidden posts in the PostHide table then checks whether there are posts with a reply
+     * to already hidden posts and if there are hides them as well.
+     * Only the first call for a board reads the database; the hides of such replies are written in the background.
+     */
+    public List<Post> filterHiddenPosts(List<Post> posts, int siteId, String board) {
+        SparseArray<PostHide> boardHides = getBoardHides(siteId, board);
+
+        @SuppressLint("UseSparseArrays")
+        Map<Integer, Post> postsFastLookupMap = new LinkedHashMap<>();
+        for (Post post : posts) {
+            postsFastLookupMap.put(post.no, post);
+        }
+
+        applyFiltersToReplies(posts, postsFastLookupMap);
+
+        List<Post> resultList = new ArrayList<>();
+        List<PostHide> newHiddenPosts;
+
+        synchronized (hidesByBoard) {
+            // find replies to hidden posts and add them to the board's hides
+            newHiddenPosts = hideRepliesToAlreadyHiddenPosts(postsFastLookupMap, boardHides);
 
             // filter out hidden posts
             for (Post post : postsFastLookupMap.values()) {
@@ -82,7 +163,7 @@ public class DatabaseHideManager {
                     continue;
                 }
 
-                PostHide hiddenPost = findHiddenPost(hiddenPostsLookupMap, post, siteId, board);
+                PostHide hiddenPost = boardHides.get(post.no);
                 if (hiddenPost != null) {
                     if (hiddenPost.hide) {
                         // hide post
@@ -110,34 +191,49 @@ public class DatabaseHideManager {
                     resultList.add(post);
                 }
             }
-            //return posts that are NOT hidden
-            return resultList;
-        });
-    }
+        }
 
-    private void hideRepliesToAlreadyHiddenPosts(
-            Map<Integer, Post> postsFastLookupMap, Map<Integer, PostHide> hiddenPostsLookupMap
-    )
-            throws SQLException {
+        if (!newHiddenPosts.isEmpty()) {
+            Chan.instance(DatabaseManager.class).runTaskAsync(() -> {
+                for (PostHide postHide : newHiddenPosts) {
+                    helper.postHideDao.createIfNotExists(postHide);
+                }
+
+                return null;
+            });
+        }
 
+        //return posts that are NOT hidden
+        return resultList;
+    }
+
+    /**
+     * Must hold {@link #hidesByBoard}.
+     *
+     * @return the hides that were added to the board's hides, which still need to be written to the database
+     */
+    private List<PostHide> hideRepliesToAlreadyHiddenPosts(
+            Map<Integer, Post> postsFastLookupMap, SparseArray<PostHide> boardHides
+    ) {
         List<PostHide> newHiddenPosts = new ArrayList<>();
 
         for (Post post : postsFastLookupMap.values()) {
-            if (hiddenPostsLookupMap.containsKey(post.no)) {
+            if (boardHides.get(post.no) != null) {
                 continue;
             }
 
             for (Integer replyNo : post.repliesTo) {
-                if (hiddenPostsLookupMap.containsKey(replyNo)) {
-                    PostHide parentHiddenPost = hiddenPostsLookupMap.get(replyNo);
+                PostHide parentHiddenPost = boardHides.get(replyNo);
+                if (parentHiddenPost != null) {
                     Post parentPost = postsFastLookupMap.get(replyNo);
 
-                    if (!parentPost.filterReplies || !parentHiddenPost.hideRepliesToThisPost) {
+                    // the board's hides also contain posts that aren't in this list
+                    if (parentPost == null || !parentPost.filterReplies || !parentHiddenPost.hideRepliesToThisPost) {
                         continue;
                     }
 
                     PostHide newHiddenPost = PostHide.hidePost(post, false, parentHiddenPost.hide, true);
-                    hiddenPostsLookupMap.put(newHiddenPost.no, newHiddenPost);
+                    boardHides.put(newHiddenPost.no, newHiddenPost);
                     newHiddenPosts.add(newHiddenPost);
 
                     //post is already hidden no need to check other replies
@@ -146,13 +242,7 @@ public class DatabaseHideManager {
             }
         }
 
-        if (newHiddenPosts.isEmpty()) {
-            return;
-        }
-
-        for (PostHide postHide : newHiddenPosts) {
-            helper.postHideDao.createIfNotExists(postHide);
-        }
+        return newHiddenPosts;
     }
 
     private void applyFiltersToReplies(List<Post> posts, Map<Integer, Post> postsFastLookupMap) {
@@ -171,28 +261,6 @@ public class DatabaseHideManager {
         }
     }
 
-    private Map<Integer, PostHide> getHiddenPosts(int siteId, String board, List<Integer> postNoList)
-            throws SQLException {
-
-        Set<PostHide> hiddenInDatabase = new HashSet<>(helper.postHideDao.queryBuilder()
-                .where()
-                .in("no", postNoList)
-                .and()
-                .eq("site", siteId)
-                .and()
-                .eq("board", board)
-                .query());
-
-        @SuppressLint("UseSparseArrays")
-        Map<Integer, PostHide> hiddenMap = new HashMap<>();
-
-        for (PostHide postHide : hiddenInDatabase) {
-            hiddenMap.put(postHide.no, postHide);
-        }
-
-        return hiddenMap;
-    }
-
     /**
      * Takes filter parameters from the post and assigns them to all posts in the current reply chain.
      * If some post already has another filter's parameters - does not overwrite them.
@@ -293,20 +361,6 @@ public class DatabaseHideManager {
                 .build();
     }
 
-    @Nullable
-    private PostHide findHiddenPost(Map<Integer, PostHide> hiddenPostsLookupMap, Post post, int siteId, String board) {
-        if (hiddenPostsLookupMap.isEmpty()) {
-            return null;
-        }
-
-        PostHide maybeHiddenPost = hiddenPostsLookupMap.get(post.no);
-        if (maybeHiddenPost != null && maybeHiddenPost.site == siteId && maybeHiddenPost.board.equals(board)) {
-            return maybeHiddenPost;
-        }
-
-        return null;
-    }
-
     public Callable<Void> addThreadHide(PostHide hide) {
         return () -> {
             if (contains(hide)) {
@@ -314,6 +368,7 @@ public class DatabaseHideManager {
             }
 
             helper.postHideDao.createIfNotExists(hide);
+            Chan.instance(DatabaseManager.class).runAfterCommit(() -> putInCache(hide));
 
             return null;
         };
@@ -324,6 +379,7 @@ public class DatabaseHideManager {
             for (PostHide postHide : hideList) {
                 if (contains(postHide)) continue;
                 helper.postHideDao.createIfNotExists(postHide);
+                Chan.instance(DatabaseManager.class).runAfterCommit(() -> putInCache(postHide));
             }
 
             return null;
@@ -347,6 +403,7 @@ public class DatabaseHideManager {
                         .eq("board", postHide.board);
 
                 deleteBuilder.delete();
+                Chan.instance(DatabaseManager.class).runAfterCommit(() -> removeFromCache(postHide));
             }
 
             return null;
@@ -371,6 +428,7 @@ public class DatabaseHideManager {
     public Callable<Void> clearAllThreadHides() {
         return () -> {
             TableUtils.clearTable(helper.getConnectionSource(), PostHide.class);
+            clearCache();
 
             return null;
         };
@@ -386,6 +444,7 @@ public class DatabaseHideManager {
             DeleteBuilder<PostHide, Integer> builder = helper.postHideDao.deleteBuilder();
             builder.where().eq("site", site.id());
             builder.delete();
+            clearCache();
 
             return null;
         };
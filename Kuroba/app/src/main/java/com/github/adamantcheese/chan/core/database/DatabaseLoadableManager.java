@@ -28,6 +28,7 @@ import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.stmt.QueryBuilder;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
@@ -50,14 +51,17 @@ public class DatabaseLoadableManager {
     // This map converts a loadable without an ID to a loadable with an ID, which is obtained from the database
     // Loadables without an ID are gotten from Loadable factory methods and must be put into the database before having
     // an ID, which is used by other data items for indexing and whatnot
-    private Map<Loadable, Loadable> cachedLoadables = new HashMap<>();
+    // Guarded by itself, as it's used by both the database thread and the reader threads
+    private final Map<Loadable, Loadable> cachedLoadables = new HashMap<>();
 
     public DatabaseLoadableManager() {
         inject(this);
     }
 
     public int cacheSize() {
-        return cachedLoadables.size();
+        synchronized (cachedLoadables) {
+            return cachedLoadables.size();
+        }
     }
 
     /**
@@ -66,12 +70,23 @@ public class DatabaseLoadableManager {
      */
     public Callable<Void> flush() {
         return () -> {
-            for (Loadable loadable : cachedLoadables.values()) {
+            List<Loadable> loadables;
+            synchronized (cachedLoadables) {
+                loadables = new ArrayList<>(cachedLoadables.values());
+            }
+
+            List<Loadable> updated = new ArrayList<>();
+            for (Loadable loadable : loadables) {
                 if (loadable.dirty) {
-                    loadable.dirty = false;
                     helper.loadableDao.update(loadable);
+                    updated.add(loadable);
                 }
             }
+            instance(DatabaseManager.class).runAfterCommit(() -> {
+                for (Loadable loadable : updated) {
+                    loadable.dirty = false;
+                }
+            });
             // if we haven't purged loadables yet and we're on the first day of the month, then
             // purge loadables that haven'tbeen loaded for more than one month
             int dayOfMonth = Calendar.getInstance().get(Calendar.DAY_OF_MONTH);
@@ -106,7 +121,18 @@ public class DatabaseLoadableManager {
 
         // We only cache THREAD loadables in the db
         if (loadable.isThreadMode()) {
-            return Chan.instance(DatabaseManager.class).runTask(getLoadable(loadable));
+            // Most of the time the loadable already exists, so only a read is needed, which doesn't have to wait for
+            // the queued writes
+            DatabaseManager databaseManager = Chan.instance(DatabaseManager.class);
+            Loadable result = databaseManager.runReadTask(findLoadable(loadable));
+            if (result == null) {
+                result = databaseManager.runTask(getLoadable(loadable));
+            }
+
+            // The tasks cache what they found only once it's committed, and another thread may have cached the same
+            // loadable first; everyone has to share the one in the cache. Inside of a write it isn't cached yet.
+            Loadable cached = findLoadableInCache(loadable);
+            return cached != null ? cached : result;
         } else {
             return loadable;
         }
@@ -140,25 +166,41 @@ public class DatabaseLoadableManager {
         loadable.board = loadable.site.board(loadable.boardCode);
         loadable.lastLoadDate = GregorianCalendar.getInstance().getTime();
         loadable.dirty = true;
-        cachedLoadables.put(loadable, loadable);
+        synchronized (cachedLoadables) {
+            cachedLoadables.put(loadable, loadable);
+        }
         return loadable;
     }
 
     @Nullable
     private Loadable findLoadableInCache(Loadable l) {
-        for (Loadable key : cachedLoadables.values()) {
-            if (key.equals(l)) {
-                return key;
+        synchronized (cachedLoadables) {
+            for (Loadable key : cachedLoadables.values()) {
+                if (key.equals(l)) {
+                    return key;
+                }
             }
         }
         return null;
     }
 
-    private Callable<Loadable> getLoadable(final Loadable loadable) {
-        if (!loadable.isThreadMode()) {
-            return () -> loadable;
+    /**
+     * Caches the loadable, unless another thread cached one for the key first
+     */
+    private void putInCache(Loadable key, Loadable loadable) {
+        synchronized (cachedLoadables) {
+            if (findLoadableInCache(key) == null) {
+                cachedLoadables.put(key, loadable);
+            }
         }
+    }
 
+    /**
+     * Only reads, so it can be run on the reader threads.
+     *
+     * @return the loadable from the cache or the database, or null if it isn't in the database yet
+     */
+    private Callable<Loadable> findLoadable(final Loadable loadable) {
         return () -> {
             Loadable cachedLoadable = findLoadableInCache(loadable);
             if (cachedLoadable != null) {
@@ -189,22 +231,45 @@ public class DatabaseLoadableManager {
 
                 Loadable result = results.isEmpty() ? null : results.get(0);
                 if (result == null) {
-                    helper.loadableDao.create(loadable);
-                    Logger.d(DatabaseLoadableManager.this, "Created loadable " + loadable);
-                    result = loadable;
-                } else {
-                    Logger.d(DatabaseLoadableManager.this, "Loadable found in db");
-                    result.site = instance(SiteRepository.class).forId(result.siteId);
-                    result.board = result.site.board(result.boardCode);
+                    return null;
                 }
 
-                cachedLoadables.put(loadable, result);
+                Logger.d(DatabaseLoadableManager.this, "Loadable found in db");
+                result.site = instance(SiteRepository.class).forId(result.siteId);
+                result.board = result.site.board(result.boardCode);
+
+                // On the database thread it may have been created by a write in the same transaction, that can still
+                // be rolled back
+                Loadable found = result;
+                instance(DatabaseManager.class).runAfterCommit(() -> putInCache(loadable, found));
                 result.lastLoadDate = GregorianCalendar.getInstance().getTime();
                 return result;
             }
         };
     }
 
+    private Callable<Loadable> getLoadable(final Loadable loadable) {
+        if (!loadable.isThreadMode()) {
+            return () -> loadable;
+        }
+
+        return () -> {
+            // Looked up again, as it may have been created since it was looked up on a reader thread
+            Loadable existing = findLoadable(loadable).call();
+            if (existing != null) {
+                return existing;
+            }
+
+            helper.loadableDao.create(loadable);
+            Logger.d(DatabaseLoadableManager.this, "Created loadable " + loadable);
+
+            // Only cached once it's committed; until then a retry must not find it
+            instance(DatabaseManager.class).runAfterCommit(() -> putInCache(loadable, loadable));
+            loadable.lastLoadDate = GregorianCalendar.getInstance().getTime();
+            return loadable;
+        };
+    }
+
     public Callable<List<Loadable>> getLoadables(Site site) {
         return () -> {
             List<Loadable> loadables = helper.loadableDao.queryForEq("site", site.id());
@@ -239,11 +304,13 @@ public class DatabaseLoadableManager {
 
     public Callable<Void> updateLoadable(Loadable updatedLoadable) {
         return () -> {
-            for (Loadable key : cachedLoadables.keySet()) {
-                if (key.id == updatedLoadable.id) {
-                    cachedLoadables.remove(key);
-                    cachedLoadables.put(key, updatedLoadable);
-                    break;
+            synchronized (cachedLoadables) {
+                for (Loadable key : cachedLoadables.keySet()) {
+                    if (key.id == updatedLoadable.id) {
+                        cachedLoadables.remove(key);
+                        cachedLoadables.put(key, updatedLoadable);
+                        break;
+                    }
                 }
             }
 
@@ -16,8 +16,6 @@
  */
 package com.github.adamantcheese.chan.core.database;
 
-import androidx.annotation.NonNull;
-
 import com.github.adamantcheese.chan.Chan;
 import com.github.adamantcheese.chan.utils.BackgroundUtils;
 import com.github.adamantcheese.chan.utils.Logger;
@@ -28,13 +26,20 @@ import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
@@ -42,15 +47,37 @@ import static com.github.adamantcheese.chan.Chan.inject;
 
 /**
  * The central point for database related access.<br>
- * <b>All database queries are run on a single database thread</b>, therefore most functions return a
+ * <b>All database writes are run on a single database thread</b>, therefore most functions return a
  * {@link Callable} that needs to be queued on either {@link #runTaskAsync(Callable)},
  * {@link #runTaskAsync(Callable, TaskResult)} or {@link #runTask(Callable)}.<br>
  * You often want the sync flavour for queries that return data, as it waits for the task to be finished on the other thread.<br>
- * Use the async versions when you don't care when the query is done.
+ * Use the async versions when you don't care when the query is done.<br>
+ * Writes that are queued while the database thread is busy are run together in a single transaction, instead of one
+ * transaction each. Should any of them fail, they are all run again one by one, so only the failed one is lost. For
+ * that, a write must not change anything in memory that says it was written before it's committed; such changes go
+ * through {@link #runAfterCommit(Runnable)}.<br>
+ * Queries that only read can be run with {@link #runReadTask(Callable)} or
+ * {@link #runReadTaskAsync(Callable, TaskResult)} instead, on a small pool of reader threads. The database is in WAL
+ * mode, so they run alongside each other and alongside the writes, without waiting for the queued writes. That also
+ * means they don't see the writes that are still queued; wait for those with the sync flavour or the
+ * {@link TaskResult} if that matters.
  */
 public class DatabaseManager {
+    private static final int READER_THREAD_COUNT = 3;
+    private static final int MAX_WRITE_BATCH_SIZE = 64;
+    private static final long SLOW_MAIN_THREAD_CALL_MS = 16;
+
     private final ExecutorService backgroundExecutor;
-    private Thread executorThread;
+    private final ExecutorService readerExecutor;
+    private final Queue<WriteTask<?>> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Boolean> readerThread = new ThreadLocal<>();
+    private volatile Thread executorThread;
+    // the write whose transaction is running, only used on the database thread
+    private WriteTask<?> runningWrite;
+
+    private final CallMetrics readMetrics = new CallMetrics();
+    private final CallMetrics writeMetrics = new CallMetrics();
+    private final AtomicLong writeBatches = new AtomicLong();
 
     @Inject
     DatabaseHelper helper;
@@ -70,6 +97,7 @@ public class DatabaseManager {
         inject(this);
 
         backgroundExecutor = new ThreadPoolExecutor(1, 1, 1000L, TimeUnit.DAYS, new LinkedBlockingQueue<>());
+        readerExecutor = Executors.newFixedThreadPool(READER_THREAD_COUNT);
 
         databaseLoadableManager = new DatabaseLoadableManager();
         databasePinManager = new DatabasePinManager(databaseLoadableManager);
@@ -141,6 +169,7 @@ public class DatabaseManager {
      */
     public void reset() {
         helper.reset();
+        databaseHideManager.clearCache();
         initializeAndTrim();
     }
 
@@ -163,6 +192,8 @@ public class DatabaseManager {
             o += "Filter rows: " + helper.filterDao.countOf() + "\n";
             o += "Site rows: " + helper.siteDao.countOf() + "\n";
             o += "Local thread rows: " + helper.savedThreadDao.countOf() + "\n";
+            o += "Reads: " + readMetrics + "\n";
+            o += "Writes: " + writeMetrics + " in " + writeBatches.get() + " transactions\n";
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -202,8 +233,41 @@ public class DatabaseManager {
     }
 
     public <T> T runTask(final Callable<T> taskCallable) {
+        return waitFor(executeTask(taskCallable, null), "write");
+    }
+
+    /**
+     * Runs a query that doesn't write anything on one of the reader threads and waits for its result.
+     */
+    public <T> T runReadTask(final Callable<T> taskCallable) {
+        return waitFor(executeReadTask(taskCallable, null), "read");
+    }
+
+    /**
+     * Runs a query that doesn't write anything on one of the reader threads.
+     */
+    public <T> void runReadTaskAsync(final Callable<T> taskCallable, final TaskResult<T> taskResult) {
+        executeReadTask(taskCallable, taskResult);
+    }
+
+    /**
+     * Runs a change to in-memory state that depends on the current write only once it's committed. It's dropped if
+     * the transaction is rolled back, so the write can be run again as if it never ran. Outside of a write it's run
+     * at once.
+     */
+    public void runAfterCommit(Runnable runnable) {
+        if (Thread.currentThread() == executorThread && runningWrite != null) {
+            runningWrite.afterCommit.add(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    private <T> T waitFor(Future<T> future, String kind) {
+        long start = System.nanoTime();
+
         try {
-            return executeTask(taskCallable, null).get();
+            return future.get();
         } catch (InterruptedException e) {
             // Since we don't rethrow InterruptedException we need to at least restore the
             // "interrupted" flag.
@@ -211,72 +275,238 @@ public class DatabaseManager {
             throw new RuntimeException(e);
         } catch (ExecutionException e) {
             throw new RuntimeException(e);
+        } finally {
+            long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (took > SLOW_MAIN_THREAD_CALL_MS && BackgroundUtils.isMainThread()) {
+                Logger.w(this, "A database " + kind + " blocked the main thread for " + took + "ms");
+            }
         }
     }
 
     private <T> Future<T> executeTask(final Callable<T> taskCallable, final TaskResult<T> taskResult) {
+        WriteTask<T> writeTask = new WriteTask<>(taskCallable, taskResult);
+
         if (Thread.currentThread() == executorThread) {
-            DatabaseCallable<T> databaseCallable = new DatabaseCallable<>(taskCallable, taskResult);
-            T result = databaseCallable.call();
+            // Already inside of the current transaction
+            writeTask.runInline();
+        } else {
+            pendingWrites.add(writeTask);
+            backgroundExecutor.execute(this::runPendingWrites);
+        }
 
-            return new Future<T>() {
-                @Override
-                public boolean cancel(boolean mayInterruptIfRunning) {
-                    return false;
-                }
+        return writeTask;
+    }
 
-                @Override
-                public boolean isCancelled() {
-                    return false;
-                }
+    private <T> Future<T> executeReadTask(final Callable<T> taskCallable, final TaskResult<T> taskResult) {
+        ReadTask<T> readTask = new ReadTask<>(taskCallable, taskResult);
 
-                @Override
-                public boolean isDone() {
-                    return true;
-                }
+        if (Thread.currentThread() == executorThread || readerThread.get() != null) {
+            // Reads on the database thread must see its uncommitted writes, and the reader threads must not wait
+            // for each other
+            readTask.run();
+        } else {
+            readerExecutor.execute(readTask);
+        }
 
-                @Override
-                public T get() {
-                    return result;
-                }
+        return readTask;
+    }
+
+    /**
+     * Every queued write schedules one of these, so all the writes that were queued while the previous transaction
+     * ran are picked up together by the first one, and the rest find nothing to do.
+     */
+    private void runPendingWrites() {
+        executorThread = Thread.currentThread();
 
-                @Override
-                public T get(long timeout, @NonNull TimeUnit unit) {
-                    return result;
+        List<WriteTask<?>> batch = new ArrayList<>();
+        WriteTask<?> writeTask;
+        while (batch.size() < MAX_WRITE_BATCH_SIZE && (writeTask = pendingWrites.poll()) != null) {
+            batch.add(writeTask);
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        writeBatches.incrementAndGet();
+
+        if (batch.size() == 1) {
+            batch.get(0).runAlone();
+            return;
+        }
+
+        try {
+            TransactionManager.callInTransaction(helper.getConnectionSource(), () -> {
+                for (WriteTask<?> task : batch) {
+                    task.callInBatch();
                 }
-            };
-        } else {
-            return backgroundExecutor.submit(new DatabaseCallable<>(taskCallable, taskResult));
+
+                return null;
+            });
+        } catch (Exception e) {
+            Logger.w(this, "A batch of " + batch.size() + " writes failed, running them one by one", e);
+
+            writeBatches.addAndGet(batch.size() - 1);
+            for (WriteTask<?> task : batch) {
+                task.runAlone();
+            }
+
+            return;
+        }
+
+        for (WriteTask<?> task : batch) {
+            task.complete();
+        }
+    }
+
+    private class WriteTask<T>
+            extends FutureTask<T> {
+        private final Callable<T> taskCallable;
+        private final TaskResult<T> taskResult;
+        private final long queuedAt = System.nanoTime();
+        // see runAfterCommit()
+        private final List<Runnable> afterCommit = new ArrayList<>();
+        private long runTime;
+        private T result;
+
+        public WriteTask(Callable<T> taskCallable, TaskResult<T> taskResult) {
+            super(taskCallable);
+            this.taskCallable = taskCallable;
+            this.taskResult = taskResult;
+        }
+
+        /**
+         * Runs the task as a part of the current batch, whose transaction is rolled back if it throws. The result is
+         * only published by {@link #complete()}, once the transaction is committed.
+         */
+        private void callInBatch()
+                throws Exception {
+            long start = System.nanoTime();
+            runningWrite = this;
+            try {
+                result = taskCallable.call();
+            } finally {
+                runningWrite = null;
+            }
+            runTime = System.nanoTime() - start;
+        }
+
+        private void complete() {
+            for (Runnable runnable : afterCommit) {
+                runnable.run();
+            }
+            afterCommit.clear();
+
+            writeMetrics.record(System.nanoTime() - queuedAt - runTime, runTime);
+            onResult(result);
+        }
+
+        private void runAlone() {
+            // whatever a rolled back batch left to do after its commit
+            afterCommit.clear();
+            long start = System.nanoTime();
+
+            runningWrite = this;
+            try {
+                T result = TransactionManager.callInTransaction(helper.getConnectionSource(), taskCallable);
+                runningWrite = null;
+                runTime = System.nanoTime() - start;
+                complete(result);
+            } catch (Exception e) {
+                runningWrite = null;
+                afterCommit.clear();
+                Logger.e(DatabaseManager.this, "executeTask", e);
+                setException(e);
+            }
+        }
+
+        /**
+         * Fails the task that queued this one, like any other error in it.
+         */
+        private void runInline() {
+            try {
+                onResult(taskCallable.call());
+            } catch (Exception e) {
+                Logger.e(DatabaseManager.this, "executeTask", e);
+                setException(e);
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void complete(T result) {
+            this.result = result;
+            complete();
+        }
+
+        private void onResult(T result) {
+            set(result);
+            if (taskResult != null) {
+                BackgroundUtils.runOnMainThread(() -> taskResult.onComplete(result));
+            }
         }
     }
 
-    private class DatabaseCallable<T>
-            implements Callable<T> {
+    private class ReadTask<T>
+            extends FutureTask<T> {
         private final Callable<T> taskCallable;
         private final TaskResult<T> taskResult;
+        private final long queuedAt = System.nanoTime();
 
-        public DatabaseCallable(Callable<T> taskCallable, TaskResult<T> taskResult) {
+        public ReadTask(Callable<T> taskCallable, TaskResult<T> taskResult) {
+            super(taskCallable);
             this.taskCallable = taskCallable;
             this.taskResult = taskResult;
         }
 
         @Override
-        public T call() {
-            executorThread = Thread.currentThread();
+        public void run() {
+            readerThread.set(Boolean.TRUE);
+            long start = System.nanoTime();
 
             try {
-                final T result = TransactionManager.callInTransaction(helper.getConnectionSource(), taskCallable);
+                T result = taskCallable.call();
+                readMetrics.record(start - queuedAt, System.nanoTime() - start);
+
+                set(result);
                 if (taskResult != null) {
                     BackgroundUtils.runOnMainThread(() -> taskResult.onComplete(result));
                 }
-                return result;
             } catch (Exception e) {
-                Logger.e(this, "executeTask", e);
-                throw new RuntimeException(e);
+                Logger.e(DatabaseManager.this, "executeReadTask", e);
+                setException(e);
             }
         }
     }
 
+    /**
+     * How many calls there were and how long they waited in the queue and ran, for the developer screen.
+     */
+    private static class CallMetrics {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong totalWaitTime = new AtomicLong();
+        private final AtomicLong totalRunTime = new AtomicLong();
+        private final AtomicLong maxRunTime = new AtomicLong();
+
+        private void record(long waitTimeNanos, long runTimeNanos) {
+            calls.incrementAndGet();
+            totalWaitTime.addAndGet(waitTimeNanos);
+            totalRunTime.addAndGet(runTimeNanos);
+
+            long max;
+            do {
+                max = maxRunTime.get();
+            } while (runTimeNanos > max && !maxRunTime.compareAndSet(max, runTimeNanos));
+        }
+
+        @Override
+        public String toString() {
+            long count = Math.max(1, calls.get());
+            return calls.get() + ", avg wait " + TimeUnit.NANOSECONDS.toMillis(totalWaitTime.get() / count)
+                    + "ms, avg run " + TimeUnit.NANOSECONDS.toMillis(totalRunTime.get() / count) + "ms, max run "
+                    + TimeUnit.NANOSECONDS.toMillis(maxRunTime.get()) + "ms";
+        }
+    }
+
     public interface TaskResult<T> {
         void onComplete(T result);
     }
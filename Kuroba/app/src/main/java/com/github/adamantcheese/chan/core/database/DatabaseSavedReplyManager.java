@@ -16,6 +16,8 @@
  */
 package com.github.adamantcheese.chan.core.database;
 
+import android.util.SparseArray;
+
 import androidx.annotation.AnyThread;
 
 import com.github.adamantcheese.chan.core.model.orm.Board;
@@ -25,6 +27,8 @@ import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.table.TableUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,8 +50,10 @@ public class DatabaseSavedReplyManager {
     @Inject
     DatabaseHelper helper;
 
-    // map of post number to saved replies
-    private final Map<Integer, List<SavedReply>> savedRepliesByNo = new HashMap<>();
+    // An immutable snapshot of all saved replies, replaced as a whole on every change, so the parser threads can
+    // read it without locking. There are at most a few hundred saved replies, so copying them is cheap. Changes are
+    // only applied once their write is committed, see DatabaseManager.runAfterCommit().
+    private volatile SavedReplies savedReplies = SavedReplies.of(Collections.emptyList());
 
     public DatabaseSavedReplyManager() {
         inject(this);
@@ -56,7 +62,7 @@ public class DatabaseSavedReplyManager {
     /**
      * Check if the given board-no combination is in the database.<br>
      * This is unlike other methods in that it immediately returns the result instead of
-     * a Callable. This method is thread-safe and optimized.
+     * a Callable. This method is thread-safe and doesn't lock.
      *
      * @param board  board of the post
      * @param postNo post number
@@ -76,17 +82,8 @@ public class DatabaseSavedReplyManager {
             );
             final List<SavedReply> all = helper.savedDao.queryForAll();
 
-            synchronized (savedRepliesByNo) {
-                savedRepliesByNo.clear();
-                for (SavedReply savedReply : all) {
-                    List<SavedReply> list = savedRepliesByNo.get(savedReply.no);
-                    if (list == null) {
-                        list = new ArrayList<>(1);
-                        savedRepliesByNo.put(savedReply.no, list);
-                    }
-
-                    list.add(savedReply);
-                }
+            synchronized (this) {
+                savedReplies = SavedReplies.of(all);
             }
             return null;
         };
@@ -95,9 +92,11 @@ public class DatabaseSavedReplyManager {
     public Callable<Void> clearSavedReplies() {
         return () -> {
             TableUtils.clearTable(helper.getConnectionSource(), SavedReply.class);
-            synchronized (savedRepliesByNo) {
-                savedRepliesByNo.clear();
-            }
+            instance(DatabaseManager.class).runAfterCommit(() -> {
+                synchronized (this) {
+                    savedReplies = SavedReplies.of(Collections.emptyList());
+                }
+            });
             return null;
         };
     }
@@ -105,15 +104,13 @@ public class DatabaseSavedReplyManager {
     public Callable<SavedReply> saveReply(final SavedReply savedReply) {
         return () -> {
             helper.savedDao.create(savedReply);
-            synchronized (savedRepliesByNo) {
-                List<SavedReply> list = savedRepliesByNo.get(savedReply.no);
-                if (list == null) {
-                    list = new ArrayList<>(1);
-                    savedRepliesByNo.put(savedReply.no, list);
+            instance(DatabaseManager.class).runAfterCommit(() -> {
+                synchronized (this) {
+                    List<SavedReply> all = new ArrayList<>(savedReplies.all);
+                    all.add(savedReply);
+                    savedReplies = SavedReplies.of(all);
                 }
-
-                list.add(savedReply);
-            }
+            });
             return savedReply;
         };
     }
@@ -122,31 +119,20 @@ public class DatabaseSavedReplyManager {
         return () -> {
             helper.savedDao.create(savedReply);
             helper.savedDao.delete(savedReply);
-            synchronized (savedRepliesByNo) {
-                List<SavedReply> list = savedRepliesByNo.get(savedReply.no);
-                if (list == null) {
-                    list = new ArrayList<>(1);
-                    savedRepliesByNo.put(savedReply.no, list);
+            instance(DatabaseManager.class).runAfterCommit(() -> {
+                synchronized (this) {
+                    List<SavedReply> all = new ArrayList<>(savedReplies.all);
+                    all.remove(savedReply);
+                    savedReplies = SavedReplies.of(all);
                 }
-
-                list.remove(savedReply);
-            }
+            });
             return savedReply;
         };
     }
 
+    @AnyThread
     public SavedReply getSavedReply(Board board, int postNo) {
-        synchronized (savedRepliesByNo) {
-            if (savedRepliesByNo.containsKey(postNo)) {
-                List<SavedReply> items = savedRepliesByNo.get(postNo);
-                for (SavedReply item : items) {
-                    if (item.board.equals(board.code) && item.siteId == board.siteId) {
-                        return item;
-                    }
-                }
-            }
-            return null;
-        }
+        return savedReplies.get(board.siteId, board.code, postNo);
     }
 
     public Callable<Void> deleteSavedReplies(Site site) {
@@ -155,7 +141,97 @@ public class DatabaseSavedReplyManager {
             builder.where().eq("site", site.id());
             builder.delete();
 
+            instance(DatabaseManager.class).runAfterCommit(() -> {
+                synchronized (this) {
+                    List<SavedReply> all = new ArrayList<>();
+                    for (SavedReply savedReply : savedReplies.all) {
+                        if (savedReply.siteId != site.id()) {
+                            all.add(savedReply);
+                        }
+                    }
+                    savedReplies = SavedReplies.of(all);
+                }
+            });
+
             return null;
         };
     }
+
+    /**
+     * Never changed after it's built. The post numbers of every board are kept sorted in an int array, next to an
+     * array of their saved replies, so a lookup is a binary search that doesn't box anything.
+     */
+    private static final class SavedReplies {
+        private final List<SavedReply> all;
+        // site id to board code to the board's saved replies
+        private final SparseArray<Map<String, BoardReplies>> bySite;
+
+        private SavedReplies(List<SavedReply> all, SparseArray<Map<String, BoardReplies>> bySite) {
+            this.all = all;
+            this.bySite = bySite;
+        }
+
+        private static SavedReplies of(List<SavedReply> all) {
+            SparseArray<Map<String, List<SavedReply>>> grouped = new SparseArray<>();
+            for (SavedReply savedReply : all) {
+                Map<String, List<SavedReply>> boards = grouped.get(savedReply.siteId);
+                if (boards == null) {
+                    boards = new HashMap<>();
+                    grouped.put(savedReply.siteId, boards);
+                }
+
+                List<SavedReply> list = boards.get(savedReply.board);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    boards.put(savedReply.board, list);
+                }
+
+                list.add(savedReply);
+            }
+
+            SparseArray<Map<String, BoardReplies>> bySite = new SparseArray<>(grouped.size());
+            for (int i = 0; i < grouped.size(); i++) {
+                Map<String, BoardReplies> boards = new HashMap<>();
+                for (Map.Entry<String, List<SavedReply>> entry : grouped.valueAt(i).entrySet()) {
+                    boards.put(entry.getKey(), new BoardReplies(entry.getValue()));
+                }
+
+                bySite.put(grouped.keyAt(i), boards);
+            }
+
+            return new SavedReplies(Collections.unmodifiableList(new ArrayList<>(all)), bySite);
+        }
+
+        private SavedReply get(int siteId, String board, int no) {
+            Map<String, BoardReplies> boards = bySite.get(siteId);
+            if (boards == null) {
+                return null;
+            }
+
+            BoardReplies boardReplies = boards.get(board);
+            if (boardReplies == null) {
+                return null;
+            }
+
+            int index = Arrays.binarySearch(boardReplies.nos, no);
+            return index < 0 ? null : boardReplies.replies[index];
+        }
+    }
+
+    private static final class BoardReplies {
+        private final int[] nos;
+        private final SavedReply[] replies;
+
+        private BoardReplies(List<SavedReply> savedReplies) {
+            List<SavedReply> sorted = new ArrayList<>(savedReplies);
+            Collections.sort(sorted, (lhs, rhs) -> Integer.compare(lhs.no, rhs.no));
+
+            nos = new int[sorted.size()];
+            replies = new SavedReply[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                nos[i] = sorted.get(i).no;
+                replies[i] = sorted.get(i);
+            }
+        }
+    }
 }
@@ -24,11 +24,13 @@ import com.github.adamantcheese.chan.core.database.DatabaseHelper;
 import com.github.adamantcheese.chan.core.database.DatabaseManager;
 import com.github.adamantcheese.chan.core.repository.SiteRepository;
 import com.github.adamantcheese.chan.core.saver.ImageSaver;
+import com.github.adamantcheese.chan.core.saver.SavedFileIndex;
 import com.github.adamantcheese.chan.core.site.SiteResolver;
 import com.github.adamantcheese.chan.features.gesture_editor.Android10GesturesExclusionZonesHolder;
 import com.github.adamantcheese.chan.ui.captcha.CaptchaHolder;
 import com.github.adamantcheese.chan.ui.settings.base_directory.LocalThreadsBaseDirectory;
 import com.github.adamantcheese.chan.ui.settings.base_directory.SavedFilesBaseDirectory;
+import com.github.adamantcheese.chan.ui.text.TextLayoutCache;
 import com.github.adamantcheese.chan.ui.theme.ThemeHelper;
 import com.github.adamantcheese.chan.utils.Logger;
 import com.github.k1rakishou.fsaf.BadPathSymbolResolutionStrategy;
@@ -54,6 +56,7 @@ import static com.github.k1rakishou.fsaf.BadPathSymbolResolutionStrategy.ThrowAn
 public class AppModule {
     private Context applicationContext;
     public static final String DI_TAG = "Dependency Injection";
+    private static final String SAVED_FILE_INDEX_FILE_NAME = "saved_files.index";
 
     public AppModule(Context applicationContext) {
         this.applicationContext = applicationContext;
@@ -112,9 +115,16 @@ public class AppModule {
 
     @Provides
     @Singleton
-    public ImageSaver provideImageSaver(FileManager fileManager) {
+    public SavedFileIndex provideSavedFileIndex(FileManager fileManager) {
+        Logger.d(DI_TAG, "Saved file index");
+        return new SavedFileIndex(fileManager, new File(getAppContext().getFilesDir(), SAVED_FILE_INDEX_FILE_NAME));
+    }
+
+    @Provides
+    @Singleton
+    public ImageSaver provideImageSaver(FileManager fileManager, SavedFileIndex savedFileIndex) {
         Logger.d(DI_TAG, "Image saver");
-        return new ImageSaver(fileManager);
+        return new ImageSaver(fileManager, savedFileIndex);
     }
 
     @Provides
@@ -179,4 +189,11 @@ public class AppModule {
     public ExecutorService provideBackgroundPool() {
         return Executors.newFixedThreadPool(2);
     }
+
+    @Provides
+    @Singleton
+    public TextLayoutCache provideTextLayoutCache(ExecutorService executor) {
+        Logger.d(DI_TAG, "Text layout cache");
+        return new TextLayoutCache(executor);
+    }
 }
@@ -21,6 +21,7 @@ import android.content.Context;
 import com.github.adamantcheese.chan.core.database.DatabaseManager;
 import com.github.adamantcheese.chan.core.manager.ArchivesManager;
 import com.github.adamantcheese.chan.core.manager.BoardManager;
+import com.github.adamantcheese.chan.core.manager.CatalogSearchManager;
 import com.github.adamantcheese.chan.core.manager.ChanLoaderManager;
 import com.github.adamantcheese.chan.core.manager.FilterEngine;
 import com.github.adamantcheese.chan.core.manager.FilterWatchManager;
@@ -32,6 +33,7 @@ import com.github.adamantcheese.chan.core.manager.SettingsNotificationManager;
 import com.github.adamantcheese.chan.core.manager.ThreadSaveManager;
 import com.github.adamantcheese.chan.core.manager.WakeManager;
 import com.github.adamantcheese.chan.core.manager.WatchManager;
+import com.github.adamantcheese.chan.core.manager.YoutubeTitleResolver;
 import com.github.adamantcheese.chan.core.repository.BoardRepository;
 import com.github.adamantcheese.chan.core.repository.SavedThreadLoaderRepository;
 import com.github.adamantcheese.chan.core.site.parser.MockReplyManager;
@@ -42,6 +44,7 @@ import com.google.gson.Gson;
 import org.codejargon.feather.Provides;
 
 import java.io.File;
+import java.util.concurrent.ExecutorService;
 
 import javax.inject.Singleton;
 
@@ -51,6 +54,7 @@ import static com.github.adamantcheese.chan.core.di.AppModule.getCacheDir;
 
 public class ManagerModule {
     private static final String CRASH_LOGS_DIR_NAME = "crashlogs";
+    private static final String YOUTUBE_TITLE_CACHE_FILE_NAME = "youtube_titles.json";
 
     @Provides
     @Singleton
@@ -114,6 +118,15 @@ public class ManagerModule {
         return new FilterWatchManager(wakeManager, boardRepository);
     }
 
+    @Provides
+    @Singleton
+    public CatalogSearchManager provideCatalogSearchManager(
+            BoardRepository boardRepository, ExecutorService executor
+    ) {
+        Logger.d(AppModule.DI_TAG, "Catalog search manager");
+        return new CatalogSearchManager(boardRepository, executor);
+    }
+
     @Provides
     @Singleton
     public PageRequestManager providePageRequestManager() {
@@ -176,4 +189,11 @@ public class ManagerModule {
     public SettingsNotificationManager provideSettingsNotificationManager() {
         return new SettingsNotificationManager();
     }
+
+    @Provides
+    @Singleton
+    public YoutubeTitleResolver provideYoutubeTitleResolver(Gson gson) {
+        Logger.d(AppModule.DI_TAG, "Youtube title resolver");
+        return new YoutubeTitleResolver(gson, new File(getCacheDir(), YOUTUBE_TITLE_CACHE_FILE_NAME));
+    }
 }
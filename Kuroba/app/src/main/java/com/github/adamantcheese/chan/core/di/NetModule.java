@@ -23,6 +23,7 @@ import androidx.annotation.NonNull;
 import com.github.adamantcheese.chan.BuildConfig;
 import com.github.adamantcheese.chan.core.cache.CacheHandler;
 import com.github.adamantcheese.chan.core.cache.FileCacheV2;
+import com.github.adamantcheese.chan.core.cache.ThumbnailCache;
 import com.github.adamantcheese.chan.core.cache.stream.WebmStreamingSource;
 import com.github.adamantcheese.chan.core.net.DnsSelector;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
@@ -57,6 +58,8 @@ public class NetModule {
     public static final String USER_AGENT = getApplicationLabel() + "/" + BuildConfig.VERSION_NAME;
     private static final String FILE_CACHE_DIR = "filecache";
     private static final String FILE_CHUNKS_CACHE_DIR = "file_chunks_cache";
+    private static final String THUMBNAIL_CACHE_DIR = "thumbnail_cache";
+    private static final long THUMBNAIL_DISK_CACHE_SIZE = 64 * 1024 * 1024;
 
     @Provides
     @Singleton
@@ -77,6 +80,19 @@ public class NetModule {
         );
     }
 
+    @Provides
+    @Singleton
+    public ThumbnailCache provideThumbnailCache() {
+        Logger.d(AppModule.DI_TAG, "Thumbnail cache");
+
+        // max 1/8th of runtime memory for decoded bitmaps
+        int maxMemoryCacheSize = (int) (Runtime.getRuntime().maxMemory() / 8);
+        return new ThumbnailCache(new File(getCacheDir(), THUMBNAIL_CACHE_DIR),
+                THUMBNAIL_DISK_CACHE_SIZE,
+                maxMemoryCacheSize
+        );
+    }
+
     @Provides
     @Singleton
     public FileCacheV2 provideFileCacheV2(
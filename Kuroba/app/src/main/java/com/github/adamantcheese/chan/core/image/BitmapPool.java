@@ -0,0 +1,104 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.core.image;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bitmaps that nothing uses anymore, kept to be decoded into again through
+ * {@link android.graphics.BitmapFactory.Options#inBitmap} instead of allocating new ones. Bitmaps are bucketed by their
+ * allocation size; a request takes the smallest free bitmap that is big enough, but not one that would waste more than
+ * it uses. The pool is bounded by the total size of its bitmaps, dropping the ones that were put in first.
+ * <p>
+ * Only put bitmaps in here that are guaranteed to not be drawn or otherwise used anymore.
+ */
+public class BitmapPool {
+    private static final int MAX_SIZE_RATIO = 2;
+
+    private final long maxSize;
+    // allocation byte count to the free bitmaps of that size; guarded by this
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    // all free bitmaps, oldest first
+    private final ArrayDeque<Bitmap> bitmaps = new ArrayDeque<>();
+    private long size = 0;
+
+    public BitmapPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @AnyThread
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable()) return;
+
+        int byteCount = bitmap.getAllocationByteCount();
+        if (byteCount > maxSize) return;
+
+        ArrayDeque<Bitmap> bucket = buckets.get(byteCount);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(byteCount, bucket);
+        }
+        bucket.add(bitmap);
+        bitmaps.add(bitmap);
+        size += byteCount;
+
+        while (size > maxSize) {
+            Bitmap eldest = bitmaps.poll();
+            removeFromBucket(eldest);
+            eldest.recycle();
+        }
+    }
+
+    /**
+     * @return a free bitmap of at least the given size, to be decoded into, or null if there is none
+     */
+    @Nullable
+    @AnyThread
+    public synchronized Bitmap get(int byteCount) {
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(byteCount);
+        if (entry == null || entry.getKey() > (long) byteCount * MAX_SIZE_RATIO) {
+            return null;
+        }
+
+        Bitmap bitmap = entry.getValue().poll();
+        if (entry.getValue().isEmpty()) {
+            buckets.remove(entry.getKey());
+        }
+        bitmaps.removeFirstOccurrence(bitmap);
+        size -= entry.getKey();
+        return bitmap;
+    }
+
+    private void removeFromBucket(Bitmap bitmap) {
+        int byteCount = bitmap.getAllocationByteCount();
+        ArrayDeque<Bitmap> bucket = buckets.get(byteCount);
+        if (bucket == null) return;
+
+        bucket.removeFirstOccurrence(bitmap);
+        if (bucket.isEmpty()) {
+            buckets.remove(byteCount);
+        }
+        size -= byteCount;
+    }
+}
@@ -1,16 +1,18 @@
 package com.github.adamantcheese.chan.core.image;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.github.adamantcheese.chan.core.cache.ThumbnailCache;
 import com.github.adamantcheese.chan.core.manager.ThreadSaveManager;
 import com.github.adamantcheese.chan.core.model.PostImage;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.ui.settings.base_directory.LocalThreadsBaseDirectory;
 import com.github.adamantcheese.chan.utils.BackgroundUtils;
+import com.github.adamantcheese.chan.utils.BackgroundUtils.Cancelable;
+import com.github.adamantcheese.chan.utils.BitmapUtils;
 import com.github.adamantcheese.chan.utils.Logger;
 import com.github.adamantcheese.chan.utils.NetUtils;
 import com.github.adamantcheese.chan.utils.StringUtils;
@@ -22,10 +24,15 @@ import com.github.k1rakishou.fsaf.file.Segment;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import okhttp3.Call;
+import okio.Okio;
 
 import static com.github.adamantcheese.chan.Chan.instance;
 import static com.github.adamantcheese.chan.utils.StringUtils.maskImageUrl;
@@ -33,58 +40,79 @@ import static com.github.adamantcheese.chan.utils.StringUtils.maskImageUrl;
 public class ImageLoaderV2 {
     private static final String TAG = "ImageLoaderV2";
 
+    private static final int PRIORITY_VISIBLE = 0;
+    private static final int PRIORITY_PREFETCH = 1;
+
+    // Loads of saved images; the ones for views come before prefetches, and the most recent ones come first, as those
+    // are the views that are on screen while scrolling
+    private static final ThreadPoolExecutor localImageExecutor =
+            new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>());
+    private static final AtomicLong localImageSequence = new AtomicLong();
+    // loads of saved images in progress, by file and size; guarded by itself
+    private static final Map<String, LocalImageLoad> localImageLoads = new HashMap<>();
+
     public static void getImage(
             Loadable loadable, PostImage postImage, int width, int height, @NonNull NetUtils.BitmapResult imageListener
     ) {
         BackgroundUtils.ensureMainThread();
 
         if (loadable.isLocal() || loadable.isDownloading()) {
-            String formattedName;
             Logger.d(TAG, "Loading image " + getImageUrlForLogs(postImage) + " from the disk");
 
-            if (postImage.spoiler()) {
-                String extension = StringUtils.extractFileNameExtension(postImage.spoilerThumbnailUrl.toString());
-
-                formattedName = ThreadSaveManager.formatSpoilerImageName(extension);
-            } else {
-                String extension = StringUtils.extractFileNameExtension(postImage.thumbnailUrl.toString());
-
-                if (extension == null) {
-                    // We expect images to have extensions
-                    imageListener.onBitmapFailure(
-                            null,
-                            new NullPointerException("Could not get extension from thumbnailUrl = " + maskImageUrl(
-                                    postImage.thumbnailUrl))
-                    );
-                }
-
-                formattedName = ThreadSaveManager.formatThumbnailImageName(postImage.serverFilename, extension);
-            }
-
-            try {
-                getFromDisk(
-                        loadable,
-                        formattedName,
-                        postImage.spoiler(),
-                        imageListener,
-                        width,
-                        height,
-                        () -> doFallback(postImage, imageListener, width, height)
+            if (!postImage.spoiler()
+                    && StringUtils.extractFileNameExtension(postImage.thumbnailUrl.toString()) == null) {
+                // We expect images to have extensions
+                imageListener.onBitmapFailure(
+                        null,
+                        new NullPointerException("Could not get extension from thumbnailUrl = " + maskImageUrl(
+                                postImage.thumbnailUrl))
                 );
-            } catch (Exception e) {
-                doFallback(postImage, imageListener, width, height);
             }
+
+            getFromDisk(
+                    loadable,
+                    getLocalFileName(postImage),
+                    postImage.spoiler(),
+                    imageListener,
+                    width,
+                    height,
+                    () -> doFallback(postImage, imageListener, width, height)
+            );
         } else {
             doFallback(postImage, imageListener, width, height);
         }
     }
 
-    private static Call doFallback(PostImage postImage, NetUtils.BitmapResult imageListener, int width, int height) {
+    private static Cancelable doFallback(PostImage postImage, NetUtils.BitmapResult imageListener, int width, int height) {
         Logger.d(TAG, "Falling back to imageLoaderV1 load the image " + getImageUrlForLogs(postImage));
         return NetUtils.makeBitmapRequest(postImage.getThumbnailUrl(), imageListener, width, height);
     }
 
-    public static Call getFromDisk(
+    /**
+     * @return the name of the thumbnail file of this image in a saved thread
+     */
+    public static String getLocalFileName(PostImage postImage) {
+        if (postImage.spoiler()) {
+            String extension = StringUtils.extractFileNameExtension(postImage.spoilerThumbnailUrl.toString());
+
+            return ThreadSaveManager.formatSpoilerImageName(extension);
+        } else {
+            String extension = StringUtils.extractFileNameExtension(postImage.thumbnailUrl.toString());
+
+            return ThreadSaveManager.formatThumbnailImageName(postImage.serverFilename, extension);
+        }
+    }
+
+    /**
+     * Load an image of a saved thread from the disk, decoded for the given size, without blocking the calling thread.
+     * Results are delivered on the main thread and retained like the ones of {@link NetUtils#makeBitmapRequest}.
+     * Requests for the same file and size share one load.
+     *
+     * @param callback if given, called on the main thread when the image can't be loaded from the disk, so it can be
+     *                 loaded from somewhere else
+     * @return a handle to cancel this request with, after which its result won't be delivered
+     */
+    public static Cancelable getFromDisk(
             Loadable loadable,
             String filename,
             boolean isSpoiler,
@@ -92,91 +120,289 @@ public class ImageLoaderV2 {
             int width,
             int height,
             @Nullable ImageLoaderFallback callback
-    )
-            throws Exception {
+    ) {
         BackgroundUtils.ensureMainThread();
 
-        return instance(ExecutorService.class).submit(() -> {
-            FileManager fileManager = instance(FileManager.class);
-            try {
-                if (!fileManager.baseDirectoryExists(LocalThreadsBaseDirectory.class)) {
-                    throw new IOException("Base local threads directory does not exist");
-                }
+        LocalImageRequest request = new LocalImageRequest(imageListener, callback);
+        String key = getLocalImageKey(loadable, filename, isSpoiler);
+        Bitmap cachedBitmap = instance(ThumbnailCache.class).getFromMemory(key, width, height);
+        if (cachedBitmap != null) {
+            BackgroundUtils.runOnMainThread(() -> request.deliver(cachedBitmap));
+            return request;
+        }
 
-                AbstractFile baseDirFile = fileManager.newBaseDirectoryFile(LocalThreadsBaseDirectory.class);
-                if (baseDirFile == null) {
-                    // User has deleted the base directory with all the files,
-                    // fallback to loading the image from the server
-                    Logger.w(TAG, "Base saved files directory does not exist");
+        String loadKey = width + "x" + height + " " + key;
+        synchronized (localImageLoads) {
+            LocalImageLoad load = localImageLoads.get(loadKey);
+            if (load == null) {
+                load = new LocalImageLoad(loadKey, key, loadable, filename, isSpoiler, width, height);
+                localImageLoads.put(loadKey, load);
+                localImageExecutor.execute(load);
+            } else if (load.priority != PRIORITY_VISIBLE && localImageExecutor.remove(load)) {
+                // a prefetch that didn't start yet, it's needed now
+                load.setPriority(PRIORITY_VISIBLE);
+                localImageExecutor.execute(load);
+            }
 
-                    if (callback != null) {
-                        return callback.onLocalImageDoesNotExist();
-                    }
-                }
+            request.load = load;
+            load.requests.add(request);
+        }
+        return request;
+    }
 
-                List<Segment> segments = new ArrayList<>();
+    /**
+     * Load the thumbnail of an image of a saved thread into memory ahead of time, after anything that a view is
+     * waiting for, so it is already there once a view is bound to it.
+     */
+    public static void prefetchFromDisk(Loadable loadable, PostImage postImage, int width, int height) {
+        BackgroundUtils.ensureMainThread();
 
-                if (isSpoiler) {
-                    segments.addAll(ThreadSaveManager.getBoardSubDir(loadable));
-                } else {
-                    segments.addAll(ThreadSaveManager.getImagesSubDir(loadable));
-                }
+        String filename = getLocalFileName(postImage);
+        String key = getLocalImageKey(loadable, filename, postImage.spoiler());
+        ThumbnailCache thumbnailCache = instance(ThumbnailCache.class);
+        Bitmap cachedBitmap = thumbnailCache.getFromMemory(key, width, height);
+        if (cachedBitmap != null) {
+            thumbnailCache.release(cachedBitmap);
+            return;
+        }
 
-                segments.add(new FileSegment(filename));
-                AbstractFile imageOnDiskFile = baseDirFile.clone(segments);
+        String loadKey = width + "x" + height + " " + key;
+        synchronized (localImageLoads) {
+            if (localImageLoads.containsKey(loadKey)) return;
 
-                boolean exists = fileManager.exists(imageOnDiskFile);
-                boolean isFile = fileManager.isFile(imageOnDiskFile);
-                boolean canRead = fileManager.canRead(imageOnDiskFile);
+            LocalImageLoad load =
+                    new LocalImageLoad(loadKey, key, loadable, filename, postImage.spoiler(), width, height);
+            load.setPriority(PRIORITY_PREFETCH);
+            localImageLoads.put(loadKey, load);
+            localImageExecutor.execute(load);
+        }
+    }
 
-                if (!exists || !isFile || !canRead) {
-                    // Local file does not exist, fallback to loading the image from the server
-                    Logger.d(TAG, "Local image does not exist (or is inaccessible)");
+    private static String getLocalImageKey(Loadable loadable, String filename, boolean isSpoiler) {
+        // spoiler images are stored once per board
+        return "local " + loadable.siteId + "/" + loadable.boardCode + "/" + (isSpoiler ? "" : loadable.no + "/")
+                + filename;
+    }
 
-                    if (callback != null) {
-                        return callback.onLocalImageDoesNotExist();
-                    }
+    private static String getImageUrlForLogs(PostImage postImage) {
+        if (postImage.imageUrl != null) {
+            return maskImageUrl(postImage.imageUrl);
+        } else if (postImage.thumbnailUrl != null) {
+            return maskImageUrl(postImage.thumbnailUrl);
+        }
+
+        return "No image url";
+    }
+
+    private static class LocalImageRequest
+            implements Cancelable {
+        private final NetUtils.BitmapResult imageListener;
+        @Nullable
+        private final ImageLoaderFallback callback;
+        // null if the bitmap was in memory; guarded by localImageLoads
+        @Nullable
+        private LocalImageLoad load;
+        // the load that replaced this one if the image wasn't on the disk
+        @Nullable
+        private Cancelable fallback;
+        private volatile boolean canceled = false;
+
+        private LocalImageRequest(NetUtils.BitmapResult imageListener, @Nullable ImageLoaderFallback callback) {
+            this.imageListener = imageListener;
+            this.callback = callback;
+        }
+
+        // Called on the main thread with a bitmap that was retained for this request
+        private void deliver(Bitmap bitmap) {
+            if (canceled) {
+                instance(ThumbnailCache.class).release(bitmap);
+            } else {
+                imageListener.onBitmapSuccess(bitmap, false);
+            }
+        }
+
+        // Called on the main thread
+        private void fail(Exception e) {
+            if (canceled) return;
+
+            if (callback != null) {
+                fallback = callback.onLocalImageDoesNotExist();
+            } else {
+                imageListener.onBitmapFailure(null, e);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            if (fallback != null) {
+                fallback.cancel();
+            }
+
+            synchronized (localImageLoads) {
+                if (load == null) return;
+
+                load.requests.remove(this);
+                // once it's running it's left to finish, the bitmap still ends up in memory
+                if (load.requests.isEmpty() && localImageExecutor.remove(load)) {
+                    localImageLoads.remove(load.loadKey);
                 }
+            }
+        }
+    }
 
-                try (InputStream inputStream = fileManager.getInputStream(imageOnDiskFile)) {
-                    // Image exists on the disk - try to load it and put in the cache
-                    BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
-                    bitmapOptions.outWidth = width;
-                    bitmapOptions.outHeight = height;
+    /**
+     * The load of one saved image at one size, shared by all requests for it.
+     */
+    private static class LocalImageLoad
+            implements Runnable, Comparable<LocalImageLoad> {
+        private final String loadKey;
+        private final String key;
+        private final Loadable loadable;
+        private final String filename;
+        private final boolean isSpoiler;
+        private final int width;
+        private final int height;
+        // guarded by localImageLoads, like all of the fields below
+        private final List<LocalImageRequest> requests = new ArrayList<>(1);
+        // only changed while not queued, as the queue doesn't reorder
+        private int priority = PRIORITY_VISIBLE;
+        private long sequence = localImageSequence.getAndIncrement();
+
+        private LocalImageLoad(
+                String loadKey, String key, Loadable loadable, String filename, boolean isSpoiler, int width, int height
+        ) {
+            this.loadKey = loadKey;
+            this.key = key;
+            this.loadable = loadable;
+            this.filename = filename;
+            this.isSpoiler = isSpoiler;
+            this.width = width;
+            this.height = height;
+        }
 
-                    Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, bitmapOptions);
+        private void setPriority(int priority) {
+            this.priority = priority;
+            this.sequence = localImageSequence.getAndIncrement();
+        }
 
-                    if (bitmap == null) {
-                        Logger.e(TAG, "Could not decode bitmap");
-                        imageListener.onBitmapFailure(null, new Exception("Could not decode bitmap"));
-                        return null;
-                    }
+        @Override
+        public int compareTo(LocalImageLoad other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            // newest first
+            return Long.compare(other.sequence, sequence);
+        }
 
-                    imageListener.onBitmapSuccess(bitmap, false);
+        @Override
+        public void run() {
+            ThumbnailCache thumbnailCache = instance(ThumbnailCache.class);
+            Bitmap bitmap = null;
+            Exception error = null;
+            try {
+                bitmap = decode(thumbnailCache);
+                if (bitmap == null) {
+                    error = new IOException("Local image does not exist");
+                } else {
+                    // before the load is done, so a new request finds it in memory instead of loading it again
+                    thumbnailCache.putInMemory(key, width, height, bitmap);
                 }
             } catch (Exception e) {
                 // Some error has occurred, fallback to loading the image from the server
                 Logger.e(TAG, "Error while trying to load a local image", e);
+                error = e;
+            }
 
-                if (callback != null) {
-                    return callback.onLocalImageDoesNotExist();
+            List<LocalImageRequest> finished;
+            synchronized (localImageLoads) {
+                if (localImageLoads.get(loadKey) == this) {
+                    localImageLoads.remove(loadKey);
                 }
+                finished = new ArrayList<>(requests);
             }
-            return null;
-        }).get();
-    }
+            if (finished.isEmpty()) return;
 
-    private static String getImageUrlForLogs(PostImage postImage) {
-        if (postImage.imageUrl != null) {
-            return maskImageUrl(postImage.imageUrl);
-        } else if (postImage.thumbnailUrl != null) {
-            return maskImageUrl(postImage.thumbnailUrl);
+            if (bitmap != null) {
+                for (int i = 0; i < finished.size(); i++) {
+                    thumbnailCache.retain(bitmap);
+                }
+                Bitmap finalBitmap = bitmap;
+                BackgroundUtils.runOnMainThread(() -> {
+                    for (LocalImageRequest request : finished) {
+                        request.deliver(finalBitmap);
+                    }
+                });
+            } else {
+                Exception finalError = error;
+                BackgroundUtils.runOnMainThread(() -> {
+                    for (LocalImageRequest request : finished) {
+                        request.fail(finalError);
+                    }
+                });
+            }
         }
 
-        return "No image url";
+        /**
+         * @return the decoded image, or null if it doesn't exist
+         */
+        @Nullable
+        private Bitmap decode(ThumbnailCache thumbnailCache)
+                throws IOException {
+            FileManager fileManager = instance(FileManager.class);
+            if (!fileManager.baseDirectoryExists(LocalThreadsBaseDirectory.class)) {
+                throw new IOException("Base local threads directory does not exist");
+            }
+
+            AbstractFile baseDirFile = fileManager.newBaseDirectoryFile(LocalThreadsBaseDirectory.class);
+            if (baseDirFile == null) {
+                // User has deleted the base directory with all the files,
+                // fallback to loading the image from the server
+                Logger.w(TAG, "Base saved files directory does not exist");
+                return null;
+            }
+
+            List<Segment> segments = new ArrayList<>();
+
+            if (isSpoiler) {
+                segments.addAll(ThreadSaveManager.getBoardSubDir(loadable));
+            } else {
+                segments.addAll(ThreadSaveManager.getImagesSubDir(loadable));
+            }
+
+            segments.add(new FileSegment(filename));
+            AbstractFile imageOnDiskFile = baseDirFile.clone(segments);
+
+            boolean exists = fileManager.exists(imageOnDiskFile);
+            boolean isFile = fileManager.isFile(imageOnDiskFile);
+            boolean canRead = fileManager.canRead(imageOnDiskFile);
+
+            if (!exists || !isFile || !canRead) {
+                // Local file does not exist, fallback to loading the image from the server
+                Logger.d(TAG, "Local image does not exist (or is inaccessible)");
+                return null;
+            }
+
+            InputStream inputStream = fileManager.getInputStream(imageOnDiskFile);
+            if (inputStream == null) {
+                throw new IOException("getInputStream() returned null, file = " + imageOnDiskFile.getFullPath());
+            }
+
+            byte[] data;
+            try (InputStream stream = inputStream) {
+                data = Okio.buffer(Okio.source(stream)).readByteArray();
+            }
+
+            // Image exists on the disk - try to load it, downsampled to the requested size
+            Bitmap bitmap = BitmapUtils.decode(data, width, height, thumbnailCache.getBitmapPool());
+            if (bitmap == null) {
+                throw new IOException("Could not decode bitmap");
+            }
+            return bitmap;
+        }
     }
 
     private interface ImageLoaderFallback {
-        Call onLocalImageDoesNotExist();
+        Cancelable onLocalImageDoesNotExist();
     }
 }
@@ -0,0 +1,409 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.core.manager;
+
+import android.text.TextUtils;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import com.github.adamantcheese.chan.core.model.ChanThread;
+import com.github.adamantcheese.chan.core.model.Post;
+import com.github.adamantcheese.chan.core.model.PostImage;
+import com.github.adamantcheese.chan.core.model.orm.Board;
+import com.github.adamantcheese.chan.core.model.orm.Loadable;
+import com.github.adamantcheese.chan.core.repository.BoardRepository;
+import com.github.adamantcheese.chan.core.site.Site;
+import com.github.adamantcheese.chan.core.site.parser.CatalogSearchParser;
+import com.github.adamantcheese.chan.utils.BackgroundUtils;
+import com.github.adamantcheese.chan.utils.Logger;
+import com.github.adamantcheese.chan.utils.NetUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+
+import static com.github.adamantcheese.chan.core.model.Post.SEARCH_TEXT_SEPARATOR;
+
+/**
+ * Searches the catalogs of all saved boards at once.<br>
+ * Catalogs are only read into a plain text {@link Entry} per thread, see {@link CatalogSearchParser}, and kept for a
+ * few minutes; catalogs the user just loaded are taken as they are. The rest are fetched a few at a time, and every
+ * catalog that arrives is ranked and merged into the results right away, so the fast boards don't wait for the slow
+ * ones.
+ */
+public class CatalogSearchManager {
+    // a catalog that was read this recently is searched as it is instead of being fetched again
+    private static final long FRESH_CATALOG_TIME = TimeUnit.MINUTES.toMillis(5);
+    private static final int MAX_PARALLEL_REQUESTS = 4;
+    private static final int MAX_HITS = 250;
+
+    private static final int SUBJECT_TOKEN_SCORE = 3;
+    private static final int TOKEN_SCORE = 1;
+    private static final int SUBJECT_PHRASE_SCORE = 6;
+    private static final int PHRASE_SCORE = 2;
+
+    private static final Comparator<Hit> HIT_ORDER = (a, b) -> {
+        if (a.score != b.score) return Integer.compare(b.score, a.score);
+        return Integer.compare(b.entry.replies, a.entry.replies);
+    };
+
+    private final BoardRepository boardRepository;
+    private final ExecutorService executor;
+
+    @GuardedBy("this")
+    private final Map<String, Catalog> catalogs = new HashMap<>();
+
+    public CatalogSearchManager(BoardRepository boardRepository, ExecutorService executor) {
+        this.boardRepository = boardRepository;
+        this.executor = executor;
+    }
+
+    public void onCatalogLoad(ChanThread catalog) {
+        BackgroundUtils.ensureBackgroundThread();
+
+        Loadable loadable = catalog.getLoadable();
+        if (loadable.isThreadMode() || loadable.board == null) return;
+
+        List<Post> posts = catalog.getPosts();
+        List<Entry> entries = new ArrayList<>(posts.size());
+        for (Post post : posts) {
+            entries.add(new Entry(loadable.board,
+                    post.no,
+                    post.subject,
+                    post.comment.toString(),
+                    post.name,
+                    post.images,
+                    Math.max(0, post.getReplies())
+            ));
+        }
+        putCatalog(new Catalog(loadable.board, entries));
+    }
+
+    /**
+     * Starts loading the catalogs to search; results are given for every query set with {@link Search#setQuery}.
+     *
+     * @param site the site to search the saved boards of, or null for all sites
+     */
+    public Search search(@Nullable Site site, SearchCallback callback) {
+        BackgroundUtils.ensureMainThread();
+
+        Search search = new Search(callback);
+        for (BoardRepository.SiteBoards siteBoards : boardRepository.getSaved()) {
+            if (site != null && siteBoards.site.id() != site.id()) continue;
+
+            for (Board board : siteBoards.boards) {
+                Catalog catalog = getFreshCatalog(board);
+                if (catalog != null) {
+                    search.loaded.add(catalog);
+                } else {
+                    search.toFetch.add(board);
+                }
+            }
+        }
+        search.boardsLeft = search.toFetch.size();
+        search.fetchNext();
+        search.rank();
+        return search;
+    }
+
+    @Nullable
+    private synchronized Catalog getFreshCatalog(Board board) {
+        Catalog catalog = catalogs.get(Catalog.key(board));
+        return catalog != null && catalog.isFresh() ? catalog : null;
+    }
+
+    private synchronized void putCatalog(Catalog catalog) {
+        catalogs.put(catalog.key, catalog);
+
+        Iterator<Catalog> iterator = catalogs.values().iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().isFresh()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public interface SearchCallback {
+        /**
+         * @param hits       the best matches of all catalogs that were read so far, best first
+         * @param boardsLeft the number of catalogs that are still being fetched
+         */
+        void onResults(List<Hit> hits, int boardsLeft);
+    }
+
+    /**
+     * One search screen; the catalogs it loaded stay with it, only the query changes. Only used on the main thread.
+     */
+    public class Search {
+        private final SearchCallback callback;
+
+        private final Queue<Board> toFetch = new ArrayDeque<>();
+        private final List<Call> calls = new ArrayList<>();
+        private final List<Catalog> loaded = new ArrayList<>();
+        private int requestsRunning = 0;
+        private int boardsLeft = 0;
+
+        private String query = "";
+        // the ranked hits of every catalog for the current query, ranked catalogs don't have to be ranked again
+        private Map<String, List<Hit>> hitsByCatalog = new HashMap<>();
+        @Nullable
+        private BackgroundUtils.Cancelable ranking;
+        // catalogs arrived while ranking
+        private boolean rankAgain = false;
+        private boolean cancelled = false;
+
+        private Search(SearchCallback callback) {
+            this.callback = callback;
+        }
+
+        /**
+         * @param query words that must all be in the subject, comment, name or filenames of a thread, in any case
+         */
+        public void setQuery(String query) {
+            String lowerQuery = query.trim().toLowerCase(Locale.ENGLISH);
+            if (cancelled || lowerQuery.equals(this.query)) return;
+
+            this.query = lowerQuery;
+            hitsByCatalog = new HashMap<>();
+            if (ranking != null) {
+                ranking.cancel();
+                ranking = null;
+            }
+            rankAgain = false;
+            rank();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            for (Call call : calls) {
+                call.cancel();
+            }
+            calls.clear();
+            toFetch.clear();
+            if (ranking != null) {
+                ranking.cancel();
+                ranking = null;
+            }
+        }
+
+        private void fetchNext() {
+            while (requestsRunning < MAX_PARALLEL_REQUESTS && !toFetch.isEmpty()) {
+                Board board = toFetch.remove();
+                requestsRunning++;
+                calls.add(NetUtils.makeJsonRequest(board.site.endpoints().catalog(board),
+                        new NetUtils.JsonResult<List<Entry>>() {
+                            @Override
+                            public void onJsonFailure(Exception e) {
+                                if (cancelled) return;
+                                Logger.w(CatalogSearchManager.this, "Catalog search failed for /" + board.code + "/");
+                                onFetched();
+                            }
+
+                            @Override
+                            public void onJsonSuccess(List<Entry> result) {
+                                if (cancelled) return;
+                                Catalog catalog = new Catalog(board, result);
+                                putCatalog(catalog);
+                                loaded.add(catalog);
+                                onFetched();
+                            }
+                        },
+                        new CatalogSearchParser(Loadable.forCatalog(board))
+                ));
+            }
+        }
+
+        private void onFetched() {
+            requestsRunning--;
+            boardsLeft--;
+            fetchNext();
+            rank();
+        }
+
+        /**
+         * Ranks the catalogs that weren't ranked for the query yet in the background, and merges them with the rest
+         */
+        private void rank() {
+            if (ranking != null) {
+                rankAgain = true;
+                return;
+            }
+            if (query.isEmpty()) {
+                callback.onResults(Collections.emptyList(), boardsLeft);
+                return;
+            }
+
+            final String phrase = query;
+            final String[] tokens = query.split("\\s+");
+            final Map<String, List<Hit>> ranked = new HashMap<>(hitsByCatalog);
+            final List<Catalog> toRank = new ArrayList<>();
+            for (Catalog catalog : loaded) {
+                if (!ranked.containsKey(catalog.key)) {
+                    toRank.add(catalog);
+                }
+            }
+
+            ranking = BackgroundUtils.runWithExecutor(executor, () -> {
+                for (Catalog catalog : toRank) {
+                    ranked.put(catalog.key, catalog.rank(tokens, phrase));
+                }
+
+                List<Hit> merged = new ArrayList<>();
+                for (List<Hit> hits : ranked.values()) {
+                    merged.addAll(hits);
+                }
+                Collections.sort(merged, HIT_ORDER);
+                return merged.size() > MAX_HITS ? new ArrayList<>(merged.subList(0, MAX_HITS)) : merged;
+            }, merged -> {
+                ranking = null;
+                hitsByCatalog = ranked;
+                callback.onResults(merged, boardsLeft);
+
+                if (rankAgain) {
+                    rankAgain = false;
+                    rank();
+                }
+            });
+        }
+    }
+
+    private static class Catalog {
+        private final String key;
+        private final long time = System.currentTimeMillis();
+        private final List<Entry> entries;
+
+        private Catalog(Board board, List<Entry> entries) {
+            key = key(board);
+            this.entries = entries;
+        }
+
+        private static String key(Board board) {
+            return board.siteId + "/" + board.code;
+        }
+
+        private boolean isFresh() {
+            return System.currentTimeMillis() - time < FRESH_CATALOG_TIME;
+        }
+
+        /**
+         * @return the best matches of this catalog, best first
+         */
+        private List<Hit> rank(String[] tokens, String phrase) {
+            List<Hit> hits = new ArrayList<>();
+            for (Entry entry : entries) {
+                int score = entry.score(tokens, phrase);
+                if (score > 0) {
+                    hits.add(new Hit(entry, score));
+                }
+            }
+            Collections.sort(hits, HIT_ORDER);
+            return hits.size() > MAX_HITS ? new ArrayList<>(hits.subList(0, MAX_HITS)) : hits;
+        }
+    }
+
+    /**
+     * What a search needs of a catalog thread, without any spans
+     */
+    public static class Entry {
+        private static final int MAX_EXCERPT_LENGTH = 200;
+
+        public final Board board;
+        public final int no;
+        public final String subject;
+        public final String excerpt;
+        @Nullable
+        public final HttpUrl thumbnailUrl;
+        public final int replies;
+
+        private final String lowerSubject;
+        private final String searchText;
+
+        public Entry(
+                Board board,
+                int no,
+                String subject,
+                String comment,
+                String name,
+                List<PostImage> images,
+                int replies
+        ) {
+            this.board = board;
+            this.no = no;
+            this.subject = subject;
+            excerpt = comment.substring(0, Math.min(comment.length(), MAX_EXCERPT_LENGTH)).replace('\n', ' ');
+            thumbnailUrl = images.isEmpty() ? null : images.get(0).getThumbnailUrl();
+            this.replies = replies;
+
+            lowerSubject = subject.toLowerCase(Locale.ENGLISH);
+            // like the search text of a post
+            StringBuilder text = new StringBuilder(comment.length() + 64);
+            text.append(comment).append(SEARCH_TEXT_SEPARATOR);
+            text.append(subject).append(SEARCH_TEXT_SEPARATOR);
+            text.append(name);
+            for (PostImage image : images) {
+                if (image.filename != null) {
+                    text.append(SEARCH_TEXT_SEPARATOR).append(image.filename);
+                }
+            }
+            searchText = text.toString().toLowerCase(Locale.ENGLISH);
+        }
+
+        public String getTitle() {
+            if (!TextUtils.isEmpty(subject)) return subject;
+            if (!TextUtils.isEmpty(excerpt)) return excerpt;
+            return "/" + board.code + "/" + no;
+        }
+
+        /**
+         * @return 0 if any token is missing, more for tokens in the subject and for the whole query in one piece
+         */
+        private int score(String[] tokens, String phrase) {
+            int score = 0;
+            for (String token : tokens) {
+                if (!searchText.contains(token)) return 0;
+                score += lowerSubject.contains(token) ? SUBJECT_TOKEN_SCORE : TOKEN_SCORE;
+            }
+            if (tokens.length > 1 && searchText.contains(phrase)) {
+                score += lowerSubject.contains(phrase) ? SUBJECT_PHRASE_SCORE : PHRASE_SCORE;
+            }
+            return score;
+        }
+    }
+
+    public static class Hit {
+        public final Entry entry;
+        private final int score;
+
+        private Hit(Entry entry, int score) {
+            this.entry = entry;
+            this.score = score;
+        }
+    }
+}
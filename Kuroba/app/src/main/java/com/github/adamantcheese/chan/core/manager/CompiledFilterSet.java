@@ -0,0 +1,325 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.core.manager;
+
+import android.text.TextUtils;
+
+import androidx.annotation.AnyThread;
+import androidx.core.text.HtmlCompat;
+
+import com.github.adamantcheese.chan.core.model.Post;
+import com.github.adamantcheese.chan.core.model.PostHttpIcon;
+import com.github.adamantcheese.chan.core.model.PostImage;
+import com.github.adamantcheese.chan.core.model.orm.Filter;
+import com.github.adamantcheese.chan.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.github.adamantcheese.chan.core.manager.FilterType.COMMENT;
+import static com.github.adamantcheese.chan.core.manager.FilterType.COUNTRY_CODE;
+import static com.github.adamantcheese.chan.core.manager.FilterType.FILENAME;
+import static com.github.adamantcheese.chan.core.manager.FilterType.ID;
+import static com.github.adamantcheese.chan.core.manager.FilterType.IMAGE;
+import static com.github.adamantcheese.chan.core.manager.FilterType.NAME;
+import static com.github.adamantcheese.chan.core.manager.FilterType.SUBJECT;
+import static com.github.adamantcheese.chan.core.manager.FilterType.TRIPCODE;
+
+/**
+ * An immutable, precompiled form of an ordered list of filters.<br>
+ * Plain word and "quoted" filters are merged into one {@link KeywordAutomaton} per {@link FilterType}, so each post
+ * field is scanned once no matter how many filters there are; only /regex/ filters (and word filters using wildcards)
+ * are matched individually. The result is the same as running {@link FilterEngine#matches(Filter, String, boolean)}
+ * for every filter and field, in filter order.
+ * <p>
+ * Built by {@link FilterEngine#getCompiledFilters(com.github.adamantcheese.chan.core.model.orm.Board)}, safe to use
+ * from any thread.
+ */
+public class CompiledFilterSet {
+    private final List<Filter> filters;
+    // indexed by FilterType ordinal
+    private final FieldMatcher[] fieldMatchers = new FieldMatcher[FilterType.values().length];
+
+    CompiledFilterSet(FilterEngine filterEngine, List<Filter> filters) {
+        this.filters = Collections.unmodifiableList(new ArrayList<>(filters));
+
+        FieldMatcher.Builder[] builders = new FieldMatcher.Builder[fieldMatchers.length];
+        for (int i = 0; i < builders.length; i++) {
+            builders[i] = new FieldMatcher.Builder();
+        }
+
+        for (int i = 0; i < filters.size(); i++) {
+            Filter filter = filters.get(i);
+            List<String> keywords = new ArrayList<>();
+            boolean wordBounded = extractKeywords(filter.pattern, keywords);
+            Pattern regex = null;
+            if (keywords.isEmpty()) {
+                int extraFlags = filter.hasFilter(COUNTRY_CODE) ? Pattern.CASE_INSENSITIVE : 0;
+                regex = filterEngine.compile(filter.pattern, extraFlags);
+                if (regex == null) {
+                    Logger.e(this, "Invalid pattern: " + filter.pattern);
+                    continue;
+                }
+            }
+
+            for (FilterType type : FilterType.values()) {
+                if (!filter.hasFilter(type)) continue;
+                if (regex != null) {
+                    builders[type.ordinal()].addRegex(i, regex);
+                } else {
+                    for (String keyword : keywords) {
+                        builders[type.ordinal()].addKeyword(i, keyword, wordBounded);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < fieldMatchers.length; i++) {
+            fieldMatchers[i] = builders[i].build();
+        }
+    }
+
+    /**
+     * Splits a plain word or "quoted" filter pattern into literal keywords. Leaves the list empty if the pattern is
+     * a /regex/, uses wildcards, or is otherwise not a plain literal; those go through the regex engine instead.
+     *
+     * @return true if the keywords need to match on word boundaries
+     */
+    private static boolean extractKeywords(String rawPattern, List<String> keywords) {
+        if (TextUtils.isEmpty(rawPattern) || FilterEngine.isRegexPattern.matcher(rawPattern).matches()) {
+            return false;
+        }
+
+        if (rawPattern.length() >= 2 && rawPattern.charAt(0) == '"'
+                && rawPattern.charAt(rawPattern.length() - 1) == '"') {
+            //only double quotes would match everything, so that's left to the regex compiler to reject
+            if (rawPattern.length() > 2) {
+                keywords.add(rawPattern.substring(1, rawPattern.length() - 1));
+            }
+            return false;
+        }
+
+        for (String word : rawPattern.split(" ")) {
+            if (word.isEmpty() || word.indexOf('*') != -1) {
+                keywords.clear();
+                return false;
+            }
+            keywords.add(word);
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return filters.isEmpty();
+    }
+
+    public List<Filter> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Matches all filters against the given post. Image hash filters are applied to the post's images directly (hiding
+     * or removing them) and are not returned, like {@link FilterEngine#matches(Filter, String, boolean)} would.
+     *
+     * @return the filters that match the post, in filter order
+     */
+    @AnyThread
+    public List<Filter> matches(Post.Builder post) {
+        if (filters.isEmpty() || !post.moderatorCapcode.equals("") || post.sticky) return Collections.emptyList();
+
+        BitSet textMatches = new BitSet(filters.size());
+        match(TRIPCODE, post.tripcode, textMatches);
+        match(NAME, post.name, textMatches);
+        matchPlain(COMMENT, post.plainComment(), textMatches);
+        match(ID, post.posterId, textMatches);
+        match(SUBJECT, post.subject, textMatches);
+
+        //figure out if the post has a country code, if so check the filters
+        BitSet countryCodeMatches = new BitSet(filters.size());
+        if (post.httpIcons != null) {
+            for (PostHttpIcon icon : post.httpIcons) {
+                if (icon.name.indexOf('/') != -1) {
+                    String countryCode = icon.name.substring(icon.name.indexOf('/') + 1);
+                    if (!countryCode.isEmpty()) {
+                        match(COUNTRY_CODE, countryCode, countryCodeMatches);
+                    }
+                    break;
+                }
+            }
+        }
+
+        List<PostImage> images = post.images == null ? Collections.emptyList() : new ArrayList<>(post.images);
+        BitSet[] imageMatches = new BitSet[images.size()];
+        for (int i = 0; i < images.size(); i++) {
+            imageMatches[i] = new BitSet(filters.size());
+            match(IMAGE, images.get(i).fileHash, imageMatches[i]);
+        }
+        // computed lazily, and again if an image gets removed by a filter
+        BitSet filenameMatches = null;
+
+        List<Filter> matched = new ArrayList<>();
+        filterLoop:
+        for (int i = 0; i < filters.size(); i++) {
+            Filter filter = filters.get(i);
+            if (filter.onlyOnOP && !post.op) continue;
+            if (filter.applyToSaved && !post.isSavedReply) continue;
+
+            if (textMatches.get(i)) {
+                matched.add(filter);
+                continue;
+            }
+
+            for (int j = 0; j < images.size(); j++) {
+                if (imageMatches[j] != null && imageMatches[j].get(i)) {
+                    //for filtering image hashes, we don't want to apply the post-level filter
+                    //this takes care of it at an image level, either flagging it to be hidden, which applies a
+                    //custom spoiler image, or removes the image from the post entirely since this is a Post.Builder instance
+                    if (filter.action == FilterEngine.FilterAction.HIDE.id) {
+                        images.get(j).hidden = true;
+                    } else if (filter.action == FilterEngine.FilterAction.REMOVE.id) {
+                        post.images.remove(images.get(j));
+                        imageMatches[j] = null;
+                        filenameMatches = null;
+                    }
+                    continue filterLoop;
+                }
+            }
+
+            if (countryCodeMatches.get(i)) {
+                matched.add(filter);
+                continue;
+            }
+
+            if (post.images != null && filter.hasFilter(FILENAME)) {
+                if (filenameMatches == null) {
+                    filenameMatches = new BitSet(filters.size());
+                    StringBuilder files = new StringBuilder();
+                    for (PostImage image : post.images) {
+                        files.append(image.filename).append(" ");
+                    }
+                    if (files.length() > 0) {
+                        match(FILENAME, files, filenameMatches);
+                    }
+                }
+                if (filenameMatches.get(i)) {
+                    matched.add(filter);
+                }
+            }
+        }
+
+        return matched;
+    }
+
+    private void match(FilterType type, CharSequence text, BitSet matches) {
+        if (text == null || fieldMatchers[type.ordinal()].isEmpty()) return;
+        matchPlain(type, HtmlCompat.fromHtml(text.toString(), 0).toString(), matches);
+    }
+
+    private void matchPlain(FilterType type, String text, BitSet matches) {
+        FieldMatcher matcher = fieldMatchers[type.ordinal()];
+        if (matcher.isEmpty()) return;
+        matcher.match(text, matches);
+    }
+
+    /**
+     * @return true if this set was compiled from filters with the same matching properties as the given ones, in the
+     * same order
+     */
+    boolean isCompiledFrom(List<Filter> other) {
+        if (other.size() != filters.size()) return false;
+        for (int i = 0; i < filters.size(); i++) {
+            Filter a = filters.get(i);
+            Filter b = other.get(i);
+            if (a.type != b.type || !TextUtils.equals(a.pattern, b.pattern) || a.action != b.action
+                    || a.color != b.color || a.applyToReplies != b.applyToReplies || a.onlyOnOP != b.onlyOnOP
+                    || a.applyToSaved != b.applyToSaved) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class FieldMatcher {
+        private final KeywordAutomaton automaton;
+        // keyword id to filter index
+        private final int[] keywordFilters;
+        private final int[] regexFilters;
+        private final Pattern[] regexes;
+
+        private FieldMatcher(Builder builder) {
+            automaton = builder.automaton.build();
+            keywordFilters = new int[builder.keywordFilters.size()];
+            for (int i = 0; i < keywordFilters.length; i++) {
+                keywordFilters[i] = builder.keywordFilters.get(i);
+            }
+            regexFilters = new int[builder.regexFilters.size()];
+            for (int i = 0; i < regexFilters.length; i++) {
+                regexFilters[i] = builder.regexFilters.get(i);
+            }
+            regexes = builder.regexes.toArray(new Pattern[0]);
+        }
+
+        private boolean isEmpty() {
+            return automaton.isEmpty() && regexes.length == 0;
+        }
+
+        private void match(String text, BitSet matches) {
+            if (!automaton.isEmpty()) {
+                BitSet keywordMatches = new BitSet(keywordFilters.length);
+                automaton.scan(text, keywordMatches);
+                for (int k = keywordMatches.nextSetBit(0); k >= 0; k = keywordMatches.nextSetBit(k + 1)) {
+                    matches.set(keywordFilters[k]);
+                }
+            }
+
+            for (int i = 0; i < regexes.length; i++) {
+                if (matches.get(regexFilters[i])) continue;
+                try {
+                    if (regexes[i].matcher(text).find()) {
+                        matches.set(regexFilters[i]);
+                    }
+                } catch (IllegalArgumentException e) {
+                    Logger.w(this, "matcher.find() exception", e);
+                }
+            }
+        }
+
+        private static class Builder {
+            private final KeywordAutomaton.Builder automaton = new KeywordAutomaton.Builder();
+            private final List<Integer> keywordFilters = new ArrayList<>();
+            private final List<Integer> regexFilters = new ArrayList<>();
+            private final List<Pattern> regexes = new ArrayList<>();
+
+            private void addKeyword(int filterIndex, String keyword, boolean wordBounded) {
+                automaton.add(keyword, wordBounded);
+                keywordFilters.add(filterIndex);
+            }
+
+            private void addRegex(int filterIndex, Pattern regex) {
+                regexFilters.add(filterIndex);
+                regexes.add(regex);
+            }
+
+            private FieldMatcher build() {
+                return new FieldMatcher(this);
+            }
+        }
+    }
+}
@@ -24,9 +24,6 @@ import androidx.core.text.HtmlCompat;
 import com.github.adamantcheese.chan.R;
 import com.github.adamantcheese.chan.core.database.DatabaseFilterManager;
 import com.github.adamantcheese.chan.core.database.DatabaseManager;
-import com.github.adamantcheese.chan.core.model.Post;
-import com.github.adamantcheese.chan.core.model.PostHttpIcon;
-import com.github.adamantcheese.chan.core.model.PostImage;
 import com.github.adamantcheese.chan.core.model.orm.Board;
 import com.github.adamantcheese.chan.core.model.orm.Filter;
 import com.github.adamantcheese.chan.ui.helper.BoardHelper;
@@ -43,14 +40,7 @@ import java.util.regex.PatternSyntaxException;
 
 import javax.inject.Inject;
 
-import static com.github.adamantcheese.chan.core.manager.FilterType.COMMENT;
 import static com.github.adamantcheese.chan.core.manager.FilterType.COUNTRY_CODE;
-import static com.github.adamantcheese.chan.core.manager.FilterType.FILENAME;
-import static com.github.adamantcheese.chan.core.manager.FilterType.ID;
-import static com.github.adamantcheese.chan.core.manager.FilterType.IMAGE;
-import static com.github.adamantcheese.chan.core.manager.FilterType.NAME;
-import static com.github.adamantcheese.chan.core.manager.FilterType.SUBJECT;
-import static com.github.adamantcheese.chan.core.manager.FilterType.TRIPCODE;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.getString;
 
 public class FilterEngine {
@@ -98,6 +88,8 @@ public class FilterEngine {
     private final DatabaseFilterManager databaseFilterManager;
 
     private final Map<String, Pattern> patternCache = new HashMap<>();
+    // board unique id to the compiled filters for that board
+    private final Map<String, CompiledFilterSet> compiledFilters = new HashMap<>();
 
     @Inject
     public FilterEngine(DatabaseManager databaseManager) {
@@ -148,6 +140,30 @@ public class FilterEngine {
         return watchFilters;
     }
 
+    /**
+     * @return the enabled filters that apply to the given board, compiled for matching posts. The compiled set is
+     * cached and only rebuilt when the filters for the board change.
+     */
+    public CompiledFilterSet getCompiledFilters(Board board) {
+        List<Filter> boardFilters = new ArrayList<>();
+        for (Filter filter : getEnabledFilters()) {
+            if (matchesBoard(filter, board)) {
+                // copy the filter because it will get used on other threads
+                boardFilters.add(filter.clone());
+            }
+        }
+
+        String key = BoardHelper.boardUniqueId(board);
+        synchronized (compiledFilters) {
+            CompiledFilterSet compiled = compiledFilters.get(key);
+            if (compiled == null || !compiled.isCompiledFrom(boardFilters)) {
+                compiled = new CompiledFilterSet(this, boardFilters);
+                compiledFilters.put(key, compiled);
+            }
+            return compiled;
+        }
+    }
+
     @AnyThread
     public boolean matchesBoard(Filter filter, Board board) {
         if (filter.allBoards || TextUtils.isEmpty(filter.boards)) {
@@ -183,62 +199,6 @@ public class FilterEngine {
         }
     }
 
-    /**
-     * @param filter the filter to use
-     * @param post   the post content to test against
-     * @return true if the filter matches and should be applied to the content, false if not
-     */
-    @AnyThread
-    public boolean matches(Filter filter, Post.Builder post) {
-        if (!post.moderatorCapcode.equals("") || post.sticky) return false;
-        if (filter.onlyOnOP && !post.op) return false;
-        if (filter.applyToSaved && !post.isSavedReply) return false;
-
-        if (typeMatches(filter, TRIPCODE) && matches(filter, post.tripcode, false)) return true;
-        if (typeMatches(filter, NAME) && matches(filter, post.name, false)) return true;
-        if (typeMatches(filter, COMMENT) && matches(filter, post.comment.toString(), false)) return true;
-        if (typeMatches(filter, ID) && matches(filter, post.posterId, false)) return true;
-        if (typeMatches(filter, SUBJECT) && matches(filter, post.subject, false)) return true;
-        for (PostImage image : post.images) {
-            if (typeMatches(filter, IMAGE) && matches(filter, image.fileHash, false)) {
-                //for filtering image hashes, we don't want to apply the post-level filter (thus return false)
-                //this takes care of it at an image level, either flagging it to be hidden, which applies a
-                //custom spoiler image, or removes the image from the post entirely since this is a Post.Builder instance
-                if (filter.action == FilterAction.HIDE.id) {
-                    image.hidden = true;
-                } else if (filter.action == FilterAction.REMOVE.id) {
-                    post.images.remove(image);
-                }
-                return false;
-            }
-        }
-
-        //figure out if the post has a country code, if so check the filter
-        String countryCode = "";
-        if (post.httpIcons != null) {
-            for (PostHttpIcon icon : post.httpIcons) {
-                if (icon.name.indexOf('/') != -1) {
-                    countryCode = icon.name.substring(icon.name.indexOf('/') + 1);
-                    break;
-                }
-            }
-        }
-        if (!countryCode.isEmpty() && typeMatches(filter, COUNTRY_CODE) && matches(filter, countryCode, false)) {
-            return true;
-        }
-
-        if (post.images != null) {
-            StringBuilder files = new StringBuilder();
-            for (PostImage image : post.images) {
-                files.append(image.filename).append(" ");
-            }
-            String fnames = files.toString();
-            return !fnames.isEmpty() && typeMatches(filter, FILENAME) && matches(filter, fnames, false);
-        }
-
-        return false;
-    }
-
     @AnyThread
     public boolean typeMatches(Filter filter, FilterType type) {
         return (filter.type & type.flag) != 0;
@@ -278,7 +238,7 @@ public class FilterEngine {
         }
     }
 
-    private static final Pattern isRegexPattern = Pattern.compile("^/(.*)/(i?)$");
+    static final Pattern isRegexPattern = Pattern.compile("^/(.*)/(i?)$");
     private static final Pattern filterFilthyPattern = Pattern.compile("([.^$*+?()\\]\\[{}\\\\|-])");
     // an escaped \ and an escaped *, to replace an escaped * from escapeRegex
     private static final Pattern wildcardPattern = Pattern.compile("\\\\\\*");
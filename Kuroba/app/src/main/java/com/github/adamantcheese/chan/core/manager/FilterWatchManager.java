@@ -16,6 +16,8 @@
  */
 package com.github.adamantcheese.chan.core.manager;
 
+import android.text.TextUtils;
+
 import com.github.adamantcheese.chan.core.model.ChanThread;
 import com.github.adamantcheese.chan.core.model.Post;
 import com.github.adamantcheese.chan.core.model.orm.Board;
@@ -23,42 +25,49 @@ import com.github.adamantcheese.chan.core.model.orm.Filter;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.repository.BoardRepository;
 import com.github.adamantcheese.chan.core.settings.PersistableChanState;
-import com.github.adamantcheese.chan.core.site.loader.ChanThreadLoader;
+import com.github.adamantcheese.chan.core.site.parser.FilterWatchScanParser;
 import com.github.adamantcheese.chan.ui.helper.PostHelper;
 import com.github.adamantcheese.chan.utils.BackgroundUtils;
 import com.github.adamantcheese.chan.utils.Logger;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.github.adamantcheese.chan.utils.NetUtils;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
 
+import okhttp3.Call;
+
 import static com.github.adamantcheese.chan.Chan.instance;
 
 public class FilterWatchManager
         implements WakeManager.Wakeable {
+    //like 11 4chan catalogs? should be plenty
+    private static final int MAX_IGNORED_POSTS = 650;
+
     private final WakeManager wakeManager;
     private final BoardRepository boardRepository;
 
-    //filterLoaders keeps track of ChanThreadLoaders so they can be cleared correctly each alarm trigger
+    //scanCalls keeps track of the catalog requests so they can be cancelled correctly each alarm trigger
     //ignoredPosts keeps track of threads pinned by the filter manager and ignores them for future alarm triggers
     //this lets you unpin threads that are pinned by the filter pin manager and not have them come back
-    //note that ignoredPosts is currently only saved while the application is running and not in the database
-    private final Map<ChanThreadLoader, BackgroundLoader> filterLoaders = new HashMap<>();
-    private final Set<Integer> ignoredPosts = Collections.synchronizedSet(new HashSet<>());
+    //ignoredPosts is kept in insertion order, so only the eldest posts are dropped when it gets too large; guarded by
+    //itself, because user loaded catalogs are checked on a background thread
+    private final List<Call> scanCalls = new ArrayList<>();
+    private final Set<Integer> ignoredPosts = new LinkedHashSet<>();
+    //whether ignoredPosts changed since it was last saved; guarded by ignoredPosts
+    private boolean ignoredPostsDirty = false;
     //keep track of how many boards we've checked and their posts so we can cut out things from the ignored posts
     private int numBoardsChecked = 0;
-    private Set<Post> lastCheckedPosts = Collections.synchronizedSet(new HashSet<>());
+    private final Set<Integer> lastCheckedPosts = new HashSet<>();
     private boolean processing = false;
 
     @Inject
@@ -70,10 +79,7 @@ public class FilterWatchManager
 
         wakeManager.registerWakeable(this);
 
-        Set<Integer> previousIgnore = instance(Gson.class).fromJson(PersistableChanState.filterWatchIgnored.get(),
-                new TypeToken<Set<Integer>>() {}.getType()
-        );
-        if (previousIgnore != null) ignoredPosts.addAll(previousIgnore);
+        loadIgnoredPosts();
     }
 
     @Override
@@ -81,29 +87,29 @@ public class FilterWatchManager
         if (!processing) {
             wakeManager.manageLock(true, FilterWatchManager.this);
             Logger.i(this,
-                    "Processing filter loaders, started at " + DateFormat.getTimeInstance(DateFormat.DEFAULT,
+                    "Processing filter watches, started at " + DateFormat.getTimeInstance(DateFormat.DEFAULT,
                             Locale.getDefault()
                     ).format(new Date())
             );
             processing = true;
-            populateFilterLoaders();
-            Logger.d(this, "Number of filter loaders: " + numBoardsChecked);
-            if (!filterLoaders.keySet().isEmpty()) {
-                for (ChanThreadLoader loader : filterLoaders.keySet()) {
-                    loader.requestData();
+            List<Loadable> catalogs = getWatchedCatalogs();
+            numBoardsChecked = catalogs.size();
+            Logger.d(this, "Number of catalogs to scan: " + numBoardsChecked);
+            if (!catalogs.isEmpty()) {
+                for (Loadable catalog : catalogs) {
+                    scanCatalog(catalog);
                 }
             } else {
-                wakeManager.manageLock(false, FilterWatchManager.this);
+                checkComplete();
             }
         }
     }
 
-    private void populateFilterLoaders() {
-        ChanLoaderManager chanLoaderManager = instance(ChanLoaderManager.class);
-        for (ChanThreadLoader loader : filterLoaders.keySet()) {
-            chanLoaderManager.release(loader, filterLoaders.get(loader));
+    private List<Loadable> getWatchedCatalogs() {
+        for (Call call : scanCalls) {
+            call.cancel();
         }
-        filterLoaders.clear();
+        scanCalls.clear();
         //get our filters that are tagged as "pin"
         List<Filter> filters = instance(FilterEngine.class).getEnabledWatchFilters();
         //get a set of boards to background load
@@ -121,19 +127,63 @@ public class FilterWatchManager
             }
             boardCodes.addAll(Arrays.asList(f.boardCodesNoId()));
         }
-        numBoardsChecked = boardCodes.size();
-        //create background loaders for each thing in the board set
+        List<Loadable> catalogs = new ArrayList<>();
         for (BoardRepository.SiteBoards siteBoard : boardRepository.getSaved()) {
             for (Board b : siteBoard.boards) {
-                for (String code : boardCodes) {
-                    if (b.code.equals(code)) {
-                        BackgroundLoader backgroundLoader = new BackgroundLoader();
-                        ChanThreadLoader catalogLoader =
-                                chanLoaderManager.obtain(Loadable.forCatalog(b), backgroundLoader);
-                        filterLoaders.put(catalogLoader, backgroundLoader);
+                if (boardCodes.contains(b.code)) {
+                    catalogs.add(Loadable.forCatalog(b));
+                }
+            }
+        }
+        return catalogs;
+    }
+
+    /**
+     * Only reads the catalog far enough to match the watch filters, see {@link FilterWatchScanParser}, instead of
+     * loading it like it would be shown
+     */
+    private void scanCatalog(Loadable catalog) {
+        scanCalls.add(NetUtils.makeJsonRequest(catalog.site.endpoints().catalog(catalog.board),
+                new NetUtils.JsonResult<FilterWatchScanParser.Result>() {
+                    @Override
+                    public void onJsonFailure(Exception e) {
+                        numBoardsChecked--;
+                        Logger.d(FilterWatchManager.this, "Catalog scan failed, left " + numBoardsChecked);
+                        checkComplete();
+                    }
+
+                    @Override
+                    public void onJsonSuccess(FilterWatchScanParser.Result result) {
+                        Logger.d(FilterWatchManager.this, "Catalog scanned for /" + result.loadable.boardCode + "/");
+                        pinWatchedPosts(result.watchedPosts, result.loadable);
+                        lastCheckedPosts.addAll(result.postNos);
+                        numBoardsChecked--;
+                        Logger.d(FilterWatchManager.this, "Catalog scan processed, left " + numBoardsChecked);
+                        checkComplete();
                     }
+                },
+                new FilterWatchScanParser(catalog)
+        ));
+    }
+
+    private void checkComplete() {
+        if (numBoardsChecked <= 0) {
+            numBoardsChecked = 0;
+            scanCalls.clear();
+            synchronized (ignoredPosts) {
+                if (ignoredPosts.retainAll(lastCheckedPosts)) {
+                    ignoredPostsDirty = true;
                 }
             }
+            persistIgnoredPosts();
+            lastCheckedPosts.clear();
+            processing = false;
+            Logger.i(this,
+                    "Finished processing filter watches, ended at " + DateFormat.getTimeInstance(DateFormat.DEFAULT,
+                            Locale.ENGLISH
+                    ).format(new Date())
+            );
+            wakeManager.manageLock(false, FilterWatchManager.this);
         }
     }
 
@@ -144,72 +194,74 @@ public class FilterWatchManager
         if (processing) return; //filter watch manager is currently processing, ignore
         Logger.d(this, "onCatalogLoad() for /" + catalog.getLoadable().boardCode + "/");
 
-        Set<Integer> toAdd = new HashSet<>();
-        for (Post p : catalog.getPosts()) {
-            if (p.filterWatch && !ignoredPosts.contains(p.no)) {
-                final Loadable pinLoadable =
-                        Loadable.forThread(p.board, p.no, PostHelper.getTitle(p, catalog.getLoadable()));
-                BackgroundUtils.runOnMainThread(() -> instance(WatchManager.class).createPin(pinLoadable, p));
-                toAdd.add(p.no);
-            }
+        if (pinWatchedPosts(catalog.getPosts(), catalog.getLoadable())) {
+            persistIgnoredPosts();
         }
-        //clear the ignored posts set if it gets too large; don't have the same sync stuff as background and it's a hassle to keep track of recently loaded catalogs
-        if (ignoredPosts.size() + toAdd.size() > 650) ignoredPosts.clear(); //like 11 4chan catalogs? should be plenty
-        ignoredPosts.addAll(toAdd);
-        PersistableChanState.filterWatchIgnored.set(instance(Gson.class).toJson(ignoredPosts));
     }
 
-    private class BackgroundLoader
-            implements ChanThreadLoader.ChanLoaderCallback {
-        @Override
-        public void onChanLoaderData(ChanThread result) {
-            Logger.d(this, "onChanLoaderData() for /" + result.getLoadable().boardCode + "/");
-            Set<Integer> toAdd = new HashSet<>();
-            for (Post p : result.getPosts()) {
-                if (p.filterWatch && !ignoredPosts.contains(p.no)) {
-                    final Loadable pinLoadable =
-                            Loadable.forThread(p.board, p.no, PostHelper.getTitle(p, result.getLoadable()));
-                    BackgroundUtils.runOnMainThread(() -> instance(WatchManager.class).createPin(pinLoadable, p));
-                    toAdd.add(p.no);
+    /**
+     * Pins the threads of the posts that matched a watch filter and weren't pinned before
+     *
+     * @return true if any thread was pinned
+     */
+    private boolean pinWatchedPosts(List<Post> posts, Loadable catalog) {
+        boolean pinned = false;
+        for (Post p : posts) {
+            if (!p.filterWatch) continue;
+
+            synchronized (ignoredPosts) {
+                if (!ignoredPosts.add(p.no)) continue;
+                ignoredPostsDirty = true;
+                //drop the eldest ignores; the catalogs they came from have most likely moved on already
+                Iterator<Integer> iterator = ignoredPosts.iterator();
+                while (ignoredPosts.size() > MAX_IGNORED_POSTS) {
+                    iterator.next();
+                    iterator.remove();
                 }
             }
-            //add all posts to ignore
-            ignoredPosts.addAll(toAdd);
-            lastCheckedPosts.addAll(result.getPosts());
-            synchronized (this) {
-                numBoardsChecked--;
-                Logger.d(this, "Filter loader processed, left " + numBoardsChecked);
-                checkComplete();
-            }
+
+            final Loadable pinLoadable = Loadable.forThread(p.board, p.no, PostHelper.getTitle(p, catalog));
+            BackgroundUtils.runOnMainThread(() -> instance(WatchManager.class).createPin(pinLoadable, p));
+            pinned = true;
         }
+        return pinned;
+    }
 
-        @Override
-        public void onChanLoaderError(ChanThreadLoader.ChanLoaderException error) {
-            synchronized (this) {
-                numBoardsChecked--;
-                Logger.d(this, "Filter loader failed, left " + numBoardsChecked);
-                checkComplete();
-            }
+    public void clearIgnoredPosts() {
+        synchronized (ignoredPosts) {
+            ignoredPosts.clear();
+            ignoredPostsDirty = true;
         }
+        persistIgnoredPosts();
+    }
+
+    private void loadIgnoredPosts() {
+        //also reads the json array this used to be saved as
+        String saved = PersistableChanState.filterWatchIgnored.get().replaceAll("[\\[\\] ]", "");
+        if (saved.isEmpty()) return;
 
-        private void checkComplete() {
-            if (numBoardsChecked <= 0) {
-                numBoardsChecked = 0;
-                Set<Integer> lastCheckedPostNumbers = new HashSet<>();
-                for (Post post : lastCheckedPosts) {
-                    lastCheckedPostNumbers.add(post.no);
+        synchronized (ignoredPosts) {
+            for (String no : saved.split(",")) {
+                try {
+                    ignoredPosts.add(Integer.parseInt(no));
+                } catch (NumberFormatException e) {
+                    Logger.w(this, "Bad ignored post number: " + no);
                 }
-                ignoredPosts.retainAll(lastCheckedPostNumbers);
-                PersistableChanState.filterWatchIgnored.set(instance(Gson.class).toJson(ignoredPosts));
-                lastCheckedPosts.clear();
-                processing = false;
-                Logger.i(this,
-                        "Finished processing filter loaders, ended at " + DateFormat.getTimeInstance(DateFormat.DEFAULT,
-                                Locale.ENGLISH
-                        ).format(new Date())
-                );
-                wakeManager.manageLock(false, FilterWatchManager.this);
             }
         }
     }
+
+    /**
+     * Saved as a plain comma separated list; there are at most {@link #MAX_IGNORED_POSTS} of them, and it's only saved
+     * when it changed
+     */
+    private void persistIgnoredPosts() {
+        String saved;
+        synchronized (ignoredPosts) {
+            if (!ignoredPostsDirty) return;
+            saved = TextUtils.join(",", ignoredPosts);
+            ignoredPostsDirty = false;
+        }
+        PersistableChanState.filterWatchIgnored.set(saved);
+    }
 }
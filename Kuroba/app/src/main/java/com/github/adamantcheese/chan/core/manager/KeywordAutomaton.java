@@ -0,0 +1,207 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.core.manager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * An Aho-Corasick automaton over a set of literal keywords, matched case insensitively (ASCII only, like
+ * {@link java.util.regex.Pattern#CASE_INSENSITIVE}). A single pass over some text reports every keyword id that occurs
+ * in it. Keywords can optionally require a word boundary on either end, with the same semantics as a regex {@code \b}.
+ * <p>
+ * Build with {@link Builder}; the built automaton is immutable and safe to use from any thread.
+ */
+class KeywordAutomaton {
+    // per node, sorted outgoing edge characters and their target nodes
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    // nearest node along the fail chain (including the node itself) that has outputs, or -1
+    private final int[] outputLink;
+    private final int[][] outputs;
+
+    private final int[] keywordLengths;
+    private final boolean[] keywordBounded;
+
+    private KeywordAutomaton(Builder builder) {
+        int nodeCount = builder.nodes.size();
+        edgeChars = new char[nodeCount][];
+        edgeTargets = new int[nodeCount][];
+        fail = new int[nodeCount];
+        outputLink = new int[nodeCount];
+        outputs = new int[nodeCount][];
+
+        for (int i = 0; i < nodeCount; i++) {
+            BuildNode node = builder.nodes.get(i);
+            edgeChars[i] = new char[node.children.size()];
+            edgeTargets[i] = new int[node.children.size()];
+            int j = 0;
+            for (Map.Entry<Character, Integer> edge : node.children.entrySet()) {
+                edgeChars[i][j] = edge.getKey();
+                edgeTargets[i][j] = edge.getValue();
+                j++;
+            }
+            outputs[i] = new int[node.outputs.size()];
+            for (j = 0; j < node.outputs.size(); j++) {
+                outputs[i][j] = node.outputs.get(j);
+            }
+        }
+
+        keywordLengths = new int[builder.keywordLengths.size()];
+        keywordBounded = new boolean[builder.keywordLengths.size()];
+        for (int i = 0; i < keywordLengths.length; i++) {
+            keywordLengths[i] = builder.keywordLengths.get(i);
+            keywordBounded[i] = builder.keywordBounded.get(i);
+        }
+
+        // breadth first construction of the failure links
+        fail[0] = 0;
+        outputLink[0] = -1;
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : edgeTargets[0]) {
+            fail[child] = 0;
+            outputLink[child] = outputs[child].length > 0 ? child : -1;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < edgeChars[node].length; i++) {
+                char c = edgeChars[node][i];
+                int child = edgeTargets[node][i];
+
+                int state = fail[node];
+                int next = step(state, c);
+                while (next == -1 && state != 0) {
+                    state = fail[state];
+                    next = step(state, c);
+                }
+                fail[child] = next == -1 ? 0 : next;
+                outputLink[child] = outputs[child].length > 0 ? child : outputLink[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return keywordLengths.length == 0;
+    }
+
+    /**
+     * Scan the given text once and set the bit of every keyword id that occurs in it (respecting word boundaries if the
+     * keyword requires them).
+     */
+    public void scan(CharSequence text, BitSet matches) {
+        if (isEmpty() || text == null) return;
+
+        int state = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = fold(text.charAt(i));
+            int next = step(state, c);
+            while (next == -1 && state != 0) {
+                state = fail[state];
+                next = step(state, c);
+            }
+            state = next == -1 ? 0 : next;
+
+            for (int node = outputLink[state]; node != -1; node = outputLink[fail[node]]) {
+                for (int keyword : outputs[node]) {
+                    if (matches.get(keyword)) continue;
+                    if (!keywordBounded[keyword] || isBounded(text, i - keywordLengths[keyword] + 1, i + 1)) {
+                        matches.set(keyword);
+                    }
+                }
+            }
+        }
+    }
+
+    private int step(int node, char c) {
+        int index = Arrays.binarySearch(edgeChars[node], c);
+        return index < 0 ? -1 : edgeTargets[node][index];
+    }
+
+    // Same as two regex \b's around the range [start, end)
+    private static boolean isBounded(CharSequence text, int start, int end) {
+        boolean before = start > 0 && isWordChar(text.charAt(start - 1));
+        boolean first = isWordChar(text.charAt(start));
+        boolean last = isWordChar(text.charAt(end - 1));
+        boolean after = end < text.length() && isWordChar(text.charAt(end));
+        return before != first && last != after;
+    }
+
+    private static boolean isWordChar(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static class BuildNode {
+        private final TreeMap<Character, Integer> children = new TreeMap<>();
+        private final List<Integer> outputs = new ArrayList<>(1);
+    }
+
+    public static class Builder {
+        private final List<BuildNode> nodes = new ArrayList<>();
+        private final List<Integer> keywordLengths = new ArrayList<>();
+        private final List<Boolean> keywordBounded = new ArrayList<>();
+
+        public Builder() {
+            nodes.add(new BuildNode());
+        }
+
+        /**
+         * @param keyword      the literal text to look for, must not be empty
+         * @param wordBounded  true if the keyword must be surrounded by word boundaries (regex \b) to match
+         * @return the id of the keyword, as reported by {@link KeywordAutomaton#scan(CharSequence, BitSet)}
+         */
+        public int add(String keyword, boolean wordBounded) {
+            if (keyword.isEmpty()) {
+                throw new IllegalArgumentException("Empty keyword");
+            }
+
+            int node = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = fold(keyword.charAt(i));
+                Integer next = nodes.get(node).children.get(c);
+                if (next == null) {
+                    next = nodes.size();
+                    nodes.add(new BuildNode());
+                    nodes.get(node).children.put(c, next);
+                }
+                node = next;
+            }
+
+            int id = keywordLengths.size();
+            keywordLengths.add(keyword.length());
+            keywordBounded.add(wordBounded);
+            nodes.get(node).outputs.add(id);
+            return id;
+        }
+
+        public KeywordAutomaton build() {
+            return new KeywordAutomaton(this);
+        }
+    }
+}
@@ -26,8 +26,10 @@ import com.github.adamantcheese.chan.core.site.common.CommonDataStructs.ThreadNo
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -42,6 +44,8 @@ public class PageRequestManager
     private ConcurrentMap<String, Long> boardTimeMap = new ConcurrentHashMap<>();
 
     private List<PageCallback> callbackList = new ArrayList<>();
+    // one-shot listeners waiting for a board's next page data, by board code
+    private Map<String, List<SiteActions.PagesListener>> pendingListeners = new HashMap<>();
 
     public ChanPage getPage(Post op) {
         if (op == null) {
@@ -61,6 +65,22 @@ public class PageRequestManager
         requestBoard(b);
     }
 
+    /**
+     * Request fresh page data for the given board, regardless of when it was last updated. The listener is called once
+     * with the result, which is empty if the request failed or the site doesn't provide page data.
+     */
+    public void requestFreshPages(Board b, SiteActions.PagesListener listener) {
+        synchronized (this) {
+            List<SiteActions.PagesListener> listeners = pendingListeners.get(b.code);
+            if (listeners == null) {
+                listeners = new ArrayList<>();
+                pendingListeners.put(b.code, listeners);
+            }
+            listeners.add(listener);
+        }
+        requestBoard(b);
+    }
+
     private ChanPage findPage(Board board, int opNo) {
         ChanPages pages = getPages(board);
         if (pages == null) return null;
@@ -124,6 +144,16 @@ public class PageRequestManager
         boardTimeMap.put(b.code, System.currentTimeMillis());
         boardPagesMap.put(b.code, pages);
 
+        List<SiteActions.PagesListener> listeners;
+        synchronized (this) {
+            listeners = pendingListeners.remove(b.code);
+        }
+        if (listeners != null) {
+            for (SiteActions.PagesListener listener : listeners) {
+                listener.onPagesReceived(b, pages);
+            }
+        }
+
         for (PageCallback callback : callbackList) {
             callback.onPagesReceived();
         }
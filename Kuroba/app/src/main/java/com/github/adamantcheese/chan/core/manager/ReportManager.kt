@@ -308,6 +308,8 @@ class ReportManager(
             appendln("Phone layout mode: ${ChanSettings.layoutMode.get().name}")
             appendln("OkHttp IPv6 support enabled: ${ChanSettings.okHttpAllowIpv6.get()}")
             appendln("OkHttp HTTP/2 support enabled: ${ChanSettings.okHttpAllowHttp2.get()}")
+            appendln("Thread watcher requests saved by board index checks: " +
+                    "${instance(WatchManager::class.java).savedRequestCount}")
         }
     }
 
@@ -1,15 +1,18 @@
 package com.github.adamantcheese.chan.core.manager
 
+import com.github.adamantcheese.chan.core.mapper.PostMapper
 import com.github.adamantcheese.chan.core.mapper.ThreadMapper
 import com.github.adamantcheese.chan.core.model.ChanThread
+import com.github.adamantcheese.chan.core.model.Post
 import com.github.adamantcheese.chan.core.model.orm.Loadable
+import com.github.adamantcheese.chan.core.model.save.SerializablePost
+import com.github.adamantcheese.chan.core.model.save.SerializableThread
 import com.github.adamantcheese.chan.core.repository.SavedThreadLoaderRepository
 import com.github.adamantcheese.chan.ui.settings.base_directory.LocalThreadsBaseDirectory
 import com.github.adamantcheese.chan.utils.BackgroundUtils
 import com.github.adamantcheese.chan.utils.Logger
 import com.github.k1rakishou.fsaf.FileManager
 import com.github.k1rakishou.fsaf.file.DirectorySegment
-import com.github.k1rakishou.fsaf.file.FileSegment
 import java.io.IOException
 import javax.inject.Inject
 
@@ -18,7 +21,12 @@ class SavedThreadLoaderManager @Inject constructor(
         private val fileManager: FileManager
 ) {
 
-    fun loadSavedThread(loadable: Loadable): ChanThread? {
+    /**
+     * Loads a saved thread, but only deserializes its first [firstChunkSize] posts into the returned thread, so it can be
+     * shown right away no matter how big it is. The rest are returned as [LazySavedThread.remainingPosts], sorted, to be
+     * deserialized in chunks with [deserializePosts] and appended to the thread.
+     */
+    fun loadSavedThread(loadable: Loadable, firstChunkSize: Int): LazySavedThread? {
         BackgroundUtils.ensureBackgroundThread()
 
         val baseDir = fileManager.newBaseDirectoryFile<LocalThreadsBaseDirectory>()
@@ -40,18 +48,8 @@ class SavedThreadLoaderManager @Inject constructor(
             return null
         }
 
-        val threadFile = threadSaveDir.clone(FileSegment(SavedThreadLoaderRepository.THREAD_FILE_NAME))
-
-        val threadFileExists = fileManager.exists(threadFile)
-        val threadFileIsFile = fileManager.isFile(threadFile)
-        val threadFileCanRead = fileManager.canRead(threadFile)
-
-        if (!threadFileExists || !threadFileIsFile || !threadFileCanRead) {
-            Logger.e(TAG, "threadFile does not exist or not a file or cannot be read: " +
-                    "(path = " + threadFile.getFullPath()
-                    + ", exists = " + threadFileExists
-                    + ", isFile = " + threadFileIsFile
-                    + ", canRead = " + threadFileCanRead + ")")
+        if (!savedThreadLoaderRepository.hasSavedThread(threadSaveDir)) {
+            Logger.e(TAG, "No saved thread found in threadSaveDir (path = " + threadSaveDir.getFullPath() + ")")
             return null
         }
 
@@ -69,19 +67,39 @@ class SavedThreadLoaderManager @Inject constructor(
         }
 
         try {
-            val serializableThread = savedThreadLoaderRepository.loadOldThreadFromJsonFile(threadSaveDir)
+            val serializableThread = savedThreadLoaderRepository.loadSavedThread(threadSaveDir)
             if (serializableThread == null) {
                 Logger.e(TAG, "Could not load thread from json")
                 return null
             }
 
-            return ThreadMapper.fromSerializedThread(loadable, serializableThread)
+            val postList = serializableThread.postList
+            val firstChunkEnd = minOf(firstChunkSize, postList.size)
+            val chanThread = ThreadMapper.fromSerializedThread(
+                    loadable,
+                    SerializableThread(postList.subList(0, firstChunkEnd))
+            ) ?: return null
+
+            val remainingPosts = postList.subList(firstChunkEnd, postList.size)
+            chanThread.setPendingSavedPostsCount(remainingPosts.size)
+            return LazySavedThread(chanThread, remainingPosts)
         } catch (e: IOException) {
             Logger.e(TAG, "Could not load saved thread", e)
             return null
         }
     }
 
+    fun deserializePosts(loadable: Loadable, posts: List<SerializablePost>): List<Post> {
+        BackgroundUtils.ensureBackgroundThread()
+
+        return PostMapper.fromSerializedPostList(loadable, posts)
+    }
+
+    class LazySavedThread(
+            val thread: ChanThread,
+            val remainingPosts: List<SerializablePost>
+    )
+
     companion object {
         private const val TAG = "SavedThreadLoaderManager"
     }
@@ -13,7 +13,6 @@ import com.github.adamantcheese.chan.core.model.PostImage;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.model.orm.Pin;
 import com.github.adamantcheese.chan.core.model.orm.PinType;
-import com.github.adamantcheese.chan.core.model.save.SerializableThread;
 import com.github.adamantcheese.chan.core.repository.SavedThreadLoaderRepository;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
 import com.github.adamantcheese.chan.ui.settings.base_directory.LocalThreadsBaseDirectory;
@@ -488,13 +487,15 @@ public class ThreadSaveManager {
             @Nullable
             final HttpUrl spoilerImageUrl = getSpoilerImageUrl(newPosts);
 
-            // Try to load old serialized thread
-            @Nullable
-            SerializableThread serializableThread =
-                    savedThreadLoaderRepository.loadOldThreadFromJsonFile(threadSaveDir);
+            // Append new posts to the already saved posts (if there are any)
+            savedThreadLoaderRepository.savePostsToThread(newPosts, threadSaveDir);
 
-            // Add new posts to the already saved posts (if there are any)
-            savedThreadLoaderRepository.savePostsToJsonFile(serializableThread, newPosts, threadSaveDir);
+            if (ChanSettings.exportLocalThreadsJson.get()) {
+                // The whole thread as a single json file, for other tools; loading ignores it in favor of the segments
+                AbstractFile exportFile =
+                        threadSaveDir.clone(new FileSegment(SavedThreadLoaderRepository.THREAD_FILE_NAME));
+                savedThreadLoaderRepository.exportThreadToJsonFile(threadSaveDir, exportFile);
+            }
 
             AtomicInteger currentImageDownloadIndex = new AtomicInteger(0);
             AtomicInteger imageDownloadsWithIoError = new AtomicInteger(0);
@@ -35,14 +35,18 @@ import com.github.adamantcheese.chan.core.database.DatabaseSavedThreadManager;
 import com.github.adamantcheese.chan.core.model.ChanThread;
 import com.github.adamantcheese.chan.core.model.Post;
 import com.github.adamantcheese.chan.core.model.PostImage;
+import com.github.adamantcheese.chan.core.model.orm.Board;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.model.orm.Pin;
 import com.github.adamantcheese.chan.core.model.orm.PinType;
 import com.github.adamantcheese.chan.core.model.orm.SavedThread;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
 import com.github.adamantcheese.chan.core.site.common.CommonDataStructs.ChanPage;
+import com.github.adamantcheese.chan.core.site.common.CommonDataStructs.ChanPages;
+import com.github.adamantcheese.chan.core.site.common.CommonDataStructs.ThreadNoTimeModPair;
 import com.github.adamantcheese.chan.core.site.http.Reply;
 import com.github.adamantcheese.chan.core.site.loader.ChanThreadLoader;
+import com.github.adamantcheese.chan.ui.helper.BoardHelper;
 import com.github.adamantcheese.chan.ui.helper.PostHelper;
 import com.github.adamantcheese.chan.ui.service.LastPageNotification;
 import com.github.adamantcheese.chan.ui.service.WatchNotification;
@@ -57,6 +61,7 @@ import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -155,7 +160,13 @@ public class WatchManager
     private Debouncer stateUpdateDebouncer;
 
     private Map<Pin, PinWatcher> pinWatchers = new HashMap<>();
+    // the sorted thread numbers of the pins for every board, see getWatchedThreadNos(); the arrays are replaced, never
+    // changed, so they can be handed to other threads
+    private final Map<String, int[]> watchedThreadNos = new HashMap<>();
     private Set<PinWatcher> waitingForPinWatchersForBackgroundUpdate;
+    // the background update whose board indexes are still being requested
+    private UpdateCycle waitingForBoardIndexes;
+    private long savedRequestCount = 0;
 
     @Inject
     public WatchManager(
@@ -181,6 +192,9 @@ public class WatchManager
 
         pins = databaseManager.runTask(databasePinManager.getPins());
         Collections.sort(pins);
+        for (Pin pin : pins) {
+            indexPin(pin);
+        }
 
         savedThreads = databaseManager.runTask(databaseSavedThreadManager.getSavedThreads());
 
@@ -259,6 +273,7 @@ public class WatchManager
             p.order++;
         }
         pins.add(pin);
+        indexPin(pin);
         databaseManager.runTask(databasePinManager.createPin(pin));
 
         // apply orders.
@@ -405,6 +420,7 @@ public class WatchManager
     public void deletePin(Pin pin) {
         int index = pins.indexOf(pin);
         pins.remove(pin);
+        unindexPin(pin);
 
         destroyPinWatcher(pin);
         deleteSavedThread(pin.loadable.id);
@@ -445,6 +461,7 @@ public class WatchManager
     public void deletePins(List<Pin> pinList) {
         for (Pin pin : pinList) {
             pins.remove(pin);
+            unindexPin(pin);
             destroyPinWatcher(pin);
             deleteSavedThread(pin.loadable.id);
 
@@ -522,6 +539,7 @@ public class WatchManager
         for (Pin updatedPin : updatedPins) {
             if (!foundPins.contains(updatedPin)) {
                 pins.add(updatedPin);
+                indexPin(updatedPin);
             }
         }
     }
@@ -687,6 +705,59 @@ public class WatchManager
         return pins;
     }
 
+    /**
+     * @return the sorted thread numbers of the pins on a board, to look up with {@link Arrays#binarySearch}; the array
+     * is never changed, so it can be used on any thread
+     */
+    public int[] getWatchedThreadNos(int siteId, String boardCode) {
+        int[] nos = watchedThreadNos.get(boardKey(siteId, boardCode));
+        return nos == null ? new int[0] : nos;
+    }
+
+    private void indexPin(Pin pin) {
+        if (!pin.loadable.isThreadMode()) return;
+
+        String key = boardKey(pin.loadable.siteId, pin.loadable.boardCode);
+        int[] nos = getWatchedThreadNos(pin.loadable.siteId, pin.loadable.boardCode);
+        int index = Arrays.binarySearch(nos, pin.loadable.no);
+        if (index >= 0) return;
+
+        index = -index - 1;
+        int[] newNos = new int[nos.length + 1];
+        System.arraycopy(nos, 0, newNos, 0, index);
+        newNos[index] = pin.loadable.no;
+        System.arraycopy(nos, index, newNos, index + 1, nos.length - index);
+        watchedThreadNos.put(key, newNos);
+    }
+
+    private void unindexPin(Pin pin) {
+        // another pin may still be for the same thread
+        for (Pin p : pins) {
+            if (p.loadable.siteId == pin.loadable.siteId && p.loadable.no == pin.loadable.no
+                    && p.loadable.boardCode.equals(pin.loadable.boardCode)) {
+                return;
+            }
+        }
+
+        String key = boardKey(pin.loadable.siteId, pin.loadable.boardCode);
+        int[] nos = getWatchedThreadNos(pin.loadable.siteId, pin.loadable.boardCode);
+        int index = Arrays.binarySearch(nos, pin.loadable.no);
+        if (index < 0) return;
+
+        if (nos.length == 1) {
+            watchedThreadNos.remove(key);
+        } else {
+            int[] newNos = new int[nos.length - 1];
+            System.arraycopy(nos, 0, newNos, 0, index);
+            System.arraycopy(nos, index + 1, newNos, index, nos.length - index - 1);
+            watchedThreadNos.put(key, newNos);
+        }
+    }
+
+    private static String boardKey(int siteId, String boardCode) {
+        return siteId + "/" + boardCode;
+    }
+
     public void addAll(List<Pin> pins) {
         Collections.sort(pins);
         for (Pin pin : pins) {
@@ -1039,25 +1110,114 @@ public class WatchManager
             waitingForPinWatchersForBackgroundUpdate = new HashSet<>();
         }
 
-        List<Pin> watchingPins = getWatchingPins();
-        for (Pin pin : watchingPins) {
+        // Group the watchers per board, so that every board's thread index is only requested once per update
+        // and only the threads that were modified since they were last loaded get requested
+        Map<String, List<PinWatcher>> boardWatchers = new HashMap<>();
+        Map<String, Board> boards = new HashMap<>();
+        for (Pin pin : getWatchingPins()) {
             PinWatcher pinWatcher = getPinWatcher(pin);
-            if (pinWatcher != null && pinWatcher.update(fromBackground)) {
-                postToEventBus(new PinMessages.PinChangedMessage(pin));
+            if (pinWatcher == null) continue;
 
-                if (fromBackground) {
-                    waitingForPinWatchersForBackgroundUpdate.add(pinWatcher);
-                }
+            if (pin.loadable.isLocal()) {
+                // no index to check against, update it directly
+                startPinWatcherUpdate(pinWatcher, fromBackground, -1);
+                continue;
+            }
+
+            String boardId = BoardHelper.boardUniqueId(pin.loadable.board);
+            List<PinWatcher> watchers = boardWatchers.get(boardId);
+            if (watchers == null) {
+                watchers = new ArrayList<>();
+                boardWatchers.put(boardId, watchers);
+                boards.put(boardId, pin.loadable.board);
             }
+            watchers.add(pinWatcher);
         }
 
-        if (fromBackground && !waitingForPinWatchersForBackgroundUpdate.isEmpty()) {
-            Logger.i(this,
-                    waitingForPinWatchersForBackgroundUpdate.size() + " pin watchers beginning updates, started at "
-                            + StringUtils.getCurrentDateAndTimeUTC()
-            );
+        UpdateCycle cycle = new UpdateCycle(fromBackground, boardWatchers.keySet());
+        if (fromBackground) {
+            waitingForBoardIndexes = boardWatchers.isEmpty() ? null : cycle;
+        }
+
+        if (fromBackground && (!waitingForPinWatchersForBackgroundUpdate.isEmpty() || !boardWatchers.isEmpty())) {
+            Logger.i(this, waitingForPinWatchersForBackgroundUpdate.size() + " pin watchers and " + boardWatchers.size()
+                    + " board indexes beginning updates, started at " + StringUtils.getCurrentDateAndTimeUTC());
             wakeManager.manageLock(true, WatchManager.this);
         }
+
+        for (Map.Entry<String, List<PinWatcher>> entry : boardWatchers.entrySet()) {
+            String boardId = entry.getKey();
+            List<PinWatcher> watchers = entry.getValue();
+            pageRequestManager.requestFreshPages(boards.get(boardId),
+                    (board, pages) -> onBoardIndexReceived(cycle, boardId, watchers, pages)
+            );
+        }
+    }
+
+    private void onBoardIndexReceived(UpdateCycle cycle, String boardId, List<PinWatcher> watchers, ChanPages pages) {
+        Map<Integer, Long> modifiedTimes = new HashMap<>();
+        for (ChanPage page : pages.pages) {
+            for (ThreadNoTimeModPair thread : page.threads) {
+                modifiedTimes.put(thread.no, thread.modified);
+            }
+        }
+
+        for (PinWatcher pinWatcher : watchers) {
+            // destroyed while the index was being requested
+            if (pinWatcher.chanLoader == null) continue;
+
+            Long modified = modifiedTimes.get(pinWatcher.pin.loadable.no);
+            // threads that aren't in the index (new, archived, 404'd) or sites without modification times
+            // get updated like before
+            if (startPinWatcherUpdate(pinWatcher, cycle.fromBackground, modified == null ? -1 : modified)) {
+                cycle.threadRequests++;
+            } else if (modified != null && modified > 0) {
+                cycle.skippedThreadRequests++;
+            }
+        }
+
+        cycle.pendingBoards.remove(boardId);
+        if (cycle.pendingBoards.isEmpty()) {
+            savedRequestCount += cycle.skippedThreadRequests - cycle.boardRequests;
+            Logger.d(this, String.format(Locale.ENGLISH,
+                    "Watch update: %d board index requests, %d thread requests, %d unmodified threads skipped; "
+                            + "%d requests saved in total",
+                    cycle.boardRequests,
+                    cycle.threadRequests,
+                    cycle.skippedThreadRequests,
+                    savedRequestCount
+            ));
+
+            synchronized (WatchManager.this) {
+                if (waitingForBoardIndexes == cycle) {
+                    waitingForBoardIndexes = null;
+                    releaseBackgroundLockIfDone();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param modified the thread's last modified time from its board's thread index, or -1 if not known
+     * @return true if the pin watcher started loading
+     */
+    private boolean startPinWatcherUpdate(PinWatcher pinWatcher, boolean fromBackground, long modified) {
+        if (!pinWatcher.update(fromBackground, modified)) return false;
+
+        postToEventBus(new PinMessages.PinChangedMessage(pinWatcher.pin));
+        synchronized (WatchManager.this) {
+            if (fromBackground && waitingForPinWatchersForBackgroundUpdate != null) {
+                waitingForPinWatchersForBackgroundUpdate.add(pinWatcher);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of thread requests the board index checks saved, minus the index requests themselves
+     */
+    public long getSavedRequestCount() {
+        return savedRequestCount;
     }
 
     /**
@@ -1101,16 +1261,35 @@ public class WatchManager
         synchronized (WatchManager.this) {
             if (waitingForPinWatchersForBackgroundUpdate != null) {
                 waitingForPinWatchersForBackgroundUpdate.remove(pinWatcher);
-
-                if (waitingForPinWatchersForBackgroundUpdate.isEmpty()) {
-                    Logger.i(this, "All watchers updated, finished at " + StringUtils.getCurrentDateAndTimeUTC());
-                    waitingForPinWatchersForBackgroundUpdate = null;
-                    wakeManager.manageLock(false, WatchManager.this);
-                }
+                releaseBackgroundLockIfDone();
             }
         }
     }
 
+    // the wakelock for a background update is held until all board indexes came in and all started watchers finished
+    private void releaseBackgroundLockIfDone() {
+        if (waitingForPinWatchersForBackgroundUpdate != null && waitingForPinWatchersForBackgroundUpdate.isEmpty()
+                && waitingForBoardIndexes == null) {
+            Logger.i(this, "All watchers updated, finished at " + StringUtils.getCurrentDateAndTimeUTC());
+            waitingForPinWatchersForBackgroundUpdate = null;
+            wakeManager.manageLock(false, WatchManager.this);
+        }
+    }
+
+    private static class UpdateCycle {
+        private final boolean fromBackground;
+        private final Set<String> pendingBoards;
+        private final int boardRequests;
+        private int threadRequests;
+        private int skippedThreadRequests;
+
+        private UpdateCycle(boolean fromBackground, Set<String> boards) {
+            this.fromBackground = fromBackground;
+            pendingBoards = new HashSet<>(boards);
+            boardRequests = boards.size();
+        }
+    }
+
     public static class PinMessages {
         public static class PinAddedMessage {
             public Pin pin;
@@ -1225,7 +1404,15 @@ public class WatchManager
             pageRequestManager.removeListener(this);
         }
 
-        private boolean update(boolean fromBackground) {
+        // the thread's last modified time in the board index when it was last loaded because of it, -1 if unknown
+        private long lastLoadedModified = -1;
+
+        /**
+         * @param modified the thread's last modified time from its board's thread index, or -1 if not known; if known
+         *                 the thread is only loaded if it changed since the last time it was loaded
+         * @return true if a load was started
+         */
+        private boolean update(boolean fromBackground, long modified) {
             if (!pin.isError && pin.watching) {
                 //check last page stuff, get the page for the OP and notify in the onPages method
                 ChanPage page = pageRequestManager.getPage(chanLoader.getLoadable());
@@ -1233,7 +1420,16 @@ public class WatchManager
                     latestKnownPage = page.page;
                     doPageNotification(page);
                 }
-                if (fromBackground) {
+                if (modified > 0) {
+                    if (modified == lastLoadedModified) {
+                        return false;
+                    }
+                    // the index says there's something new, so skip the loader's backoff timer
+                    lastLoadedModified = modified;
+                    chanLoader.clearTimer();
+                    chanLoader.requestMoreData();
+                    return true;
+                } else if (fromBackground) {
                     // Always load regardless of timer, since the time left is not accurate for 15min+ intervals
                     chanLoader.clearTimer();
                     chanLoader.requestMoreData();
@@ -1250,6 +1446,8 @@ public class WatchManager
         @Override
         public void onChanLoaderError(ChanThreadLoader.ChanLoaderException error) {
             Logger.d(this, "onChanLoaderError()");
+            // try again next update, even if the index didn't change
+            lastLoadedModified = -1;
 
             // Ignore normal network errors, we only pause pins when there is absolutely no way
             // we'll ever need watching again: a 404.
@@ -0,0 +1,385 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.core.manager;
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.util.JsonReader;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import com.github.adamantcheese.chan.core.model.Post;
+import com.github.adamantcheese.chan.core.model.PostLinkable;
+import com.github.adamantcheese.chan.core.settings.ChanSettings;
+import com.github.adamantcheese.chan.utils.BackgroundUtils;
+import com.github.adamantcheese.chan.utils.Logger;
+import com.github.adamantcheese.chan.utils.NetUtils;
+import com.github.adamantcheese.chan.utils.StringUtils;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.joda.time.Period;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+
+import static com.github.adamantcheese.chan.utils.AndroidUtils.postToEventBus;
+
+/**
+ * Resolves youtube video titles and durations for links in post comments, off of the post parser threads.
+ * <p>
+ * While parsing, links with a known title are replaced right away; the rest are left as links and queued here with
+ * {@link #enqueue(Post, String, PostLinkable)}. After a parse finishes, {@link #flush()} requests the titles in batches of
+ * up to {@link #MAX_IDS_PER_REQUEST} video ids, then replaces the comments of the affected posts with patched copies on
+ * the main thread and posts a {@link TitlesResolvedMessage} so they can be redrawn.
+ * <p>
+ * Resolved titles are kept in an on-disk cache with a time to live, so they survive restarts without extra API calls.
+ */
+public class YoutubeTitleResolver {
+    private static final int MAX_IDS_PER_REQUEST = 50;
+    private static final int MAX_CACHE_ENTRIES = 5000;
+    private static final long CACHE_TTL = TimeUnit.DAYS.toMillis(14);
+    private static final Type CACHE_TYPE = new TypeToken<LinkedHashMap<String, VideoInfo>>() {}.getType();
+
+    private final Gson gson;
+    private final File cacheFile;
+
+    // video id to title/duration, in access order; guarded by itself
+    private final LinkedHashMap<String, VideoInfo> cache = new LinkedHashMap<String, VideoInfo>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, VideoInfo> eldest) {
+            return size() > MAX_CACHE_ENTRIES;
+        }
+    };
+    private boolean cacheLoaded = false;
+    private boolean cacheDirty = false;
+
+    // video id to the links waiting for its title; guarded by this
+    private final Map<String, List<PendingLink>> pending = new HashMap<>();
+    // video ids queued since the last flush
+    private final List<String> toRequest = new ArrayList<>();
+
+    public YoutubeTitleResolver(Gson gson, File cacheFile) {
+        this.gson = gson;
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * @return the cached title and duration for the given video, or null if it's not known (or too old)
+     */
+    @Nullable
+    @AnyThread
+    public VideoInfo getCached(String videoId) {
+        synchronized (cache) {
+            loadCache();
+            VideoInfo info = cache.get(videoId);
+            if (info != null && System.currentTimeMillis() - info.resolvedAt > CACHE_TTL) {
+                cache.remove(videoId);
+                cacheDirty = true;
+                return null;
+            }
+            return info;
+        }
+    }
+
+    /**
+     * Queue a link in a post comment to be replaced with its video's title when it is resolved. The post's comment must
+     * be {@link Spanned} and have the linkable set on the link's range.
+     */
+    @AnyThread
+    public synchronized void enqueue(Post post, String videoId, PostLinkable linkable) {
+        List<PendingLink> links = pending.get(videoId);
+        if (links == null) {
+            links = new ArrayList<>(1);
+            pending.put(videoId, links);
+            toRequest.add(videoId);
+        }
+        links.add(new PendingLink(post, linkable));
+    }
+
+    /**
+     * Request the titles of everything queued since the last flush; this doesn't block, the titles get applied when they
+     * arrive.
+     */
+    @AnyThread
+    public void flush() {
+        List<String> ids;
+        synchronized (this) {
+            if (toRequest.isEmpty()) return;
+            ids = new ArrayList<>(toRequest);
+            toRequest.clear();
+        }
+
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_REQUEST) {
+            List<String> batch = new ArrayList<>(ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_REQUEST)));
+            NetUtils.makeJsonRequest(getBatchUrl(batch), new NetUtils.JsonResult<Map<String, VideoInfo>>() {
+                @Override
+                public void onJsonFailure(Exception e) {
+                    Logger.w(YoutubeTitleResolver.this, "Failed to resolve " + batch.size() + " youtube titles", e);
+                    synchronized (YoutubeTitleResolver.this) {
+                        for (String id : batch) {
+                            pending.remove(id);
+                        }
+                    }
+                }
+
+                @Override
+                public void onJsonSuccess(Map<String, VideoInfo> result) {
+                    onTitlesResolved(batch, result);
+                }
+            }, this::readVideos);
+        }
+    }
+
+    private HttpUrl getBatchUrl(List<String> videoIds) {
+        return HttpUrl.get("https://www.googleapis.com/youtube/v3/videos").newBuilder()
+                .addQueryParameter("part", "snippet,contentDetails")
+                .addQueryParameter("id", TextUtils.join(",", videoIds))
+                .addQueryParameter("fields", "items(id,snippet(title),contentDetails(duration))")
+                .addQueryParameter("key", ChanSettings.parseYoutubeAPIKey.get())
+                .build();
+    }
+
+    private Map<String, VideoInfo> readVideos(JsonReader reader)
+            throws Exception {
+        /*
+            {
+              "items": [
+                {
+                  "id": "UyXlt9PP4eM",
+                  "snippet": {
+                    "title": "ATC Spindle Part 3: Designing the Spindle Mount"
+                  },
+                  "contentDetails": {
+                    "duration": "PT22M27S"
+                  }
+                }
+              ]
+            }
+         */
+        Map<String, VideoInfo> videos = new HashMap<>();
+        long now = System.currentTimeMillis();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("items")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String id = null;
+                String title = null;
+                String duration = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "id":
+                            id = reader.nextString();
+                            break;
+                        case "snippet":
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                if (reader.nextName().equals("title")) {
+                                    title = reader.nextString();
+                                } else {
+                                    reader.skipValue();
+                                }
+                            }
+                            reader.endObject();
+                            break;
+                        case "contentDetails":
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                if (reader.nextName().equals("duration")) {
+                                    duration = StringUtils.getHourMinSecondString(Period.parse(reader.nextString()));
+                                } else {
+                                    reader.skipValue();
+                                }
+                            }
+                            reader.endObject();
+                            break;
+                        default:
+                            reader.skipValue();
+                            break;
+                    }
+                }
+                reader.endObject();
+                if (id != null && title != null) {
+                    videos.put(id, new VideoInfo(title, duration, now));
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return videos;
+    }
+
+    @MainThread
+    private void onTitlesResolved(List<String> requested, Map<String, VideoInfo> resolved) {
+        synchronized (cache) {
+            cache.putAll(resolved);
+            cacheDirty = true;
+        }
+
+        List<PendingLink> links = new ArrayList<>();
+        synchronized (this) {
+            for (String id : requested) {
+                List<PendingLink> forId = pending.remove(id);
+                // unknown or private videos just stay as links
+                if (forId != null && resolved.containsKey(id)) {
+                    for (PendingLink link : forId) {
+                        link.info = resolved.get(id);
+                        links.add(link);
+                    }
+                }
+            }
+        }
+
+        // the comments are shared with everything that shows or searches the posts, so each post gets a patched copy
+        List<Post> updated = new ArrayList<>();
+        Map<Post, SpannableStringBuilder> comments = new IdentityHashMap<>();
+        for (PendingLink link : links) {
+            SpannableStringBuilder comment = comments.get(link.post);
+            if (comment == null) {
+                if (!(link.post.comment instanceof Spanned)) continue;
+                comment = new SpannableStringBuilder(link.post.comment);
+                comments.put(link.post, comment);
+                updated.add(link.post);
+            }
+            int start = comment.getSpanStart(link.linkable);
+            int end = comment.getSpanEnd(link.linkable);
+            if (start < 0 || end < start + 2) continue;
+
+            // the first two characters are the space for the youtube icon
+            String title = link.info.getDisplayText();
+            comment.replace(start + 2, end, title);
+            comment.setSpan(link.linkable, start, start + 2 + title.length(), comment.getSpanFlags(link.linkable));
+        }
+        for (Post post : updated) {
+            post.setComment(comments.get(post));
+        }
+
+        if (!updated.isEmpty()) {
+            postToEventBus(new TitlesResolvedMessage(updated));
+        }
+    }
+
+    private void loadCache() {
+        if (cacheLoaded) return;
+        cacheLoaded = true;
+        if (!cacheFile.exists()) return;
+
+        try (Reader reader = new FileReader(cacheFile)) {
+            Map<String, VideoInfo> stored = gson.fromJson(reader, CACHE_TYPE);
+            if (stored != null) {
+                long now = System.currentTimeMillis();
+                for (Map.Entry<String, VideoInfo> entry : stored.entrySet()) {
+                    if (now - entry.getValue().resolvedAt <= CACHE_TTL) {
+                        cache.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Logger.e(this, "Error reading the youtube title cache", e);
+        }
+    }
+
+    /**
+     * Write the title cache to disk, if anything changed since it was last written.
+     */
+    @AnyThread
+    public void persist() {
+        BackgroundUtils.runOnBackgroundThread(() -> {
+            String json;
+            synchronized (cache) {
+                if (!cacheDirty) return;
+                // drop expired entries before writing
+                long now = System.currentTimeMillis();
+                Iterator<VideoInfo> iterator = cache.values().iterator();
+                while (iterator.hasNext()) {
+                    if (now - iterator.next().resolvedAt > CACHE_TTL) {
+                        iterator.remove();
+                    }
+                }
+                json = gson.toJson(cache, CACHE_TYPE);
+                cacheDirty = false;
+            }
+
+            try (Writer writer = new FileWriter(cacheFile)) {
+                writer.write(json);
+            } catch (Exception e) {
+                Logger.e(this, "Error writing the youtube title cache", e);
+            }
+        });
+    }
+
+    public static class VideoInfo {
+        public final String title;
+        @Nullable
+        public final String duration;
+        public final long resolvedAt;
+
+        public VideoInfo(String title, @Nullable String duration, long resolvedAt) {
+            this.title = title;
+            this.duration = duration;
+            this.resolvedAt = resolvedAt;
+        }
+
+        /**
+         * @return the title with the duration appended, if durations are enabled
+         */
+        public String getDisplayText() {
+            return title + (ChanSettings.parseYoutubeDuration.get() && duration != null ? " " + duration : "");
+        }
+    }
+
+    private static class PendingLink {
+        private final Post post;
+        private final PostLinkable linkable;
+        private VideoInfo info;
+
+        private PendingLink(Post post, PostLinkable linkable) {
+            this.post = post;
+            this.linkable = linkable;
+        }
+    }
+
+    public static class TitlesResolvedMessage {
+        public final List<Post> posts;
+
+        public TitlesResolvedMessage(List<Post> posts) {
+            this.posts = posts;
+        }
+    }
+}
@@ -57,16 +57,6 @@ public class PostMapper {
         );
     }
 
-    public static List<SerializablePost> toSerializablePostList(List<Post> postList) {
-        List<SerializablePost> serializablePostList = new ArrayList<>(postList.size());
-
-        for (Post post : postList) {
-            serializablePostList.add(toSerializablePost(post));
-        }
-
-        return serializablePostList;
-    }
-
     public static Post fromSerializedPost(Loadable loadable, SerializablePost serializablePost) {
         CharSequence subject = SpannableStringMapper.deserializeSpannableString(serializablePost.getSubject());
         CharSequence subjectSpans = subject.length() == 0 ? null : subject;
@@ -13,10 +13,6 @@ import java.util.List;
 public class ThreadMapper {
     private static final String TAG = "ThreadMapper";
 
-    public static SerializableThread toSerializableThread(List<Post> posts) {
-        return new SerializableThread(PostMapper.toSerializablePostList(posts));
-    }
-
     @Nullable
     public static ChanThread fromSerializedThread(Loadable loadable, SerializableThread serializableThread) {
         List<Post> posts = PostMapper.fromSerializedPostList(loadable, serializableThread.getPostList());
@@ -31,6 +31,10 @@ public class ChanThread {
     private List<Post> posts;
     private boolean closed = false;
     private boolean archived = false;
+    // posts of a saved thread that are still being deserialized in the background and are not in posts yet
+    private int pendingSavedPostsCount = 0;
+    // built as the thread is searched, see PostsFilter
+    private final PostSearchIndex searchIndex = new PostSearchIndex();
 
     public ChanThread(Loadable loadable, List<Post> posts) {
         this.loadable = loadable;
@@ -74,6 +78,26 @@ public class ChanThread {
         this.posts = Collections.unmodifiableList(new ArrayList<>(newPosts));
     }
 
+    /**
+     * @return the number of saved posts that are still being loaded from disk, when a saved thread is shown before it
+     * is fully loaded; those posts come after all posts in {@link #getPosts()}
+     */
+    public synchronized int getPendingSavedPostsCount() {
+        return pendingSavedPostsCount;
+    }
+
+    public synchronized boolean isLoadingSavedPosts() {
+        return pendingSavedPostsCount > 0;
+    }
+
+    public synchronized void setPendingSavedPostsCount(int pendingSavedPostsCount) {
+        this.pendingSavedPostsCount = pendingSavedPostsCount;
+    }
+
+    public PostSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
     public synchronized int getLoadableId() {
         return loadable.id;
     }
@@ -20,6 +20,7 @@ import android.graphics.Color;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.MainThread;
+import androidx.core.text.HtmlCompat;
 
 import com.github.adamantcheese.chan.core.model.orm.Board;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
@@ -27,8 +28,11 @@ import com.vdurmont.emoji.EmojiParser;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -48,7 +52,11 @@ public class Post
 
     public final String name;
 
-    public final CharSequence comment;
+    /**
+     * Only replaced as a whole by {@link #setComment(CharSequence)}, never changed in place, as it can be read on any
+     * thread.
+     */
+    public volatile CharSequence comment;
 
     public final String subject;
 
@@ -96,6 +104,13 @@ public class Post
 
     public final CharSequence nameTripcodeIdCapcodeSpan;
 
+    /**
+     * Lowercase plain text of the comment, subject, name and filenames, separated by {@link #SEARCH_TEXT_SEPARATOR}.
+     * Built with the post (posts are built on the parser threads) so searching doesn't have to re-derive it, and
+     * rebuilt when the comment is replaced.
+     */
+    public volatile String searchText;
+
     /**
      * This post has been deleted (the server isn't sending it anymore).
      * <p><b>This boolean is modified in worker threads, use {@code .get()} to access it.</b>
@@ -109,6 +124,9 @@ public class Post
      */
     public final List<Integer> repliesFrom = new ArrayList<>();
 
+    // can't be typed in a search query, so a query never matches across two fields
+    public static final char SEARCH_TEXT_SEPARATOR = '\u0000';
+
     // These members may only mutate on the main thread.
     private boolean sticky;
     private boolean closed;
@@ -173,6 +191,21 @@ public class Post
 
         linkables = Collections.unmodifiableList(new ArrayList<>(builder.linkables));
         repliesTo = Collections.unmodifiableSet(builder.repliesToIds);
+
+        searchText = buildSearchText();
+    }
+
+    private String buildSearchText() {
+        StringBuilder text = new StringBuilder(comment.length() + 64);
+        text.append(comment).append(SEARCH_TEXT_SEPARATOR);
+        text.append(subject).append(SEARCH_TEXT_SEPARATOR);
+        text.append(name);
+        for (PostImage image : images) {
+            if (image.filename != null) {
+                text.append(SEARCH_TEXT_SEPARATOR).append(image.filename);
+            }
+        }
+        return text.toString().toLowerCase(Locale.ENGLISH);
     }
 
     @AnyThread
@@ -265,6 +298,16 @@ public class Post
         return images.isEmpty() ? null : images.get(0);
     }
 
+    /**
+     * Replaces the comment, for when links in it were resolved after the post was built, together with the search
+     * text that includes it.
+     */
+    @MainThread
+    public void setComment(CharSequence comment) {
+        this.comment = comment;
+        searchText = buildSearchText();
+    }
+
     @MainThread
     public boolean hasFilterParameters() {
         return filterRemove || filterHighlightedColor != 0 || filterReplies || filterStub;
@@ -353,7 +396,12 @@ public class Post
         public CharSequence subjectSpan;
         public CharSequence nameTripcodeIdCapcodeSpan;
 
+        // the comment html as plain text, for filters; computed once on demand
+        private String plainComment;
+
         private Set<PostLinkable> linkables = new HashSet<>();
+        // youtube links in the comment that are still waiting on their title, linkable to video id
+        private Map<PostLinkable, String> unresolvedYoutubeLinks = new HashMap<>();
         private Set<Integer> repliesToIds = new HashSet<>();
 
         public Builder() {
@@ -430,9 +478,21 @@ public class Post
 
         public Builder comment(CharSequence comment) {
             this.comment = comment;
+            plainComment = null;
             return this;
         }
 
+        /**
+         * @return the comment as plain text, with the html tags stripped and entities decoded. Computed once, so all
+         * filters can share it.
+         */
+        public String plainComment() {
+            if (plainComment == null) {
+                plainComment = HtmlCompat.fromHtml(comment.toString(), 0).toString();
+            }
+            return plainComment;
+        }
+
         public Builder tripcode(String tripcode) {
             this.tripcode = tripcode;
             return this;
@@ -544,6 +604,19 @@ public class Post
             }
         }
 
+        public Builder addUnresolvedYoutubeLink(PostLinkable linkable, String videoId) {
+            synchronized (this) {
+                unresolvedYoutubeLinks.put(linkable, videoId);
+                return this;
+            }
+        }
+
+        public Map<PostLinkable, String> getUnresolvedYoutubeLinks() {
+            synchronized (this) {
+                return new HashMap<>(unresolvedYoutubeLinks);
+            }
+        }
+
         public Builder addReplyTo(int postId) {
             repliesToIds.add(postId);
             return this;
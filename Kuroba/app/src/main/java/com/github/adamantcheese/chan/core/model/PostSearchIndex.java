@@ -0,0 +1,222 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.core.model;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static com.github.adamantcheese.chan.core.model.Post.SEARCH_TEXT_SEPARATOR;
+
+/**
+ * A trigram index over the {@link Post#searchText} of the posts of a {@link ChanThread}, so a search only has to check
+ * the posts that contain every three letter part of the query.<br>
+ * Posts are indexed the first time they're searched, so threads that are never searched don't pay for the index, and
+ * posts that arrive later are added on the next search. While a query is being typed, every new query that contains
+ * the previous one is only checked against the posts the previous one matched.
+ */
+public class PostSearchIndex {
+    private static final int GRAM_LENGTH = 3;
+
+    // trigram -> numbers of the posts that contain it; the post it was indexed for can since be replaced or removed,
+    // so the candidates it gives are always checked against the post itself
+    private final Map<Long, PostNos> postNosByGram = new HashMap<>();
+    // the search texts that are indexed; a post that was rebuilt, e.g. after it was deleted, or whose comment was
+    // replaced has a new one, and is indexed again
+    private final Map<Integer, String> indexedTexts = new HashMap<>();
+
+    @Nullable
+    private String lastQuery;
+    // the search texts the last query was checked against and the posts it matched
+    private Map<Integer, String> lastChecked = Collections.emptyMap();
+    private Set<Integer> lastMatched = Collections.emptySet();
+
+    /**
+     * @param posts the posts to search, which are indexed first if they weren't yet
+     * @param query the text to find, in any case
+     * @return the matches, in the order of the given posts
+     */
+    public synchronized Result search(List<Post> posts, String query) {
+        String lowerQuery = query.toLowerCase(Locale.ENGLISH);
+        index(posts);
+
+        Set<Integer> candidates = lowerQuery.length() >= GRAM_LENGTH ? getCandidates(lowerQuery) : null;
+        boolean narrow = lastQuery != null && lowerQuery.contains(lastQuery);
+
+        Result result = new Result(lowerQuery);
+        Map<Integer, String> checked = new HashMap<>(posts.size());
+        Set<Integer> matched = new HashSet<>();
+        for (Post post : posts) {
+            // read once, the comment of a post can be replaced while it's searched
+            CharSequence comment = post.comment;
+            String text = post.searchText;
+            checked.put(post.no, text);
+            // the previous query would've matched it too
+            if (narrow && lastChecked.get(post.no) == text && !lastMatched.contains(post.no)) continue;
+            if (candidates != null && !candidates.contains(post.no)) continue;
+
+            int index = text.indexOf(lowerQuery);
+            if (index < 0) continue;
+
+            matched.add(post.no);
+            result.posts.add(post);
+            result.commentMatches.put(post.no, findCommentMatches(comment, text, lowerQuery, index));
+        }
+
+        lastQuery = lowerQuery;
+        lastChecked = checked;
+        lastMatched = matched;
+        return result;
+    }
+
+    private void index(List<Post> posts) {
+        Set<Long> postGrams = new HashSet<>();
+        for (Post post : posts) {
+            String text = post.searchText;
+            if (indexedTexts.put(post.no, text) == text) continue;
+
+            postGrams.clear();
+            for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+                long gram = gram(text, i);
+                if (gram >= 0 && postGrams.add(gram)) {
+                    PostNos postNos = postNosByGram.get(gram);
+                    if (postNos == null) {
+                        postNos = new PostNos();
+                        postNosByGram.put(gram, postNos);
+                    }
+                    postNos.add(post.no);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the posts that contain every trigram of the query, starting from the rarest one
+     */
+    private Set<Integer> getCandidates(String lowerQuery) {
+        List<PostNos> lists = new ArrayList<>();
+        for (int i = 0; i + GRAM_LENGTH <= lowerQuery.length(); i++) {
+            long gram = gram(lowerQuery, i);
+            PostNos postNos = gram < 0 ? null : postNosByGram.get(gram);
+            if (postNos == null) return Collections.emptySet();
+            lists.add(postNos);
+        }
+
+        PostNos rarest = lists.get(0);
+        for (PostNos postNos : lists) {
+            if (postNos.size < rarest.size) {
+                rarest = postNos;
+            }
+        }
+
+        Set<Integer> candidates = new HashSet<>(rarest.size * 2);
+        for (int i = 0; i < rarest.size; i++) {
+            candidates.add(rarest.nos[i]);
+        }
+        for (PostNos postNos : lists) {
+            if (postNos == rarest || candidates.isEmpty()) continue;
+
+            Set<Integer> inBoth = new HashSet<>(candidates.size() * 2);
+            for (int i = 0; i < postNos.size; i++) {
+                if (candidates.contains(postNos.nos[i])) {
+                    inBoth.add(postNos.nos[i]);
+                }
+            }
+            candidates = inBoth;
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the start of every match in the comment, which starts the search text
+     */
+    private static int[] findCommentMatches(CharSequence comment, String text, String lowerQuery, int firstIndex) {
+        int commentLength = comment.length();
+        // lowercasing can change the length of some characters, then the offsets don't fit the comment anymore; the
+        // comment can also have been replaced between reading it and its search text
+        if (text.length() <= commentLength || text.charAt(commentLength) != SEARCH_TEXT_SEPARATOR) {
+            return new int[0];
+        }
+
+        List<Integer> starts = new ArrayList<>();
+        int index = firstIndex;
+        while (index >= 0 && index + lowerQuery.length() <= commentLength) {
+            starts.add(index);
+            index = text.indexOf(lowerQuery, index + lowerQuery.length());
+        }
+
+        int[] matches = new int[starts.size()];
+        for (int i = 0; i < matches.length; i++) {
+            matches[i] = starts.get(i);
+        }
+        return matches;
+    }
+
+    /**
+     * @return the characters packed in one number, or -1 if the text can't be matched there
+     */
+    private static long gram(String text, int start) {
+        long gram = 0;
+        for (int i = start; i < start + GRAM_LENGTH; i++) {
+            char c = text.charAt(i);
+            if (c == SEARCH_TEXT_SEPARATOR) return -1;
+            gram = (gram << 16) | c;
+        }
+        return gram;
+    }
+
+    public static class Result {
+        // the lowercased query
+        public final String query;
+        public final List<Post> posts = new ArrayList<>();
+        private final Map<Integer, int[]> commentMatches = new HashMap<>();
+
+        private Result(String query) {
+            this.query = query;
+        }
+
+        /**
+         * @return the start of every match of the query in the comment of the post, each {@code query.length()}
+         * long, or null if the post didn't match
+         */
+        @Nullable
+        public int[] getCommentMatches(Post post) {
+            return commentMatches.get(post.no);
+        }
+    }
+
+    private static class PostNos {
+        private int[] nos = new int[4];
+        private int size = 0;
+
+        private void add(int no) {
+            if (size == nos.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(nos, 0, grown, 0, size);
+                nos = grown;
+            }
+            nos[size++] = no;
+        }
+    }
+}
@@ -26,13 +26,13 @@ public class PostHide {
     @DatabaseField(generatedId = true)
     public int id;
 
-    @DatabaseField(columnName = "site")
+    @DatabaseField(columnName = "site", indexName = "posthide_site_board_no_idx")
     public int site;
 
-    @DatabaseField(columnName = "board")
+    @DatabaseField(columnName = "board", indexName = "posthide_site_board_no_idx")
     public String board;
 
-    @DatabaseField(columnName = "no")
+    @DatabaseField(columnName = "no", indexName = "posthide_site_board_no_idx")
     public int no;
 
     /**
@@ -1,16 +1,8 @@
 package com.github.adamantcheese.chan.core.model.save;
 
-import com.github.adamantcheese.chan.core.mapper.PostMapper;
-import com.github.adamantcheese.chan.core.model.Post;
-import com.github.adamantcheese.chan.utils.BackgroundUtils;
 import com.google.gson.annotations.SerializedName;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 public class SerializableThread {
     @SerializedName("post_list")
@@ -23,32 +15,4 @@ public class SerializableThread {
     public List<SerializablePost> getPostList() {
         return postList;
     }
-
-    /**
-     * Merge old posts with new posts avoiding duplicates and then sort merged list
-     */
-    public SerializableThread merge(List<Post> posts) {
-        BackgroundUtils.ensureBackgroundThread();
-
-        Set<SerializablePost> postsSet = new HashSet<>(posts.size() + postList.size());
-        postsSet.addAll(postList);
-
-        for (Post post : posts) {
-            postsSet.add(PostMapper.toSerializablePost(post));
-        }
-
-        List<SerializablePost> filteredPosts = new ArrayList<>(postsSet.size());
-        filteredPosts.addAll(postsSet);
-        postsSet.clear();
-
-        Collections.sort(filteredPosts, postComparator);
-
-        postList.clear();
-        postList.addAll(filteredPosts);
-        return this;
-    }
-
-    // Must be static
-    private static final Comparator<SerializablePost> postComparator =
-            (o1, o2) -> Integer.compare(o1.getNo(), o2.getNo());
 }
@@ -0,0 +1,82 @@
+package com.github.adamantcheese.chan.core.model.save;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The index of a saved thread that is stored as a list of append-only segment files, each holding the posts of one save
+ * as a json array of {@link SerializablePost}s, in post order.
+ */
+public class SerializableThreadIndex {
+    @SerializedName("version")
+    private int version;
+    @SerializedName("next_segment_id")
+    private int nextSegmentId;
+    @SerializedName("segments")
+    private List<Segment> segments;
+
+    public SerializableThreadIndex(int version) {
+        this.version = version;
+        this.nextSegmentId = 0;
+        this.segments = new ArrayList<>();
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public int getPostCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.postCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return the file name for a new segment, unique within this thread
+     */
+    public String nextSegmentName() {
+        return "segment_" + (nextSegmentId++) + ".json";
+    }
+
+    public static class Segment {
+        @SerializedName("file_name")
+        private String fileName;
+        @SerializedName("post_count")
+        private int postCount;
+        @SerializedName("first_post_no")
+        private int firstPostNo;
+        @SerializedName("last_post_no")
+        private int lastPostNo;
+
+        public Segment(String fileName, int postCount, int firstPostNo, int lastPostNo) {
+            this.fileName = fileName;
+            this.postCount = postCount;
+            this.firstPostNo = firstPostNo;
+            this.lastPostNo = lastPostNo;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public int getPostCount() {
+            return postCount;
+        }
+
+        public int getFirstPostNo() {
+            return firstPostNo;
+        }
+
+        public int getLastPostNo() {
+            return lastPostNo;
+        }
+    }
+}
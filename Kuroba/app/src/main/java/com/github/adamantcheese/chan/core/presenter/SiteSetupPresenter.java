@@ -43,7 +43,7 @@ public class SiteSetupPresenter {
     }
 
     private void setBoardCount(Callback callback, Site site) {
-        callback.setBoardCount(databaseManager.runTask(databaseManager.getDatabaseBoardManager()
+        callback.setBoardCount(databaseManager.runReadTask(databaseManager.getDatabaseBoardManager()
                 .getSiteSavedBoards(site)).size());
     }
 
@@ -35,6 +35,7 @@ import com.github.adamantcheese.chan.core.cache.FileCacheV2;
 import com.github.adamantcheese.chan.core.cache.downloader.CancelableDownload;
 import com.github.adamantcheese.chan.core.database.DatabaseManager;
 import com.github.adamantcheese.chan.core.manager.ArchivesManager;
+import com.github.adamantcheese.chan.core.manager.CatalogSearchManager;
 import com.github.adamantcheese.chan.core.manager.ChanLoaderManager;
 import com.github.adamantcheese.chan.core.manager.FilterWatchManager;
 import com.github.adamantcheese.chan.core.manager.PageRequestManager;
@@ -475,11 +476,14 @@ public class ThreadPresenter
         searchQuery = entered;
         if (chanLoader != null && chanLoader.getThread() != null) {
             showPosts();
-            if (TextUtils.isEmpty(entered)) {
-                threadPresenterCallback.setSearchStatus(null, true, false);
-            } else {
-                threadPresenterCallback.setSearchStatus(entered, false, false);
-            }
+            // the status counts the posts that are shown
+            threadPresenterCallback.runWhenPostsShown(() -> {
+                if (TextUtils.isEmpty(entered)) {
+                    threadPresenterCallback.setSearchStatus(null, true, false);
+                } else {
+                    threadPresenterCallback.setSearchStatus(entered, false, false);
+                }
+            });
         }
     }
 
@@ -546,7 +550,8 @@ public class ThreadPresenter
             showPosts();
         }
 
-        if (loadable.isThreadMode()) {
+        // while a saved thread is still loading, the posts after the loaded ones are not new
+        if (loadable.isThreadMode() && !result.isLoadingSavedPosts()) {
             int lastLoaded = loadable.lastLoaded;
             int more = 0;
             if (lastLoaded > 0) {
@@ -610,7 +615,11 @@ public class ThreadPresenter
                     StartActivity.loadedFromURL = false;
                 }
             }
-            loadable.markedNo = -1;
+
+            // the marked post may be in the part of a saved thread that is still loading
+            if (markedPost != null || !result.isLoadingSavedPosts()) {
+                loadable.markedNo = -1;
+            }
         }
 
         storeNewPostsIfThreadIsBeingDownloaded(result.getPosts());
@@ -632,7 +641,10 @@ public class ThreadPresenter
             }
         }
 
-        BackgroundUtils.runOnBackgroundThread(() -> instance(FilterWatchManager.class).onCatalogLoad(result));
+        BackgroundUtils.runOnBackgroundThread(() -> {
+            instance(FilterWatchManager.class).onCatalogLoad(result);
+            instance(CatalogSearchManager.class).onCatalogLoad(result);
+        });
     }
 
     private void storeNewPostsIfThreadIsBeingDownloaded(List<Post> posts) {
@@ -680,6 +692,11 @@ public class ThreadPresenter
     @Override
     public void onListScrolledToBottom() {
         if (!isBound()) return;
+        if (chanLoader.getThread() != null && chanLoader.getThread().isLoadingSavedPosts()) {
+            // not the real bottom, more posts are about to be appended
+            return;
+        }
+
         if (chanLoader.getThread() != null && loadable.isThreadMode() && chanLoader.getThread().getPostsCount() > 0) {
             List<Post> posts = chanLoader.getThread().getPosts();
             loadable.setLastViewed(posts.get(posts.size() - 1).no);
@@ -701,20 +718,22 @@ public class ThreadPresenter
 
     public void onNewPostsViewClicked() {
         if (!isBound()) return;
-        Post post = PostUtils.findPostById(loadable.lastViewed, chanLoader.getThread());
-        int position = -1;
-        if (post != null) {
-            List<Post> posts = threadPresenterCallback.getDisplayingPosts();
-            for (int i = 0; i < posts.size(); i++) {
-                Post needle = posts.get(i);
-                if (post.no == needle.no) {
-                    position = i;
-                    break;
+        threadPresenterCallback.runWhenPostsShown(() -> {
+            Post post = PostUtils.findPostById(loadable.lastViewed, chanLoader.getThread());
+            int position = -1;
+            if (post != null) {
+                List<Post> posts = threadPresenterCallback.getDisplayingPosts();
+                for (int i = 0; i < posts.size(); i++) {
+                    Post needle = posts.get(i);
+                    if (post.no == needle.no) {
+                        position = i;
+                        break;
+                    }
                 }
             }
-        }
-        //-1 is fine here because we add 1 down the chain to make it 0 if there's no last viewed
-        threadPresenterCallback.smoothScrollNewPosts(position);
+            //-1 is fine here because we add 1 down the chain to make it 0 if there's no last viewed
+            threadPresenterCallback.smoothScrollNewPosts(position);
+        });
     }
 
     public void scrollTo(int displayPosition, boolean smooth) {
@@ -722,39 +741,43 @@ public class ThreadPresenter
     }
 
     public void scrollToImage(PostImage postImage, boolean smooth) {
-        if (!searchOpen) {
+        threadPresenterCallback.runWhenPostsShown(() -> {
+            if (!searchOpen) {
+                int position = -1;
+                List<Post> posts = threadPresenterCallback.getDisplayingPosts();
+
+                out:
+                for (int i = 0; i < posts.size(); i++) {
+                    Post post = posts.get(i);
+                    for (int j = 0; j < post.images.size(); j++) {
+                        if (post.images.get(j) == postImage) {
+                            position = i;
+                            break out;
+                        }
+                    }
+                }
+                if (position >= 0) {
+                    scrollTo(position, smooth);
+                }
+            }
+        });
+    }
+
+    public void scrollToPost(Post needle, boolean smooth) {
+        threadPresenterCallback.runWhenPostsShown(() -> {
             int position = -1;
             List<Post> posts = threadPresenterCallback.getDisplayingPosts();
-
-            out:
             for (int i = 0; i < posts.size(); i++) {
                 Post post = posts.get(i);
-                for (int j = 0; j < post.images.size(); j++) {
-                    if (post.images.get(j) == postImage) {
-                        position = i;
-                        break out;
-                    }
+                if (post.no == needle.no) {
+                    position = i;
+                    break;
                 }
             }
             if (position >= 0) {
                 scrollTo(position, smooth);
             }
-        }
-    }
-
-    public void scrollToPost(Post needle, boolean smooth) {
-        int position = -1;
-        List<Post> posts = threadPresenterCallback.getDisplayingPosts();
-        for (int i = 0; i < posts.size(); i++) {
-            Post post = posts.get(i);
-            if (post.no == needle.no) {
-                position = i;
-                break;
-            }
-        }
-        if (position >= 0) {
-            scrollTo(position, smooth);
-        }
+        });
     }
 
     public void highlightPost(Post post) {
@@ -766,16 +789,18 @@ public class ThreadPresenter
     }
 
     public void selectPostImage(PostImage postImage) {
-        List<Post> posts = threadPresenterCallback.getDisplayingPosts();
-        for (Post post : posts) {
-            for (PostImage image : post.images) {
-                if (image == postImage) {
-                    scrollToPost(post, false);
-                    highlightPost(post);
-                    return;
+        threadPresenterCallback.runWhenPostsShown(() -> {
+            List<Post> posts = threadPresenterCallback.getDisplayingPosts();
+            for (Post post : posts) {
+                for (PostImage image : post.images) {
+                    if (image == postImage) {
+                        scrollToPost(post, false);
+                        highlightPost(post);
+                        return;
+                    }
                 }
             }
-        }
+        });
     }
 
     public Post getPostFromPostImage(PostImage postImage) {
@@ -1138,7 +1163,7 @@ public class ThreadPresenter
                 threadPresenterCallback.showThread(thread);
             }
         } else if (linkable.type == PostLinkable.Type.BOARD && isBound()) {
-            Board board = databaseManager.runTask(databaseManager.getDatabaseBoardManager()
+            Board board = databaseManager.runReadTask(databaseManager.getDatabaseBoardManager()
                     .getBoard(loadable.site, (String) linkable.value));
             if (board == null) {
                 showToast(context, R.string.site_uses_dynamic_boards);
@@ -1147,7 +1172,7 @@ public class ThreadPresenter
             }
         } else if (linkable.type == PostLinkable.Type.SEARCH && isBound()) {
             CommentParser.SearchLink search = (CommentParser.SearchLink) linkable.value;
-            Board board = databaseManager.runTask(databaseManager.getDatabaseBoardManager()
+            Board board = databaseManager.runReadTask(databaseManager.getDatabaseBoardManager()
                     .getBoard(loadable.site, search.board));
             if (board == null) {
                 showToast(context, R.string.site_uses_dynamic_boards);
@@ -1364,7 +1389,7 @@ public class ThreadPresenter
     private void showPosts(boolean refreshAfterHideOrRemovePosts) {
         if (chanLoader != null && chanLoader.getThread() != null) {
             threadPresenterCallback.showPosts(chanLoader.getThread(),
-                    new PostsFilter(order, searchQuery),
+                    new PostsFilter(order, searchQuery, chanLoader.getThread().getSearchIndex()),
                     refreshAfterHideOrRemovePosts
             );
         }
@@ -1486,6 +1511,12 @@ public class ThreadPresenter
 
         List<Post> getDisplayingPosts();
 
+        /**
+         * Runs after the posts of the last {@link #showPosts} call are displayed, as they are filtered in the
+         * background
+         */
+        void runWhenPostsShown(Runnable runnable);
+
         int[] getCurrentPosition();
 
         void showImages(List<PostImage> images, int index, Loadable loadable, ThumbnailView thumbnail);
@@ -125,6 +125,7 @@ constructor(
                         }
 
                         writeSettingsToDatabase(appSettings)
+                        databaseManager.databaseHideManager.clearCache()
 
                         Logger.d(TAG, "Importing done!")
                         callbacks.onSuccess(Import)
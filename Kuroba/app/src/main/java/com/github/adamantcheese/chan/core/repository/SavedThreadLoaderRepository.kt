@@ -1,8 +1,10 @@
 package com.github.adamantcheese.chan.core.repository
 
-import com.github.adamantcheese.chan.core.mapper.ThreadMapper
+import com.github.adamantcheese.chan.core.mapper.PostMapper
 import com.github.adamantcheese.chan.core.model.Post
+import com.github.adamantcheese.chan.core.model.save.SerializablePost
 import com.github.adamantcheese.chan.core.model.save.SerializableThread
+import com.github.adamantcheese.chan.core.model.save.SerializableThreadIndex
 import com.github.adamantcheese.chan.utils.BackgroundUtils
 import com.github.adamantcheese.chan.utils.Logger
 import com.github.k1rakishou.fsaf.FileManager
@@ -10,9 +12,12 @@ import com.github.k1rakishou.fsaf.file.AbstractFile
 import com.github.k1rakishou.fsaf.file.ExternalFile
 import com.github.k1rakishou.fsaf.file.FileSegment
 import com.google.gson.Gson
-import java.io.DataInputStream
-import java.io.DataOutputStream
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
 import java.io.IOException
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
 import java.nio.charset.StandardCharsets
 import javax.inject.Inject
 
@@ -22,6 +27,11 @@ class SavedThreadLoaderRepository
  * able to backup them and they would be deleted after every app uninstall. This implementation
  * is slower than the DB one, but at least users will have their threads even after app
  * uninstall/app data clearing.
+ *
+ * Posts are stored in append-only segment files, one per save, listed in a small index file. Saving new posts only
+ * writes a new segment and the index, instead of rewriting every post of the thread; once there are too many segments
+ * they are compacted into one. Threads saved before this still have a single thread.json, which is converted on
+ * their next save. The single file format is still written by [exportThreadToJsonFile].
  */
 @Inject
 constructor(
@@ -29,67 +39,240 @@ constructor(
         private val fileManager: FileManager
 ) {
 
+    /**
+     * Streams all saved posts of a thread from disk, sorted by post number and without duplicates.
+     *
+     * @return null if nothing was saved for this thread yet
+     */
     @Throws(IOException::class)
-    fun loadOldThreadFromJsonFile(
-            threadSaveDir: AbstractFile
-    ): SerializableThread? {
+    fun loadSavedThread(threadSaveDir: AbstractFile): SerializableThread? {
         BackgroundUtils.ensureBackgroundThread()
 
-        val threadFile = threadSaveDir.clone(FileSegment(THREAD_FILE_NAME))
-        if (!fileManager.exists(threadFile)) {
-            Logger.d(TAG, "threadFile does not exist, threadFilePath = " + threadFile.getFullPath())
-            return null
+        val index = readIndex(threadSaveDir)
+        if (index == null) {
+            val legacyFile = threadSaveDir.clone(FileSegment(THREAD_FILE_NAME))
+            if (!fileManager.exists(legacyFile)) {
+                Logger.d(TAG, "threadFile does not exist, threadFilePath = " + legacyFile.getFullPath())
+                return null
+            }
+
+            val posts = sortedMapOf<Int, SerializablePost>()
+            readPosts(legacyFile) { post -> addIfAbsent(posts, post) }
+            return SerializableThread(posts.values.toMutableList())
         }
 
-        return fileManager.getInputStream(threadFile)?.use { inputStream ->
-            return@use DataInputStream(inputStream).use { dis ->
-                val json = String(dis.readBytes(), StandardCharsets.UTF_8)
+        return SerializableThread(readSegments(threadSaveDir, index).values.toMutableList())
+    }
 
-                return@use gson.fromJson(
-                        json,
-                        SerializableThread::class.java)
-            }
-        }
+    /**
+     * @return true if there is a saved thread in this directory, in either format
+     */
+    fun hasSavedThread(threadSaveDir: AbstractFile): Boolean {
+        return fileManager.exists(threadSaveDir.clone(FileSegment(THREAD_INDEX_FILE_NAME)))
+                || fileManager.exists(threadSaveDir.clone(FileSegment(THREAD_FILE_NAME)))
     }
 
+    /**
+     * Appends the given posts to the saved thread as a new segment, compacting the segments if there are too many.
+     * Posts that were already saved may be passed again, duplicates are dropped when loading and compacting.
+     */
     @Throws(IOException::class,
             CouldNotCreateThreadFile::class,
             CouldNotGetParcelFileDescriptor::class
     )
-    fun savePostsToJsonFile(
-            oldSerializableThread: SerializableThread?,
+    fun savePostsToThread(
             posts: List<Post>,
             threadSaveDir: AbstractFile
     ) {
         BackgroundUtils.ensureBackgroundThread()
 
-        val threadFile = threadSaveDir.clone(FileSegment(THREAD_FILE_NAME))
-        val createdThreadFile = fileManager.create(threadFile)
+        if (posts.isEmpty()) {
+            return
+        }
+
+        var index = readIndex(threadSaveDir)
+        var convertedLegacyFile: AbstractFile? = null
+        if (index == null) {
+            index = SerializableThreadIndex(INDEX_VERSION)
+
+            // convert a thread saved as a single thread.json into the first segment
+            val legacyFile = threadSaveDir.clone(FileSegment(THREAD_FILE_NAME))
+            if (fileManager.exists(legacyFile)) {
+                val legacyPosts = sortedMapOf<Int, SerializablePost>()
+                readPosts(legacyFile) { post -> addIfAbsent(legacyPosts, post) }
+                if (legacyPosts.isNotEmpty()) {
+                    index.segments.add(writeSegment(threadSaveDir, index.nextSegmentName(), legacyPosts.values))
+                }
+                convertedLegacyFile = legacyFile
+            }
+        }
+
+        val newPosts = posts.sortedBy { post -> post.no }.map { post -> PostMapper.toSerializablePost(post) }
+        index.segments.add(writeSegment(threadSaveDir, index.nextSegmentName(), newPosts))
+
+        if (index.segments.size > MAX_SEGMENTS) {
+            compact(threadSaveDir, index)
+        } else {
+            writeIndex(threadSaveDir, index)
+        }
+
+        // only once the index that replaces it is written
+        if (convertedLegacyFile != null) {
+            fileManager.delete(convertedLegacyFile)
+        }
+    }
+
+    /**
+     * Writes the whole saved thread as a single json file in the format used before segments existed, for exporting.
+     */
+    @Throws(IOException::class, CouldNotCreateThreadFile::class)
+    fun exportThreadToJsonFile(threadSaveDir: AbstractFile, outputFile: AbstractFile) {
+        BackgroundUtils.ensureBackgroundThread()
+
+        val serializableThread = loadSavedThread(threadSaveDir)
+                ?: throw IOException("No saved thread in " + threadSaveDir.getFullPath())
+
+        val createdFile = fileManager.create(outputFile) ?: throw CouldNotCreateThreadFile(outputFile)
+        fileManager.getOutputStream(createdFile)?.use { outputStream ->
+            OutputStreamWriter(outputStream, StandardCharsets.UTF_8).use { writer ->
+                gson.toJson(serializableThread, writer)
+            }
+        } ?: throw IOException("getOutputStream() returned null, file = " + createdFile.getFullPath())
+    }
+
+    // Merges all segments into a single new one, then points the index at it and deletes the old ones
+    @Throws(IOException::class, CouldNotCreateThreadFile::class)
+    private fun compact(threadSaveDir: AbstractFile, index: SerializableThreadIndex) {
+        val start = System.currentTimeMillis()
+        val oldSegments = index.segments.toList()
+        val posts = readSegments(threadSaveDir, index)
+
+        index.segments.clear()
+        index.segments.add(writeSegment(threadSaveDir, index.nextSegmentName(), posts.values))
+        writeIndex(threadSaveDir, index)
+
+        for (segment in oldSegments) {
+            val segmentFile = threadSaveDir.clone(FileSegment(segment.fileName))
+            if (fileManager.exists(segmentFile) && !fileManager.delete(segmentFile)) {
+                Logger.e(TAG, "Could not delete compacted segment " + segmentFile.getFullPath())
+            }
+        }
+
+        Logger.d(TAG, "Compacted " + oldSegments.size + " segments with " + posts.size + " posts in "
+                + (System.currentTimeMillis() - start) + "ms")
+    }
+
+    @Throws(IOException::class)
+    private fun readSegments(
+            threadSaveDir: AbstractFile,
+            index: SerializableThreadIndex
+    ): Map<Int, SerializablePost> {
+        val posts = sortedMapOf<Int, SerializablePost>()
+        for (segment in index.segments) {
+            val segmentFile = threadSaveDir.clone(FileSegment(segment.fileName))
+            if (!fileManager.exists(segmentFile)) {
+                Logger.e(TAG, "Missing segment " + segmentFile.getFullPath())
+                continue
+            }
+
+            readPosts(segmentFile) { post -> addIfAbsent(posts, post) }
+        }
+        return posts
+    }
+
+    // the first saved copy of a post wins, like it did when merging into a single file
+    private fun addIfAbsent(posts: MutableMap<Int, SerializablePost>, post: SerializablePost) {
+        if (!posts.containsKey(post.no)) {
+            posts[post.no] = post
+        }
+    }
+
+    /**
+     * Reads posts one at a time, from either a segment (a json array of posts) or an old thread.json (an object with
+     * the array in its post_list), without loading the whole file into memory first.
+     */
+    @Throws(IOException::class)
+    private fun readPosts(file: AbstractFile, consumer: (SerializablePost) -> Unit) {
+        val inputStream = fileManager.getInputStream(file)
+                ?: throw IOException("getInputStream() returned null, file = " + file.getFullPath())
+
+        JsonReader(InputStreamReader(inputStream, StandardCharsets.UTF_8)).use { reader ->
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject()
+                while (reader.hasNext()) {
+                    if (reader.nextName() == LEGACY_POST_LIST_NAME) {
+                        readPostArray(reader, consumer)
+                    } else {
+                        reader.skipValue()
+                    }
+                }
+                reader.endObject()
+            } else {
+                readPostArray(reader, consumer)
+            }
+        }
+    }
 
-        if (!fileManager.exists(threadFile) || createdThreadFile == null) {
-            throw CouldNotCreateThreadFile(threadFile)
+    private fun readPostArray(reader: JsonReader, consumer: (SerializablePost) -> Unit) {
+        reader.beginArray()
+        while (reader.hasNext()) {
+            consumer(gson.fromJson(reader, SerializablePost::class.java))
         }
+        reader.endArray()
+    }
 
-        fileManager.getOutputStream(createdThreadFile)?.use { outputStream ->
-            // Update the thread file
-            return@use DataOutputStream(outputStream).use { dos ->
-                val serializableThread = if (oldSerializableThread != null) {
-                    // Merge with old posts if there are any
-                    oldSerializableThread.merge(posts)
-                } else {
-                    // Use only the new posts
-                    ThreadMapper.toSerializableThread(posts)
+    @Throws(IOException::class, CouldNotCreateThreadFile::class)
+    private fun writeSegment(
+            threadSaveDir: AbstractFile,
+            fileName: String,
+            posts: Collection<SerializablePost>
+    ): SerializableThreadIndex.Segment {
+        val segmentFile = threadSaveDir.clone(FileSegment(fileName))
+        val createdFile = fileManager.create(segmentFile) ?: throw CouldNotCreateThreadFile(segmentFile)
+
+        var firstPostNo = -1
+        var lastPostNo = -1
+        fileManager.getOutputStream(createdFile)?.use { outputStream ->
+            JsonWriter(OutputStreamWriter(outputStream, StandardCharsets.UTF_8)).use { writer ->
+                writer.beginArray()
+                for (post in posts) {
+                    gson.toJson(post, SerializablePost::class.java, writer)
+                    if (firstPostNo == -1) {
+                        firstPostNo = post.no
+                    }
+                    lastPostNo = post.no
                 }
+                writer.endArray()
+            }
+        } ?: throw IOException("getOutputStream() returned null, file = " + createdFile.getFullPath())
+
+        return SerializableThreadIndex.Segment(fileName, posts.size, firstPostNo, lastPostNo)
+    }
 
-                val bytes = gson.toJson(serializableThread).toByteArray(StandardCharsets.UTF_8)
+    @Throws(IOException::class)
+    private fun readIndex(threadSaveDir: AbstractFile): SerializableThreadIndex? {
+        val indexFile = threadSaveDir.clone(FileSegment(THREAD_INDEX_FILE_NAME))
+        if (!fileManager.exists(indexFile)) {
+            return null
+        }
+
+        return fileManager.getInputStream(indexFile)?.use { inputStream ->
+            InputStreamReader(inputStream, StandardCharsets.UTF_8).use { reader ->
+                gson.fromJson(reader, SerializableThreadIndex::class.java)
+            }
+        }
+    }
 
-                dos.write(bytes)
-                dos.flush()
+    @Throws(IOException::class, CouldNotCreateThreadFile::class)
+    private fun writeIndex(threadSaveDir: AbstractFile, index: SerializableThreadIndex) {
+        val indexFile = threadSaveDir.clone(FileSegment(THREAD_INDEX_FILE_NAME))
+        val createdFile = fileManager.create(indexFile) ?: throw CouldNotCreateThreadFile(indexFile)
 
-                return@use
+        fileManager.getOutputStream(createdFile)?.use { outputStream ->
+            OutputStreamWriter(outputStream, StandardCharsets.UTF_8).use { writer ->
+                gson.toJson(index, writer)
             }
-        } ?: throw IOException("threadFile.getOutputStream() returned null, threadFile = "
-                + createdThreadFile.getFullPath())
+        } ?: throw IOException("getOutputStream() returned null, file = " + createdFile.getFullPath())
     }
 
     inner class CouldNotGetParcelFileDescriptor(threadFile: ExternalFile)
@@ -101,6 +284,10 @@ constructor(
 
     companion object {
         private const val TAG = "SavedThreadLoaderRepository"
+        private const val INDEX_VERSION = 1
+        private const val MAX_SEGMENTS = 16
+        private const val LEGACY_POST_LIST_NAME = "post_list"
         const val THREAD_FILE_NAME = "thread.json"
+        const val THREAD_INDEX_FILE_NAME = "thread_index.json"
     }
 }
@@ -19,6 +19,8 @@ package com.github.adamantcheese.chan.core.saver;
 import android.content.Intent;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
+import android.system.ErrnoException;
+import android.system.Os;
 
 import androidx.annotation.Nullable;
 import androidx.core.content.FileProvider;
@@ -46,7 +48,6 @@ import io.reactivex.functions.Action;
 import io.reactivex.subjects.SingleSubject;
 
 import static com.github.adamantcheese.chan.Chan.inject;
-import static com.github.adamantcheese.chan.Chan.instance;
 import static com.github.adamantcheese.chan.core.saver.ImageSaver.BundledDownloadResult.Failure;
 import static com.github.adamantcheese.chan.core.saver.ImageSaver.BundledDownloadResult.Success;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.getAppContext;
@@ -60,14 +61,23 @@ public class ImageSaveTask
     FileCacheV2 fileCacheV2;
     @Inject
     FileManager fileManager;
+    @Inject
+    CacheHandler cacheHandler;
+    @Inject
+    SavedFileIndex savedFileIndex;
 
     private PostImage postImage;
     private Loadable loadable;
     private boolean isBatchDownload;
     private AbstractFile destination;
+    // a copy of the image that was saved before, somewhere else
+    @Nullable
+    private AbstractFile savedCopy;
     private boolean share;
     private String subFolder;
     private boolean success = false;
+    // the downloaded file is being copied to the destination, which has to finish before the task does
+    private boolean copying = false;
     private SingleSubject<ImageSaver.BundledDownloadResult> imageSaveTaskAsyncResult;
 
     public ImageSaveTask(Loadable loadable, PostImage postImage, boolean isBatchDownload, boolean share) {
@@ -100,6 +110,10 @@ public class ImageSaveTask
         return destination;
     }
 
+    public void setSavedCopy(@Nullable AbstractFile savedCopy) {
+        this.savedCopy = savedCopy;
+    }
+
     public boolean isShareTask() {
         return share;
     }
@@ -117,7 +131,7 @@ public class ImageSaveTask
                     onDestination();
                     onEnd();
                 });
-            } else {
+            } else if (!saveWithoutDownload()) {
                 CancelableDownload cancelableDownload =
                         fileCacheV2.enqueueNormalDownloadFileRequest(loadable, postImage, isBatchDownload, this);
 
@@ -138,15 +152,59 @@ public class ImageSaveTask
         return imageSaveTaskAsyncResult;
     }
 
+    /**
+     * Saves the image from a copy that was saved before, or from the file cache, so it doesn't have to be downloaded.
+     *
+     * @return false if neither exists and the image has to be downloaded
+     */
+    private boolean saveWithoutDownload() {
+        boolean saved;
+        if (savedCopy != null && (linkToDestination(savedCopy) || copyToDestination(savedCopy))) {
+            saved = true;
+        } else {
+            RawFile cacheFile = getCachedFile();
+            if (cacheFile == null) {
+                deleteDestination();
+                return false;
+            }
+
+            saved = copyToDestination(cacheFile);
+        }
+
+        BackgroundUtils.runOnMainThread(() -> onSaved(saved));
+        return true;
+    }
+
+    @Nullable
+    private RawFile getCachedFile() {
+        if (!cacheHandler.exists(postImage.imageUrl)) return null;
+
+        RawFile cacheFile = cacheHandler.getOrCreateCacheFile(postImage.imageUrl);
+        return cacheFile != null && cacheHandler.isAlreadyDownloaded(cacheFile) ? cacheFile : null;
+    }
+
     @Override
     public void onSuccess(RawFile file) {
         BackgroundUtils.ensureMainThread();
 
-        if (copyToDestination(file)) {
+        // copied straight from the cache file, but not on the main thread
+        copying = true;
+        BackgroundUtils.runOnBackgroundThread(() -> {
+            boolean saved = copyToDestination(file);
+            BackgroundUtils.runOnMainThread(() -> {
+                copying = false;
+                onSaved(saved);
+            });
+        });
+    }
+
+    private void onSaved(boolean saved) {
+        if (saved) {
             onDestination();
         } else {
             deleteDestination();
         }
+        onEnd();
     }
 
     @Override
@@ -158,6 +216,7 @@ public class ImageSaveTask
     @Override
     public void onEnd() {
         BackgroundUtils.ensureMainThread();
+        if (copying) return;
         imageSaveTaskAsyncResult.onSuccess(success ? Success : Failure);
     }
 
@@ -195,10 +254,27 @@ public class ImageSaveTask
         } catch (Exception ignored) {}
     }
 
-    private boolean copyToDestination(RawFile source) {
+    /**
+     * Hard links the destination to the saved copy, which takes no space or copying, when both are regular files on
+     * the same file system
+     */
+    private boolean linkToDestination(AbstractFile source) {
+        if (!(source instanceof RawFile) || !(destination instanceof RawFile)) return false;
+
+        try {
+            Os.link(source.getFullPath(), destination.getFullPath());
+            savedFileIndex.put(postImage, destination);
+            return true;
+        } catch (ErrnoException e) {
+            Logger.d(this, "Couldn't link the saved copy, copying it instead: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean copyToDestination(AbstractFile source) {
         try {
             if (share) {
-                destination = instance(CacheHandler.class).renameCacheFile(source,
+                destination = cacheHandler.renameCacheFile((RawFile) source,
                         StringUtils.fileNameRemoveBadCharacters(postImage.filename),
                         postImage.extension
                 );
@@ -215,6 +291,8 @@ public class ImageSaveTask
                 if (!fileManager.copyFileContents(source, createdDestinationFile)) {
                     throw new IOException("Could not copy source file into destination");
                 }
+
+                savedFileIndex.put(postImage, destination);
             }
             return true;
         } catch (Throwable e) {
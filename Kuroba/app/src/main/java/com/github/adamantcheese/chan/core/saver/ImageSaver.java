@@ -105,6 +105,7 @@ public class ImageSaver {
     private AtomicInteger failedTasks = new AtomicInteger(0);
 
     private FileManager fileManager;
+    private SavedFileIndex savedFileIndex;
     /**
      * Like a normal toast but automatically cancels previous toast when showing a new one to avoid
      * toast spam.
@@ -135,8 +136,9 @@ public class ImageSaver {
      * dispose of this stream
      */
     @SuppressLint("CheckResult")
-    public ImageSaver(FileManager fileManager) {
+    public ImageSaver(FileManager fileManager, SavedFileIndex savedFileIndex) {
         this.fileManager = fileManager;
+        this.savedFileIndex = savedFileIndex;
         EventBus.getDefault().register(this);
 
         imageSaverQueue
@@ -474,6 +476,21 @@ public class ImageSaver {
 
     @NonNull
     private AbstractFile deduplicateFile(PostImage postImage, ImageSaveTask task, @NonNull AbstractFile saveLocation) {
+        //shared files are taken straight from the cache
+        if (!task.isShareTask()) {
+            AbstractFile savedCopy = savedFileIndex.find(postImage);
+            if (savedCopy != null) {
+                AbstractFile inSaveLocation = saveLocation.clone(new FileSegment(fileManager.getName(savedCopy)));
+                if (inSaveLocation.getFullPath().equals(savedCopy.getFullPath())) {
+                    //already saved right here, the task will find its destination exists and not save it again
+                    return savedCopy;
+                }
+
+                //saved somewhere else, the task links or copies that instead of downloading the image again
+                task.setSavedCopy(savedCopy);
+            }
+        }
+
         String name = ChanSettings.saveServerFilename.get() ? postImage.serverFilename : postImage.filename;
 
         //dedupe shared files to have their own file name; ok to overwrite, prevents lots of downloads for multiple shares
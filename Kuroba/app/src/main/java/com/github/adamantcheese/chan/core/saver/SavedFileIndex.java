@@ -0,0 +1,152 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.core.saver;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import com.github.adamantcheese.chan.core.model.PostImage;
+import com.github.adamantcheese.chan.utils.BackgroundUtils;
+import com.github.adamantcheese.chan.utils.Logger;
+import com.github.k1rakishou.fsaf.FileManager;
+import com.github.k1rakishou.fsaf.file.AbstractFile;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers where every saved image was saved to, by the md5 of the image the server reports, so an image that was
+ * already saved doesn't have to be downloaded again, no matter which thread or album it's saved from.
+ * <p>
+ * Every save is appended to the index file as a "hash path" line, later lines replace earlier ones. Saved files can be
+ * deleted or moved by the user at any time, so a path is checked to still exist whenever it's looked up. Once most of
+ * the lines are outdated, the file is rewritten when it's loaded.
+ */
+public class SavedFileIndex {
+    private static final char SEPARATOR = '\t';
+    private static final int MIN_REDUNDANT_LINES_TO_COMPACT = 500;
+
+    private final FileManager fileManager;
+    private final File indexFile;
+
+    @GuardedBy("this")
+    private final Map<String, String> pathsByHash = new HashMap<>();
+    @GuardedBy("this")
+    private boolean loaded = false;
+
+    public SavedFileIndex(FileManager fileManager, File indexFile) {
+        this.fileManager = fileManager;
+        this.indexFile = indexFile;
+
+        BackgroundUtils.runOnBackgroundThread(this::load);
+    }
+
+    /**
+     * @return a saved copy of the image, or null if it was never saved or its copy doesn't exist anymore
+     */
+    @Nullable
+    public synchronized AbstractFile find(PostImage postImage) {
+        if (TextUtils.isEmpty(postImage.fileHash)) return null;
+        load();
+
+        String path = pathsByHash.get(postImage.fileHash);
+        if (path == null) return null;
+
+        AbstractFile savedCopy = path.startsWith("/") ? fileManager.fromRawFile(new File(path)) : fileManager.fromUri(
+                Uri.parse(path));
+        if (savedCopy == null || !fileManager.exists(savedCopy) || fileManager.isDirectory(savedCopy)) {
+            pathsByHash.remove(postImage.fileHash);
+            return null;
+        }
+
+        return savedCopy;
+    }
+
+    public synchronized void put(PostImage postImage, AbstractFile savedFile) {
+        if (TextUtils.isEmpty(postImage.fileHash)) return;
+        load();
+
+        String path = savedFile.getFullPath();
+        if (path.equals(pathsByHash.put(postImage.fileHash, path))) return;
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(indexFile, true))) {
+            writer.write(postImage.fileHash + SEPARATOR + path);
+            writer.newLine();
+        } catch (IOException e) {
+            Logger.e(this, "Couldn't append to the saved file index", e);
+        }
+    }
+
+    private synchronized void load() {
+        if (loaded) return;
+        loaded = true;
+
+        if (!indexFile.exists()) return;
+
+        int lineCount = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(SEPARATOR);
+                if (separator <= 0 || separator == line.length() - 1) continue;
+
+                pathsByHash.put(line.substring(0, separator), line.substring(separator + 1));
+                lineCount++;
+            }
+        } catch (IOException e) {
+            Logger.e(this, "Couldn't read the saved file index", e);
+            return;
+        }
+
+        int redundantLines = lineCount - pathsByHash.size();
+        if (redundantLines >= MIN_REDUNDANT_LINES_TO_COMPACT && redundantLines >= pathsByHash.size()) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Writes only the current entries into a new index that replaces the old one at once
+     */
+    @GuardedBy("this")
+    private void rewrite() {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
+                for (Map.Entry<String, String> entry : pathsByHash.entrySet()) {
+                    writer.write(entry.getKey() + SEPARATOR + entry.getValue());
+                    writer.newLine();
+                }
+            }
+
+            if (!tempFile.renameTo(indexFile)) {
+                throw new IOException("Couldn't rename " + tempFile.getName() + " to " + indexFile.getName());
+            }
+        } catch (IOException e) {
+            Logger.e(this, "Couldn't rewrite the saved file index", e);
+            tempFile.delete();
+        }
+    }
+}
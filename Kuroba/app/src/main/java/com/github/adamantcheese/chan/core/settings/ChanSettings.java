@@ -277,6 +277,7 @@ public class ChanSettings {
     public static final BooleanSetting saveThreadFolder;
     public static final BooleanSetting saveServerFilename;
     public static final BooleanSetting incrementalThreadDownloadingEnabled;
+    public static final BooleanSetting exportLocalThreadsJson;
 
     // Video settings
     public static final BooleanSetting videoAutoLoop;
@@ -440,6 +441,7 @@ public class ChanSettings {
             saveThreadFolder = new BooleanSetting(p, "preference_save_subthread", false);
             saveServerFilename = new BooleanSetting(p, "preference_image_save_original", false);
             incrementalThreadDownloadingEnabled = new BooleanSetting(p, "incremental_thread_downloading", true);
+            exportLocalThreadsJson = new BooleanSetting(p, "export_local_threads_json", false);
 
             // Video Settings
             videoAutoLoop = new BooleanSetting(p, "preference_video_loop", true);
@@ -9,7 +9,6 @@ import com.github.adamantcheese.chan.core.settings.primitives.StringSetting;
 import com.github.adamantcheese.chan.utils.AndroidUtils;
 import com.github.adamantcheese.chan.utils.Logger;
 
-import static com.github.adamantcheese.chan.core.settings.ChanSettings.EMPTY_JSON;
 
 /**
  * This state class acts in a similar manner to {@link ChanSettings}, but everything here is not exported; this data is
@@ -25,7 +24,6 @@ public class PersistableChanState {
     public static StringSetting previousDevHash;
 
     public static StringSetting filterWatchIgnored;
-    public static StringSetting youtubeCache;
 
     public static BooleanSetting loadablesPurged;
 
@@ -40,7 +38,6 @@ public class PersistableChanState {
             previousDevHash = new StringSetting(p, "previous_dev_hash", BuildConfig.COMMIT_HASH);
 
             filterWatchIgnored = new StringSetting(p, "filter_watch_last_ignored_set", "");
-            youtubeCache = new StringSetting(p, "yt_cache", EMPTY_JSON);
 
             loadablesPurged = new BooleanSetting(p, "loadables_purged", false);
         } catch (Exception e) {
@@ -35,6 +35,14 @@ public interface SiteEndpoints {
 
     HttpUrl thread(Board board, Loadable loadable);
 
+    /**
+     * A smaller version of {@link #thread(Board, Loadable)} with only the op and the last posts of the thread, used to
+     * update big threads.
+     *
+     * @return the url, or null if the site has no such endpoint
+     */
+    HttpUrl threadTail(Board board, Loadable loadable);
+
     HttpUrl imageUrl(Post.Builder post, Map<String, String> arg);
 
     HttpUrl thumbnailUrl(Post.Builder post, boolean spoiler, Map<String, String> arg);
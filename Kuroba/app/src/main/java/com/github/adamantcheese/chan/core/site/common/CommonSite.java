@@ -359,6 +359,11 @@ public abstract class CommonSite
             return null;
         }
 
+        @Override
+        public HttpUrl threadTail(Board board, Loadable loadable) {
+            return null;
+        }
+
         @Override
         public HttpUrl imageUrl(Post.Builder post, Map<String, String> arg) {
             return null;
@@ -17,13 +17,16 @@
 package com.github.adamantcheese.chan.core.site.common;
 
 import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.BackgroundColorSpan;
 
 import androidx.annotation.AnyThread;
 
 import com.github.adamantcheese.chan.R;
+import com.github.adamantcheese.chan.core.manager.YoutubeTitleResolver;
 import com.github.adamantcheese.chan.core.model.Post;
+import com.github.adamantcheese.chan.core.model.PostLinkable;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
 import com.github.adamantcheese.chan.core.site.parser.CommentParser;
 import com.github.adamantcheese.chan.core.site.parser.CommentParserHelper;
@@ -45,7 +48,9 @@ import org.jsoup.parser.Parser;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
+import static com.github.adamantcheese.chan.Chan.instance;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.getContrastColor;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.resolveColor;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.sp;
@@ -81,7 +86,19 @@ public class DefaultPostParser
             builder.comment = new SpannableString("");
         }
 
-        return builder.build();
+        Map<PostLinkable, String> youtubeLinks = builder.getUnresolvedYoutubeLinks();
+        if (youtubeLinks.isEmpty()) {
+            return builder.build();
+        }
+
+        // the titles get patched into the comment when they arrive, so it needs to be editable
+        builder.comment = new SpannableStringBuilder(builder.comment);
+        Post post = builder.build();
+        YoutubeTitleResolver titleResolver = instance(YoutubeTitleResolver.class);
+        for (Map.Entry<PostLinkable, String> link : youtubeLinks.entrySet()) {
+            titleResolver.enqueue(post, link.getValue(), link.getKey());
+        }
+        return post;
     }
 
     /**
@@ -35,8 +35,18 @@ public class ChanLoaderRequestParams {
      */
     public final List<Post> cached;
 
+    /**
+     * Whether the response only has the op and the last posts of the thread, which are merged into the cached posts.
+     */
+    public final boolean tail;
+
     public ChanLoaderRequestParams(Loadable loadable, List<Post> cached) {
+        this(loadable, cached, false);
+    }
+
+    public ChanLoaderRequestParams(Loadable loadable, List<Post> cached, boolean tail) {
         this.loadable = loadable;
         this.cached = cached;
+        this.tail = tail;
     }
 }
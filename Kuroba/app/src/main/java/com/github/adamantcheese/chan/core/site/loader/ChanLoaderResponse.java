@@ -25,9 +25,17 @@ public class ChanLoaderResponse {
     // Used to later copy members like image count to the real op on the main thread.
     public final Post.Builder op;
     public final List<Post> posts;
+    // Set when the tail of the thread doesn't reach back to the last cached post, so some posts are missing in
+    // between and the whole thread must be loaded instead. The posts are not parsed then.
+    public final boolean tailGap;
 
     public ChanLoaderResponse(Post.Builder op, List<Post> posts) {
+        this(op, posts, false);
+    }
+
+    public ChanLoaderResponse(Post.Builder op, List<Post> posts, boolean tailGap) {
         this.op = op;
         this.posts = posts;
+        this.tailGap = tailGap;
     }
 }
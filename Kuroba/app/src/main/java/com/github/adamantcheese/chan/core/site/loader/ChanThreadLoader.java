@@ -27,6 +27,7 @@ import com.github.adamantcheese.chan.core.base.ModularResult;
 import com.github.adamantcheese.chan.core.database.DatabaseManager;
 import com.github.adamantcheese.chan.core.manager.ChanLoaderManager;
 import com.github.adamantcheese.chan.core.manager.SavedThreadLoaderManager;
+import com.github.adamantcheese.chan.core.manager.SavedThreadLoaderManager.LazySavedThread;
 import com.github.adamantcheese.chan.core.manager.WatchManager;
 import com.github.adamantcheese.chan.core.model.ChanThread;
 import com.github.adamantcheese.chan.core.model.Post;
@@ -34,13 +35,15 @@ import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.model.orm.Pin;
 import com.github.adamantcheese.chan.core.model.orm.PinType;
 import com.github.adamantcheese.chan.core.model.orm.SavedThread;
+import com.github.adamantcheese.chan.core.model.save.SerializablePost;
 import com.github.adamantcheese.chan.core.site.parser.ChanReaderParser;
 import com.github.adamantcheese.chan.ui.helper.PostHelper;
 import com.github.adamantcheese.chan.utils.BackgroundUtils;
 import com.github.adamantcheese.chan.utils.Logger;
 import com.github.adamantcheese.chan.utils.NetUtils;
+import com.github.adamantcheese.chan.utils.NetUtils.ConditionalJsonResult;
 import com.github.adamantcheese.chan.utils.NetUtils.HttpCodeException;
-import com.github.adamantcheese.chan.utils.NetUtils.JsonResult;
+import com.github.adamantcheese.chan.utils.NetUtils.ResponseValidators;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
 
@@ -81,6 +84,13 @@ public class ChanThreadLoader {
     private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
     private static final int[] WATCH_TIMEOUTS = {10, 15, 20, 30, 60, 90, 120, 180, 240, 300, 600, 1800, 3600};
     private static final Scheduler backgroundScheduler = Schedulers.from(executor);
+    // about a screen of posts, shown before the rest of a saved thread is loaded
+    private static final int SAVED_THREAD_FIRST_CHUNK_SIZE = 30;
+    private static final int SAVED_THREAD_CHUNK_SIZE = 200;
+    // threads with at least this many posts are updated from the tail endpoint of the site, if it has one
+    private static final int TAIL_MIN_POSTS = 200;
+    // a tail can't tell which posts before it were deleted, so every few updates the whole thread is loaded again
+    private static final int TAIL_UPDATES_PER_FULL_LOAD = 5;
 
     @Inject
     DatabaseManager databaseManager;
@@ -98,8 +108,19 @@ public class ChanThreadLoader {
     private ChanThread thread;
     @Nullable
     private Call call;
+    // validators of the last response, to make reloads conditional
+    @Nullable
+    private volatile ResponseValidators validators;
+    @Nullable
+    private volatile ResponseValidators tailValidators;
+    // tail updates since the whole thread was loaded; only used on the background scheduler
+    private int tailUpdates;
+    private volatile boolean fullLoadRequired;
     @Nullable
     private ScheduledFuture<?> pendingFuture;
+    // the saved thread whose remaining posts are being appended to thread; guarded by this
+    @Nullable
+    private LazySavedThread pendingSavedThread;
 
     private int currentTimeout = 0;
     private int lastPostCount;
@@ -197,8 +218,10 @@ public class ChanThreadLoader {
 
         synchronized (this) {
             thread = null;
+            pendingSavedThread = null;
         }
 
+        tailValidators = null;
         requestMoreDataInternal();
     }
 
@@ -226,6 +249,7 @@ public class ChanThreadLoader {
                         chanThread.isClosed(),
                         chanThread.isArchived()
                 );
+                loadRemainingSavedPosts();
 
                 return true;
             }
@@ -371,22 +395,113 @@ public class ChanThreadLoader {
             cached = thread == null ? new ArrayList<>() : thread.getPosts();
         }
 
+        HttpUrl tailUrl = getTailUrl(cached);
+        if (tailUrl != null) {
+            tailUpdates++;
+            return getTail(tailUrl, cached);
+        }
+
+        tailUpdates = 0;
+        fullLoadRequired = false;
+
+        // only ask the server whether something changed if there's something to keep when it didn't
+        ResponseValidators requestValidators = cached.isEmpty() ? null : validators;
+
         ChanLoaderRequestParams requestParams = new ChanLoaderRequestParams(loadable, cached);
-        call = NetUtils.makeJsonRequest(getChanUrl(loadable), new JsonResult<ChanLoaderResponse>() {
-            @Override
-            public void onJsonFailure(Exception e) {
-                onErrorResponse(e);
-            }
+        call = NetUtils.makeConditionalJsonRequest(getChanUrl(loadable),
+                requestValidators,
+                new ConditionalJsonResult<ChanLoaderResponse>() {
+                    @Override
+                    public void onJsonFailure(Exception e) {
+                        validators = null;
+                        onErrorResponse(e);
+                    }
 
-            @Override
-            public void onJsonSuccess(ChanLoaderResponse result) {
-                onResponse(result);
-            }
-        }, new ChanReaderParser(requestParams));
+                    @Override
+                    public void onJsonSuccess(ChanLoaderResponse result, @Nullable ResponseValidators newValidators) {
+                        validators = newValidators;
+                        onResponse(result);
+                    }
+
+                    @Override
+                    public void onJsonNotModified() {
+                        onNotModifiedResponse();
+                    }
+                },
+                new ChanReaderParser(requestParams)
+        );
 
         return call;
     }
 
+    /**
+     * @return the url of the tail of the thread, if only the tail needs to be loaded to update it, or null if the
+     * whole thread must be loaded
+     */
+    @Nullable
+    private HttpUrl getTailUrl(List<Post> cached) {
+        if (!loadable.isThreadMode() || cached.size() < TAIL_MIN_POSTS || fullLoadRequired
+                || tailUpdates >= TAIL_UPDATES_PER_FULL_LOAD || loadable.site == null || loadable.board == null) {
+            return null;
+        }
+
+        return loadable.site.endpoints().threadTail(loadable.board, loadable);
+    }
+
+    /**
+     * Only loads the op and the last posts of the thread, which the parser merges into the cached posts. When they
+     * don't reach back to the last cached post, the whole thread is loaded instead.
+     */
+    private Call getTail(HttpUrl tailUrl, List<Post> cached) {
+        Logger.d(this, "Requested the tail of /" + loadable.boardCode + "/, " + maskPostNo(loadable.no));
+
+        ChanLoaderRequestParams requestParams = new ChanLoaderRequestParams(loadable, cached, true);
+        call = NetUtils.makeConditionalJsonRequest(tailUrl,
+                tailValidators,
+                new ConditionalJsonResult<ChanLoaderResponse>() {
+                    @Override
+                    public void onJsonFailure(Exception e) {
+                        tailValidators = null;
+                        onErrorResponse(e);
+                    }
+
+                    @Override
+                    public void onJsonSuccess(ChanLoaderResponse result, @Nullable ResponseValidators newValidators) {
+                        if (result.tailGap) {
+                            onTailGap();
+                            return;
+                        }
+
+                        tailValidators = newValidators;
+                        onResponse(result);
+                    }
+
+                    @Override
+                    public void onJsonNotModified() {
+                        onNotModifiedResponse();
+                    }
+                },
+                new ChanReaderParser(requestParams)
+        );
+
+        return call;
+    }
+
+    private void onTailGap() {
+        Logger.d(this, "The tail of /" + loadable.boardCode + "/, " + maskPostNo(loadable.no)
+                + " doesn't reach the last loaded post, loading the whole thread");
+
+        tailValidators = null;
+        // the cached posts are newer than the last full response
+        validators = null;
+        fullLoadRequired = true;
+
+        BackgroundUtils.runOnMainThread(() -> {
+            call = null;
+            requestMoreData();
+        });
+    }
+
     private HttpUrl getChanUrl(Loadable loadable) {
         HttpUrl url;
 
@@ -422,6 +537,28 @@ public class ChanThreadLoader {
         compositeDisposable.add(disposable);
     }
 
+    // The thread didn't change since the last response, so there's nothing to parse; just back off the timer
+    private void onNotModifiedResponse() {
+        call = null;
+
+        ChanThread localThread;
+        synchronized (this) {
+            localThread = thread;
+            if (localThread == null) {
+                // cleared while the request was running, the next request won't be conditional
+                return;
+            }
+
+            lastLoadTime = System.currentTimeMillis();
+            currentTimeout = Math.min(currentTimeout + 1, WATCH_TIMEOUTS.length - 1);
+        }
+
+        Logger.d(this, "Not modified /" + loadable.boardCode + "/, " + maskPostNo(loadable.no));
+        for (ChanLoaderCallback l : listeners) {
+            l.onChanLoaderData(localThread);
+        }
+    }
+
     private Boolean onResponseInternal(ChanLoaderResponse response) {
         BackgroundUtils.ensureBackgroundThread();
 
@@ -443,6 +580,9 @@ public class ChanThreadLoader {
                 thread = new ChanThread(loadable, new ArrayList<>());
             }
 
+            // the response has all posts, the parser only reused the ones that were loaded already
+            pendingSavedThread = null;
+            thread.setPendingSavedPostsCount(0);
             thread.setNewPosts(response.posts);
         }
 
@@ -490,6 +630,7 @@ public class ChanThreadLoader {
 
             // Otherwise pass it to the response parse method
             onPreparedResponseInternal(chanThread, AlreadyDownloaded, closed, archived);
+            loadRemainingSavedPosts();
             return true;
         } else {
             Logger.d(this, "Thread " + maskPostNo(chanThread.getLoadable().no) + " has no posts");
@@ -661,6 +802,7 @@ public class ChanThreadLoader {
                             chanThread.isClosed(),
                             chanThread.isArchived()
                     );
+                    loadRemainingSavedPosts();
 
                     // We managed to load local thread, do no need to show the error screen
                     return false;
@@ -704,7 +846,8 @@ public class ChanThreadLoader {
     }
 
     /**
-     * Loads a saved thread if it exists
+     * Loads a saved thread if it exists. Only its first posts are loaded, call {@link #loadRemainingSavedPosts()} once
+     * the returned thread is shown to load the rest.
      */
     @Nullable
     private ChanThread loadSavedThreadIfItExists() {
@@ -729,7 +872,74 @@ public class ChanThreadLoader {
             return null;
         }
 
-        return savedThreadLoaderManager.loadSavedThread(loadable);
+        LazySavedThread lazySavedThread =
+                savedThreadLoaderManager.loadSavedThread(loadable, SAVED_THREAD_FIRST_CHUNK_SIZE);
+        if (lazySavedThread == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            pendingSavedThread = lazySavedThread.getRemainingPosts().isEmpty() ? null : lazySavedThread;
+        }
+
+        return lazySavedThread.getThread();
+    }
+
+    /**
+     * Deserializes the rest of a saved thread that was shown with only its first posts, one chunk per task so other
+     * loaders don't have to wait for all of it. Listeners get the thread again after every chunk, with
+     * {@link ChanThread#getPendingSavedPostsCount()} as the progress.
+     */
+    private void loadRemainingSavedPosts() {
+        compositeDisposable.add(backgroundScheduler.scheduleDirect(() -> {
+            LazySavedThread savedThread;
+            List<SerializablePost> chunk;
+            synchronized (this) {
+                savedThread = pendingSavedThread;
+                if (savedThread == null || thread != savedThread.getThread()) {
+                    // replaced by another load or a server response in the meantime
+                    return;
+                }
+
+                List<SerializablePost> remainingPosts = savedThread.getRemainingPosts();
+                int start = remainingPosts.size() - thread.getPendingSavedPostsCount();
+                chunk = remainingPosts.subList(start, Math.min(remainingPosts.size(), start + SAVED_THREAD_CHUNK_SIZE));
+            }
+
+            List<Post> posts = savedThreadLoaderManager.deserializePosts(loadable, chunk);
+
+            ChanThread localThread;
+            synchronized (this) {
+                if (pendingSavedThread != savedThread || thread != savedThread.getThread()) {
+                    return;
+                }
+
+                localThread = thread;
+                for (Post post : posts) {
+                    post.setTitle(loadable.title);
+                }
+
+                List<Post> allPosts = new ArrayList<>(localThread.getPosts());
+                allPosts.addAll(posts);
+                localThread.setNewPosts(allPosts);
+                localThread.setPendingSavedPostsCount(localThread.getPendingSavedPostsCount() - chunk.size());
+                lastPostCount = localThread.getPostsCount();
+
+                if (!localThread.isLoadingSavedPosts()) {
+                    pendingSavedThread = null;
+                }
+            }
+
+            BackgroundUtils.runOnMainThread(() -> {
+                for (ChanLoaderCallback l : listeners) {
+                    l.onChanLoaderData(localThread);
+                }
+            });
+
+            if (localThread.isLoadingSavedPosts()) {
+                loadRemainingSavedPosts();
+            }
+        }));
     }
 
     @Nullable
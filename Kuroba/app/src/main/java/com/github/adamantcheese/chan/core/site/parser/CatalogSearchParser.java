@@ -0,0 +1,68 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.core.site.parser;
+
+import android.text.TextUtils;
+import android.util.JsonReader;
+
+import com.github.adamantcheese.chan.core.manager.CatalogSearchManager;
+import com.github.adamantcheese.chan.core.manager.CatalogSearchManager.Entry;
+import com.github.adamantcheese.chan.core.model.orm.Loadable;
+import com.github.adamantcheese.chan.utils.NetUtils;
+
+import org.jsoup.parser.Parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a catalog only as far as the {@link CatalogSearchManager} needs to search it. Like the
+ * {@link FilterWatchScanParser}, none of the comments go through the post parser; every thread becomes an
+ * {@link Entry} of plain text as soon as it's read.
+ */
+public class CatalogSearchParser
+        implements NetUtils.JsonParser<List<Entry>> {
+    private final Loadable loadable;
+    private final ChanReader reader;
+
+    public CatalogSearchParser(Loadable loadable) {
+        this.loadable = loadable;
+        reader = loadable.site.chanReader();
+    }
+
+    @Override
+    public List<Entry> parse(JsonReader jsonReader)
+            throws Exception {
+        List<Entry> entries = new ArrayList<>();
+        ChanReaderProcessingQueue queue = new ChanReaderProcessingQueue(Collections.emptyList(), loadable);
+        queue.setListener(builder -> {
+            String subject = TextUtils.isEmpty(builder.subject) ? "" : Parser.unescapeEntities(builder.subject, false);
+            entries.add(new Entry(loadable.board,
+                    builder.id,
+                    subject,
+                    builder.plainComment(),
+                    builder.name == null ? "" : builder.name,
+                    builder.images == null ? Collections.emptyList() : builder.images,
+                    Math.max(0, builder.replies)
+            ));
+        });
+
+        reader.loadCatalog(jsonReader, queue);
+        return entries;
+    }
+}
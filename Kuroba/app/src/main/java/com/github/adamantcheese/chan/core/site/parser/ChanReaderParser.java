@@ -20,9 +20,10 @@ import android.util.JsonReader;
 
 import com.github.adamantcheese.chan.core.database.DatabaseManager;
 import com.github.adamantcheese.chan.core.database.DatabaseSavedReplyManager;
+import com.github.adamantcheese.chan.core.manager.CompiledFilterSet;
 import com.github.adamantcheese.chan.core.manager.FilterEngine;
+import com.github.adamantcheese.chan.core.manager.YoutubeTitleResolver;
 import com.github.adamantcheese.chan.core.model.Post;
-import com.github.adamantcheese.chan.core.model.orm.Filter;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.site.loader.ChanLoaderRequestParams;
 import com.github.adamantcheese.chan.core.site.loader.ChanLoaderResponse;
@@ -37,6 +38,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -73,10 +75,11 @@ public class ChanReaderParser
 
     private Loadable loadable;
     private List<Post> cached;
+    private boolean tail;
     private ChanReader reader;
     private DatabaseSavedReplyManager databaseSavedReplyManager;
 
-    private List<Filter> filters;
+    private CompiledFilterSet filters;
 
     public ChanReaderParser(ChanLoaderRequestParams request) {
         inject(this);
@@ -84,35 +87,82 @@ public class ChanReaderParser
         // Copy the loadable and cached list. The cached array may changed/cleared by other threads.
         loadable = request.loadable.clone();
         cached = new ArrayList<>(request.cached);
+        tail = request.tail;
         reader = loadable.site.chanReader();
 
-        filters = new ArrayList<>();
-        List<Filter> enabledFilters = filterEngine.getEnabledFilters();
-        for (Filter filter : enabledFilters) {
-            if (filterEngine.matchesBoard(filter, loadable.board)) {
-                // copy the filter because it will get used on other threads
-                filters.add(filter.clone());
-            }
-        }
+        filters = filterEngine.getCompiledFilters(loadable.board);
 
         databaseSavedReplyManager = instance(DatabaseManager.class).getDatabaseSavedReplyManager();
     }
 
+    /**
+     * Reads the response while it's still being downloaded. Every post is handed to the executor as soon as it was
+     * read, so the posts at the start of a big catalog or thread are parsed while the rest of it is still on its way.
+     */
     @Override
     public ChanLoaderResponse parse(JsonReader reader)
             throws Exception {
         ChanReaderProcessingQueue processing = new ChanReaderProcessingQueue(cached, loadable);
+        // The posts of a tail are only parsed once it's known the tail can be used
+        PostParseDispatcher dispatcher = tail ? null : new PostParseDispatcher();
+        processing.setListener(dispatcher);
 
-        if (loadable.isThreadMode()) {
-            this.reader.loadThread(reader, processing);
-        } else if (loadable.isCatalogMode()) {
-            this.reader.loadCatalog(reader, processing);
-        } else {
-            throw new IllegalArgumentException("Unknown mode");
+        try {
+            if (loadable.isThreadMode()) {
+                this.reader.loadThread(reader, processing);
+            } else if (loadable.isCatalogMode()) {
+                this.reader.loadCatalog(reader, processing);
+            } else {
+                throw new IllegalArgumentException("Unknown mode");
+            }
+        } catch (Exception e) {
+            if (dispatcher != null) {
+                dispatcher.cancel();
+            }
+            throw e;
+        }
+
+        // Only the posts from here on were checked for deletion
+        int deletionCheckStart = 0;
+        if (tail) {
+            deletionCheckStart = getTailStart(processing);
+            if (deletionCheckStart > getLastCachedReplyNo()) {
+                return new ChanLoaderResponse(processing.getOp(), new ArrayList<>(), true);
+            }
+        }
+
+        List<Post> list = dispatcher != null ? dispatcher.getPosts(processing) : parsePosts(processing);
+        return processPosts(processing.getOp(), list, deletionCheckStart);
+    }
+
+    /**
+     * @return the number of the first reply in the tail, or {@link Integer#MAX_VALUE} if it has no replies
+     */
+    private int getTailStart(ChanReaderProcessingQueue queue) {
+        int tailStart = Integer.MAX_VALUE;
+        for (Post post : queue.getToReuse()) {
+            if (!post.isOP) {
+                tailStart = Math.min(tailStart, post.no);
+            }
+        }
+        for (Post.Builder builder : queue.getToParse()) {
+            if (!builder.op) {
+                tailStart = Math.min(tailStart, builder.id);
+            }
         }
 
-        List<Post> list = parsePosts(processing);
-        return processPosts(processing.getOp(), list);
+        return tailStart;
+    }
+
+    private int getLastCachedReplyNo() {
+        int lastReplyNo = 0;
+        for (Post post : cached) {
+            if (!post.isOP) {
+                lastReplyNo = Math.max(lastReplyNo, post.no);
+            }
+        }
+
+        return lastReplyNo;
     }
 
     // Concurrently parses the new posts with an executor
@@ -130,6 +180,12 @@ public class ChanReaderParser
         for (Post post : cached) {
             internalIds.add(post.no);
         }
+        // The posts before the tail are in the thread too.
+        if (tail) {
+            for (Post post : this.cached) {
+                internalIds.add(post.no);
+            }
+        }
         // And ids for posts to parse, from the builder.
         for (Post.Builder builder : toParse) {
             internalIds.add(builder.id);
@@ -139,13 +195,7 @@ public class ChanReaderParser
 
         List<Callable<Post>> tasks = new ArrayList<>(toParse.size());
         for (Post.Builder post : toParse) {
-            tasks.add(new PostParseCallable(filterEngine,
-                    filters,
-                    databaseSavedReplyManager,
-                    post,
-                    reader,
-                    internalIds
-            ));
+            tasks.add(new PostParseCallable(filters, databaseSavedReplyManager, post, reader, internalIds));
         }
 
         if (!tasks.isEmpty()) {
@@ -156,12 +206,73 @@ public class ChanReaderParser
                     total.add(parsedPost);
                 }
             }
+            // request any youtube titles found in the new posts together, instead of one at a time during parsing
+            instance(YoutubeTitleResolver.class).flush();
         }
 
         return total;
     }
 
-    private ChanLoaderResponse processPosts(Post.Builder op, List<Post> allPost) {
+    /**
+     * Submits every post to the executor as soon as the reader adds it to the queue, and collects the results in the
+     * order the posts were read.<br>
+     * Quotes can only be checked against the posts that were read so far, and the cached ones. Replies only quote
+     * earlier posts, so this only makes a difference for the ops of a catalog that quote a thread further down in it.
+     */
+    private class PostParseDispatcher
+            implements ChanReaderProcessingQueue.Listener {
+        private final Set<Integer> internalIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private final List<Future<Post>> futures = new ArrayList<>();
+
+        PostParseDispatcher() {
+            for (Post post : cached) {
+                internalIds.add(post.no);
+            }
+        }
+
+        @Override
+        public void onAddedForParse(Post.Builder postBuilder) {
+            internalIds.add(postBuilder.id);
+            futures.add(EXECUTOR.submit(new PostParseCallable(filters,
+                    databaseSavedReplyManager,
+                    postBuilder,
+                    reader,
+                    internalIds
+            )));
+        }
+
+        List<Post> getPosts(ChanReaderProcessingQueue queue)
+                throws InterruptedException, ExecutionException {
+            List<Post> total = new ArrayList<>(queue.getToReuse());
+
+            try {
+                for (Future<Post> future : futures) {
+                    Post parsedPost = future.get();
+                    if (parsedPost != null) {
+                        total.add(parsedPost);
+                    }
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                cancel();
+                throw e;
+            }
+
+            if (!futures.isEmpty()) {
+                // request any youtube titles found in the new posts together, instead of one at a time during parsing
+                instance(YoutubeTitleResolver.class).flush();
+            }
+
+            return total;
+        }
+
+        void cancel() {
+            for (Future<Post> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private ChanLoaderResponse processPosts(Post.Builder op, List<Post> allPost, int deletionCheckStart) {
         ChanLoaderResponse response = new ChanLoaderResponse(op, new ArrayList<>(allPost.size()));
 
         List<Post> cachedPosts = new ArrayList<>();
@@ -180,10 +291,13 @@ public class ChanReaderParser
                 serverPostsByNo.put(post.no, post);
             }
 
-            // If there's a cached post but it's not in the list received from the server, mark it as deleted
+            // If there's a cached post but it's not in the list received from the server, mark it as deleted.
+            // A tail only has the op and the posts from deletionCheckStart on, the rest keep their deleted flag.
             if (loadable.isThreadMode()) {
                 for (Post cachedPost : cachedPosts) {
-                    cachedPost.deleted.set(!serverPostsByNo.containsKey(cachedPost.no));
+                    if (cachedPost.isOP || cachedPost.no >= deletionCheckStart) {
+                        cachedPost.deleted.set(!serverPostsByNo.containsKey(cachedPost.no));
+                    }
                 }
             }
 
@@ -18,6 +18,8 @@ package com.github.adamantcheese.chan.core.site.parser;
 
 import android.annotation.SuppressLint;
 
+import androidx.annotation.Nullable;
+
 import com.github.adamantcheese.chan.core.model.Post;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 
@@ -34,6 +36,8 @@ public class ChanReaderProcessingQueue {
     private List<Post> toReuse = new ArrayList<>();
     private List<Post.Builder> toParse = new ArrayList<>();
     private Post.Builder op;
+    @Nullable
+    private Listener listener;
 
     public ChanReaderProcessingQueue(List<Post> toReuse, Loadable loadable) {
         this.loadable = loadable;
@@ -53,6 +57,10 @@ public class ChanReaderProcessingQueue {
 
     public void addForParse(Post.Builder postBuilder) {
         toParse.add(postBuilder);
+
+        if (listener != null) {
+            listener.onAddedForParse(postBuilder);
+        }
     }
 
     public void setOp(Post.Builder op) {
@@ -74,4 +82,16 @@ public class ChanReaderProcessingQueue {
     Post.Builder getOp() {
         return op;
     }
+
+    void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    interface Listener {
+        /**
+         * Called on the thread reading the response as soon as a post was read completely, so it can be parsed while
+         * the rest of the response is still being read.
+         */
+        void onAddedForParse(Post.Builder postBuilder);
+    }
 }
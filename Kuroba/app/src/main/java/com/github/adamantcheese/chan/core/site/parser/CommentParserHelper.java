@@ -21,36 +21,34 @@ import android.graphics.BitmapFactory;
 import android.text.SpannableString;
 import android.text.Spanned;
 import android.text.style.ImageSpan;
-import android.util.LruCache;
 
 import androidx.annotation.AnyThread;
-import androidx.core.util.Pair;
 
 import com.github.adamantcheese.chan.BuildConfig;
 import com.github.adamantcheese.chan.R;
+import com.github.adamantcheese.chan.core.manager.YoutubeTitleResolver;
 import com.github.adamantcheese.chan.core.model.Post;
 import com.github.adamantcheese.chan.core.model.PostImage;
 import com.github.adamantcheese.chan.core.model.PostLinkable;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
 import com.github.adamantcheese.chan.ui.theme.Theme;
 import com.github.adamantcheese.chan.utils.AndroidUtils;
-import com.github.adamantcheese.chan.utils.NetUtils;
 import com.github.adamantcheese.chan.utils.StringUtils;
 
-import org.joda.time.Period;
 import org.nibor.autolink.LinkExtractor;
 import org.nibor.autolink.LinkSpan;
 import org.nibor.autolink.LinkType;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import okhttp3.HttpUrl;
 
+import static com.github.adamantcheese.chan.Chan.instance;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.getAppContext;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.sp;
 
@@ -62,9 +60,6 @@ public class CommentParserHelper {
     private static Pattern youtubeLinkPattern = Pattern.compile(
             "\\b\\w+://(?:youtu\\.be/|[\\w.]*youtube[\\w.]*/.*?(?:v=|\\bembed/|\\bv/))([\\w\\-]{11})(.*)\\b");
     private static Bitmap youtubeIcon = BitmapFactory.decodeResource(AndroidUtils.getRes(), R.drawable.youtube_icon);
-    // a cache for titles and durations to prevent extra api calls if not necessary
-    // maps a URL to a title and duration string; if durations are disabled, the second argument is an empty string
-    public static LruCache<String, Pair<String, String>> youtubeCache = new LruCache<>(500);
 
     //@formatter:off
     private static Pattern imageUrlPattern = Pattern.compile("https?://.*/(.+?)\\.(jpg|png|jpeg|gif|webm|mp4|pdf|bmp|webp|mp3|swf|m4a|ogg|flac)", Pattern.CASE_INSENSITIVE);
@@ -95,6 +90,8 @@ public class CommentParserHelper {
     public static void detectLinks(Theme theme, Post.Builder post, String text, SpannableString spannable) {
         final Iterable<LinkSpan> links = LINK_EXTRACTOR.extractLinks(text);
         for (final LinkSpan link : links) {
+            //youtube links are already linked up, possibly still showing their URL
+            if (spannable.getSpans(link.getBeginIndex(), link.getEndIndex(), PostLinkable.class).length > 0) continue;
             final String linkText = text.substring(link.getBeginIndex(), link.getEndIndex());
             final PostLinkable pl = new PostLinkable(theme, linkText, linkText, PostLinkable.Type.LINK);
             //priority is 0 by default which is maximum above all else; higher priority is like higher layers, i.e. 2 is above 1, 3 is above 2, etc.
@@ -109,92 +106,47 @@ public class CommentParserHelper {
         }
     }
 
+    /**
+     * Replace youtube links in the given text with their video titles, prefixed with a youtube icon.
+     * <p>
+     * Titles that aren't cached yet don't block the parse; the link is kept as-is and registered on the post builder
+     * as an unresolved youtube link, to be filled in by {@link YoutubeTitleResolver} after the post is built.
+     */
     public static SpannableString replaceYoutubeLinks(Theme theme, Post.Builder post, String text) {
-        Map<String, String> titleURLMap =
-                new HashMap<>(); //this map is inverted i.e. the title maps to the URL rather than the other way around
+        YoutubeTitleResolver titleResolver = instance(YoutubeTitleResolver.class);
         StringBuffer newString = new StringBuffer();
-        //find and replace all youtube URLs with their titles, but keep track in the map above for spans later
+        List<PostLinkable> linkables = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        //find and replace all youtube URLs with their titles, but keep track of the ranges for spans later
         Matcher linkMatcher = youtubeLinkPattern.matcher(text);
         while (linkMatcher.find()) {
             String URL = linkMatcher.group(0);
             String videoID = linkMatcher.group(1);
-            Pair<String, String> result = youtubeCache.get(URL);
-            if (result == null) {
-                result = NetUtils.makeJsonRequestSync(
-                        //@formatter:off
-                    HttpUrl.get("https://www.googleapis.com/youtube/v3/videos?part=snippet"
-                            + (ChanSettings.parseYoutubeDuration.get() ? "%2CcontentDetails" : "")
-                            + "&id=" + videoID
-                            + "&fields=items%28id%2Csnippet%28title%29"
-                            + (ChanSettings.parseYoutubeDuration.get() ? "%2CcontentDetails%28duration%29" : "")
-                            + "%29&key=" + ChanSettings.parseYoutubeAPIKey.get()),
-                    //@formatter:on
-                        reader -> {
-                        /*
-                            {
-                              "items": [
-                                {
-                                  "id": "UyXlt9PP4eM",
-                                  "snippet": {
-                                    "title": "ATC Spindle Part 3: Designing the Spindle Mount"
-                                  },
-                                    "contentDetails": {
-                                      "duration": "PT22M27S"
-                                    }
-                                }
-                              ]
-                            }
-                         */
-                            reader.beginObject();
-                            reader.nextName();
-                            reader.beginArray();
-                            reader.beginObject();
-                            reader.nextName(); // video ID
-                            reader.nextString();
-                            reader.nextName(); // snippet
-                            reader.beginObject();
-                            reader.nextName(); // title
-                            String title = reader.nextString();
-                            Pair<String, String> ret = new Pair<>(title, null);
-                            reader.endObject();
-                            if (ChanSettings.parseYoutubeDuration.get()) {
-                                reader.nextName(); // content details
-                                reader.beginObject();
-                                reader.nextName(); // duration
-                                String duration = reader.nextString();
-                                duration = StringUtils.getHourMinSecondString(Period.parse(duration));
-                                ret = new Pair<>(title, duration);
-                                reader.endObject();
-                            }
-                            reader.endObject();
-                            reader.endArray();
-                            reader.endObject();
-                            return ret;
-                        }
-                );
-                if (result != null) {
-                    youtubeCache.put(URL, result);
-                }
-            }
+            YoutubeTitleResolver.VideoInfo info = titleResolver.getCached(videoID);
             //prepend two spaces for the youtube icon later
-            String title = result != null ? result.first : URL;
-            String duration = result != null ? result.second : null;
-            String extraDur = duration != null ? " " + duration : "";
-            titleURLMap.put("  " + title + extraDur, URL);
-            linkMatcher.appendReplacement(newString, "  " + Matcher.quoteReplacement(title + extraDur));
+            String replacement = "  " + (info != null ? info.getDisplayText() : URL);
+            linkMatcher.appendReplacement(newString, "");
+            starts.add(newString.length());
+            newString.append(replacement);
+            ends.add(newString.length());
+
+            PostLinkable pl = new PostLinkable(theme, replacement, URL, PostLinkable.Type.LINK);
+            linkables.add(pl);
+            if (info == null) {
+                post.addUnresolvedYoutubeLink(pl, videoID);
+            }
         }
         linkMatcher.appendTail(newString);
 
-        //we have a new string here with all the links replaced by their text equivalents, we need to add the linkables now using the map
-        //we reference newString internally because SpannableString instances don't have an indexOf method, but the two are otherwise the same
         SpannableString finalizedString = new SpannableString(newString);
-        for (String key : titleURLMap.keySet()) {
+        for (int i = 0; i < linkables.size(); i++) {
             //set the linkable to be the entire length, including the icon
-            PostLinkable pl = new PostLinkable(theme, key, titleURLMap.get(key), PostLinkable.Type.LINK);
+            PostLinkable pl = linkables.get(i);
             finalizedString.setSpan(
                     pl,
-                    newString.indexOf(key),
-                    newString.indexOf(key) + key.length(),
+                    starts.get(i),
+                    ends.get(i),
                     (500 << Spanned.SPAN_PRIORITY_SHIFT) & Spanned.SPAN_PRIORITY
             );
             post.addLinkable(pl);
@@ -206,8 +158,8 @@ public class CommentParserHelper {
             ytIcon.getDrawable().setBounds(0, 0, width, sp(height));
             finalizedString.setSpan(
                     ytIcon,
-                    newString.indexOf(key),
-                    newString.indexOf(key) + 1,
+                    starts.get(i),
+                    starts.get(i) + 1,
                     (500 << Spanned.SPAN_PRIORITY_SHIFT) & Spanned.SPAN_PRIORITY
             );
         }
@@ -0,0 +1,110 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.core.site.parser;
+
+import android.text.TextUtils;
+import android.util.JsonReader;
+
+import com.github.adamantcheese.chan.core.database.DatabaseManager;
+import com.github.adamantcheese.chan.core.database.DatabaseSavedReplyManager;
+import com.github.adamantcheese.chan.core.manager.CompiledFilterSet;
+import com.github.adamantcheese.chan.core.manager.FilterEngine;
+import com.github.adamantcheese.chan.core.manager.FilterEngine.FilterAction;
+import com.github.adamantcheese.chan.core.model.Post;
+import com.github.adamantcheese.chan.core.model.orm.Filter;
+import com.github.adamantcheese.chan.core.model.orm.Loadable;
+import com.github.adamantcheese.chan.utils.NetUtils;
+
+import org.jsoup.parser.Parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.github.adamantcheese.chan.Chan.instance;
+
+/**
+ * Reads a catalog only to find the threads that match a watch filter, for the background checks of the
+ * {@link com.github.adamantcheese.chan.core.manager.FilterWatchManager}.<br>
+ * The filters are matched on the raw fields of every post as soon as it's read. None of the comments go through the
+ * post parser; the posts that match only get their comment and subject as plain text, which is all a pin needs.
+ */
+public class FilterWatchScanParser
+        implements NetUtils.JsonParser<FilterWatchScanParser.Result> {
+    private final Loadable loadable;
+    private final ChanReader reader;
+    private final CompiledFilterSet filters;
+    private final DatabaseSavedReplyManager savedReplyManager;
+
+    public FilterWatchScanParser(Loadable loadable) {
+        this.loadable = loadable;
+        reader = loadable.site.chanReader();
+        filters = instance(FilterEngine.class).getCompiledFilters(loadable.board);
+        savedReplyManager = instance(DatabaseManager.class).getDatabaseSavedReplyManager();
+    }
+
+    @Override
+    public Result parse(JsonReader jsonReader)
+            throws Exception {
+        Result result = new Result(loadable);
+        ChanReaderProcessingQueue queue = new ChanReaderProcessingQueue(Collections.emptyList(), loadable);
+        queue.setListener(builder -> {
+            result.postNos.add(builder.id);
+            if (isWatched(builder)) {
+                result.watchedPosts.add(buildPlain(builder));
+            }
+        });
+
+        reader.loadCatalog(jsonReader, queue);
+        return result;
+    }
+
+    private boolean isWatched(Post.Builder builder) {
+        // needed for "Apply to own posts" to work correctly
+        builder.isSavedReply(savedReplyManager.isSaved(builder.board, builder.id));
+
+        for (Filter filter : filters.matches(builder)) {
+            if (filter.action == FilterAction.WATCH.id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Post buildPlain(Post.Builder builder) {
+        if (!TextUtils.isEmpty(builder.subject)) {
+            builder.subject = Parser.unescapeEntities(builder.subject, false);
+        }
+        builder.comment(builder.plainComment());
+        builder.filter(0, false, false, true, false, true, false);
+        return builder.build();
+    }
+
+    public static class Result {
+        public final Loadable loadable;
+        // the posts of the catalog that match a watch filter
+        public final List<Post> watchedPosts = new ArrayList<>();
+        // all the posts of the catalog
+        public final Set<Integer> postNos = new HashSet<>();
+
+        private Result(Loadable loadable) {
+            this.loadable = loadable;
+        }
+    }
+}
@@ -17,11 +17,11 @@
 package com.github.adamantcheese.chan.core.site.parser;
 
 import com.github.adamantcheese.chan.core.database.DatabaseSavedReplyManager;
+import com.github.adamantcheese.chan.core.manager.CompiledFilterSet;
 import com.github.adamantcheese.chan.core.manager.FilterEngine;
 import com.github.adamantcheese.chan.core.model.Post;
 import com.github.adamantcheese.chan.core.model.orm.Filter;
 
-import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 
@@ -29,22 +29,19 @@ import java.util.concurrent.Callable;
 // belong to ChanReaderRequest
 class PostParseCallable
         implements Callable<Post> {
-    private FilterEngine filterEngine;
-    private List<Filter> filters;
+    private CompiledFilterSet filters;
     private DatabaseSavedReplyManager savedReplyManager;
     private Post.Builder post;
     private ChanReader reader;
     private final Set<Integer> internalIds;
 
     public PostParseCallable(
-            FilterEngine filterEngine,
-            List<Filter> filters,
+            CompiledFilterSet filters,
             DatabaseSavedReplyManager savedReplyManager,
             Post.Builder post,
             ChanReader reader,
             Set<Integer> internalIds
     ) {
-        this.filterEngine = filterEngine;
         this.filters = filters;
         this.savedReplyManager = savedReplyManager;
         this.post = post;
@@ -74,23 +71,21 @@ class PostParseCallable
     }
 
     private void processPostFilter(Post.Builder post) {
-        for (Filter f : filters) {
-            if (filterEngine.matches(f, post)) {
-                FilterEngine.FilterAction action = FilterEngine.FilterAction.forId(f.action);
-                switch (action) {
-                    case COLOR:
-                        post.filter(f.color, false, false, false, f.applyToReplies, f.onlyOnOP, f.applyToSaved);
-                        break;
-                    case HIDE:
-                        post.filter(0, true, false, false, f.applyToReplies, f.onlyOnOP, false);
-                        break;
-                    case REMOVE:
-                        post.filter(0, false, true, false, f.applyToReplies, f.onlyOnOP, false);
-                        break;
-                    case WATCH:
-                        post.filter(0, false, false, true, false, true, false);
-                        break;
-                }
+        for (Filter f : filters.matches(post)) {
+            FilterEngine.FilterAction action = FilterEngine.FilterAction.forId(f.action);
+            switch (action) {
+                case COLOR:
+                    post.filter(f.color, false, false, false, f.applyToReplies, f.onlyOnOP, f.applyToSaved);
+                    break;
+                case HIDE:
+                    post.filter(0, true, false, false, f.applyToReplies, f.onlyOnOP, false);
+                    break;
+                case REMOVE:
+                    post.filter(0, false, true, false, f.applyToReplies, f.onlyOnOP, false);
+                    break;
+                case WATCH:
+                    post.filter(0, false, false, true, false, true, false);
+                    break;
             }
         }
     }
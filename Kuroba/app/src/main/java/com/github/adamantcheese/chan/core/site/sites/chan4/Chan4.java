@@ -187,6 +187,15 @@ public class Chan4
                     .build();
         }
 
+        @Override
+        public HttpUrl threadTail(Board board, Loadable loadable) {
+            return a.newBuilder()
+                    .addPathSegment(board.code)
+                    .addPathSegment("thread")
+                    .addPathSegment(loadable.no + "-tail.json")
+                    .build();
+        }
+
         @Override
         public HttpUrl imageUrl(Post.Builder post, Map<String, String> arg) {
             String imageFile = arg.get("tim") + "." + arg.get("ext");
@@ -20,10 +20,15 @@ import android.content.Context;
 import android.view.View;
 import android.view.ViewGroup;
 
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.github.adamantcheese.chan.R;
+import com.github.adamantcheese.chan.core.image.ImageLoaderV2;
 import com.github.adamantcheese.chan.core.model.Post;
+import com.github.adamantcheese.chan.core.model.PostImage;
+import com.github.adamantcheese.chan.core.model.PostSearchIndex;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
 import com.github.adamantcheese.chan.ui.cell.PostCell;
@@ -35,6 +40,7 @@ import com.github.adamantcheese.chan.utils.BackgroundUtils;
 import java.util.ArrayList;
 import java.util.List;
 
+import static com.github.adamantcheese.chan.utils.AndroidUtils.getDimen;
 import static com.github.adamantcheese.chan.utils.LayoutUtils.inflate;
 
 public class PostAdapter
@@ -45,12 +51,24 @@ public class PostAdapter
     private static final int TYPE_POST_STUB = 2;
     private static final int TYPE_LAST_SEEN = 3;
 
+    // payload for posts whose contents changed in place, the cell must bind them again
+    static final Object POST_CONTENT_CHANGED = new Object();
+    // rows ahead of a bound one whose saved thumbnails and comment layouts are prepared early
+    private static final int PREFETCH_ROWS = 4;
+
     private final PostAdapterCallback postAdapterCallback;
     private final PostCellInterface.PostCellCallback postCellCallback;
     private RecyclerView recyclerView;
 
     private final ThreadStatusCell.Callback statusCellCallback;
     private final List<Post> displayList = new ArrayList<>();
+    // the state of the displayed posts when they were set, to find the ones that changed since
+    private long[] displayKeys = new long[0];
+    // set when the displayed posts may not match what the recyclerview was notified of, so they can't be diffed
+    private boolean displayReset = false;
+    // the search the displayed posts are the result of, to highlight its matches
+    @Nullable
+    private PostSearchIndex.Result search;
 
     private Loadable loadable = null;
     private String error = null;
@@ -60,6 +78,7 @@ public class PostAdapter
     private String highlightedPostTripcode;
     private int selectedPost = -1;
     private int lastSeenIndicatorPosition = -1;
+    private int lastBoundPosition = -1;
 
     private ChanSettings.PostViewMode postViewMode;
     private boolean compact = false;
@@ -139,12 +158,19 @@ public class PostAdapter
                         showDivider(position),
                         getPostViewMode(),
                         isCompact(),
-                        theme
+                        theme,
+                        search
                 );
 
                 if (itemViewType == TYPE_POST_STUB && postAdapterCallback != null) {
                     holder.itemView.setOnClickListener(v -> postAdapterCallback.onUnhidePostClick(post));
                 }
+                boolean ahead = position >= lastBoundPosition;
+                lastBoundPosition = position;
+                prefetchSavedThumbnails(position, ahead);
+                if (postViewHolder.itemView instanceof PostCell) {
+                    prefetchTextLayouts((PostCell) postViewHolder.itemView, position, ahead);
+                }
                 break;
             case TYPE_STATUS:
                 ((ThreadStatusCell) holder.itemView).update();
@@ -154,6 +180,52 @@ public class PostAdapter
         }
     }
 
+    @Override
+    public void onBindViewHolder(RecyclerView.ViewHolder holder, int position, List<Object> payloads) {
+        if (payloads.contains(POST_CONTENT_CHANGED) && holder.itemView instanceof PostCellInterface) {
+            ((PostCellInterface) holder.itemView).invalidatePost();
+        }
+        onBindViewHolder(holder, position);
+    }
+
+    // Thumbnails of saved threads are decoded from the disk; start on the rows that come next in the direction of
+    // scrolling, so they are in memory by the time they are bound
+    private void prefetchSavedThumbnails(int position, boolean ahead) {
+        if (!loadable.isLocal() || getPostViewMode() != ChanSettings.PostViewMode.LIST || ChanSettings.textOnly.get()) {
+            return;
+        }
+
+        int size = getDimen(R.dimen.cell_post_thumbnail_size);
+        for (int i = 1; i <= PREFETCH_ROWS; i++) {
+            int prefetchPosition = ahead ? position + i : position - i;
+            if (prefetchPosition < 0 || prefetchPosition >= getItemCount()
+                    || getItemViewType(prefetchPosition) != TYPE_POST) {
+                continue;
+            }
+
+            for (PostImage image : displayList.get(getPostPosition(prefetchPosition)).images) {
+                if (image.imageUrl != null) {
+                    ImageLoaderV2.prefetchFromDisk(loadable, image, size, size);
+                }
+            }
+        }
+    }
+
+    // Comments of the rows that come next are laid out in the background, so the cells that show them don't have to
+    private void prefetchTextLayouts(PostCell postCell, int position, boolean ahead) {
+        List<Post> posts = new ArrayList<>(PREFETCH_ROWS);
+        for (int i = 1; i <= PREFETCH_ROWS; i++) {
+            int prefetchPosition = ahead ? position + i : position - i;
+            if (prefetchPosition < 0 || prefetchPosition >= getItemCount()
+                    || getItemViewType(prefetchPosition) != TYPE_POST) {
+                continue;
+            }
+
+            posts.add(displayList.get(getPostPosition(prefetchPosition)));
+        }
+        postCell.prefetchTextLayouts(posts);
+    }
+
     public boolean isInPopup() {
         return false;
     }
@@ -231,47 +303,63 @@ public class PostAdapter
     public void setThread(
             Loadable threadLoadable, List<Post> posts, boolean refreshAfterHideOrRemovePosts
     ) {
+        setThread(PostListUpdate.compute(getDisplayed(),
+                threadLoadable,
+                new ArrayList<>(posts),
+                null,
+                refreshAfterHideOrRemovePosts
+        ));
+    }
+
+    /**
+     * Shows the posts of the update. When only some posts were added, removed or changed, only those are notified, so
+     * the other cells are not bound again.
+     */
+    public void setThread(PostListUpdate update) {
         BackgroundUtils.ensureMainThread();
-        boolean changed = (this.loadable != null && !this.loadable.equals(threadLoadable)); //changed threads, update
 
-        this.loadable = threadLoadable;
+        this.loadable = update.loadable;
         showError(null);
 
-        int lastLastSeenIndicator = lastSeenIndicatorPosition;
-        if (!changed && displayList.size() == posts.size()) {
-            for (int i = 0; i < displayList.size(); i++) {
-                if (!displayList.get(i).equals(posts.get(i))) {
-                    changed = true; //posts are different, or a post got deleted and needs to be updated
-                    break;
-                }
-            }
+        displayList.clear();
+        displayList.addAll(update.posts);
+        displayKeys = update.contentKeys;
+        search = update.search;
+        lastSeenIndicatorPosition = update.lastSeenIndicatorPosition;
+        displayReset = false;
+
+        if (update.diff == null) {
+            notifyDataSetChanged();
         } else {
-            changed = true; //new posts or fewer posts, update
+            update.diff.dispatchUpdatesTo(new IndicatorOffsetCallback());
         }
+    }
 
-        displayList.clear();
-        displayList.addAll(posts);
+    /**
+     * @return a copy of what is displayed now, to compute a {@link PostListUpdate} from on another thread
+     */
+    public PostListUpdate.Displayed getDisplayed() {
+        BackgroundUtils.ensureMainThread();
+        return new PostListUpdate.Displayed(displayReset ? null : loadable,
+                new ArrayList<>(displayList),
+                displayKeys,
+                lastSeenIndicatorPosition
+        );
+    }
+
+    /**
+     * Shows no posts until the next {@link #setThread(PostListUpdate)}, for while the posts of another thread are
+     * prepared
+     */
+    public void clearPosts() {
+        BackgroundUtils.ensureMainThread();
 
+        displayList.clear();
+        displayKeys = new long[0];
+        search = null;
         lastSeenIndicatorPosition = -1;
-        if (threadLoadable.lastViewed >= 0) {
-            // Do not process the last post, the indicator does not have to appear at the bottom
-            for (int i = 0, displayListSize = displayList.size() - 1; i < displayListSize; i++) {
-                Post post = displayList.get(i);
-                if (post.no == threadLoadable.lastViewed) {
-                    lastSeenIndicatorPosition = i + 1;
-                    break;
-                }
-            }
-        }
-
-        //update for indicator (adds/removes extra recycler item that causes inconsistency exceptions)
-        //or if something changed per reasons above
-        if (lastLastSeenIndicator != lastSeenIndicatorPosition || changed
-                // When true that means that the user has just hid or removed post/thread
-                // so we need to refresh the UI
-                || refreshAfterHideOrRemovePosts) {
-            notifyDataSetChanged();
-        }
+        displayReset = true;
+        notifyDataSetChanged();
     }
 
     public List<Post> getDisplayList() {
@@ -286,6 +374,7 @@ public class PostAdapter
         selectedPost = -1;
         lastSeenIndicatorPosition = -1;
         error = null;
+        displayReset = true;
     }
 
     public void showError(String error) {
@@ -303,6 +392,17 @@ public class PostAdapter
         }
     }
 
+    /**
+     * Redraw the given posts, for when their contents were changed in place.
+     */
+    public void refreshPosts(List<Post> posts) {
+        for (int i = 0; i < displayList.size(); i++) {
+            if (posts.contains(displayList.get(i))) {
+                notifyItemChanged(getScrollPosition(i), POST_CONTENT_CHANGED);
+            }
+        }
+    }
+
     public void highlightPost(Post post) {
         highlightedPost = post;
         highlightedPostId = null;
@@ -379,6 +479,56 @@ public class PostAdapter
         return loadable != null && loadable.isThreadMode();
     }
 
+    /**
+     * Moves the post positions of a diff past the last seen indicator, which is at the same position before and after
+     * the update. Posts inserted right at the indicator go after it, they're new.
+     */
+    private class IndicatorOffsetCallback
+            implements ListUpdateCallback {
+        // the number of posts before the indicator, as the updates are applied one by one
+        private int postsBeforeIndicator = lastSeenIndicatorPosition;
+
+        private int toAdapterPosition(int postPosition) {
+            return lastSeenIndicatorPosition >= 0 && postPosition >= postsBeforeIndicator
+                    ? postPosition + 1
+                    : postPosition;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(toAdapterPosition(position), count);
+            if (position < postsBeforeIndicator) {
+                postsBeforeIndicator += count;
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            // split at the indicator
+            int before = Math.max(0, Math.min(count, postsBeforeIndicator - position));
+            if (before > 0) {
+                notifyItemRangeRemoved(position, before);
+                postsBeforeIndicator -= before;
+            }
+            if (count > before) {
+                notifyItemRangeRemoved(toAdapterPosition(position), count - before);
+            }
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            // moves are not detected
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            for (int i = position; i < position + count; i++) {
+                notifyItemChanged(toAdapterPosition(i), payload);
+            }
+        }
+    }
+
     //region Holders
     public static class PostViewHolder
             extends RecyclerView.ViewHolder {
@@ -0,0 +1,191 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.ui.adapter;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.github.adamantcheese.chan.core.model.Post;
+import com.github.adamantcheese.chan.core.model.PostSearchIndex;
+import com.github.adamantcheese.chan.core.model.orm.Loadable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A new list of posts for a {@link PostAdapter}, together with the changes from the list it displays now. It can be
+ * computed on a background thread, so the main thread only has to dispatch the notifications for the posts that were
+ * actually inserted, removed or changed.
+ */
+public class PostListUpdate {
+    final Loadable loadable;
+    final List<Post> posts;
+    // the state of every post when it was put in this list, see contentKey()
+    final long[] contentKeys;
+    final int lastSeenIndicatorPosition;
+    @Nullable
+    final PostSearchIndex.Result search;
+    // null if everything has to be rebound
+    @Nullable
+    final DiffUtil.DiffResult diff;
+
+    private PostListUpdate(
+            Loadable loadable,
+            List<Post> posts,
+            long[] contentKeys,
+            int lastSeenIndicatorPosition,
+            @Nullable PostSearchIndex.Result search,
+            @Nullable DiffUtil.DiffResult diff
+    ) {
+        this.loadable = loadable;
+        this.posts = Collections.unmodifiableList(posts);
+        this.contentKeys = contentKeys;
+        this.lastSeenIndicatorPosition = lastSeenIndicatorPosition;
+        this.search = search;
+        this.diff = diff;
+    }
+
+    /**
+     * @param displayed  what the adapter displays now, from {@link PostAdapter#getDisplayed()}
+     * @param posts      the posts to display, which this takes ownership of
+     * @param search     the search the posts were found with, if any, see {@link PostsFilter#getSearchResult()}
+     * @param refreshAll rebind every post, for when something changed that the posts don't show, like the settings
+     */
+    public static PostListUpdate compute(
+            Displayed displayed,
+            Loadable loadable,
+            List<Post> posts,
+            @Nullable PostSearchIndex.Result search,
+            boolean refreshAll
+    ) {
+        long[] contentKeys = new long[posts.size()];
+        for (int i = 0; i < posts.size(); i++) {
+            contentKeys[i] = contentKey(posts.get(i), search);
+        }
+
+        int lastSeenIndicatorPosition = -1;
+        if (loadable.lastViewed >= 0) {
+            // Do not process the last post, the indicator does not have to appear at the bottom
+            for (int i = 0; i < posts.size() - 1; i++) {
+                if (posts.get(i).no == loadable.lastViewed) {
+                    lastSeenIndicatorPosition = i + 1;
+                    break;
+                }
+            }
+        }
+
+        DiffUtil.DiffResult diff = null;
+        //changed threads, or a changed last seen indicator, which is an extra item the diff doesn't know about
+        if (!refreshAll && loadable.equals(displayed.loadable)
+                && lastSeenIndicatorPosition == displayed.lastSeenIndicatorPosition) {
+            diff = DiffUtil.calculateDiff(new Callback(displayed.posts, displayed.contentKeys, posts, contentKeys),
+                    false
+            );
+        }
+
+        return new PostListUpdate(loadable, posts, contentKeys, lastSeenIndicatorPosition, search, diff);
+    }
+
+    /**
+     * Everything a post cell shows that can change while the post stays in the list
+     */
+    private static long contentKey(Post post, @Nullable PostSearchIndex.Result search) {
+        int repliesFromSize;
+        synchronized (post.repliesFrom) {
+            repliesFromSize = post.repliesFrom.size();
+        }
+
+        long key = repliesFromSize;
+        key = key * 31 + (post.deleted.get() ? 1 : 0);
+        key = key * 31 + (post.filterStub ? 1 : 0);
+        key = key * 31 + post.filterHighlightedColor;
+        key = key * 31 + (post.images == null ? 0 : post.images.size());
+        key = key * 31 + post.getReplies();
+        key = key * 31 + post.getImagesCount();
+        // the OP icons, which the thread loader updates on the same post
+        key = key * 31 + (post.isSticky() ? 1 : 0);
+        key = key * 31 + (post.isClosed() ? 1 : 0);
+        key = key * 31 + (post.isArchived() ? 1 : 0);
+        key = key * 31 + (post.httpIcons != null ? 1 : 0);
+        // the highlighted search matches
+        key = key * 31 + (search == null ? 0 : search.query.hashCode());
+        key = key * 31 + (search == null ? 0 : Arrays.hashCode(search.getCommentMatches(post)));
+        return key;
+    }
+
+    /**
+     * What a {@link PostAdapter} displays, copied on the main thread so it can be compared to new posts on another one
+     */
+    public static class Displayed {
+        @Nullable
+        final Loadable loadable;
+        final List<Post> posts;
+        final long[] contentKeys;
+        final int lastSeenIndicatorPosition;
+
+        Displayed(@Nullable Loadable loadable, List<Post> posts, long[] contentKeys, int lastSeenIndicatorPosition) {
+            this.loadable = loadable;
+            this.posts = posts;
+            this.contentKeys = contentKeys;
+            this.lastSeenIndicatorPosition = lastSeenIndicatorPosition;
+        }
+    }
+
+    private static class Callback
+            extends DiffUtil.Callback {
+        private final List<Post> oldPosts;
+        private final long[] oldKeys;
+        private final List<Post> newPosts;
+        private final long[] newKeys;
+
+        private Callback(List<Post> oldPosts, long[] oldKeys, List<Post> newPosts, long[] newKeys) {
+            this.oldPosts = oldPosts;
+            this.oldKeys = oldKeys;
+            this.newPosts = newPosts;
+            this.newKeys = newKeys;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldPosts.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newPosts.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldPosts.get(oldItemPosition).no == newPosts.get(newItemPosition).no;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            // hidden posts are rebuilt every time, so a different object may have different contents
+            return oldPosts.get(oldItemPosition) == newPosts.get(newItemPosition)
+                    && oldKeys[oldItemPosition] == newKeys[newItemPosition];
+        }
+
+        @Nullable
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            return PostAdapter.POST_CONTENT_CHANGED;
+        }
+    }
+}
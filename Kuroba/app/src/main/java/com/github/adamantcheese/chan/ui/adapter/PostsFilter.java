@@ -18,16 +18,16 @@ package com.github.adamantcheese.chan.ui.adapter;
 
 import android.text.TextUtils;
 
+import androidx.annotation.Nullable;
+
 import com.github.adamantcheese.chan.core.database.DatabaseManager;
 import com.github.adamantcheese.chan.core.model.Post;
-import com.github.adamantcheese.chan.core.model.PostImage;
+import com.github.adamantcheese.chan.core.model.PostSearchIndex;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 
 import javax.inject.Inject;
 
@@ -64,10 +64,18 @@ public class PostsFilter {
 
     private Order order;
     private String query;
+    private PostSearchIndex searchIndex;
+    @Nullable
+    private PostSearchIndex.Result searchResult;
 
-    public PostsFilter(Order order, String query) {
+    /**
+     * @param searchIndex the index of the thread the posts come from, see {@link
+     *                    com.github.adamantcheese.chan.core.model.ChanThread#getSearchIndex()}
+     */
+    public PostsFilter(Order order, String query, PostSearchIndex searchIndex) {
         this.order = order;
         this.query = query;
+        this.searchIndex = searchIndex;
         inject(this);
     }
 
@@ -80,7 +88,16 @@ public class PostsFilter {
      * @return a new filtered List
      */
     public List<Post> apply(List<Post> original, int siteId, String board) {
-        List<Post> posts = new ArrayList<>(original);
+        List<Post> posts;
+
+        // Process search first, so fewer posts have to be sorted
+        if (!TextUtils.isEmpty(query)) {
+            searchResult = searchIndex.search(original, query);
+            posts = new ArrayList<>(searchResult.posts);
+        } else {
+            searchResult = null;
+            posts = new ArrayList<>(original);
+        }
 
         // Process order
         if (order != PostsFilter.Order.BUMP) {
@@ -106,38 +123,18 @@ public class PostsFilter {
             }
         }
 
-        // Process search
-        if (!TextUtils.isEmpty(query)) {
-            String lowerQuery = query.toLowerCase(Locale.ENGLISH);
-
-            boolean add;
-            Iterator<Post> i = posts.iterator();
-            while (i.hasNext()) {
-                Post item = i.next();
-                add = false;
-                if (item.comment.toString().toLowerCase(Locale.ENGLISH).contains(lowerQuery)) {
-                    add = true;
-                } else if (item.subject.toLowerCase(Locale.ENGLISH).contains(lowerQuery)) {
-                    add = true;
-                } else if (item.name.toLowerCase(Locale.ENGLISH).contains(lowerQuery)) {
-                    add = true;
-                } else if (!item.images.isEmpty()) {
-                    for (PostImage image : item.images) {
-                        if (image.filename != null && image.filename.toLowerCase(Locale.ENGLISH).contains(lowerQuery)) {
-                            add = true;
-                        }
-                    }
-                }
-                if (!add) {
-                    i.remove();
-                }
-            }
-        }
-
         // Process hidden by filter and post/thread hiding
         return databaseManager.getDatabaseHideManager().filterHiddenPosts(posts, siteId, board);
     }
 
+    /**
+     * @return the matches of the search of the last {@link #apply} call, or null if there was no search
+     */
+    @Nullable
+    public PostSearchIndex.Result getSearchResult() {
+        return searchResult;
+    }
+
     public enum Order {
         BUMP("bump"),
         REPLY("reply"),
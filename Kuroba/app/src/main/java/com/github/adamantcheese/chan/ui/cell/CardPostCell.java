@@ -23,11 +23,13 @@ import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.annotation.Nullable;
 import androidx.cardview.widget.CardView;
 
 import com.github.adamantcheese.chan.R;
 import com.github.adamantcheese.chan.core.model.Post;
 import com.github.adamantcheese.chan.core.model.PostImage;
+import com.github.adamantcheese.chan.core.model.PostSearchIndex;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
 import com.github.adamantcheese.chan.core.site.common.CommonDataStructs.ChanPage;
@@ -162,7 +164,8 @@ public class CardPostCell
             boolean showDivider,
             ChanSettings.PostViewMode postViewMode,
             boolean compact,
-            Theme theme
+            Theme theme,
+            @Nullable PostSearchIndex.Result search
     ) {
         if (this.post == post) {
             return;
@@ -189,6 +192,11 @@ public class CardPostCell
         return post;
     }
 
+    public void invalidatePost() {
+        bound = false;
+        post = null;
+    }
+
     public ThumbnailView getThumbnailView(PostImage postImage) {
         return thumbView;
     }
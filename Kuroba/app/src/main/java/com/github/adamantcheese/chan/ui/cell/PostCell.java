@@ -51,6 +51,7 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.github.adamantcheese.chan.R;
 import com.github.adamantcheese.chan.core.cache.CacheHandler;
@@ -58,6 +59,7 @@ import com.github.adamantcheese.chan.core.model.Post;
 import com.github.adamantcheese.chan.core.model.PostHttpIcon;
 import com.github.adamantcheese.chan.core.model.PostImage;
 import com.github.adamantcheese.chan.core.model.PostLinkable;
+import com.github.adamantcheese.chan.core.model.PostSearchIndex;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
 import com.github.adamantcheese.chan.core.site.common.CommonDataStructs.ChanPage;
@@ -65,12 +67,14 @@ import com.github.adamantcheese.chan.core.site.parser.CommentParserHelper;
 import com.github.adamantcheese.chan.ui.helper.PostHelper;
 import com.github.adamantcheese.chan.ui.text.AbsoluteSizeSpanHashed;
 import com.github.adamantcheese.chan.ui.text.ForegroundColorSpanHashed;
+import com.github.adamantcheese.chan.ui.text.TextLayoutCache;
 import com.github.adamantcheese.chan.ui.theme.Theme;
 import com.github.adamantcheese.chan.ui.theme.ThemeHelper;
 import com.github.adamantcheese.chan.ui.view.FloatingMenu;
 import com.github.adamantcheese.chan.ui.view.FloatingMenuItem;
 import com.github.adamantcheese.chan.ui.view.PostImageThumbnailView;
 import com.github.adamantcheese.chan.ui.view.ThumbnailView;
+import com.github.adamantcheese.chan.utils.BackgroundUtils.Cancelable;
 import com.github.adamantcheese.chan.utils.NetUtils;
 
 import java.text.BreakIterator;
@@ -78,13 +82,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import okhttp3.Call;
 import okhttp3.HttpUrl;
 
 import static android.text.TextUtils.isEmpty;
-import static android.view.View.MeasureSpec.AT_MOST;
 import static android.view.View.MeasureSpec.EXACTLY;
-import static android.view.View.MeasureSpec.UNSPECIFIED;
 import static com.github.adamantcheese.chan.Chan.instance;
 import static com.github.adamantcheese.chan.core.settings.ChanSettings.LayoutMode.AUTO;
 import static com.github.adamantcheese.chan.core.settings.ChanSettings.LayoutMode.SPLIT;
@@ -131,6 +132,8 @@ public class PostCell
     private boolean selected;
     private int markedNo;
     private boolean showDivider;
+    @Nullable
+    private PostSearchIndex.Result search;
 
     private GestureDetector doubleTapComment;
 
@@ -266,10 +269,11 @@ public class PostCell
             boolean showDivider,
             ChanSettings.PostViewMode postViewMode,
             boolean compact,
-            Theme theme
+            Theme theme,
+            @Nullable PostSearchIndex.Result search
     ) {
         if (this.post == post && this.inPopup == inPopup && this.highlighted == highlighted && this.selected == selected
-                && this.markedNo == markedNo && this.showDivider == showDivider) {
+                && this.markedNo == markedNo && this.showDivider == showDivider && this.search == search) {
             return;
         }
 
@@ -286,6 +290,7 @@ public class PostCell
         this.selected = selected;
         this.markedNo = markedNo;
         this.showDivider = showDivider;
+        this.search = search;
 
         bindPost(theme, post);
 
@@ -298,6 +303,13 @@ public class PostCell
         return post;
     }
 
+    public void invalidatePost() {
+        if (post != null && bound) {
+            unbindPost(post);
+        }
+        post = null;
+    }
+
     public ThumbnailView getThumbnailView(PostImage postImage) {
         for (int i = 0; i < post.images.size(); i++) {
             if (post.images.get(i).equalUrl(postImage)) {
@@ -421,12 +433,7 @@ public class PostCell
 
         icons.apply();
 
-        CharSequence commentText;
-        if (!threadMode && post.comment.length() > COMMENT_MAX_LENGTH_BOARD) {
-            commentText = truncatePostComment(post);
-        } else {
-            commentText = post.comment;
-        }
+        CharSequence commentText = highlightSearchMatches(post, getCommentText(post));
 
         if (!theme.altFontIsMain && ChanSettings.fontAlternate.get()) {
             comment.setTypeface(theme.altFont);
@@ -548,56 +555,121 @@ public class PostCell
 
         divider.setVisibility(showDivider ? VISIBLE : GONE);
 
-        if (ChanSettings.shiftPostFormat.get() && post.images.size() == 1 && !ChanSettings.textOnly.get()) {
-            //display width, we don't care about height here
-            Point displaySize = getDisplaySize();
+        if (ChanSettings.shiftPostFormat.get()) {
+            shiftPostFormat(post, commentText);
+        }
+    }
 
+    /**
+     * Wraps the comment around the thumbnail when the title and comment are too long to fit next to it. The heights
+     * come from the {@link TextLayoutCache}, so nothing has to be measured here, and the layout rules are put back
+     * first, so the cell can be recycled for any other post.
+     */
+    private void shiftPostFormat(Post post, CharSequence commentText) {
+        RelativeLayout.LayoutParams commentParams = (RelativeLayout.LayoutParams) comment.getLayoutParams();
+        commentParams.addRule(RelativeLayout.RIGHT_OF, R.id.thumbnail_view);
+        commentParams.addRule(RelativeLayout.BELOW, R.id.icons);
+        RelativeLayout.LayoutParams replyParams = (RelativeLayout.LayoutParams) replies.getLayoutParams();
+        replyParams.addRule(RelativeLayout.RIGHT_OF, R.id.thumbnail_view);
+        replyParams.removeRule(RelativeLayout.ALIGN_PARENT_BOTTOM);
+
+        if (post.images.size() == 1 && !ChanSettings.textOnly.get()) {
             int thumbnailSize = getDimen(R.dimen.cell_post_thumbnail_size);
-            boolean isSplitMode =
-                    ChanSettings.layoutMode.get() == SPLIT || (ChanSettings.layoutMode.get() == AUTO && isTablet());
-
-            //get the width of the cell for calculations, height we don't need but measure it anyways
-            //0.35 is from SplitNavigationControllerLayout; measure for the smaller of the two sides
-            this.measure(
-                    MeasureSpec.makeMeasureSpec(isSplitMode ? (int) (displaySize.x * 0.35) : displaySize.x, AT_MOST),
-                    MeasureSpec.makeMeasureSpec(displaySize.y, AT_MOST)
-            );
+            TextLayoutCache layoutCache = instance(TextLayoutCache.class);
 
-            //we want the heights here, but the widths must be the exact size between the thumbnail and view edge so that we calculate offsets right
-            title.measure(MeasureSpec.makeMeasureSpec(this.getMeasuredWidth() - thumbnailSize, EXACTLY),
-                    MeasureSpec.makeMeasureSpec(0, UNSPECIFIED)
-            );
-            icons.measure(MeasureSpec.makeMeasureSpec(this.getMeasuredWidth() - thumbnailSize, EXACTLY),
-                    MeasureSpec.makeMeasureSpec(0, UNSPECIFIED)
-            );
-            comment.measure(MeasureSpec.makeMeasureSpec(this.getMeasuredWidth() - thumbnailSize, EXACTLY),
-                    MeasureSpec.makeMeasureSpec(0, UNSPECIFIED)
-            );
-            int wrapHeight = title.getMeasuredHeight() + icons.getMeasuredHeight();
-            int extraWrapHeight = wrapHeight + comment.getMeasuredHeight();
+            int titleHeight = layoutCache.getHeight(post.no, title.getText(), title, getShiftTextWidth(title))
+                    + title.getPaddingTop() + title.getPaddingBottom();
+            int iconsHeight = icons.getIconsHeight();
+            int commentHeight = layoutCache.getHeight(post.no, commentText, comment, getShiftTextWidth(comment))
+                    + comment.getPaddingTop() + comment.getPaddingBottom();
+
+            int wrapHeight = titleHeight + iconsHeight;
+            int extraWrapHeight = wrapHeight + commentHeight;
             //wrap if the title+icons height is larger than 0.8x the thumbnail size, or if everything is over 1.6x the thumbnail size
             if ((wrapHeight >= 0.8f * thumbnailSize) || extraWrapHeight >= 1.6f * thumbnailSize) {
-                RelativeLayout.LayoutParams commentParams = (RelativeLayout.LayoutParams) comment.getLayoutParams();
                 commentParams.removeRule(RelativeLayout.RIGHT_OF);
-                if (title.getMeasuredHeight() + (icons.getVisibility() == VISIBLE ? icons.getMeasuredHeight() : 0)
-                        < thumbnailSize) {
+                if (titleHeight + (icons.getVisibility() == VISIBLE ? iconsHeight : 0) < thumbnailSize) {
                     commentParams.addRule(RelativeLayout.BELOW, R.id.thumbnail_view);
                 } else {
                     commentParams.addRule(RelativeLayout.BELOW,
                             (icons.getVisibility() == VISIBLE ? R.id.icons : R.id.title)
                     );
                 }
-                comment.setLayoutParams(commentParams);
 
-                RelativeLayout.LayoutParams replyParams = (RelativeLayout.LayoutParams) replies.getLayoutParams();
                 replyParams.removeRule(RelativeLayout.RIGHT_OF);
-                replies.setLayoutParams(replyParams);
             } else if (comment.getVisibility() == GONE) {
-                RelativeLayout.LayoutParams replyParams = (RelativeLayout.LayoutParams) replies.getLayoutParams();
                 replyParams.addRule(RelativeLayout.ALIGN_PARENT_BOTTOM);
-                replies.setLayoutParams(replyParams);
             }
         }
+
+        comment.setLayoutParams(commentParams);
+        replies.setLayoutParams(replyParams);
+    }
+
+    /**
+     * The width the text of a view next to the thumbnail gets
+     */
+    private int getShiftTextWidth(TextView view) {
+        //display width, we don't care about height here
+        Point displaySize = getDisplaySize();
+        boolean isSplitMode =
+                ChanSettings.layoutMode.get() == SPLIT || (ChanSettings.layoutMode.get() == AUTO && isTablet());
+        //0.35 is from SplitNavigationControllerLayout; use the smaller of the two sides
+        int cellWidth = isSplitMode ? (int) (displaySize.x * 0.35) : displaySize.x;
+
+        return cellWidth - getDimen(R.dimen.cell_post_thumbnail_size) - view.getPaddingLeft()
+                - view.getPaddingRight();
+    }
+
+    /**
+     * Lays out the comments of posts that will be bound soon in the background, so their binds don't have to
+     */
+    public void prefetchTextLayouts(List<Post> posts) {
+        if (!bound || !ChanSettings.shiftPostFormat.get() || ChanSettings.textOnly.get()) return;
+
+        List<Integer> postNos = new ArrayList<>(posts.size());
+        List<CharSequence> commentTexts = new ArrayList<>(posts.size());
+        for (Post post : posts) {
+            // only posts with a single thumbnail are checked for wrapping
+            if (post.images.size() != 1) continue;
+
+            postNos.add(post.no);
+            commentTexts.add(getCommentText(post));
+        }
+
+        if (!postNos.isEmpty()) {
+            instance(TextLayoutCache.class).prefetch(postNos, commentTexts, comment, getShiftTextWidth(comment));
+        }
+    }
+
+    /**
+     * @return the comment text with the matches of the current search highlighted, or the text itself if there are none
+     */
+    private CharSequence highlightSearchMatches(Post post, CharSequence commentText) {
+        int[] matches = search == null ? null : search.getCommentMatches(post);
+        if (matches == null || matches.length == 0) return commentText;
+
+        // the comment itself is shared with all other cells and searches, so the spans go on a copy
+        SpannableString highlighted = new SpannableString(commentText);
+        int length = search.query.length();
+        for (int start : matches) {
+            // a truncated comment doesn't show all of them
+            if (start + length > highlighted.length()) break;
+            highlighted.setSpan(new BackgroundColorSpan(SEARCH_HIGHLIGHT_COLOR),
+                    start,
+                    start + length,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE
+            );
+        }
+        return highlighted;
+    }
+
+    private CharSequence getCommentText(Post post) {
+        if (!threadMode && post.comment.length() > COMMENT_MAX_LENGTH_BOARD) {
+            return truncatePostComment(post);
+        } else {
+            return post.comment;
+        }
     }
 
     private void buildThumbnails() {
@@ -696,6 +768,7 @@ public class PostCell
     }
 
     private static BackgroundColorSpan BACKGROUND_SPAN = new BackgroundColorSpan(0x6633B5E5);
+    private static final int SEARCH_HIGHLIGHT_COLOR = 0x66FFC107;
 
     /**
      * A MovementMethod that searches for PostLinkables.<br>
@@ -895,11 +968,13 @@ public class PostCell
             return (icons & icon) == icon;
         }
 
+        public int getIconsHeight() {
+            return icons == 0 ? 0 : (height + getPaddingTop() + getPaddingBottom());
+        }
+
         @Override
         protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-            int measureHeight = icons == 0 ? 0 : (height + getPaddingTop() + getPaddingBottom());
-
-            setMeasuredDimension(widthMeasureSpec, MeasureSpec.makeMeasureSpec(measureHeight, EXACTLY));
+            setMeasuredDimension(widthMeasureSpec, MeasureSpec.makeMeasureSpec(getIconsHeight(), EXACTLY));
         }
 
         @Override
@@ -955,7 +1030,7 @@ public class PostCell
 
     private static class PostIconsHttpIcon {
         private final String name;
-        private Call request;
+        private Cancelable request;
         private Bitmap bitmap;
 
         private PostIconsHttpIcon(final PostIcons postIcons, String name, HttpUrl url) {
@@ -18,9 +18,12 @@ package com.github.adamantcheese.chan.ui.cell;
 
 import android.view.View;
 
+import androidx.annotation.Nullable;
+
 import com.github.adamantcheese.chan.core.model.Post;
 import com.github.adamantcheese.chan.core.model.PostImage;
 import com.github.adamantcheese.chan.core.model.PostLinkable;
+import com.github.adamantcheese.chan.core.model.PostSearchIndex;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
 import com.github.adamantcheese.chan.core.site.common.CommonDataStructs.ChanPage;
@@ -42,11 +45,18 @@ public interface PostCellInterface {
             boolean showDivider,
             ChanSettings.PostViewMode postViewMode,
             boolean compact,
-            Theme theme
+            Theme theme,
+            @Nullable PostSearchIndex.Result search
     );
 
     Post getPost();
 
+    /**
+     * Forget the currently bound post, so that the next setPost call binds it again even if it is the same post.
+     * Used when the contents of a post changed in place.
+     */
+    void invalidatePost();
+
     ThumbnailView getThumbnailView(PostImage postImage);
 
     interface PostCellCallback {
@@ -24,9 +24,12 @@ import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
+import androidx.annotation.Nullable;
+
 import com.github.adamantcheese.chan.R;
 import com.github.adamantcheese.chan.core.model.Post;
 import com.github.adamantcheese.chan.core.model.PostImage;
+import com.github.adamantcheese.chan.core.model.PostSearchIndex;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
 import com.github.adamantcheese.chan.ui.theme.Theme;
@@ -151,7 +154,8 @@ public class PostStubCell
             boolean showDivider,
             ChanSettings.PostViewMode postViewMode,
             boolean compact,
-            Theme theme
+            Theme theme,
+            @Nullable PostSearchIndex.Result search
     ) {
         if (this.post == post) {
             return;
@@ -174,6 +178,13 @@ public class PostStubCell
         return post;
     }
 
+    public void invalidatePost() {
+        if (post != null && bound) {
+            unbindPost();
+        }
+        post = null;
+    }
+
     public ThumbnailView getThumbnailView(PostImage postImage) {
         return null;
     }
@@ -170,6 +170,7 @@ public class BrowseController
         }
 
         overflowBuilder.withSubItem(ARCHIVE_ID, R.string.thread_view_archive, this::archiveClicked)
+                .withSubItem(R.string.thread_view_catalog_search, this::catalogSearchClicked)
                 .withSubItem(R.string.action_open_browser, this::openBrowserClicked)
                 .withSubItem(R.string.action_share, this::shareClicked)
                 .withSubItem(R.string.action_scroll_to_top, this::upClicked)
@@ -251,6 +252,10 @@ public class BrowseController
         openArchive();
     }
 
+    private void catalogSearchClicked(ToolbarMenuSubItem item) {
+        openCatalogSearch();
+    }
+
     private void orderClicked(ToolbarMenuItem item) {
         handleSorting(item);
     }
@@ -305,6 +310,21 @@ public class BrowseController
         }
     }
 
+    private void openCatalogSearch() {
+        Board board = presenter.currentBoard();
+        if (board == null) {
+            return;
+        }
+
+        CatalogSearchController catalogSearchController = new CatalogSearchController(context, board);
+
+        if (doubleNavigationController != null) {
+            doubleNavigationController.pushController(catalogSearchController);
+        } else {
+            navigationController.pushController(catalogSearchController);
+        }
+    }
+
     private void handleShareAndOpenInBrowser(boolean share) {
         ThreadPresenter presenter = threadLayout.getPresenter();
         if (presenter.isBound()) {
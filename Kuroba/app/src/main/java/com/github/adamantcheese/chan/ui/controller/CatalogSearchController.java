@@ -0,0 +1,216 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.ui.controller;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.github.adamantcheese.chan.R;
+import com.github.adamantcheese.chan.controller.Controller;
+import com.github.adamantcheese.chan.core.manager.CatalogSearchManager;
+import com.github.adamantcheese.chan.core.manager.CatalogSearchManager.Entry;
+import com.github.adamantcheese.chan.core.manager.CatalogSearchManager.Hit;
+import com.github.adamantcheese.chan.core.model.orm.Board;
+import com.github.adamantcheese.chan.core.model.orm.Loadable;
+import com.github.adamantcheese.chan.ui.toolbar.ToolbarMenuItem;
+import com.github.adamantcheese.chan.ui.toolbar.ToolbarMenuSubItem;
+import com.github.adamantcheese.chan.ui.view.ThumbnailView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.view.View.GONE;
+import static com.github.adamantcheese.chan.Chan.instance;
+import static com.github.adamantcheese.chan.utils.AndroidUtils.dp;
+import static com.github.adamantcheese.chan.utils.AndroidUtils.getQuantityString;
+import static com.github.adamantcheese.chan.utils.AndroidUtils.getString;
+import static com.github.adamantcheese.chan.utils.LayoutUtils.inflate;
+
+/**
+ * Searches the catalogs of the saved boards of a site, or of all sites, with the {@link CatalogSearchManager}. Results
+ * are shown as soon as the first catalogs are in and are updated as the rest arrive.
+ */
+public class CatalogSearchController
+        extends Controller
+        implements ToolbarNavigationController.ToolbarSearchCallback, CatalogSearchManager.SearchCallback {
+    private static final int SITES_ID = 1;
+
+    private final Board board;
+    private boolean allSites = false;
+
+    private CatalogSearchManager.Search search;
+    private String query = "";
+
+    private TextView status;
+    private HitAdapter adapter;
+
+    public CatalogSearchController(Context context, Board board) {
+        super(context);
+        this.board = board;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Navigation
+        navigation.setTitle(R.string.catalog_search_title);
+        navigation.buildMenu()
+                .withItem(R.drawable.ic_search_white_24dp, this::searchClicked)
+                .withOverflow()
+                .withSubItem(SITES_ID, getSitesText(), true, this::sitesClicked)
+                .build()
+                .build();
+
+        view = inflate(context, R.layout.controller_catalog_search);
+        status = view.findViewById(R.id.status);
+        RecyclerView recyclerView = view.findViewById(R.id.recycler_view);
+        recyclerView.setHasFixedSize(true);
+
+        adapter = new HitAdapter();
+        recyclerView.setAdapter(adapter);
+
+        startSearch();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        search.cancel();
+    }
+
+    private void startSearch() {
+        search = instance(CatalogSearchManager.class).search(allSites ? null : board.site, this);
+        search.setQuery(query);
+    }
+
+    private void searchClicked(ToolbarMenuItem item) {
+        ((ToolbarNavigationController) navigationController).showSearch();
+    }
+
+    private void sitesClicked(ToolbarMenuSubItem item) {
+        allSites = !allSites;
+        item.text = getSitesText();
+
+        search.cancel();
+        startSearch();
+    }
+
+    private String getSitesText() {
+        return allSites
+                ? getString(R.string.catalog_search_one_site, board.site.name())
+                : getString(R.string.catalog_search_all_sites);
+    }
+
+    private void openThread(Entry entry) {
+        Loadable loadable = Loadable.forThread(entry.board, entry.no, entry.getTitle());
+        navigationController.pushController(new ViewThreadController(context, loadable));
+    }
+
+    @Override
+    public void onSearchVisibilityChanged(boolean visible) {
+        if (!visible) {
+            onSearchEntered("");
+        }
+    }
+
+    @Override
+    public void onSearchEntered(String entered) {
+        query = entered;
+        search.setQuery(entered);
+    }
+
+    @Override
+    public void onResults(List<Hit> hits, int boardsLeft) {
+        String found = getQuantityString(R.plurals.thread, hits.size(), hits.size());
+        if (boardsLeft > 0) {
+            status.setText(getString(R.string.catalog_search_loading,
+                    found,
+                    getQuantityString(R.plurals.board, boardsLeft, boardsLeft)
+            ));
+        } else if (query.trim().isEmpty()) {
+            status.setText(R.string.catalog_search_hint);
+        } else {
+            status.setText(getString(R.string.catalog_search_found, found));
+        }
+
+        adapter.setHits(hits);
+    }
+
+    private class HitAdapter
+            extends RecyclerView.Adapter<HitCell> {
+        private final List<Hit> hits = new ArrayList<>();
+
+        @Override
+        public HitCell onCreateViewHolder(ViewGroup parent, int viewType) {
+            return new HitCell(inflate(parent.getContext(), R.layout.cell_history, parent, false));
+        }
+
+        @Override
+        public void onBindViewHolder(HitCell holder, int position) {
+            Entry entry = hits.get(position).entry;
+            holder.thumbnail.setUrl(entry.thumbnailUrl, dp(48), dp(48));
+
+            holder.text.setText(entry.getTitle());
+            holder.subtext.setText("/" + entry.board.code + "/ \u2013 " + entry.excerpt);
+        }
+
+        @Override
+        public int getItemCount() {
+            return hits.size();
+        }
+
+        private void setHits(List<Hit> hits) {
+            this.hits.clear();
+            this.hits.addAll(hits);
+            notifyDataSetChanged();
+        }
+    }
+
+    private class HitCell
+            extends RecyclerView.ViewHolder
+            implements View.OnClickListener {
+        private ThumbnailView thumbnail;
+        private TextView text;
+        private TextView subtext;
+
+        public HitCell(View itemView) {
+            super(itemView);
+
+            thumbnail = itemView.findViewById(R.id.thumbnail);
+            thumbnail.setCircular(true);
+            text = itemView.findViewById(R.id.text);
+            subtext = itemView.findViewById(R.id.subtext);
+            subtext.setMaxLines(2);
+            itemView.findViewById(R.id.delete).setVisibility(GONE);
+
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            int position = getAdapterPosition();
+            if (position >= 0 && position < adapter.getItemCount()) {
+                openThread(adapter.hits.get(position).entry);
+            }
+        }
+    }
+}
@@ -39,7 +39,6 @@ import com.github.adamantcheese.chan.utils.RecyclerUtils;
 
 import java.util.List;
 
-import static com.github.adamantcheese.chan.ui.adapter.PostAdapter.TYPE_POST;
 import static com.github.adamantcheese.chan.utils.LayoutUtils.inflate;
 
 public class PostRepliesController
@@ -161,9 +160,6 @@ public class PostRepliesController
             }
         };
         recyclerView.setAdapter(adapter);
-        if (ChanSettings.shiftPostFormat.get()) {
-            recyclerView.getRecycledViewPool().setMaxRecycledViews(TYPE_POST, 0);
-        }
         adapter.setThread(loadable, displayingData.posts, false);
         LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
         layoutManager.scrollToPositionWithOffset(data.listViewIndex, data.listViewTop);
@@ -29,6 +29,7 @@ import com.github.adamantcheese.chan.Chan;
 import com.github.adamantcheese.chan.R;
 import com.github.adamantcheese.chan.controller.Controller;
 import com.github.adamantcheese.chan.core.manager.FilterType;
+import com.github.adamantcheese.chan.core.manager.YoutubeTitleResolver;
 import com.github.adamantcheese.chan.core.model.Post;
 import com.github.adamantcheese.chan.core.model.PostImage;
 import com.github.adamantcheese.chan.core.model.orm.Filter;
@@ -133,6 +134,11 @@ public abstract class ThreadController
         threadLayout.getPresenter().requestData();
     }
 
+    @Subscribe
+    public void onEvent(YoutubeTitleResolver.TitlesResolvedMessage message) {
+        threadLayout.refreshPosts(message.posts);
+    }
+
     @Override
     public void onRefresh() {
         threadLayout.getPresenter().requestData();
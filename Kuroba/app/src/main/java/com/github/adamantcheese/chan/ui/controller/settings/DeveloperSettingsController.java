@@ -39,8 +39,6 @@ import com.github.adamantcheese.chan.ui.controller.LogsController;
 import com.github.adamantcheese.chan.utils.Logger;
 
 import java.lang.reflect.Field;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -122,15 +120,8 @@ public class DeveloperSettingsController
         //FILTER WATCH IGNORE RESET
         Button clearFilterWatchIgnores = new Button(context);
         clearFilterWatchIgnores.setOnClickListener(v -> {
-            try {
-                FilterWatchManager filterWatchManager = instance(FilterWatchManager.class);
-                Field ignoredField = filterWatchManager.getClass().getDeclaredField("ignoredPosts");
-                ignoredField.setAccessible(true);
-                ignoredField.set(filterWatchManager, Collections.synchronizedSet(new HashSet<Integer>()));
-                showToast(context, "Cleared ignores");
-            } catch (Exception e) {
-                showToast(context, "Failed to clear ignores");
-            }
+            instance(FilterWatchManager.class).clearIgnoredPosts();
+            showToast(context, "Cleared ignores");
         });
         clearFilterWatchIgnores.setText("Clear ignored filter watches");
         wrapper.addView(clearFilterWatchIgnores);
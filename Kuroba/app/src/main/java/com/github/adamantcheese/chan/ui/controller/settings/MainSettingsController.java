@@ -93,8 +93,8 @@ public class MainSettingsController
     public void onShow() {
         super.onShow();
 
-        long siteCount = databaseManager.runTask(databaseManager.getDatabaseSiteManager().getCount());
-        long filterCount = databaseManager.runTask(databaseManager.getDatabaseFilterManager().getCount());
+        long siteCount = databaseManager.runReadTask(databaseManager.getDatabaseSiteManager().getCount());
+        long filterCount = databaseManager.runReadTask(databaseManager.getDatabaseFilterManager().getCount());
 
         sitesSetting.setDescription(getQuantityString(R.plurals.site, (int) siteCount, (int) siteCount));
         filtersSetting.setDescription(getQuantityString(R.plurals.filter, (int) filterCount, (int) filterCount));
@@ -201,6 +201,12 @@ public class MediaSettingsController
             );
             requiresRestart.add(media.add(incrementalThreadDownloadingSetting));
 
+            media.add(new BooleanSettingView(this,
+                    ChanSettings.exportLocalThreadsJson,
+                    R.string.setting_export_local_threads_json,
+                    R.string.setting_export_local_threads_json_description
+            ));
+
             groups.add(media);
         }
 
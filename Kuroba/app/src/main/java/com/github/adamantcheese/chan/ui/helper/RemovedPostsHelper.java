@@ -45,7 +45,7 @@ public class RemovedPostsHelper {
     }
 
     public void showPosts(List<Post> threadPosts, int threadNo) {
-        databaseManager.runTask(() -> {
+        databaseManager.runReadTask(() -> {
             List<Post> removedPosts = getRemovedPosts(threadPosts, threadNo);
 
             if (removedPosts.isEmpty()) {
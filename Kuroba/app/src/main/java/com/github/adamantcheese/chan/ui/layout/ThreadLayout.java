@@ -381,6 +381,11 @@ public class ThreadLayout
         }
     }
 
+    @Override
+    public void runWhenPostsShown(Runnable runnable) {
+        threadListLayout.runWhenPostsShown(runnable);
+    }
+
     @Override
     public int[] getCurrentPosition() {
         return threadListLayout.getIndexAndTop();
@@ -415,6 +420,10 @@ public class ThreadLayout
         threadListLayout.smoothScrollNewPosts(displayPosition);
     }
 
+    public void refreshPosts(List<Post> posts) {
+        threadListLayout.refreshPosts(posts);
+    }
+
     @Override
     public void highlightPost(Post post) {
         threadListLayout.highlightPost(post);
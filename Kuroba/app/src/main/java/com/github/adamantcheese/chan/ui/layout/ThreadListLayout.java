@@ -43,11 +43,11 @@ import com.github.adamantcheese.chan.core.model.ChanThread;
 import com.github.adamantcheese.chan.core.model.Post;
 import com.github.adamantcheese.chan.core.model.PostImage;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
-import com.github.adamantcheese.chan.core.model.orm.Pin;
 import com.github.adamantcheese.chan.core.presenter.ReplyPresenter;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
 import com.github.adamantcheese.chan.core.site.sites.chan4.Chan4;
 import com.github.adamantcheese.chan.ui.adapter.PostAdapter;
+import com.github.adamantcheese.chan.ui.adapter.PostListUpdate;
 import com.github.adamantcheese.chan.ui.adapter.PostsFilter;
 import com.github.adamantcheese.chan.ui.cell.PostCell;
 import com.github.adamantcheese.chan.ui.cell.PostCellInterface;
@@ -63,13 +63,14 @@ import com.github.adamantcheese.chan.utils.Logger;
 import com.github.adamantcheese.chan.utils.RecyclerUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import static com.github.adamantcheese.chan.Chan.instance;
 import static com.github.adamantcheese.chan.core.settings.ChanSettings.PostViewMode.CARD;
 import static com.github.adamantcheese.chan.core.settings.ChanSettings.PostViewMode.LIST;
-import static com.github.adamantcheese.chan.ui.adapter.PostAdapter.TYPE_POST;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.dp;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.getAttrColor;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.getDimen;
@@ -102,6 +103,10 @@ public class ThreadListLayout
     private int spanCount = 2;
     private boolean searchOpen;
     private int lastPostCount;
+    private BackgroundUtils.Cancelable pendingPosts;
+    // an initial showPosts() whose update hasn't been shown yet, even if a later call replaced it
+    private boolean pendingInitial = false;
+    private final List<Runnable> afterPostsShown = new ArrayList<>();
 
     private RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
         @Override
@@ -166,9 +171,6 @@ public class ThreadListLayout
                 ThemeHelper.getTheme()
         );
         recyclerView.setAdapter(postAdapter);
-        if (ChanSettings.shiftPostFormat.get()) {
-            recyclerView.getRecycledViewPool().setMaxRecycledViews(TYPE_POST, 0);
-        }
         recyclerView.addOnScrollListener(scrollListener);
 
         setFastScroll(false);
@@ -271,54 +273,85 @@ public class ThreadListLayout
             recyclerView.setLayoutManager(null);
             recyclerView.setLayoutManager(layoutManager);
             recyclerView.getRecycledViewPool().clear();
-
-            int index = thread.getLoadable().listViewIndex;
-            int top = thread.getLoadable().listViewTop;
-
-            switch (postViewMode) {
-                case LIST:
-                    ((LinearLayoutManager) layoutManager).scrollToPositionWithOffset(index, top);
-                    break;
-                case CARD:
-                    ((GridLayoutManager) layoutManager).scrollToPositionWithOffset(index, top);
-                    break;
-            }
+            // the posts of the previous thread shouldn't show in the layout of this one while these are filtered
+            postAdapter.clearPosts();
 
             party();
         }
+        pendingInitial |= initial;
 
         setFastScroll(true);
 
-        /*
-         * We call a blocking function that accesses the database from a background thread but doesn't
-         * throw an exception here. Why, you would ask? Because we can't use callbacks here, otherwise
-         * everything in ThreadPresenter.onChanLoaderData() below showPosts will be executed BEFORE
-         * filtered posts are shown in the RecyclerView. This will break scrolling to the last seen
-         * post as well as introduce some visual posts jiggling. This can be fixed by executing everything
-         * in ThreadPresenter.onChanLoaderData() below showPosts in a callback that is called after
-         * posts are assigned to the adapter. But that's a lot of code and it may break something else.
-         *
-         * This solution works but it will hang the main thread for some time (it shouldn't be for very
-         * long since we have like 300-500 posts in a thread to filter in the database).
-         * BUT if for some reason it starts to cause ANRs then we will have to apply the callback solution.
-         */
-        List<Post> filteredPosts =
-                filter.apply(thread.getPosts(), thread.getLoadable().siteId, thread.getLoadable().boardCode);
-
+        final Loadable loadable = thread.getLoadable();
+        final List<Post> posts = new ArrayList<>(thread.getPosts());
         //Filter out any bookmarked threads from the catalog
-        if (ChanSettings.removeWatchedFromCatalog.get() && thread.getLoadable().isCatalogMode()) {
-            List<Post> toRemove = new ArrayList<>();
-            for (Pin pin : instance(WatchManager.class).getAllPins()) {
+        final int[] watchedThreadNos = ChanSettings.removeWatchedFromCatalog.get() && loadable.isCatalogMode()
+                ? instance(WatchManager.class).getWatchedThreadNos(loadable.siteId, loadable.boardCode)
+                : new int[0];
+        final PostListUpdate.Displayed displayed = postAdapter.getDisplayed();
+
+        // Filtering, searching and hiding can take a while for big threads (hiding also reads the database), so it's
+        // done in the background, together with diffing the result against what's displayed now. Anything that
+        // depends on the new posts being in the adapter has to go through runWhenPostsShown().
+        if (pendingPosts != null) {
+            pendingPosts.cancel();
+        }
+        pendingPosts = BackgroundUtils.runWithExecutor(instance(ExecutorService.class), () -> {
+            List<Post> filteredPosts = filter.apply(posts, loadable.siteId, loadable.boardCode);
+
+            if (watchedThreadNos.length > 0) {
+                List<Post> unwatchedPosts = new ArrayList<>(filteredPosts.size());
                 for (Post post : filteredPosts) {
-                    if (pin.loadable.equals(Loadable.forThread(thread.getLoadable().board, post.no, ""))) {
-                        toRemove.add(post);
+                    if (Arrays.binarySearch(watchedThreadNos, post.no) < 0) {
+                        unwatchedPosts.add(post);
                     }
                 }
+                filteredPosts = unwatchedPosts;
             }
-            filteredPosts.removeAll(toRemove);
-        }
 
-        postAdapter.setThread(thread.getLoadable(), filteredPosts, refreshAfterHideOrRemovePosts);
+            return PostListUpdate.compute(displayed,
+                    loadable,
+                    filteredPosts,
+                    filter.getSearchResult(),
+                    refreshAfterHideOrRemovePosts
+            );
+        }, update -> {
+            pendingPosts = null;
+            postAdapter.setThread(update);
+
+            if (pendingInitial) {
+                pendingInitial = false;
+                switch (postViewMode) {
+                    case LIST:
+                        ((LinearLayoutManager) layoutManager).scrollToPositionWithOffset(loadable.listViewIndex,
+                                loadable.listViewTop
+                        );
+                        break;
+                    case CARD:
+                        ((GridLayoutManager) layoutManager).scrollToPositionWithOffset(loadable.listViewIndex,
+                                loadable.listViewTop
+                        );
+                        break;
+                }
+            }
+
+            List<Runnable> runnables = new ArrayList<>(afterPostsShown);
+            afterPostsShown.clear();
+            for (Runnable runnable : runnables) {
+                runnable.run();
+            }
+        });
+    }
+
+    /**
+     * Runs after the posts of the last {@link #showPosts} call are in the adapter, or right away if they already are
+     */
+    public void runWhenPostsShown(Runnable runnable) {
+        if (pendingPosts == null) {
+            runnable.run();
+        } else {
+            afterPostsShown.add(runnable);
+        }
     }
 
     public boolean onBack() {
@@ -515,6 +548,12 @@ public class ThreadListLayout
     }
 
     public void cleanup() {
+        if (pendingPosts != null) {
+            pendingPosts.cancel();
+            pendingPosts = null;
+        }
+        pendingInitial = false;
+        afterPostsShown.clear();
         postAdapter.cleanup();
         reply.cleanup();
         openReply(false);
@@ -590,6 +629,10 @@ public class ThreadListLayout
         }
     }
 
+    public void refreshPosts(List<Post> posts) {
+        postAdapter.refreshPosts(posts);
+    }
+
     public void highlightPost(Post post) {
         postAdapter.highlightPost(post);
     }
@@ -0,0 +1,147 @@
+/*
+ * Kuroba - *chan browser https://github.com/Adamantcheese/Kuroba/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.adamantcheese.chan.ui.text;
+
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.SpannableString;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.LruCache;
+import android.widget.TextView;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Lays out text with a {@link StaticLayout} like a {@link TextView} would, and remembers the height it took, by the
+ * post it belongs to, the text, the width and the paint it was laid out with. Cells can then decide how to arrange
+ * their views without measuring them first, and the text of posts that are about to be shown can be laid out in the
+ * background.
+ */
+public class TextLayoutCache {
+    private static final int MAX_LAYOUTS = 1000;
+
+    private final LruCache<Key, Integer> heights = new LruCache<>(MAX_LAYOUTS);
+    private final Executor executor;
+
+    public TextLayoutCache(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param postNo the post the text belongs to, to tell different posts with the same text hash apart
+     * @param width  the width available to the text itself, without the paddings of the view
+     * @return the height of the text, without the paddings of the view
+     */
+    public int getHeight(int postNo, CharSequence text, TextView view, int width) {
+        Params params = new Params(view.getPaint(), view.getLineSpacingMultiplier(), view.getLineSpacingExtra());
+        Key key = new Key(postNo, text, params, width);
+        Integer height = heights.get(key);
+        if (height == null) {
+            height = layout(text, params, width);
+            heights.put(key, height);
+        }
+        return height;
+    }
+
+    /**
+     * Lays out the texts of posts that are about to be shown in a view like the given one, on the background executor.
+     * The texts are copied first, spans like spoilers can still change on the main thread while they're laid out.
+     */
+    public void prefetch(List<Integer> postNos, List<CharSequence> texts, TextView view, int width) {
+        Params params = new Params(new TextPaint(view.getPaint()),
+                view.getLineSpacingMultiplier(),
+                view.getLineSpacingExtra()
+        );
+        for (int i = 0; i < texts.size(); i++) {
+            Key key = new Key(postNos.get(i), texts.get(i), params, width);
+            if (heights.get(key) != null) continue;
+
+            CharSequence copy = new SpannableString(texts.get(i));
+            executor.execute(() -> {
+                if (heights.get(key) == null) {
+                    heights.put(key, layout(copy, params, width));
+                }
+            });
+        }
+    }
+
+    @SuppressWarnings("deprecation") // StaticLayout.Builder needs API 23
+    private static int layout(CharSequence text, Params params, int width) {
+        return new StaticLayout(text,
+                params.paint,
+                Math.max(0, width),
+                Layout.Alignment.ALIGN_NORMAL,
+                params.spacingMultiplier,
+                params.spacingExtra,
+                true
+        ).getHeight();
+    }
+
+    private static class Params {
+        private final TextPaint paint;
+        private final float spacingMultiplier;
+        private final float spacingExtra;
+
+        private Params(TextPaint paint, float spacingMultiplier, float spacingExtra) {
+            this.paint = paint;
+            this.spacingMultiplier = spacingMultiplier;
+            this.spacingExtra = spacingExtra;
+        }
+    }
+
+    private static class Key {
+        private final int postNo;
+        private final int textLength;
+        private final int textHash;
+        private final int width;
+        private final float textSize;
+        private final Typeface typeface;
+        private final float spacingMultiplier;
+        private final float spacingExtra;
+
+        private Key(int postNo, CharSequence text, Params params, int width) {
+            this.postNo = postNo;
+            textLength = text.length();
+            textHash = text.toString().hashCode();
+            this.width = width;
+            textSize = params.paint.getTextSize();
+            typeface = params.paint.getTypeface();
+            spacingMultiplier = params.spacingMultiplier;
+            spacingExtra = params.spacingExtra;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return postNo == key.postNo && textLength == key.textLength && textHash == key.textHash
+                    && width == key.width && textSize == key.textSize && Objects.equals(typeface, key.typeface)
+                    && spacingMultiplier == key.spacingMultiplier && spacingExtra == key.spacingExtra;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(postNo, textLength, textHash, width, textSize, typeface, spacingMultiplier,
+                    spacingExtra
+            );
+        }
+    }
+}
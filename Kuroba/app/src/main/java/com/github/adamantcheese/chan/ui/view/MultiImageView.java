@@ -51,6 +51,7 @@ import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
 import com.github.adamantcheese.chan.ui.widget.CancellableToast;
 import com.github.adamantcheese.chan.utils.BackgroundUtils;
+import com.github.adamantcheese.chan.utils.BackgroundUtils.Cancelable;
 import com.github.adamantcheese.chan.utils.Logger;
 import com.github.adamantcheese.chan.utils.NetUtils;
 import com.github.adamantcheese.chan.utils.PostUtils;
@@ -75,7 +76,6 @@ import java.util.Locale;
 
 import javax.inject.Inject;
 
-import okhttp3.Call;
 import okhttp3.HttpUrl;
 import pl.droidsonroids.gif.GifDrawable;
 import pl.droidsonroids.gif.GifImageView;
@@ -115,7 +115,7 @@ public class MultiImageView
     private boolean op;
 
     private Mode mode = Mode.UNLOADED;
-    private Call thumbnailRequest;
+    private Cancelable thumbnailRequest;
     private CancelableDownload bigImageRequest;
     private CancelableDownload gifRequest;
     private CancelableDownload videoRequest;
@@ -814,7 +814,7 @@ public class MultiImageView
 
         if (exoPlayer != null) {
             // ExoPlayer will keep loading resources if we don't release it here.
-            releaseStreamCallbacks();
+            releaseStreamCallbacks(exoPlayer);
             exoPlayer.release();
             exoPlayer = null;
         }
@@ -828,7 +828,8 @@ public class MultiImageView
                 View child = getChildAt(i);
                 if (child != view) {
                     if (child instanceof PlayerView) {
-                        releaseStreamCallbacks();
+                        // the player of the removed view, not the current one
+                        releaseStreamCallbacks(((PlayerView) child).getPlayer());
                         ((PlayerView) child).getPlayer().release();
                     }
                     removeViewAt(i);
@@ -849,17 +850,19 @@ public class MultiImageView
         callback.onModeLoaded(this, mode);
     }
 
-    private void releaseStreamCallbacks() {
+    private void releaseStreamCallbacks(Player player) {
         if (ChanSettings.videoStream.get()) {
             try {
-                Field mediaSource = exoPlayer.getClass().getDeclaredField("mediaSource");
+                Field mediaSource = player.getClass().getDeclaredField("mediaSource");
                 mediaSource.setAccessible(true);
-                if (mediaSource.get(exoPlayer) != null) {
-                    ProgressiveMediaSource source = (ProgressiveMediaSource) mediaSource.get(exoPlayer);
+                if (mediaSource.get(player) != null) {
+                    ProgressiveMediaSource source = (ProgressiveMediaSource) mediaSource.get(player);
                     Field dataSource = source.getClass().getDeclaredField("dataSourceFactory");
                     dataSource.setAccessible(true);
                     DataSource.Factory factory = (DataSource.Factory) dataSource.get(source);
-                    ((WebmStreamingDataSource) factory.createDataSource()).clearListeners();
+                    WebmStreamingDataSource streamingDataSource = (WebmStreamingDataSource) factory.createDataSource();
+                    streamingDataSource.clearListeners();
+                    streamingDataSource.release();
                     dataSource.setAccessible(false);
                 }
                 mediaSource.setAccessible(false);
@@ -24,11 +24,10 @@ import android.util.AttributeSet;
 import android.view.View;
 
 import com.github.adamantcheese.chan.R;
-import com.github.adamantcheese.chan.core.manager.ThreadSaveManager;
+import com.github.adamantcheese.chan.core.image.ImageLoaderV2;
 import com.github.adamantcheese.chan.core.model.PostImage;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
 import com.github.adamantcheese.chan.core.settings.ChanSettings;
-import com.github.adamantcheese.chan.utils.StringUtils;
 
 import okhttp3.HttpUrl;
 
@@ -65,21 +64,9 @@ public class PostImageThumbnailView
 
             if (postImage != null) {
                 if (!loadable.isLocal()) {
-                    setUrl(getUrl(postImage, useHiRes));
+                    setUrl(getUrl(postImage, useHiRes), width, height);
                 } else {
-                    String fileName;
-
-                    if (postImage.spoiler()) {
-                        String extension =
-                                StringUtils.extractFileNameExtension(postImage.spoilerThumbnailUrl.toString());
-
-                        fileName = ThreadSaveManager.formatSpoilerImageName(extension);
-                    } else {
-                        String extension = StringUtils.extractFileNameExtension(postImage.thumbnailUrl.toString());
-
-                        fileName = ThreadSaveManager.formatThumbnailImageName(postImage.serverFilename, extension);
-                    }
-
+                    String fileName = ImageLoaderV2.getLocalFileName(postImage);
                     setUrlFromDisk(loadable, fileName, postImage.spoiler(), width, height);
                 }
             } else {
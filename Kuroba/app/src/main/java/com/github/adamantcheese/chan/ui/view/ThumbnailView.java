@@ -41,13 +41,15 @@ import android.view.View;
 import androidx.annotation.NonNull;
 
 import com.github.adamantcheese.chan.R;
+import com.github.adamantcheese.chan.core.cache.ThumbnailCache;
 import com.github.adamantcheese.chan.core.image.ImageLoaderV2;
 import com.github.adamantcheese.chan.core.model.orm.Loadable;
+import com.github.adamantcheese.chan.utils.BackgroundUtils.Cancelable;
 import com.github.adamantcheese.chan.utils.NetUtils;
 
-import okhttp3.Call;
 import okhttp3.HttpUrl;
 
+import static com.github.adamantcheese.chan.Chan.instance;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.getAttrColor;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.getString;
 import static com.github.adamantcheese.chan.utils.AndroidUtils.sp;
@@ -55,7 +57,7 @@ import static com.github.adamantcheese.chan.utils.AndroidUtils.sp;
 public class ThumbnailView
         extends View
         implements NetUtils.BitmapResult {
-    private Call bitmapCall;
+    private Cancelable bitmapRequest;
     private boolean circular = false;
     private int rounding = 0;
 
@@ -107,18 +109,20 @@ public class ThumbnailView
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        if (bitmapCall != null) {
-            bitmapCall.cancel();
-            bitmapCall = null;
+        cancelBitmapRequest();
+    }
+
+    // so a recycled view never gets the bitmap of what it showed before
+    private void cancelBitmapRequest() {
+        if (bitmapRequest != null) {
+            bitmapRequest.cancel();
+            bitmapRequest = null;
         }
     }
 
     public void setUrl(HttpUrl url, int maxWidth, int maxHeight) {
-        if (url == null || bitmapCall != null) {
-            if (bitmapCall != null) {
-                bitmapCall.cancel();
-            }
-            bitmapCall = null;
+        if (url == null || bitmapRequest != null) {
+            cancelBitmapRequest();
             error = false;
             setImageBitmap(null);
             animate().cancel();
@@ -127,7 +131,7 @@ public class ThumbnailView
             }
         }
 
-        bitmapCall = NetUtils.makeBitmapRequest(url, this, maxWidth, maxHeight);
+        bitmapRequest = NetUtils.makeBitmapRequest(url, this, maxWidth, maxHeight);
     }
 
     public void setUrl(HttpUrl url) {
@@ -135,11 +139,10 @@ public class ThumbnailView
     }
 
     public void setUrlFromDisk(Loadable loadable, String filename, boolean isSpoiler, int width, int height) {
+        cancelBitmapRequest();
         animate().cancel();
         setImageBitmap(null);
-        try {
-            bitmapCall = ImageLoaderV2.getFromDisk(loadable, filename, isSpoiler, this, width, height, null);
-        } catch (Exception ignored) { }
+        bitmapRequest = ImageLoaderV2.getFromDisk(loadable, filename, isSpoiler, this, width, height, null);
     }
 
     public void setCircular(boolean circular) {
@@ -326,6 +329,10 @@ public class ThumbnailView
         bitmapShader = null;
         paint.setShader(null);
 
+        // no longer drawn by this view, so it may be reused once nothing else draws it either
+        if (this.bitmap != null && this.bitmap != bitmap) {
+            instance(ThumbnailCache.class).release(this.bitmap);
+        }
         this.bitmap = bitmap;
         if (bitmap != null) {
             calculate = true;
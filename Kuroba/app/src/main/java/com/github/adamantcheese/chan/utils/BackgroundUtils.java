@@ -76,7 +76,7 @@ public class BackgroundUtils {
         }, delay);
     }
 
-    private static boolean isMainThread() {
+    public static boolean isMainThread() {
         return Thread.currentThread() == Looper.getMainLooper().getThread();
     }
 
@@ -10,6 +10,7 @@ import androidx.annotation.Nullable;
 import androidx.core.util.Pair;
 import androidx.exifinterface.media.ExifInterface;
 
+import com.github.adamantcheese.chan.core.image.BitmapPool;
 import com.github.adamantcheese.chan.core.presenter.ImageReencodingPresenter;
 
 import java.io.File;
@@ -190,6 +191,21 @@ public class BitmapUtils {
      * @return a bitmap, scaled to the max width and height if needed
      */
     public static Bitmap decode(byte[] data, int maxWidth, int maxHeight) {
+        return decode(data, maxWidth, maxHeight, null);
+    }
+
+    /**
+     * Decode the given byte data into a Bitmap, scaling it if necessary. The image is subsampled by a power of two
+     * while decoding, so a big image is never decoded at full size for a small view.
+     * @param data bytes to decode
+     * @param maxWidth the max width of the image
+     * @param maxHeight the max height of the image
+     * @param pool if given, a free bitmap from it is decoded into when one fits, and a bitmap that was only needed to
+     *             scale down from is returned to it
+     * @return a bitmap, scaled to the max width and height if needed, mutable so it can be put in a pool later
+     */
+    @Nullable
+    public static Bitmap decode(byte[] data, int maxWidth, int maxHeight, @Nullable BitmapPool pool) {
         BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
         Bitmap bitmap;
 
@@ -198,30 +214,54 @@ public class BitmapUtils {
         BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
         int actualWidth = decodeOptions.outWidth;
         int actualHeight = decodeOptions.outHeight;
+        if (actualWidth <= 0 || actualHeight <= 0) {
+            return null;
+        }
 
         // Then compute the dimensions we would ideally like to decode to.
-        int desiredWidth = getResizedDimension(maxWidth, maxHeight, actualWidth, actualHeight);
-        int desiredHeight = getResizedDimension(maxHeight, maxWidth, actualHeight, actualWidth);
+        int desiredWidth = Math.max(1, getResizedDimension(maxWidth, maxHeight, actualWidth, actualHeight));
+        int desiredHeight = Math.max(1, getResizedDimension(maxHeight, maxWidth, actualHeight, actualWidth));
 
         // Decode to the nearest power of two scaling factor.
         decodeOptions.inJustDecodeBounds = false;
+        decodeOptions.inMutable = true;
 
         // Get the best sample size for the image
         double wr = (double) actualWidth / desiredWidth;
         double hr = (double) actualHeight / desiredHeight;
         double ratio = Math.min(wr, hr);
-        float n = 1.0f;
+        int n = 1;
         while ((n * 2) <= ratio) {
             n *= 2;
         }
-        decodeOptions.inSampleSize = (int) n;
+        decodeOptions.inSampleSize = n;
 
-        Bitmap tempBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+        if (pool != null) {
+            int sampledWidth = (actualWidth + n - 1) / n;
+            int sampledHeight = (actualHeight + n - 1) / n;
+            // ARGB_8888, the default config
+            decodeOptions.inBitmap = pool.get(sampledWidth * sampledHeight * 4);
+        }
+
+        Bitmap tempBitmap;
+        try {
+            tempBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+        } catch (IllegalArgumentException e) {
+            if (decodeOptions.inBitmap == null) throw e;
+            // the image couldn't be decoded into the pooled bitmap after all, it's still free for something else
+            pool.put(decodeOptions.inBitmap);
+            decodeOptions.inBitmap = null;
+            tempBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+        }
 
         // If necessary, scale down to the maximal acceptable size.
         if (tempBitmap != null && (tempBitmap.getWidth() > desiredWidth || tempBitmap.getHeight() > desiredHeight)) {
             bitmap = Bitmap.createScaledBitmap(tempBitmap, desiredWidth, desiredHeight, true);
-            tempBitmap.recycle();
+            if (pool != null) {
+                pool.put(tempBitmap);
+            } else {
+                tempBitmap.recycle();
+            }
         } else {
             bitmap = tempBitmap;
         }
@@ -3,19 +3,20 @@ package com.github.adamantcheese.chan.utils;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.JsonReader;
-import android.util.LruCache;
 import android.util.MalformedJsonException;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.github.adamantcheese.chan.R;
+import com.github.adamantcheese.chan.core.cache.ThumbnailCache;
 import com.github.adamantcheese.chan.core.di.NetModule;
 import com.github.adamantcheese.chan.core.di.NetModule.ProxiedOkHttpClient;
 import com.github.adamantcheese.chan.core.site.common.CommonSite;
 import com.github.adamantcheese.chan.core.site.http.HttpCall;
 import com.github.adamantcheese.chan.core.site.http.HttpCall.HttpCallback;
 import com.github.adamantcheese.chan.core.site.http.ProgressRequestBody;
+import com.github.adamantcheese.chan.utils.BackgroundUtils.Cancelable;
 
 import org.jetbrains.annotations.NotNull;
 import org.jsoup.Jsoup;
@@ -24,6 +25,10 @@ import org.jsoup.nodes.Document;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
@@ -39,9 +44,9 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class NetUtils {
     private static final String TAG = "NetUtils";
-    private static final BitmapLruCache imageCache =
-            new BitmapLruCache((int) (Runtime.getRuntime().maxMemory() / (1024 * 8)));
-    // max 1/8th of runtime memory for cache
+    // loads of bitmaps in progress, by url and size; guarded by itself
+    private static final Map<String, SharedBitmapRequest> bitmapRequests = new HashMap<>();
+    private static Bitmap errorBitmap;
 
     public static void makeHttpCall(
             HttpCall httpCall, HttpCallback<? extends HttpCall> callback
@@ -73,54 +78,211 @@ public class NetUtils {
         instance(ProxiedOkHttpClient.class).getProxiedClient().newCall(request).enqueue(httpCall);
     }
 
-    public static Call makeBitmapRequest(@NonNull final HttpUrl url, @NonNull final BitmapResult result) {
+    public static Cancelable makeBitmapRequest(@NonNull final HttpUrl url, @NonNull final BitmapResult result) {
         return makeBitmapRequest(url, result, 0, 0);
     }
 
-    public static Call makeBitmapRequest(
+    /**
+     * Load a small image, like a thumbnail or an icon, from the memory or disk tier of the {@link ThumbnailCache} or
+     * else from the network, decoded for the given size. Requests for a url and size that is already being loaded share
+     * that load. Results are delivered on the main thread; the bitmaps are {@link ThumbnailCache#retain(Bitmap)
+     * retained} for the receiver, which may release them once it stops drawing them.
+     *
+     * @return a handle to cancel this request with, after which its result won't be delivered; a shared load is only
+     * cancelled once every request for it is
+     */
+    public static Cancelable makeBitmapRequest(
             @NonNull final HttpUrl url, @NonNull final BitmapResult result, final int width, final int height
     ) {
-        Bitmap errorBitmap = BitmapFactory.decodeResource(getRes(), R.drawable.error_icon);
-        Bitmap cachedBitmap = imageCache.get(url);
+        ThumbnailCache thumbnailCache = instance(ThumbnailCache.class);
+        BitmapRequest request = new BitmapRequest(result);
+        Bitmap cachedBitmap = thumbnailCache.getFromMemory(url, width, height);
         if (cachedBitmap != null) {
-            BackgroundUtils.runOnMainThread(() -> result.onBitmapSuccess(cachedBitmap, true));
-            return null;
+            BackgroundUtils.runOnMainThread(() -> request.deliver(cachedBitmap, true));
+            return request;
         }
-        Call call = instance(ProxiedOkHttpClient.class).newCall(new Request.Builder().url(url).build());
-        call.enqueue(new Callback() {
-            @Override
-            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+
+        String key = width + "x" + height + " " + url;
+        SharedBitmapRequest sharedRequest;
+        boolean newRequest = false;
+        synchronized (bitmapRequests) {
+            sharedRequest = bitmapRequests.get(key);
+            if (sharedRequest == null) {
+                sharedRequest = new SharedBitmapRequest(key, url, width, height);
+                bitmapRequests.put(key, sharedRequest);
+                newRequest = true;
+            }
+            request.sharedRequest = sharedRequest;
+            sharedRequest.requests.add(request);
+        }
+
+        if (newRequest) {
+            thumbnailCache.getDiskExecutor().execute(sharedRequest::load);
+        }
+        return request;
+    }
+
+    private static synchronized Bitmap getErrorBitmap() {
+        if (errorBitmap == null) {
+            errorBitmap = BitmapFactory.decodeResource(getRes(), R.drawable.error_icon);
+        }
+        return errorBitmap;
+    }
+
+    private static class BitmapRequest
+            implements Cancelable {
+        private final BitmapResult result;
+        // null if the bitmap was in memory
+        @Nullable
+        private SharedBitmapRequest sharedRequest;
+        private volatile boolean canceled = false;
+
+        private BitmapRequest(BitmapResult result) {
+            this.result = result;
+        }
+
+        // Called on the main thread with a bitmap that was retained for this request
+        private void deliver(Bitmap bitmap, boolean fromCache) {
+            if (canceled) {
+                instance(ThumbnailCache.class).release(bitmap);
+            } else {
+                result.onBitmapSuccess(bitmap, fromCache);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            if (sharedRequest == null) return;
+            synchronized (bitmapRequests) {
+                sharedRequest.requests.remove(this);
+                if (sharedRequest.requests.isEmpty()) {
+                    sharedRequest.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * The load of one url at one size, checking the disk tier first, then downloading it; shared by all its requests.
+     */
+    private static class SharedBitmapRequest
+            implements Callback {
+        private final String key;
+        private final HttpUrl url;
+        private final int width;
+        private final int height;
+        // guarded by bitmapRequests, like all of the fields below
+        private final List<BitmapRequest> requests = new ArrayList<>(1);
+        private Call call;
+        private boolean canceled = false;
+
+        private SharedBitmapRequest(String key, HttpUrl url, int width, int height) {
+            this.key = key;
+            this.url = url;
+            this.width = width;
+            this.height = height;
+        }
+
+        private void load() {
+            ThumbnailCache thumbnailCache = instance(ThumbnailCache.class);
+            byte[] data = thumbnailCache.getFromDisk(url);
+            if (data != null) {
+                Bitmap bitmap = BitmapUtils.decode(data, width, height, thumbnailCache.getBitmapPool());
+                if (bitmap != null) {
+                    thumbnailCache.putInMemory(url, width, height, bitmap);
+                    onBitmapSuccess(bitmap, true);
+                    return;
+                }
+            }
+
+            synchronized (bitmapRequests) {
+                if (canceled) return;
+                call = instance(ProxiedOkHttpClient.class).newCall(new Request.Builder().url(url).build());
+                call.enqueue(this);
+            }
+        }
+
+        // Must hold the bitmapRequests lock
+        private void cancel() {
+            canceled = true;
+            if (bitmapRequests.get(key) == this) {
+                bitmapRequests.remove(key);
+            }
+            if (call != null) {
+                call.cancel();
+            }
+        }
+
+        @Override
+        public void onFailure(@NotNull Call call, @NotNull IOException e) {
+            if (!call.isCanceled()) {
                 Logger.e(TAG, "Error loading bitmap from " + url.toString());
-                BackgroundUtils.runOnMainThread(() -> result.onBitmapFailure(errorBitmap, e));
             }
+            onBitmapFailure(e);
+        }
 
-            @Override
-            public void onResponse(@NotNull Call call, @NotNull Response response) {
-                if (response.code() != 200) {
-                    BackgroundUtils.runOnMainThread(() -> result.onBitmapFailure(errorBitmap,
-                            new HttpCodeException(response.code())
-                    ));
-                    response.close();
+        @Override
+        public void onResponse(@NotNull Call call, @NotNull Response response) {
+            if (response.code() != 200) {
+                onBitmapFailure(new HttpCodeException(response.code()));
+                response.close();
+                return;
+            }
+
+            try (ResponseBody body = response.body()) {
+                //noinspection ConstantConditions
+                byte[] data = body.bytes();
+                ThumbnailCache thumbnailCache = instance(ThumbnailCache.class);
+                Bitmap bitmap = BitmapUtils.decode(data, width, height, thumbnailCache.getBitmapPool());
+                if (bitmap == null) {
+                    onBitmapFailure(new NullPointerException("Bitmap returned is null"));
                     return;
                 }
 
-                try (ResponseBody body = response.body()) {
-                    //noinspection ConstantConditions
-                    Bitmap bitmap = BitmapUtils.decode(body.bytes(), width, height);
-                    if (bitmap == null) {
-                        BackgroundUtils.runOnMainThread(() -> result.onBitmapFailure(errorBitmap,
-                                new NullPointerException("Bitmap returned is null")
-                        ));
-                        return;
+                thumbnailCache.putInMemory(url, width, height, bitmap);
+                thumbnailCache.putOnDisk(url, data);
+                onBitmapSuccess(bitmap, false);
+            } catch (Exception e) {
+                onBitmapFailure(e);
+            }
+        }
+
+        private void onBitmapSuccess(Bitmap bitmap, boolean fromCache) {
+            List<BitmapRequest> finished = finish();
+            ThumbnailCache thumbnailCache = instance(ThumbnailCache.class);
+            for (int i = 0; i < finished.size(); i++) {
+                thumbnailCache.retain(bitmap);
+            }
+            BackgroundUtils.runOnMainThread(() -> {
+                for (BitmapRequest request : finished) {
+                    request.deliver(bitmap, fromCache);
+                }
+            });
+        }
+
+        private void onBitmapFailure(Exception e) {
+            List<BitmapRequest> finished = finish();
+            if (finished.isEmpty()) return;
+
+            Bitmap errormap = getErrorBitmap();
+            BackgroundUtils.runOnMainThread(() -> {
+                for (BitmapRequest request : finished) {
+                    if (!request.canceled) {
+                        request.result.onBitmapFailure(errormap, e);
                     }
-                    imageCache.put(url, bitmap);
-                    BackgroundUtils.runOnMainThread(() -> result.onBitmapSuccess(bitmap, false));
-                } catch (Exception e) {
-                    BackgroundUtils.runOnMainThread(() -> result.onBitmapFailure(errorBitmap, e));
                 }
+            });
+        }
+
+        private List<BitmapRequest> finish() {
+            synchronized (bitmapRequests) {
+                if (bitmapRequests.get(key) == this) {
+                    bitmapRequests.remove(key);
+                }
+                return new ArrayList<>(requests);
             }
-        });
-        return call;
+        }
     }
 
     public interface BitmapResult {
@@ -132,7 +294,41 @@ public class NetUtils {
     public static <T> Call makeJsonRequest(
             @NonNull final HttpUrl url, @NonNull final JsonResult<T> result, @NonNull final JsonParser<T> parser
     ) {
-        Call call = instance(ProxiedOkHttpClient.class).newCall(new Request.Builder().url(url).build());
+        return makeConditionalJsonRequest(url, null, new ConditionalJsonResult<T>() {
+            @Override
+            public void onJsonFailure(Exception e) {
+                result.onJsonFailure(e);
+            }
+
+            @Override
+            public void onJsonSuccess(T read, @Nullable ResponseValidators validators) {
+                result.onJsonSuccess(read);
+            }
+
+            @Override
+            public void onJsonNotModified() {
+                // can't happen without validators, but just in case
+                result.onJsonFailure(new HttpCodeException(304));
+            }
+        }, parser);
+    }
+
+    /**
+     * Like {@link #makeJsonRequest(HttpUrl, JsonResult, JsonParser)}, but made conditional on the validators of a previous
+     * response to the same url, if given. If the server reports the resource is unchanged, the body isn't downloaded or
+     * parsed and {@link ConditionalJsonResult#onJsonNotModified()} is called instead.
+     */
+    public static <T> Call makeConditionalJsonRequest(
+            @NonNull final HttpUrl url,
+            @Nullable final ResponseValidators validators,
+            @NonNull final ConditionalJsonResult<T> result,
+            @NonNull final JsonParser<T> parser
+    ) {
+        Request.Builder requestBuilder = new Request.Builder().url(url);
+        if (validators != null) {
+            validators.apply(requestBuilder);
+        }
+        Call call = instance(ProxiedOkHttpClient.class).newCall(requestBuilder.build());
         call.enqueue(new Callback() {
             @Override
             public void onFailure(@NotNull Call call, @NotNull IOException e) {
@@ -142,18 +338,27 @@ public class NetUtils {
 
             @Override
             public void onResponse(@NotNull Call call, @NotNull Response response) {
+                if (response.code() == 304 && validators != null) {
+                    BackgroundUtils.runOnMainThread(result::onJsonNotModified);
+                    response.close();
+                    return;
+                }
+
                 if (response.code() != 200) {
                     BackgroundUtils.runOnMainThread(() -> result.onJsonFailure(new HttpCodeException(response.code())));
                     response.close();
                     return;
                 }
 
+                ResponseValidators newValidators = ResponseValidators.from(response);
+                // the body is parsed as it arrives, instead of after all of it was downloaded
                 //noinspection ConstantConditions
-                try (JsonReader jsonReader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(response.body()
-                        .bytes()), UTF_8))) {
+                try (JsonReader jsonReader = new JsonReader(new InputStreamReader(response.body().byteStream(),
+                        UTF_8
+                ))) {
                     T read = parser.parse(jsonReader);
                     if (read != null) {
-                        BackgroundUtils.runOnMainThread(() -> result.onJsonSuccess(read));
+                        BackgroundUtils.runOnMainThread(() -> result.onJsonSuccess(read, newValidators));
                     } else {
                         BackgroundUtils.runOnMainThread(() -> result.onJsonFailure(new MalformedJsonException(
                                 "Json parse returned null object")));
@@ -181,8 +386,7 @@ public class NetUtils {
             }
 
             //noinspection ConstantConditions
-            try (JsonReader jsonReader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(response.body()
-                    .bytes()), UTF_8))) {
+            try (JsonReader jsonReader = new JsonReader(new InputStreamReader(response.body().byteStream(), UTF_8))) {
                 return parser.parse(jsonReader);
             } catch (Exception e) {
                 Logger.e(TAG, "Error parsing JSON: ", e);
@@ -200,6 +404,45 @@ public class NetUtils {
         void onJsonSuccess(T result);
     }
 
+    public interface ConditionalJsonResult<T> {
+        void onJsonFailure(Exception e);
+
+        void onJsonSuccess(T result, @Nullable ResponseValidators validators);
+
+        void onJsonNotModified();
+    }
+
+    /**
+     * The ETag and Last-Modified headers of a response, used to make a later request for the same resource conditional.
+     */
+    public static class ResponseValidators {
+        @Nullable
+        private final String etag;
+        @Nullable
+        private final String lastModified;
+
+        private ResponseValidators(@Nullable String etag, @Nullable String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        @Nullable
+        private static ResponseValidators from(Response response) {
+            String etag = response.header("ETag");
+            String lastModified = response.header("Last-Modified");
+            return etag == null && lastModified == null ? null : new ResponseValidators(etag, lastModified);
+        }
+
+        private void apply(Request.Builder requestBuilder) {
+            if (etag != null) {
+                requestBuilder.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                requestBuilder.header("If-Modified-Since", lastModified);
+            }
+        }
+    }
+
     public interface JsonParser<T> {
         T parse(JsonReader reader)
                 throws Exception;
@@ -261,16 +504,4 @@ public class NetUtils {
             return code == 404;
         }
     }
-
-    private static class BitmapLruCache
-            extends LruCache<HttpUrl, Bitmap> {
-        public BitmapLruCache(int maxSize) {
-            super(maxSize);
-        }
-
-        @Override
-        protected int sizeOf(HttpUrl key, Bitmap value) {
-            return value.getRowBytes() * value.getHeight() / 1024;
-        }
-    }
 }
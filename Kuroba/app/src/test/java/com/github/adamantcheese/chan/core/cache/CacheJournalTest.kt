@@ -0,0 +1,77 @@
+package com.github.adamantcheese.chan.core.cache
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+class CacheJournalTest {
+    private lateinit var journalFile: File
+    private lateinit var executor: ExecutorService
+
+    @Before
+    fun init() {
+        journalFile = File.createTempFile("cache", ".journal")
+        journalFile.delete()
+        executor = Executors.newSingleThreadExecutor()
+    }
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+        journalFile.delete()
+    }
+
+    @Test
+    fun `test least recently used files are returned first`() {
+        val journal = CacheJournal(journalFile, executor)
+        journal.load { emptyList() }
+
+        journal.put("a", 100L, 1L)
+        journal.put("b", 200L, 2L)
+        journal.put("c", 300L, 3L)
+        journal.touch("a", 4L)
+
+        assertEquals(600L, journal.getSize())
+        assertEquals(listOf("b", "c"), journal.getLeastRecentlyUsed(400L, 10L))
+        assertEquals(listOf("b"), journal.getLeastRecentlyUsed(100L, 10L))
+        // "c" was used too recently to be deleted
+        assertEquals(listOf("b"), journal.getLeastRecentlyUsed(600L, 2L))
+    }
+
+    @Test
+    fun `test journal is replayed on load`() {
+        val journal = CacheJournal(journalFile, executor)
+        journal.load { emptyList() }
+
+        journal.put("a", 100L, 1L)
+        journal.put("b", 200L, 2L)
+        journal.put("c", 300L, 3L)
+        journal.touch("a", 4L)
+        journal.remove("c")
+
+        val reloaded = CacheJournal(journalFile, executor)
+        reloaded.load { throw AssertionError("The journal must not be rebuilt") }
+
+        assertEquals(300L, reloaded.getSize())
+        assertFalse(reloaded.contains("c"))
+        assertEquals(listOf("b", "a"), reloaded.getLeastRecentlyUsed(300L, 10L))
+    }
+
+    @Test
+    fun `test broken journal is rebuilt`() {
+        journalFile.writeText("CacheJournal 1\nPUT a 10")
+
+        val journal = CacheJournal(journalFile, executor)
+        journal.load { listOf(CacheJournal.Entry("b", 50L, 1L)) }
+
+        assertEquals(50L, journal.getSize())
+        assertTrue(journal.contains("b"))
+        assertFalse(journal.contains("a"))
+    }
+}
@@ -19,6 +19,7 @@ import okhttp3.Request
 import okhttp3.Response
 import okhttp3.ResponseBody.Companion.toResponseBody
 import okhttp3.internal.closeQuietly
+import okio.ByteString.Companion.toByteString
 import org.apache.tools.ant.taskdefs.condition.Http
 import org.junit.After
 import org.junit.Assert.*
@@ -29,6 +30,7 @@ import org.mockito.ArgumentMatcher
 import org.mockito.ArgumentMatchers.*
 import org.robolectric.RobolectricTestRunner
 import org.robolectric.shadows.ShadowLog
+import java.io.File
 import java.io.IOException
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
@@ -55,8 +57,6 @@ class ChunkPersisterTest {
         chunksCacheDirFile = testModule.provideChunksCacheDirFile()
 
         chunkPersister = ChunkPersister(
-                fileManager,
-                cacheHandler,
                 activeDownloads,
                 false
         )
@@ -77,6 +77,7 @@ class ChunkPersisterTest {
         val chunkResponses = createChunkResponses(url, chunks, fileBytes)
         val output = cacheHandler.getOrCreateCacheFile(url) as RawFile
         val request = createFileDownloadRequest(url, chunksCount, file = output)
+        val outputFile = openOutputFile(url, output, chunks, fileBytes.size.toLong())
         val chunkIndex = AtomicInteger(0)
         val timesCalled = AtomicInteger(0)
 
@@ -98,6 +99,7 @@ class ChunkPersisterTest {
                     chunkPersister.storeChunkInFile(
                             url,
                             chunkResponse,
+                            outputFile,
                             AtomicLong(),
                             chunkIndex.getAndIncrement(),
                             chunksCount
@@ -116,14 +118,23 @@ class ChunkPersisterTest {
 
         val successEvent = events.first { event -> event is ChunkDownloadEvent.ChunkSuccess }
         successEvent as ChunkDownloadEvent.ChunkSuccess
-        assertEquals(1, fileManager.listFiles(chunksCacheDirFile).size)
 
-        val fileName = fileManager.getName(successEvent.chunkCacheFile)
-        val fileSize = fileManager.getLength(successEvent.chunkCacheFile)
+        // The chunk that succeeded is already in its place in the output file
+        val start = successEvent.chunk.start.toInt()
+        val end = successEvent.chunk.realEnd.toInt()
+        val outputBytes = File(output.getFullPath()).readBytes()
 
-        val chunkString = String.format("%d_%d", successEvent.chunk.start, successEvent.chunk.end)
-        assertTrue(fileName.contains(chunkString))
-        assertEquals(fileSize, successEvent.chunk.chunkSize())
+        assertEquals(fileBytes.size, outputBytes.size)
+        assertArrayEquals(fileBytes.sliceArray(start until end), outputBytes.sliceArray(start until end))
+
+        // And the state is kept, so the next download only requests the missing chunk
+        outputFile.close()
+        assertTrue(cacheHandler.getChunksStateFile(url).exists())
+
+        val resumedOutputFile = openOutputFile(url, output, chunks, fileBytes.size.toLong())
+        assertNull(resumedOutputFile.remainingChunk(successEvent.chunkIndex))
+        assertNotNull(resumedOutputFile.remainingChunk(1 - successEvent.chunkIndex))
+        resumedOutputFile.discard()
 
         chunkResponses.forEach { chunkResponse -> chunkResponse.response.closeQuietly() }
     }
@@ -137,6 +148,7 @@ class ChunkPersisterTest {
         val chunkResponses = createChunkResponses(url, chunks, fileBytes)
         val output = cacheHandler.getOrCreateCacheFile(url) as RawFile
         val request = createFileDownloadRequest(url, chunksCount, file = output)
+        val outputFile = openOutputFile(url, output, chunks, fileBytes.size.toLong(), true)
         val chunkIndex = AtomicInteger(0)
         activeDownloads.put(url, request)
 
@@ -145,6 +157,7 @@ class ChunkPersisterTest {
                     chunkPersister.storeChunkInFile(
                             url,
                             chunkResponse,
+                            outputFile,
                             AtomicLong(),
                             chunkIndex.getAndIncrement(),
                             chunksCount
@@ -167,21 +180,15 @@ class ChunkPersisterTest {
                 .groupBy { event -> event.chunkIndex }
 
         assertEquals(2, successEventsGrouped.values.count())
-        successEventsGrouped.forEach { (chunkIndex, chunkSuccessEvents) ->
+        successEventsGrouped.forEach { (_, chunkSuccessEvents) ->
             assertEquals(1, chunkSuccessEvents.size)
-            val chunkSuccessEvent = chunkSuccessEvents.first()
-
-            val start = chunkSuccessEvent.chunk.start.toInt()
-            val end = chunkSuccessEvent.chunk.realEnd.toInt()
-
-            val expectedBytes = fileBytes.sliceArray(start until end)
-            val actualBytes = fileManager.getInputStream(chunkSuccessEvent.chunkCacheFile)!!.use {
-                it.readBytes()
-            }
-
-            assertArrayEquals(expectedBytes, actualBytes)
         }
 
+        // Both chunks were written in place, and the hash was computed along the way
+        assertEquals(fileBytes.toByteString().md5().hex(), outputFile.finish())
+        assertArrayEquals(fileBytes, File(output.getFullPath()).readBytes())
+        assertFalse(cacheHandler.getChunksStateFile(url).exists())
+
         assertEquals(30, progressEventsGrouped.values.map { it.count() }.sum())
         progressEventsGrouped.forEach { (chunkIndex, chunkProgressEvents) ->
             chunkProgressEvents.zipWithNext().forEach { (current, next) ->
@@ -207,11 +214,13 @@ class ChunkPersisterTest {
         val chunkResponse = create404ChunkResponse(url)
         val output = cacheHandler.getOrCreateCacheFile(url) as RawFile
         val request = createFileDownloadRequest(url, chunksCount, file = output)
+        val outputFile = openOutputFile(url, output, listOf(Chunk.wholeFile()), -1L)
         activeDownloads.put(url, request)
 
         val testObserver = chunkPersister.storeChunkInFile(
                         url,
                         chunkResponse,
+                        outputFile,
                         AtomicLong(),
                         0,
                         chunksCount
@@ -229,6 +238,24 @@ class ChunkPersisterTest {
 
         val error = errors.first()
         assertTrue(error is FileCacheException.FileNotFoundOnTheServerException)
+
+        outputFile.discard()
+    }
+
+    private fun openOutputFile(
+            url: HttpUrl,
+            output: RawFile,
+            chunks: List<Chunk>,
+            totalLength: Long,
+            computeHash: Boolean = false
+    ): ChunkedOutputFile {
+        return ChunkedOutputFile.open(
+                File(output.getFullPath()),
+                cacheHandler.getChunksStateFile(url),
+                chunks,
+                totalLength,
+                computeHash
+        )
     }
 
     private fun create404ChunkResponse(url: HttpUrl): ChunkResponse {
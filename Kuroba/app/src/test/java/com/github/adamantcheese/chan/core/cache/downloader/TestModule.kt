@@ -37,8 +37,6 @@ class TestModule {
     private fun provideChunkReader(): ChunkPersister {
         if (chunkPersister == null) {
             chunkPersister = ChunkPersister(
-                    provideFileManager(),
-                    provideCacheHandler(),
                     provideActiveDownloads(),
                     false
             )
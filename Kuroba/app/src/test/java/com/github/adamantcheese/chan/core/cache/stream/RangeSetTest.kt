@@ -0,0 +1,65 @@
+package com.github.adamantcheese.chan.core.cache.stream
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class RangeSetTest {
+
+    @Test
+    fun `test overlapping and adjacent ranges are merged`() {
+        val ranges = RangeSet()
+        ranges.add(10, 19)
+        ranges.add(30, 39)
+        ranges.add(20, 24)
+        ranges.add(25, 31)
+
+        val range = ranges.find(15)!!
+        assertEquals(10L, range.key)
+        assertEquals(39L, range.value)
+        assertTrue(ranges.contains(10, 39))
+    }
+
+    @Test
+    fun `test find outside of ranges`() {
+        val ranges = RangeSet()
+        ranges.add(10, 19)
+        ranges.add(30, 39)
+
+        assertNull(ranges.find(9))
+        assertNull(ranges.find(20))
+        assertNull(ranges.find(40))
+        assertFalse(ranges.contains(15, 30))
+    }
+
+    @Test
+    fun `test intersect and complement of a region`() {
+        val ranges = RangeSet()
+        ranges.add(0, 9)
+        ranges.add(20, 29)
+        ranges.add(50, 59)
+
+        val cached = ranges.intersect(5, 24)
+        assertTrue(cached.contains(5, 9))
+        assertTrue(cached.contains(20, 24))
+        assertNull(cached.find(4))
+        assertNull(cached.find(25))
+
+        val missing = ranges.complement(5, 24)
+        val range = missing.find(15)!!
+        assertEquals(10L, range.key)
+        assertEquals(19L, range.value)
+        assertNull(missing.find(5))
+        assertNull(missing.find(24))
+    }
+
+    @Test
+    fun `test complement of an empty set is the whole region`() {
+        val missing = RangeSet().complement(0, 99)
+
+        assertTrue(missing.contains(0, 99))
+        assertTrue(RangeSet().intersect(0, 99).isEmpty)
+    }
+}
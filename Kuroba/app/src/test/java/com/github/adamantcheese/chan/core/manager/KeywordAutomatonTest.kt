@@ -0,0 +1,74 @@
+package com.github.adamantcheese.chan.core.manager
+
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+import java.util.regex.Pattern
+
+class KeywordAutomatonTest {
+
+    @Test
+    fun `test overlapping keywords are all found in one scan`() {
+        val builder = KeywordAutomaton.Builder()
+        val he = builder.add("he", false)
+        val she = builder.add("she", false)
+        val hers = builder.add("hers", false)
+        val his = builder.add("his", false)
+        val automaton = builder.build()
+
+        val matches = BitSet()
+        automaton.scan("uSHErs", matches)
+
+        assertTrue(matches.get(he))
+        assertTrue(matches.get(she))
+        assertTrue(matches.get(hers))
+        assertFalse(matches.get(his))
+    }
+
+    @Test
+    fun `test word bounded keywords`() {
+        val builder = KeywordAutomaton.Builder()
+        val cat = builder.add("cat", true)
+        val bang = builder.add("!ok", true)
+        val automaton = builder.build()
+
+        val matches = BitSet()
+        automaton.scan("concatenate a!ok", matches)
+        assertFalse(matches.get(cat))
+        assertTrue(matches.get(bang))
+
+        matches.clear()
+        automaton.scan("the cat_ sat, the Cat. !ok", matches)
+        assertTrue(matches.get(cat))
+        assertFalse(matches.get(bang))
+    }
+
+    @Test
+    fun `test automaton agrees with the regex engine`() {
+        val random = Random(1)
+        val alphabet = "abAB _-!é1"
+
+        repeat(5000) {
+            val keywords = List(1 + random.nextInt(5)) {
+                String(CharArray(1 + random.nextInt(3)) { alphabet[random.nextInt(alphabet.length)] })
+            }
+            val bounded = List(keywords.size) { random.nextBoolean() }
+            val builder = KeywordAutomaton.Builder()
+            keywords.forEachIndexed { i, keyword -> builder.add(keyword, bounded[i]) }
+            val automaton = builder.build()
+
+            val text = String(CharArray(random.nextInt(20)) { alphabet[random.nextInt(alphabet.length)] })
+            val matches = BitSet()
+            automaton.scan(text, matches)
+
+            keywords.forEachIndexed { i, keyword ->
+                val quoted = Pattern.quote(keyword)
+                val regex = if (bounded[i]) "\\b$quoted\\b" else quoted
+                val expected = Pattern.compile(regex, Pattern.CASE_INSENSITIVE).matcher(text).find()
+                assertTrue("'$keyword' in '$text'", expected == matches.get(i))
+            }
+        }
+    }
+
+}